@@ -0,0 +1,73 @@
+package com.example.photos.db;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * 7 -> 11 迁移：按 app/schemas 下导出的 JSON 校验表结构，并检查去重、sortTime 回填和旧类别改名。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotosDbMigrationTest {
+
+    private static final String TEST_DB = "migration-test.db";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), PhotosDb.class);
+
+    @Test
+    public void migrate7To11_keepsDataAndMatchesSchema() throws IOException {
+        try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7)) {
+            // 拍摄时间优先；没有拍摄时间时 DATE_MODIFIED（秒）换算成毫秒
+            insertAsset(db, 1, "content://media/external/images/media/1", 1_700_000_000_000L, 1_700_000_100L);
+            insertAsset(db, 2, "content://media/external/images/media/2", 0L, 1_700_000_200L);
+            // 与 1 重复的 URI，8 -> 9 建唯一索引前被清掉
+            insertAsset(db, 3, "content://media/external/images/media/1", 0L, 1_700_000_300L);
+            insertCategory(db, "content://media/external/images/media/1", "WORK");
+            insertCategory(db, "content://media/external/images/media/1", "TEXT");
+            insertCategory(db, "content://media/external/images/media/2", "IDPHOTO");
+        }
+
+        try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 11, true,
+                PhotosDb.MIGRATION_7_8, PhotosDb.MIGRATION_8_9,
+                PhotosDb.MIGRATION_9_10, PhotosDb.MIGRATION_10_11)) {
+            assertEquals(2L, queryLong(db, "SELECT COUNT(*) FROM photo_assets"));
+            assertEquals(1_700_000_000_000L, queryLong(db, "SELECT sortTime FROM photo_assets WHERE id = 1"));
+            assertEquals(1_700_000_200_000L, queryLong(db, "SELECT sortTime FROM photo_assets WHERE id = 2"));
+            assertEquals(0L, queryLong(db, "SELECT COUNT(*) FROM categories_sparse "
+                    + "WHERE category IN ('WORK', 'IDPHOTO')"));
+            assertEquals(1L, queryLong(db, "SELECT COUNT(*) FROM categories_sparse WHERE category = 'TEXT'"));
+            assertEquals(1L, queryLong(db, "SELECT COUNT(*) FROM categories_sparse WHERE category = 'CARD'"));
+        }
+    }
+
+    private static void insertAsset(SupportSQLiteDatabase db, long id, String uri, long dateTaken, long dateModified) {
+        db.execSQL("INSERT INTO photo_assets (id, contentUri, dateTaken, dateModified, size, width, height, orientation) "
+                        + "VALUES (?, ?, ?, ?, 0, 0, 0, 0)",
+                new Object[]{id, uri, dateTaken, dateModified});
+    }
+
+    private static void insertCategory(SupportSQLiteDatabase db, String mediaKey, String category) {
+        db.execSQL("INSERT INTO categories_sparse (mediaKey, category, score, updatedAt) VALUES (?, ?, 1.0, 0)",
+                new Object[]{mediaKey, category});
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor c = db.query(sql)) {
+            c.moveToFirst();
+            return c.getLong(0);
+        }
+    }
+}
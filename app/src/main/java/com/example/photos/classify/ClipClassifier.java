@@ -3,17 +3,22 @@ package com.example.photos.classify;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.example.photos.db.PhotoAsset;
+import com.example.photos.model.BatchSizer;
+import com.example.photos.model.OrtSessions;
+import com.example.photos.sync.BatchedInference;
+import com.example.photos.util.BitmapDecoder;
+import com.example.photos.util.ModelFiles;
+import com.example.photos.util.PerfLogger;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -45,6 +50,17 @@ public final class ClipClassifier {
     private static final String CONFIG_ASSET = "models/clip/config.json";
 
     private static final Object LOCK = new Object();
+    private static final BatchedInference.Runner RUNNER = new BatchedInference.Runner() {
+        @Override
+        public float[][] runBatch(List<float[]> chws) throws Exception {
+            return runOnnxBatch(chws);
+        }
+
+        @Override
+        public float[] runOne(float[] chw) throws Exception {
+            return runOnnx(chw);
+        }
+    };
 
     private static volatile boolean initialized = false;
     private static volatile boolean initFailed = false;
@@ -57,6 +73,7 @@ public final class ClipClassifier {
     private static float[] mean = new float[]{0.48145466f, 0.4578275f, 0.40821073f};
     private static float[] std = new float[]{0.26862954f, 0.26130258f, 0.27577711f};
     private static String inputName = "images";
+    private static boolean dynamicBatch = false;
     private static String modelAsset = DEFAULT_MODEL_ASSET;
     private static String modelExtAsset = DEFAULT_MODEL_EXT_ASSET;
     private static final float DEFAULT_THRESHOLD = 0.32f;
@@ -77,6 +94,7 @@ public final class ClipClassifier {
         if (initialized) return;
         synchronized (LOCK) {
             if (initialized) return;
+            long initStart = SystemClock.elapsedRealtime();
             try {
                 initFailed = false;
                 AssetManager am = context.getAssets();
@@ -93,16 +111,21 @@ public final class ClipClassifier {
                 for (int i = 0; i < labels.size(); i++) {
                     l2Normalize(textEmbeddings, i * embeddingDim, embeddingDim);
                 }
-                File model = copyAssetToCache(context, modelAsset, fileName(modelAsset, "image_encoder.onnx"));
+                File model = ModelFiles.ensureInCache(context, modelAsset, fileName(modelAsset, "image_encoder.onnx"));
                 if (model == null || !model.exists()) {
                     throw new IllegalStateException("Model asset not found. Place image_encoder.onnx in assets.");
                 }
-                copyAssetToCache(context, modelExtAsset, fileName(modelExtAsset, "image_encoder.onnx.data"));
+                ModelFiles.ensureInCache(context, modelExtAsset, fileName(modelExtAsset, "image_encoder.onnx.data"));
                 env = OrtEnvironment.getEnvironment();
-                session = env.createSession(model.getAbsolutePath(), new OrtSession.SessionOptions());
+                // 只在分类/embedding worker 里跑，用后台 profile
+                session = OrtSessions.create(env, context, "clip_image", model, OrtSessions.Profile.BACKGROUND);
                 inputName = session.getInputNames().iterator().next();
+                dynamicBatch = BatchedInference.hasDynamicBatch(session, inputName);
                 initialized = true;
-                Log.i(TAG, "ClipClassifier initialized. labels=" + labels.size());
+                HashMap<String, Object> initExtra = new HashMap<>();
+                initExtra.put("model", "clip_image");
+                PerfLogger.log("model_init", SystemClock.elapsedRealtime() - initStart, null, initExtra);
+                Log.i(TAG, "ClipClassifier initialized. labels=" + labels.size() + " dynamicBatch=" + dynamicBatch);
             } catch (Throwable t) {
                 initFailed = true;
                 Log.w(TAG, "Failed to initialize ClipClassifier: " + t);
@@ -137,6 +160,45 @@ public final class ClipClassifier {
         }
     }
 
+    /**
+     * Runs inputs produced by {@link #preprocessImage}, so decoding can happen on another thread.
+     * Packs up to {@link #preferredBatchSize} inputs into one [N,3,H,W] tensor per session.run.
+     * Result lines up with {@code chws}; null inputs or failures give null entries.
+     */
+    public static List<float[]> encodePreprocessed(Context context, List<float[]> chws) {
+        ensureInitialized(context.getApplicationContext());
+        if (!initialized || session == null) {
+            return new ArrayList<>(Collections.nCopies(chws == null ? 0 : chws.size(), (float[]) null));
+        }
+        return BatchedInference.run(chws, preferredBatchSize(context), RUNNER, TAG);
+    }
+
+    /** 1 unless the exported model has a dynamic batch dimension; then sized to free memory. */
+    public static int preferredBatchSize(Context context) {
+        ensureInitialized(context.getApplicationContext());
+        if (!initialized || !dynamicBatch) return 1;
+        return BatchSizer.forInput(context, 3, inputSize, inputSize);
+    }
+
+    /** Square input side of the image encoder (from config.json). */
+    public static int imageInputSize(Context context) {
+        ensureInitialized(context.getApplicationContext());
+        return inputSize;
+    }
+
+    /** Crop + normalize from an already decoded bitmap; {@code src} is not recycled. */
+    public static float[] preprocessImage(Context context, Bitmap src) {
+        ensureInitialized(context.getApplicationContext());
+        if (src == null) return null;
+        Bitmap crop = BitmapDecoder.centerCrop(src, inputSize, inputSize);
+        try {
+            return toCHWClipNormalized(crop);
+        } finally {
+            if (crop != src) crop.recycle();
+        }
+    }
+
+
     public static Result classifyEmbedding(float[] embedding) {
         Result best = bestLabel(embedding);
         if (best == null) return null;
@@ -215,6 +277,33 @@ public final class ClipClassifier {
         }
     }
 
+    private static float[][] runOnnxBatch(List<float[]> chws) throws Exception {
+        if (session == null || env == null) return null;
+        int n = chws.size();
+        if (n == 1) {
+            float[] one = runOnnx(chws.get(0));
+            return one == null ? null : new float[][]{one};
+        }
+        int per = 3 * inputSize * inputSize;
+        // Direct buffer: ORT would otherwise copy a heap buffer before the run.
+        FloatBuffer fb = ByteBuffer.allocateDirect(n * per * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (float[] chw : chws) {
+            fb.put(chw, 0, per);
+        }
+        fb.rewind();
+        OnnxTensor tensor = null;
+        OrtSession.Result out = null;
+        try {
+            tensor = OnnxTensor.createTensor(env, fb, new long[]{n, 3, inputSize, inputSize});
+            out = session.run(Collections.singletonMap(inputName, tensor));
+            float[][] value = (float[][]) out.get(0).getValue();
+            return value != null && value.length == n ? value : null;
+        } finally {
+            if (out != null) try { out.close(); } catch (Throwable ignore) {}
+            if (tensor != null) try { tensor.close(); } catch (Throwable ignore) {}
+        }
+    }
+
     private static void loadConfig(AssetManager am) {
         try (InputStream is = am.open(CONFIG_ASSET)) {
             String text = new String(readAll(is), java.nio.charset.StandardCharsets.UTF_8);
@@ -313,28 +402,11 @@ public final class ClipClassifier {
     }
 
     private static Bitmap decodeAndCenterCrop(Context context, Uri uri, int tw, int th) {
-        try (InputStream is = context.getContentResolver().openInputStream(uri)) {
-            if (is == null) return null;
-            Bitmap src = BitmapFactory.decodeStream(is);
-            if (src == null) return null;
-            int w = Math.max(1, src.getWidth());
-            int h = Math.max(1, src.getHeight());
-            float scale = Math.max(tw / (float) w, th / (float) h);
-            int sw = Math.max(1, Math.round(w * scale));
-            int sh = Math.max(1, Math.round(h * scale));
-            Bitmap scaled = Bitmap.createScaledBitmap(src, sw, sh, true);
-            if (scaled != src) src.recycle();
-            int x = Math.max(0, (sw - tw) / 2);
-            int y = Math.max(0, (sh - th) / 2);
-            Bitmap out = Bitmap.createBitmap(scaled, x, y,
-                    Math.min(tw, scaled.getWidth() - x),
-                    Math.min(th, scaled.getHeight() - y));
-            if (out != scaled) scaled.recycle();
-            return out;
-        } catch (Throwable t) {
-            Log.w(TAG, "decode failed: " + t);
-            return null;
-        }
+        Bitmap src = BitmapDecoder.decodeSampled(context, uri, Math.max(tw, th), 0);
+        if (src == null) return null;
+        Bitmap out = BitmapDecoder.centerCrop(src, tw, th);
+        if (out != src) src.recycle();
+        return out;
     }
 
     private static float[] toCHWClipNormalized(Bitmap bmp) {
@@ -356,25 +428,6 @@ public final class ClipClassifier {
         return out;
     }
 
-    private static File copyAssetToCache(Context ctx, String assetPath, String outName) {
-        if (assetPath == null) return null;
-        try {
-            AssetManager am = ctx.getAssets();
-            File out = new File(ctx.getCacheDir(), outName);
-            try (InputStream is = am.open(assetPath); FileOutputStream fos = new FileOutputStream(out)) {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = is.read(buf)) > 0) {
-                    fos.write(buf, 0, n);
-                }
-            }
-            return out;
-        } catch (Throwable t) {
-            Log.w(TAG, "copyAssetToCache failed: " + assetPath + " -> " + t);
-            return null;
-        }
-    }
-
     private static String fileName(String assetPath, String fallback) {
         if (assetPath == null || assetPath.trim().isEmpty()) {
             return fallback;
@@ -3,62 +3,28 @@ package com.example.photos.data;
 import android.content.Context;
 
 import com.example.photos.db.PhotoAsset;
-import com.example.photos.media.MediaScanner;
 import com.example.photos.model.Photo;
-import com.example.photos.model.PhotoCategory;
-
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Locale;
 
 /**
- * 直接从 MediaStore 读取必要元数据，避免全量复制到 SQLite。
- * 仅做最小字段映射到 UI 复用的 Photo 模型。
+ * PhotoAsset（photo_assets / MediaStore 行）到 UI 复用的 Photo 模型的最小字段映射。
+ * 首页不再整库读 MediaStore，而是由 TimelinePager 分页读 photo_assets 后逐页映射。
  */
 public class MediaStoreRepository {
 
-    /**
-     * 读取全部图片的必要字段，映射为 UI 可用的 Photo 列表。
-     */
-    public List<Photo> loadAll(Context context) {
-        List<Photo> out = new ArrayList<>();
-        List<PhotoAsset> assets;
-        try {
-            assets = MediaScanner.scanAllMedia(context.getApplicationContext());
-        } catch (SecurityException se) {
-            return out;
-        }
-        for (PhotoAsset a : assets) {
-            if (a == null) continue;
-            String id = String.valueOf(a.id);
-            String title = a.displayName == null ? "" : a.displayName;
-            String description = a.mimeType == null ? "" : a.mimeType;
-            String captureDate = formatDate(resolveBestTimestamp(a));
-            String location = null; // MediaStore 无直接地点字段，保持为空
-            List<String> tags = new ArrayList<>();
-            String imageUrl = a.contentUri;
-            boolean favorite = false; // 轻索引阶段不维护收藏，默认 false
-            PhotoCategory category = PhotoCategory.ALL; // 不做分类推断，统一 ALL
-            out.add(new Photo(id, title, description, captureDate, location, tags, imageUrl, favorite, category));
-        }
-        return out;
-    }
-
     /** 将 PhotoAsset 映射为 UI Photo（最小字段） */
     public static Photo toPhoto(PhotoAsset a) {
         if (a == null) return null;
         String id = String.valueOf(a.id);
         String title = a.displayName == null ? "" : a.displayName;
         String description = a.mimeType == null ? "" : a.mimeType;
-        String captureDate = formatDate(resolveBestTimestamp(a));
+        // sortTime 入库时已按同一口径算好；老行（迁移前未回填）才现算
+        long captureTime = a.sortTime > 0L ? a.sortTime : resolveBestTimestamp(a);
         String location = null;
         java.util.List<String> tags = new java.util.ArrayList<>();
         String imageUrl = a.contentUri;
         boolean favorite = false;
         com.example.photos.model.PhotoCategory category = com.example.photos.model.PhotoCategory.ALL;
-        return new com.example.photos.model.Photo(id, title, description, captureDate, location, tags, imageUrl, favorite, category);
+        return new com.example.photos.model.Photo(id, title, description, captureTime, location, tags, imageUrl, favorite, category);
     }
 
     public Photo loadById(Context context, long id) {
@@ -76,12 +42,4 @@ public class MediaStoreRepository {
         if (mod <= 0L) return 0L;
         return mod < 10_000_000_000L ? mod * 1000L : mod;
     }
-
-    private static String formatDate(long ts) {
-        if (ts <= 0L) return "";
-        Date d = new Date(ts);
-        // Include seconds to avoid many items sharing the same minute key,
-        // which makes ordering unstable across reloads.
-        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(d);
-    }
 }
@@ -31,8 +31,15 @@ public interface CategoryDao {
     @Query("SELECT category FROM categories_sparse WHERE mediaKey = :mediaKey")
     List<String> categoriesFor(String mediaKey);
 
-    @Query("SELECT mediaKey FROM categories_sparse WHERE category = :category ORDER BY updatedAt DESC LIMIT 1")
-    String latestKeyForCategory(String category);
+    /**
+     * 相册页一次取全：每个类别的张数和最新一张（updatedAt 最大）作封面。
+     * 分组和封面子查询都走 (category, updatedAt) 索引，每个类别一次索引查找。
+     */
+    @Query("SELECT c.category AS category, COUNT(*) AS cnt, "
+            + "(SELECT l.mediaKey FROM categories_sparse l WHERE l.category = c.category "
+            + "ORDER BY l.updatedAt DESC LIMIT 1) AS coverKey "
+            + "FROM categories_sparse c GROUP BY c.category")
+    List<AlbumSummary> albumSummaries();
 
     @Query("DELETE FROM categories_sparse")
     void clearAll();
@@ -56,4 +63,10 @@ public interface CategoryDao {
         public String category;
         public int cnt;
     }
+
+    class AlbumSummary {
+        public String category;
+        public int cnt;
+        public String coverKey;
+    }
 }
@@ -2,12 +2,15 @@ package com.example.photos.db;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
  * 稀疏分类结果表：仅存储已推断过的少量资产的主类别与分数。
+ * (category, updatedAt) 索引供相册页按类别计数、取最新封面，不再全表扫描排序。
  */
-@Entity(tableName = "categories_sparse", primaryKeys = {"mediaKey", "category"})
+@Entity(tableName = "categories_sparse", primaryKeys = {"mediaKey", "category"},
+        indices = {@Index(value = {"category", "updatedAt"})})
 public class CategoryRecord {
 
     @NonNull
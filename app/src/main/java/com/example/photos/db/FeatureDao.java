@@ -25,6 +25,10 @@ public interface FeatureDao {
     @Query("SELECT COUNT(*) FROM features_sparse WHERE mediaKey = :key AND featType = :type")
     int countByKeyAndType(String key, int type);
 
+    // 一页 key 一次查完，替代逐条 countByKeyAndType；走主键 (mediaKey, ...) 前缀
+    @Query("SELECT DISTINCT mediaKey, featType FROM features_sparse WHERE mediaKey IN (:keys)")
+    List<FeaturePresence> presenceForKeys(List<String> keys);
+
     @Query("SELECT vector FROM features_sparse WHERE mediaKey = :key AND featType = :type LIMIT 1")
     byte[] vectorForKey(String key, int type);
 
@@ -39,4 +43,12 @@ public interface FeatureDao {
 
     @Query("SELECT vector FROM features_sparse WHERE featType = :type LIMIT :limit OFFSET :offset")
     List<byte[]> getVectorsPaged(int type, int limit, int offset);
+
+    @Query("SELECT COUNT(*) FROM features_sparse WHERE featType = :type AND length(vector) > 0")
+    int countNonEmptyByType(int type);
+
+    @Query("SELECT * FROM features_sparse WHERE featType = :type "
+            + "AND (mediaKey > :afterKey OR (mediaKey = :afterKey AND faceId > :afterFaceId)) "
+            + "ORDER BY mediaKey, faceId LIMIT :limit")
+    List<FeatureRecord> getPageAfter(int type, String afterKey, int afterFaceId, int limit);
 }
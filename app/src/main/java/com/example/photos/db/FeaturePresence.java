@@ -0,0 +1,12 @@
+package com.example.photos.db;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 查询结果：某个 mediaKey 已经存有哪种特征（FeatureDao.presenceForKeys）
+ */
+public class FeaturePresence {
+    @NonNull
+    public String mediaKey;
+    public int featType;
+}
@@ -1,6 +1,7 @@
 package com.example.photos.db;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
@@ -11,7 +12,9 @@ import androidx.room.PrimaryKey;
 @Entity(tableName = "photo_assets",
         indices = {
                 @Index(value = {"dateModified"}),
-                @Index(value = {"bucketId"})
+                @Index(value = {"bucketId"}),
+                @Index(value = {"contentUri"}, unique = true),
+                @Index(value = {"sortTime", "id"})
         })
 public class PhotoAsset {
 
@@ -33,4 +36,8 @@ public class PhotoAsset {
     public String bucketId;     // 相册/目录 ID
     public String bucketName;   // 相册/目录 名称
     public int orientation;     // 方向角度
+
+    /** 时间线排序时间（毫秒）：有拍摄时间用拍摄时间，否则用修改时间；首页分页的 keyset 游标 */
+    @ColumnInfo(defaultValue = "0")
+    public long sortTime;
 }
@@ -24,24 +24,83 @@ public interface PhotoDao {
     @Query("SELECT * FROM photo_assets WHERE id = :id LIMIT 1")
     PhotoAsset findById(long id);
 
-    @Query("SELECT * FROM photo_assets ORDER BY dateModified DESC LIMIT 2000")
-    LiveData<List<PhotoAsset>> observeAll();
+    /** 增量写入前批量取旧行：一次查询走主键，调用方控制列表长度（SQLite 变量上限）。 */
+    @Query("SELECT * FROM photo_assets WHERE id IN (:ids)")
+    List<PhotoAsset> findByIds(List<Long> ids);
 
-    @Query("SELECT * FROM photo_assets ORDER BY dateModified DESC LIMIT :limit OFFSET :offset")
-    List<PhotoAsset> queryPaged(int limit, int offset);
+    /** 表级失效信号：photo_assets 任意写入都会重新发射，首页据此刷新分页布局。 */
+    @Query("SELECT COUNT(*) FROM photo_assets")
+    LiveData<Integer> observeCount();
+
+    /**
+     * Keyset 分页：返回排在游标 (beforeDate, beforeId) 之后的一页图片，按 (dateModified, id) 倒序。
+     * 首页传 Long.MAX_VALUE。dateModified 索引隐含 rowid(id)，不用 OFFSET 扫描前面的行。
+     * 表里也有视频（首页展示用），向量/分类流水线只处理图片。
+     */
+    @Query("SELECT * FROM photo_assets WHERE dateModified <= :beforeDate "
+            + "AND (dateModified < :beforeDate OR id < :beforeId) "
+            + "AND IFNULL(mimeType, '') NOT LIKE 'video/%' "
+            + "ORDER BY dateModified DESC, id DESC LIMIT :limit")
+    List<PhotoAsset> queryPageBefore(long beforeDate, long beforeId, int limit);
+
+    @Query("SELECT COUNT(*) FROM photo_assets WHERE dateModified <= :beforeDate "
+            + "AND (dateModified < :beforeDate OR id < :beforeId) "
+            + "AND IFNULL(mimeType, '') NOT LIKE 'video/%'")
+    int countBefore(long beforeDate, long beforeId);
 
     @Query("SELECT * FROM photo_assets")
     List<PhotoAsset> getAll();
 
-    @Query("SELECT * FROM photo_assets ORDER BY dateModified DESC LIMIT :limit")
+    @Query("SELECT * FROM photo_assets WHERE IFNULL(mimeType, '') NOT LIKE 'video/%' "
+            + "ORDER BY dateModified DESC LIMIT :limit")
     List<PhotoAsset> queryLatest(int limit);
 
     @Query("SELECT MAX(dateModified) FROM photo_assets")
     Long maxDateModified();
 
+    @Query("SELECT COUNT(*) FROM photo_assets WHERE IFNULL(mimeType, '') NOT LIKE 'video/%'")
+    int countImages();
+
+    /**
+     * 首页时间线 keyset：游标 (beforeTime, beforeId) 之后的一页，按 (sortTime, id) 倒序，走 sortTime 索引。
+     */
+    @Query("SELECT * FROM photo_assets WHERE sortTime <= :beforeTime "
+            + "AND (sortTime < :beforeTime OR id < :beforeId) "
+            + "ORDER BY sortTime DESC, id DESC LIMIT :limit")
+    List<PhotoAsset> queryTimelineBefore(long beforeTime, long beforeId, int limit);
+
+    /** 反方向：游标之前（更新）的若干行，按 (sortTime, id) 正序返回，调用方自行反转。 */
+    @Query("SELECT * FROM photo_assets WHERE sortTime >= :afterTime "
+            + "AND (sortTime > :afterTime OR id > :afterId) "
+            + "ORDER BY sortTime ASC, id ASC LIMIT :limit")
+    List<PhotoAsset> queryTimelineAfter(long afterTime, long afterId, int limit);
+
+    /**
+     * 跳页：从某天的最大 sortTime 起跳过 skip 行。skip 不超过那一天的张数，OFFSET 只在一天之内走索引。
+     */
+    @Query("SELECT * FROM photo_assets WHERE sortTime <= :fromTime "
+            + "ORDER BY sortTime DESC, id DESC LIMIT :limit OFFSET :skip")
+    List<PhotoAsset> queryTimelineFrom(long fromTime, int skip, int limit);
+
     @Query("SELECT COUNT(*) FROM photo_assets")
-    int countAll();
+    int countTimeline();
+
+    /** 时间线上排在 (time, id) 之前（更新）的行数，即该行的全局偏移；增量插入/删除用来定位。 */
+    @Query("SELECT COUNT(*) FROM photo_assets WHERE sortTime >= :time "
+            + "AND (sortTime > :time OR id > :id)")
+    int countTimelineNewer(long time, long id);
+
+    /** 按本地日聚合（新到旧），首页据此在不加载照片的情况下排出标题与占位。 */
+    @Query("SELECT CASE WHEN sortTime <= 0 THEN -1 "
+            + "ELSE CAST(strftime('%s', sortTime / 1000, 'unixepoch', 'localtime') AS INTEGER) / 86400 END AS day, "
+            + "COUNT(*) AS photoCount, MAX(sortTime) AS maxTime "
+            + "FROM photo_assets GROUP BY day ORDER BY day DESC")
+    List<TimelineDay> timelineDays();
 
     @Query("SELECT * FROM photo_assets WHERE contentUri = :uri LIMIT 1")
     PhotoAsset findByContentUri(String uri);
+
+    /** 搜索结果批量回填：一次查询走 contentUri 唯一索引，调用方控制列表长度（SQLite 变量上限）。 */
+    @Query("SELECT * FROM photo_assets WHERE contentUri IN (:uris)")
+    List<PhotoAsset> findByContentUris(List<String> uris);
 }
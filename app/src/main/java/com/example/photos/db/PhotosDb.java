@@ -2,9 +2,12 @@ package com.example.photos.db;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 /**
  * Room Database：包含媒体资产与特征索引。
@@ -13,9 +16,10 @@ import androidx.room.RoomDatabase;
         entities = {
                 PhotoAsset.class,
                 FeatureRecord.class,
-                CategoryRecord.class
+                CategoryRecord.class,
+                VectorRowRecord.class
         },
-        version = 7,
+        version = 11,
         exportSchema = true
 )
 public abstract class PhotosDb extends RoomDatabase {
@@ -23,9 +27,66 @@ public abstract class PhotosDb extends RoomDatabase {
     public abstract PhotoDao photoDao();
     public abstract FeatureDao featureDao();
     public abstract CategoryDao categoryDao();
+    public abstract VectorRowDao vectorRowDao();
 
     private static volatile PhotosDb INSTANCE;
 
+    /** 7 -> 8：新增 vector_rows 行号映射表，保留已有特征。 */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `vector_rows` (`featType` INTEGER NOT NULL, "
+                    + "`ordinal` INTEGER NOT NULL, `mediaKey` TEXT NOT NULL, `faceId` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`featType`, `ordinal`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_vector_rows_featType_mediaKey` "
+                    + "ON `vector_rows` (`featType`, `mediaKey`)");
+        }
+    };
+
+    /** 8 -> 9：contentUri 唯一索引，搜索结果按 URI 批量回填不再全表扫描。先清掉重复行（保留最早的）。 */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DELETE FROM `photo_assets` WHERE rowid NOT IN "
+                    + "(SELECT MIN(rowid) FROM `photo_assets` GROUP BY `contentUri`)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_photo_assets_contentUri` "
+                    + "ON `photo_assets` (`contentUri`)");
+        }
+    };
+
+    /** 9 -> 10：新增 sortTime 列及 (sortTime, id) 索引，按 MediaScanner 的规则回填已有行。 */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `photo_assets` ADD COLUMN `sortTime` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE `photo_assets` SET `sortTime` = CASE "
+                    + "WHEN `dateTaken` > 0 THEN `dateTaken` "
+                    + "WHEN `dateModified` <= 0 THEN 0 "
+                    + "WHEN `dateModified` < 10000000000 THEN `dateModified` * 1000 "
+                    + "ELSE `dateModified` END");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_photo_assets_sortTime_id` "
+                    + "ON `photo_assets` (`sortTime`, `id`)");
+        }
+    };
+
+    /**
+     * 10 -> 11：categories_sparse 加 (category, updatedAt) 索引；旧类别名 WORK/IDPHOTO 在这里一次性改成
+     * TEXT/CARD（同一资产已有新类别时保留新行），相册页和分类 Worker 不再每次刷新都跑 UPDATE。
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DELETE FROM `categories_sparse` WHERE `category` = 'WORK' AND `mediaKey` IN "
+                    + "(SELECT `mediaKey` FROM `categories_sparse` WHERE `category` = 'TEXT')");
+            db.execSQL("UPDATE `categories_sparse` SET `category` = 'TEXT' WHERE `category` = 'WORK'");
+            db.execSQL("DELETE FROM `categories_sparse` WHERE `category` = 'IDPHOTO' AND `mediaKey` IN "
+                    + "(SELECT `mediaKey` FROM `categories_sparse` WHERE `category` = 'CARD')");
+            db.execSQL("UPDATE `categories_sparse` SET `category` = 'CARD' WHERE `category` = 'IDPHOTO'");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_categories_sparse_category_updatedAt` "
+                    + "ON `categories_sparse` (`category`, `updatedAt`)");
+        }
+    };
+
     public static PhotosDb get(Context context) {
         if (INSTANCE == null) {
             synchronized (PhotosDb.class) {
@@ -34,6 +95,7 @@ public abstract class PhotosDb extends RoomDatabase {
                                     context.getApplicationContext(),
                                     PhotosDb.class,
                                     "photos.db")
+                            .addMigrations(MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11)
                             .fallbackToDestructiveMigration()
                             .build();
                 }
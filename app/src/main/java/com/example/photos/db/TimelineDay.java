@@ -0,0 +1,12 @@
+package com.example.photos.db;
+
+/**
+ * 首页时间线按本地日聚合的一行（{@link PhotoDao#timelineDays()}）。
+ */
+public class TimelineDay {
+    /** 本地 epoch day；sortTime 未知的归到 -1 */
+    public long day;
+    public int photoCount;
+    /** 当天最大的 sortTime，跳页时作为该天的起点 */
+    public long maxTime;
+}
@@ -0,0 +1,27 @@
+package com.example.photos.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface VectorRowDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(List<VectorRowRecord> rows);
+
+    @Query("SELECT * FROM vector_rows WHERE featType = :type AND ordinal IN (:ordinals)")
+    List<VectorRowRecord> findByOrdinals(int type, List<Integer> ordinals);
+
+    @Query("SELECT ordinal FROM vector_rows WHERE featType = :type AND mediaKey = :key")
+    List<Integer> ordinalsForKey(int type, String key);
+
+    @Query("DELETE FROM vector_rows WHERE featType = :type AND mediaKey = :key")
+    void deleteByKey(int type, String key);
+
+    @Query("DELETE FROM vector_rows WHERE featType = :type")
+    void deleteByType(int type);
+}
@@ -0,0 +1,20 @@
+package com.example.photos.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * 向量文件行号映射表：记录 FlatVectorStore 中每一行对应的媒体与人脸序号。
+ * 复合主键：(featType, ordinal)
+ */
+@Entity(tableName = "vector_rows",
+        primaryKeys = {"featType", "ordinal"},
+        indices = {@Index(value = {"featType", "mediaKey"})})
+public class VectorRowRecord {
+    public int featType;      // 见FeatureType.getCode()
+    public int ordinal;       // 向量文件中的行号
+    @NonNull
+    public String mediaKey;   // contentUri 或 url:<httpUrl>
+    public int faceId;        // 非人脸特征固定 0
+}
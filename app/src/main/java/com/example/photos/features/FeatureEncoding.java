@@ -5,10 +5,33 @@ import java.nio.ByteOrder;
 
 /**
  * Helper methods to convert between float vectors and byte arrays for Room storage.
+ * <p>
+ * Legacy rows are raw little-endian float32. Quantized rows start with a 4-byte tag whose bits
+ * are a quiet NaN, which a real embedding never contains, so both kinds decode side by side:
+ * <ul>
+ *     <li>FP16: tag, then dim half floats</li>
+ *     <li>INT8: tag, float32 scale, then dim signed bytes (value = code * scale)</li>
+ * </ul>
  */
 public final class FeatureEncoding {
     private FeatureEncoding() {}
 
+    public enum Encoding {
+        FP32(4), FP16(2), INT8(1);
+
+        /** Bytes per component, not counting tag/scale. */
+        public final int bytesPerDim;
+
+        Encoding(int bytesPerDim) {
+            this.bytesPerDim = bytesPerDim;
+        }
+    }
+
+    private static final int TAG_FP16 = 0x7FC0_F016;
+    private static final int TAG_INT8 = 0x7FC0_F008;
+    private static final int TAG_BYTES = 4;
+    private static final float[] HALF_TABLE = buildHalfTable();
+
     public static byte[] floatsToBytes(float[] values) {
         if (values == null || values.length == 0) {
             return new byte[0];
@@ -20,16 +43,179 @@ public final class FeatureEncoding {
         return buffer.array();
     }
 
+    public static byte[] encode(float[] values, Encoding encoding) {
+        if (values == null || values.length == 0) {
+            return new byte[0];
+        }
+        switch (encoding) {
+            case FP16: {
+                ByteBuffer buffer = ByteBuffer.allocate(TAG_BYTES + values.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(TAG_FP16);
+                for (float v : values) {
+                    buffer.putShort(floatToHalf(v));
+                }
+                return buffer.array();
+            }
+            case INT8: {
+                ByteBuffer buffer = ByteBuffer.allocate(TAG_BYTES + 4 + values.length).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(TAG_INT8);
+                float scale = int8Scale(values);
+                buffer.putFloat(scale);
+                for (float v : values) {
+                    buffer.put(quantize(v, scale));
+                }
+                return buffer.array();
+            }
+            default:
+                return floatsToBytes(values);
+        }
+    }
+
     public static float[] bytesToFloats(byte[] data) {
         if (data == null || data.length == 0) {
             return new float[0];
         }
         ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
-        int count = data.length / 4;
+        Encoding enc = encodingOf(data);
+        int count = dimension(data);
         float[] out = new float[count];
-        for (int i = 0; i < count; i++) {
-            out[i] = buffer.getFloat();
+        if (enc == Encoding.FP16) {
+            buffer.position(TAG_BYTES);
+            for (int i = 0; i < count; i++) {
+                out[i] = halfToFloat(buffer.getShort());
+            }
+        } else if (enc == Encoding.INT8) {
+            float scale = buffer.getFloat(TAG_BYTES);
+            for (int i = 0; i < count; i++) {
+                out[i] = data[TAG_BYTES + 4 + i] * scale;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                out[i] = buffer.getFloat();
+            }
         }
         return out;
     }
+
+    public static Encoding encodingOf(byte[] data) {
+        if (data == null || data.length < TAG_BYTES) return Encoding.FP32;
+        int tag = (data[0] & 0xFF) | (data[1] & 0xFF) << 8 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 24;
+        if (tag == TAG_FP16) return Encoding.FP16;
+        if (tag == TAG_INT8) return Encoding.INT8;
+        return Encoding.FP32;
+    }
+
+    /** Vector length stored in {@code data}, whatever its encoding. */
+    public static int dimension(byte[] data) {
+        if (data == null || data.length == 0) return 0;
+        switch (encodingOf(data)) {
+            case FP16:
+                return (data.length - TAG_BYTES) / 2;
+            case INT8:
+                return data.length - TAG_BYTES - 4;
+            default:
+                return data.length / 4;
+        }
+    }
+
+    /** Symmetric per-vector scale so the largest |component| maps to 127. */
+    public static float int8Scale(float[] values) {
+        float max = 0f;
+        for (float v : values) {
+            float a = Math.abs(v);
+            if (a > max) max = a;
+        }
+        return max > 0f ? max / 127f : 1f;
+    }
+
+    public static byte quantize(float v, float scale) {
+        int q = Math.round(v / scale);
+        if (q > 127) q = 127;
+        if (q < -127) q = -127;
+        return (byte) q;
+    }
+
+    /**
+     * Asymmetric dot product: float query against int8 codes starting at {@code off}.
+     * The scale is applied once per row instead of per component.
+     */
+    public static float dotInt8(float[] q, byte[] codes, int off, float scale) {
+        float s = 0f;
+        for (int i = 0; i < q.length; i++) {
+            s += q[i] * codes[off + i];
+        }
+        return s * scale;
+    }
+
+    /** Dot product of a float query against little-endian half floats starting at {@code off}. */
+    public static float dotFp16(float[] q, short[] halves, int off) {
+        float s = 0f;
+        for (int i = 0; i < q.length; i++) {
+            s += q[i] * HALF_TABLE[halves[off + i] & 0xFFFF];
+        }
+        return s;
+    }
+
+    public static float halfToFloat(short h) {
+        return HALF_TABLE[h & 0xFFFF];
+    }
+
+    public static short floatToHalf(float f) {
+        int bits = Float.floatToIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xFF;
+        int mant = bits & 0x7FFFFF;
+        if (exp == 0xFF) {
+            // Inf / NaN
+            return (short) (sign | 0x7C00 | (mant != 0 ? 0x200 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            if (e < -10) return (short) sign;
+            // Subnormal half: shift in the implicit leading 1, round to nearest.
+            int m = mant | 0x800000;
+            int shift = 14 - e;
+            int half = m >> shift;
+            if (((m >> (shift - 1)) & 1) != 0) half++;
+            return (short) (sign | half);
+        }
+        int half = sign | (e << 10) | (mant >> 13);
+        if ((mant & 0x1000) != 0) {
+            // Round to nearest; a carry into the exponent is still the correct result.
+            half++;
+        }
+        return (short) half;
+    }
+
+    private static float[] buildHalfTable() {
+        float[] table = new float[65536];
+        for (int h = 0; h < 65536; h++) {
+            int sign = (h & 0x8000) << 16;
+            int exp = (h >>> 10) & 0x1F;
+            int mant = h & 0x3FF;
+            int bits;
+            if (exp == 0) {
+                if (mant == 0) {
+                    bits = sign;
+                } else {
+                    // Subnormal: normalise the mantissa.
+                    int e = -1;
+                    do {
+                        e++;
+                        mant <<= 1;
+                    } while ((mant & 0x400) == 0);
+                    bits = sign | ((127 - 15 - e) << 23) | ((mant & 0x3FF) << 13);
+                }
+            } else if (exp == 0x1F) {
+                bits = sign | 0x7F800000 | (mant << 13);
+            } else {
+                bits = sign | ((exp - 15 + 127) << 23) | (mant << 13);
+            }
+            table[h] = Float.intBitsToFloat(bits);
+        }
+        return table;
+    }
 }
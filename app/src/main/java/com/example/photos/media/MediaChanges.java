@@ -0,0 +1,104 @@
+package com.example.photos.media;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.photos.db.PhotoAsset;
+import com.example.photos.db.PhotoDao;
+import com.example.photos.db.PhotosDb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * photo_assets 的行级变更通知：同步入口写库后发布“删了哪些旧行 / 写入了哪些新行”，
+ * 首页时间线据此做位置级的插入/删除，而不是整库重排。行数超过 {@link #MAX_INCREMENTAL}
+ * 的批量写入（全量扫描等）只发布 bulk，订阅方自行整体刷新。
+ * 回调在写库的线程上同步执行，订阅方只应转投到自己的线程。
+ */
+public final class MediaChanges {
+
+    public static final int MAX_INCREMENTAL = 64;
+
+    public interface Listener {
+        void onMediaChanged(@NonNull ChangeSet changes);
+    }
+
+    public static final class ChangeSet {
+        /** 写入前的旧行（被更新或删除的），bulk 时为空 */
+        public final List<PhotoAsset> removed;
+        /** 新写入的行，bulk 时为空 */
+        public final List<PhotoAsset> added;
+        public final boolean bulk;
+
+        private ChangeSet(List<PhotoAsset> removed, List<PhotoAsset> added, boolean bulk) {
+            this.removed = removed;
+            this.added = added;
+            this.bulk = bulk;
+        }
+    }
+
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private MediaChanges() {}
+
+    public static void addListener(@NonNull Listener listener) {
+        LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(@NonNull Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * upsert 并发布变更；小批量时先用一条 IN 查询取出旧行，订阅方才能定位它们原来的位置。
+     * 查旧行和写入在同一个事务里，别的写入方插不进中间。调用方在后台线程。
+     */
+    public static void upsertAndPublish(@NonNull PhotosDb db, @Nullable List<PhotoAsset> assets) {
+        if (assets == null || assets.isEmpty()) return;
+        PhotoDao photoDao = db.photoDao();
+        if (assets.size() > MAX_INCREMENTAL) {
+            photoDao.upsert(assets);
+            publishBulk();
+            return;
+        }
+        List<Long> ids = new ArrayList<>(assets.size());
+        for (PhotoAsset a : assets) {
+            if (a != null) ids.add(a.id);
+        }
+        List<PhotoAsset> old = new ArrayList<>();
+        db.runInTransaction(() -> {
+            List<PhotoAsset> prev = ids.isEmpty() ? null : photoDao.findByIds(ids);
+            if (prev != null) old.addAll(prev);
+            photoDao.upsert(assets);
+        });
+        publish(old, assets);
+    }
+
+    /** 删除单行并发布；{@code asset} 是删除前查到的旧行。 */
+    public static void deleteAndPublish(@NonNull PhotoDao photoDao, @NonNull PhotoAsset asset) {
+        photoDao.deleteById(asset.id);
+        publish(Collections.singletonList(asset), Collections.emptyList());
+    }
+
+    public static void publish(@NonNull List<PhotoAsset> removed, @NonNull List<PhotoAsset> added) {
+        if (removed.isEmpty() && added.isEmpty()) return;
+        if (removed.size() + added.size() > MAX_INCREMENTAL) {
+            publishBulk();
+            return;
+        }
+        dispatch(new ChangeSet(new ArrayList<>(removed), new ArrayList<>(added), false));
+    }
+
+    public static void publishBulk() {
+        dispatch(new ChangeSet(Collections.emptyList(), Collections.emptyList(), true));
+    }
+
+    private static void dispatch(ChangeSet changes) {
+        for (Listener l : LISTENERS) {
+            l.onMediaChanged(changes);
+        }
+    }
+}
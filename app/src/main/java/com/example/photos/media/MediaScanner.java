@@ -61,16 +61,10 @@ public class MediaScanner {
         List<PhotoAsset> merged = new ArrayList<>();
         merged.addAll(scanAll(context));
         merged.addAll(queryVideos(context, null, null, DEFAULT_ORDER));
+        // queryInternal 已算好 sortTime：直接比 long，不再每次比较都重算时间戳、比 uri 字符串（_ID 在 MediaStore 内唯一）
         merged.sort((a, b) -> {
-            long ta = bestTimestampMillis(a);
-            long tb = bestTimestampMillis(b);
-            if (ta != tb) return Long.compare(tb, ta);
-            long ida = a == null ? 0L : a.id;
-            long idb = b == null ? 0L : b.id;
-            if (ida != idb) return Long.compare(idb, ida);
-            String ua = a == null || a.contentUri == null ? "" : a.contentUri;
-            String ub = b == null || b.contentUri == null ? "" : b.contentUri;
-            return ub.compareTo(ua);
+            if (a.sortTime != b.sortTime) return Long.compare(b.sortTime, a.sortTime);
+            return Long.compare(b.id, a.id);
         });
         return merged;
     }
@@ -83,6 +77,15 @@ public class MediaScanner {
         return mod < 10_000_000_000L ? mod * 1000L : mod;
     }
 
+    /** 图片 + 视频的增量：写进 photo_assets 供首页时间线使用。 */
+    public static List<PhotoAsset> scanMediaModifiedAfter(Context context, long ts) {
+        String sel = MediaStore.MediaColumns.DATE_MODIFIED + "> ?";
+        String[] args = new String[]{String.valueOf(ts)};
+        List<PhotoAsset> merged = new ArrayList<>(queryImages(context, sel, args, DEFAULT_ORDER));
+        merged.addAll(queryVideos(context, sel, args, DEFAULT_ORDER));
+        return merged;
+    }
+
     public static List<PhotoAsset> scanModifiedAfter(Context context, long ts) {
         String sel = MediaStore.Images.Media.DATE_MODIFIED + "> ?";
         String[] args = new String[]{String.valueOf(ts)};
@@ -106,6 +109,13 @@ public class MediaScanner {
         return list.isEmpty() ? null : list.get(0);
     }
 
+    public static PhotoAsset queryVideoById(Context context, long id) {
+        String sel = MediaStore.Video.Media._ID + "=?";
+        String[] args = new String[]{String.valueOf(id)};
+        List<PhotoAsset> list = queryVideos(context, sel, args, null);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
     /**
      * 批量按 ID 查询，使用 IN 子句，避免逐条查询带来的卡顿。
      */
@@ -202,6 +212,7 @@ public class MediaScanner {
                 a.bucketId = safeString(c, idxBucketId);
                 a.bucketName = safeString(c, idxBucketName);
                 a.orientation = safeInt(c, idxOrientation);
+                a.sortTime = bestTimestampMillis(a);
                 out.add(a);
             }
         }
@@ -11,7 +11,7 @@ import com.example.photos.db.PhotoDao;
 import android.content.Context;
 
 /**
- * ContentObserver：监听媒体库变化，做细粒度增量更新。
+ * ContentObserver：监听媒体库（图片 + 视频）变化，做细粒度增量更新。
  */
 public class MediaStoreObserver extends ContentObserver {
 
@@ -34,11 +34,15 @@ public class MediaStoreObserver extends ContentObserver {
         super.onChange(selfChange, uri);
         if (uri == null) return;
         try {
-            // uri 形如 content://media/external/images/media/12345
+            // uri 形如 content://media/external/images/media/12345 或 .../video/media/12345
             String last = uri.getLastPathSegment();
             if (last == null) return;
             long id = Long.parseLong(last);
-            PhotoAsset asset = MediaScanner.queryById(appContext, id);
+            boolean video = uri.getPathSegments().contains("video");
+            // MediaStore 的 _ID 在图片/视频间唯一，查不到就按删除处理（photo_assets 里两类都按 id 删）
+            PhotoAsset asset = video
+                    ? MediaScanner.queryVideoById(appContext, id)
+                    : MediaScanner.queryById(appContext, id);
             if (asset != null) {
                 if (listener != null) listener.onInsertOrUpdate(asset);
             } else {
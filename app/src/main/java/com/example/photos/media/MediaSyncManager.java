@@ -2,7 +2,6 @@ package com.example.photos.media;
 
 import android.content.ContentResolver;
 import android.content.Context;
-import android.net.Uri;
 import android.provider.MediaStore;
 
 import com.example.photos.db.CategoryDao;
@@ -10,7 +9,9 @@ import com.example.photos.db.FeatureDao;
 import com.example.photos.db.PhotoAsset;
 import com.example.photos.db.PhotoDao;
 import com.example.photos.db.PhotosDb;
+import com.example.photos.search.FlatVectorStore;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -22,6 +23,7 @@ import java.util.concurrent.Executors;
 public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
 
     private final Context appContext;
+    private final PhotosDb db;
     private final PhotoDao photoDao;
     private final CategoryDao categoryDao;
     private final FeatureDao featureDao;
@@ -30,7 +32,7 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
 
     public MediaSyncManager(Context context) {
         this.appContext = context.getApplicationContext();
-        PhotosDb db = PhotosDb.get(appContext);
+        this.db = PhotosDb.get(appContext);
         this.photoDao = db.photoDao();
         this.categoryDao = db.categoryDao();
         this.featureDao = db.featureDao();
@@ -41,7 +43,8 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
         io.execute(() -> {
             List<PhotoAsset> all;
             try {
-                all = MediaScanner.scanAll(appContext);
+                // 图片和视频都入库：首页时间线直接分页读 photo_assets
+                all = MediaScanner.scanAllMedia(appContext);
             } catch (SecurityException se) {
                 // 无权限时不做破坏性删除，等待用户授权
                 return;
@@ -62,6 +65,7 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
                 }
             }
             photoDao.upsert(all);
+            MediaChanges.publishBulk();
         });
     }
 
@@ -70,18 +74,18 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
         io.execute(() -> {
             Long max = photoDao.maxDateModified();
             long ts = max == null ? 0L : max;
-            List<PhotoAsset> delta = MediaScanner.scanModifiedAfter(appContext, ts);
-            photoDao.upsert(delta);
+            List<PhotoAsset> delta = MediaScanner.scanMediaModifiedAfter(appContext, ts);
+            MediaChanges.upsertAndPublish(db, delta);
         });
     }
 
-    /** 注册媒体库变更监听 */
+    /** 注册媒体库变更监听：图片和视频都入了 photo_assets，两类的增删改都要同步到首页时间线 */
     public void registerObserver() {
         if (observer != null) return;
         observer = new MediaStoreObserver(appContext, this);
         ContentResolver cr = appContext.getContentResolver();
-        Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-        cr.registerContentObserver(uri, true, observer);
+        cr.registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+        cr.registerContentObserver(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, observer);
     }
 
     /** 取消监听 */
@@ -93,11 +97,16 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
 
     @Override
     public void onInsertOrUpdate(PhotoAsset asset) {
-        io.execute(() -> photoDao.upsert(java.util.Arrays.asList(asset)));
+        io.execute(() -> MediaChanges.upsertAndPublish(db, Collections.singletonList(asset)));
+        if (asset != null && asset.mimeType != null && asset.mimeType.startsWith("video/")) {
+            // 视频不进向量/分类流水线
+            return;
+        }
         // 新增/更新时触发一次最近批次的向量/分类流水线（唯一任务，正在跑时不会重复）
         com.example.photos.sync.ClipJobScheduler.enqueueRecentPipeline(appContext, 32);
     }
 
+    /** 图片或视频被删：按 MediaStore _ID 删 photo_assets 行（视频没有向量/分类行，清理是空操作）。 */
     @Override
     public void onDelete(long id) {
         io.execute(() -> removeAssetAndIndexes(id));
@@ -106,8 +115,12 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
     private void removeAssetAndIndexes(long id) {
         PhotoAsset asset = photoDao.findById(id);
         removeAssetAndIndexes(asset);
+        if (asset != null) {
+            MediaChanges.publish(Collections.singletonList(asset), Collections.emptyList());
+        }
     }
 
+    /** Deletes DB rows and tombstones the vector-store rows; the ANN indexes skip tombstoned rows at re-rank. */
     private void removeAssetAndIndexes(PhotoAsset asset) {
         if (asset == null) return;
         String key = asset.contentUri;
@@ -115,6 +128,7 @@ public class MediaSyncManager implements MediaStoreObserver.OnChangeListener {
         if (key != null) {
             categoryDao.deleteByMediaKey(key);
             featureDao.deleteByMediaKey(key);
+            FlatVectorStore.removeFromAll(appContext, key);
         }
     }
 }
@@ -0,0 +1,44 @@
+package com.example.photos.model;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+/**
+ * Picks an inference batch size from currently available memory. Batches are only worth it when
+ * the model accepts a dynamic batch dimension; callers still fall back to one image per run.
+ */
+public final class BatchSizer {
+    public static final int MAX_BATCH = 16;
+    // Rough multiplier from input tensor size to peak activation memory for ViT-style encoders.
+    private static final int ACTIVATION_FACTOR = 48;
+    // Never plan to use more than this fraction of what the system reports as available.
+    private static final int BUDGET_DIVISOR = 4;
+
+    private BatchSizer() {}
+
+    public static int forInput(Context ctx, int channels, int height, int width) {
+        long perImage = (long) channels * height * width * 4L * ACTIVATION_FACTOR;
+        if (perImage <= 0) return 1;
+        long budget = availableBytes(ctx) / BUDGET_DIVISOR;
+        Runtime rt = Runtime.getRuntime();
+        long heapFree = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        // The packed float[] input lives on the Java heap, so it must fit there too.
+        long heapBudget = heapFree / BUDGET_DIVISOR / Math.max(1L, (long) channels * height * width * 4L);
+        long bySystem = budget / perImage;
+        long n = Math.min(bySystem, heapBudget);
+        return (int) Math.max(1L, Math.min(MAX_BATCH, n));
+    }
+
+    private static long availableBytes(Context ctx) {
+        try {
+            ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+            if (am == null) return 0L;
+            ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+            am.getMemoryInfo(info);
+            if (info.lowMemory || am.isLowRamDevice()) return 0L;
+            return Math.max(0L, info.availMem - info.threshold);
+        } catch (Throwable t) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.photos.model;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.photos.util.PerfLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Central place that builds ORT sessions. Each call site names its model and picks a {@link Profile};
+ * thread counts follow the big-core count, and CPU sessions cache the fully optimized graph (ORT format)
+ * under cacheDir so later launches skip graph optimization. Models with external weights
+ * ({@code .onnx.data}/{@code .onnx_data}) are not cached: the ORT file would inline those weights and put
+ * a second full copy of the model in cacheDir.
+ */
+public final class OrtSessions {
+    private static final String TAG = "OrtSessions";
+    private static final String CACHE_DIR = "ort_opt";
+    private static final int MAX_INTRA_THREADS = 4;
+
+    private static volatile int bigCores = -1;
+
+    public enum Profile {
+        /** 搜索时的查询编码/翻译：单条输入，尽量用满大核压延迟。 */
+        INTERACTIVE,
+        /** Worker 里的批量 embedding/分类：线程减半且不自旋，给前台让出 CPU。 */
+        BACKGROUND
+    }
+
+    private OrtSessions() {}
+
+    /** CPU session；{@code key} 同时是优化后模型的缓存文件名，需在模型间唯一。 */
+    public static OrtSession create(OrtEnvironment env, Context context, String key, File model,
+                                    Profile profile) throws OrtException {
+        long start = SystemClock.elapsedRealtime();
+        File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        File optimized = new File(dir, key + ".ort");
+        boolean cacheable = !hasExternalData(model);
+        if (!cacheable && optimized.exists()) {
+            // 旧版本给外部权重模型写过的内联缓存，体积和整个模型相当，直接清掉
+            optimized.delete();
+        }
+        OrtSession session = null;
+        boolean fromCache = false;
+        // ModelFiles 重新解压过源模型时 mtime 会更新，缓存随之作废
+        if (cacheable && optimized.exists() && optimized.lastModified() >= model.lastModified()) {
+            try (OrtSession.SessionOptions opts = baseOptions(profile)) {
+                opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+                opts.addConfigEntry("session.load_model_format", "ORT");
+                session = env.createSession(optimized.getAbsolutePath(), opts);
+                fromCache = true;
+            } catch (OrtException e) {
+                Log.w(TAG, "optimized model unusable, rebuilding: " + optimized, e);
+                optimized.delete();
+            }
+        }
+        if (session == null) {
+            try (OrtSession.SessionOptions opts = baseOptions(profile)) {
+                opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                File tmp = null;
+                if (cacheable && (dir.exists() || dir.mkdirs())) {
+                    tmp = new File(dir, key + ".ort.tmp");
+                    opts.addConfigEntry("session.save_model_format", "ORT");
+                    opts.setOptimizedModelFilePath(tmp.getAbsolutePath());
+                }
+                session = env.createSession(model.getAbsolutePath(), opts);
+                if (tmp != null && tmp.exists() && !tmp.renameTo(optimized)) {
+                    tmp.delete();
+                }
+            }
+        }
+        logCreate(key, profile, false, fromCache, cacheable ? optimized.length() : 0L, start);
+        return session;
+    }
+
+    /** 外部权重和模型同目录，按 ModelFiles 落盘的两种命名判断。 */
+    private static boolean hasExternalData(File model) {
+        String path = model.getAbsolutePath();
+        return new File(path + ".data").exists() || new File(path + "_data").exists();
+    }
+
+    /** NNAPI session：EP 相关的图不落盘缓存，只套用线程配置和基础优化。 */
+    public static OrtSession createNnapi(OrtEnvironment env, String key, File model,
+                                         Profile profile) throws OrtException {
+        long start = SystemClock.elapsedRealtime();
+        try (OrtSession.SessionOptions opts = baseOptions(profile)) {
+            opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.BASIC_OPT);
+            opts.addNnapi();
+            OrtSession session = env.createSession(model.getAbsolutePath(), opts);
+            logCreate(key, profile, true, false, 0L, start);
+            return session;
+        }
+    }
+
+    public static int intraOpThreads(Profile profile) {
+        int big = bigCoreCount();
+        int n = profile == Profile.INTERACTIVE ? big : big / 2;
+        return Math.max(1, Math.min(MAX_INTRA_THREADS, n));
+    }
+
+    private static OrtSession.SessionOptions baseOptions(Profile profile) throws OrtException {
+        OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
+        opts.setIntraOpNumThreads(intraOpThreads(profile));
+        opts.setInterOpNumThreads(1);
+        opts.setExecutionMode(OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+        if (profile == Profile.BACKGROUND) {
+            opts.addConfigEntry("session.intra_op.allow_spinning", "0");
+        }
+        return opts;
+    }
+
+    /** 最大频率高于最低簇的核都算大核；读不到 cpufreq 时按一半核数估计。 */
+    static int bigCoreCount() {
+        int cached = bigCores;
+        if (cached > 0) return cached;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        long[] freqs = new long[cpus];
+        long min = Long.MAX_VALUE;
+        boolean ok = true;
+        for (int i = 0; i < cpus && ok; i++) {
+            freqs[i] = readMaxFreq(i);
+            ok = freqs[i] > 0;
+            if (ok) min = Math.min(min, freqs[i]);
+        }
+        int count = 0;
+        if (ok) {
+            for (long f : freqs) {
+                if (f > min) count++;
+            }
+        }
+        if (count == 0) {
+            // 同构 CPU 或读取失败
+            count = ok ? cpus : Math.max(1, cpus / 2);
+        }
+        bigCores = count;
+        return count;
+    }
+
+    private static long readMaxFreq(int cpu) {
+        File f = new File("/sys/devices/system/cpu/cpu" + cpu + "/cpufreq/cpuinfo_max_freq");
+        try (BufferedReader r = new BufferedReader(new FileReader(f))) {
+            String line = r.readLine();
+            return line == null ? -1 : Long.parseLong(line.trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static void logCreate(String key, Profile profile, boolean nnapi, boolean fromCache, long cacheBytes,
+                                  long start) {
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("model", key);
+        extra.put("profile", profile.name());
+        extra.put("threads", intraOpThreads(profile));
+        extra.put("nnapi", nnapi);
+        extra.put("optimized_cache", fromCache);
+        extra.put("cache_bytes", cacheBytes);
+        PerfLogger.log("ort_session_create", SystemClock.elapsedRealtime() - start, null, extra);
+    }
+}
@@ -1,5 +1,8 @@
 package com.example.photos.model;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -11,10 +14,15 @@ import java.util.Objects;
  */
 public class Photo {
 
+    /** DateTimeFormatter 不可变、线程安全，全进程共用一个，不再每次 new SimpleDateFormat */
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
     private final String id;
     private final String title;
     private final String description;
-    private final String captureDate;
+    /** 拍摄时间（epoch 毫秒），0 表示未知；排序/分组直接比较它 */
+    private final long captureTime;
     private final String location;
     private final List<String> tags;
     private final String imageUrl;
@@ -24,7 +32,7 @@ public class Photo {
     public Photo(String id,
                  String title,
                  String description,
-                 String captureDate,
+                 long captureTime,
                  String location,
                  List<String> tags,
                  String imageUrl,
@@ -33,7 +41,7 @@ public class Photo {
         this.id = id;
         this.title = title;
         this.description = description;
-        this.captureDate = captureDate;
+        this.captureTime = captureTime;
         this.location = location;
         this.tags = tags == null ? new ArrayList<>() : new ArrayList<>(tags);
         this.imageUrl = imageUrl;
@@ -53,8 +61,18 @@ public class Photo {
         return description;
     }
 
-    public String getCaptureDate() {
-        return captureDate;
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /** "yyyy-MM-dd HH:mm:ss"（本地时区），未知时为空串。 */
+    public static String formatDateTime(long millis) {
+        return millis <= 0L ? "" : DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
+    }
+
+    /** "yyyy-MM-dd"（本地时区），未知时为空串。 */
+    public static String formatDay(long millis) {
+        return millis <= 0L ? "" : DAY.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
     }
 
     public String getLocation() {
@@ -1,15 +1,18 @@
 package com.example.photos.search;
 
 import android.content.Context;
-import android.content.res.AssetManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.photos.model.OrtSessions;
+import com.example.photos.util.ModelFiles;
+import com.example.photos.util.PerfLogger;
+
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 import ai.onnxruntime.OnnxTensor;
@@ -67,11 +70,14 @@ public final class ClipTextEncoder {
         if (initialized) return;
         synchronized (LOCK) {
             if (initialized) return;
+            long initStart = SystemClock.elapsedRealtime();
             try {
                 env = OrtEnvironment.getEnvironment();
-                File modelFile = copyAsset(context, MODEL_NAME, "MobileCLIP2-S2_text_encoder.onnx");
-                copyAsset(context, MODEL_DATA_NAME, "MobileCLIP2-S2_text_encoder.onnx.data");
-                session = env.createSession(modelFile.getAbsolutePath(), new OrtSession.SessionOptions());
+                File modelFile = ModelFiles.ensure(context, MODEL_NAME,
+                        new File(context.getCacheDir(), "MobileCLIP2-S2_text_encoder.onnx"));
+                ModelFiles.ensure(context, MODEL_DATA_NAME,
+                        new File(context.getCacheDir(), "MobileCLIP2-S2_text_encoder.onnx.data"));
+                session = OrtSessions.create(env, context, "clip_text", modelFile, OrtSessions.Profile.INTERACTIVE);
                 tokenizer = new ClipTextTokenizer(context);
                 try {
                     List<String> names = new ArrayList<>(session.getInputNames());
@@ -81,6 +87,9 @@ public final class ClipTextEncoder {
                     Log.i(TAG, "Text encoder initialized. input=" + inputName + " outputs=" + session.getOutputNames());
                 } catch (Throwable ignore) {}
                 initialized = true;
+                HashMap<String, Object> initExtra = new HashMap<>();
+                initExtra.put("model", "clip_text");
+                PerfLogger.log("model_init", SystemClock.elapsedRealtime() - initStart, null, initExtra);
             } catch (Exception e) {
                 Log.e(TAG, "Failed to initialize text encoder", e);
             }
@@ -100,17 +109,4 @@ public final class ClipTextEncoder {
             vector[i] /= norm;
         }
     }
-
-    private static File copyAsset(Context context, String assetPath, String name) throws Exception {
-        AssetManager am = context.getAssets();
-        File out = new File(context.getCacheDir(), name);
-        try (InputStream is = am.open(assetPath); FileOutputStream fos = new FileOutputStream(out)) {
-            byte[] buf = new byte[8192];
-            int n;
-            while ((n = is.read(buf)) > 0) {
-                fos.write(buf, 0, n);
-            }
-        }
-        return out;
-    }
 }
@@ -1,21 +1,29 @@
 package com.example.photos.search;
 
 import android.content.Context;
+import android.os.SystemClock;
 import androidx.core.text.HtmlCompat;
 
+import com.example.photos.util.ModelFiles;
+import com.example.photos.util.PerfLogger;
+
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -28,22 +36,94 @@ final class ClipTextTokenizer {
     private static final int CONTEXT_LENGTH = 77;
     private static final String VOCAB_ASSET_GZ = "models/clip/bpe_simple_vocab_16e6.txt.gz";
     private static final String VOCAB_ASSET_TXT = "models/clip/bpe_simple_vocab_16e6.txt";
+    private static final int CACHE_SIZE = 4096;
+    private static final String COMPILED_FILE = "clip_bpe_vocab.bin";
+    private static final int COMPILED_MAGIC = 0x43425045; // "CBPE"
+    private static final String START_OF_TEXT = "<start_of_text>";
+    private static final String END_OF_TEXT = "<end_of_text>";
+    private static final Pattern TOKEN_PATTERN = Pattern.compile(
+            Pattern.quote(START_OF_TEXT) + "|" + Pattern.quote(END_OF_TEXT)
+                    + "|'s|'t|'re|'ve|'m|'ll|'d|[\\p{L}]+|[\\p{N}]|[^\\s\\p{L}\\p{N}]+",
+            Pattern.CASE_INSENSITIVE);
 
-    private final Map<Integer, String> byteEncoder;
-    private final Map<String, Integer> encoder;
-    private final Map<String, Integer> bpeRanks;
-    private final Map<String, String> cache = new HashMap<>();
-    private final Pattern tokenPattern;
+    /** 单字节 -> 符号 id（不带 / 带 </w> 后缀），BPE 的初始符号直接查表。 */
+    private final int[] byteSymbol = new int[256];
+    private final int[] byteSymbolEnd = new int[256];
+    /** (left id, right id) -> merge rank；rank 再索引到左右符号和合并后的符号 id。都是编译好的词表视图。 */
+    private final PairRanks bpeRanks;
+    private final IntBuffer mergeLeft;
+    private final IntBuffer mergeRight;
+    private final IntBuffer mergeResult;
+    private final LinkedHashMap<String, int[]> cache = new LinkedHashMap<String, int[]>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
     private final int sotTokenId;
     private final int eotTokenId;
 
     ClipTextTokenizer(Context context) throws IOException {
-        this.byteEncoder = bytesToUnicode();
-        Map<String, Integer> byteDecoder = new HashMap<>();
-        for (Map.Entry<Integer, String> entry : byteEncoder.entrySet()) {
-            byteDecoder.put(entry.getValue(), entry.getKey());
+        this(loadCompiled(context.getApplicationContext()));
+    }
+
+    /** 直接读 bpe_simple_vocab 流（会关闭）并在内存里编译，JVM 单测也走这里。 */
+    ClipTextTokenizer(InputStream vocabStream) throws IOException {
+        this(compile(vocabStream));
+    }
+
+    /**
+     * 编译后的布局（little-endian）：sot | eot | mergeCount | cap | pairKeys long[cap] | pairRanks int[cap]
+     * | byteSymbol[256] | byteSymbolEnd[256] | mergeLeft[n] | mergeRight[n] | mergeResult[n]。
+     */
+    private ClipTextTokenizer(ByteBuffer compiled) {
+        ByteBuffer buf = compiled.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.sotTokenId = buf.getInt(0);
+        this.eotTokenId = buf.getInt(4);
+        int mergeCount = buf.getInt(8);
+        int cap = buf.getInt(12);
+        int pos = 16;
+        ByteBuffer keyBytes = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        keyBytes.position(pos);
+        keyBytes.limit(pos + cap * 8);
+        LongBuffer pairKeys = keyBytes.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        pos += cap * 8;
+        IntBuffer pairRanks = CompiledVocab.intsAt(buf, pos, cap);
+        pos += cap * 4;
+        this.bpeRanks = new PairRanks(pairKeys, pairRanks);
+        CompiledVocab.intsAt(buf, pos, 256).get(byteSymbol);
+        pos += 256 * 4;
+        CompiledVocab.intsAt(buf, pos, 256).get(byteSymbolEnd);
+        pos += 256 * 4;
+        this.mergeLeft = CompiledVocab.intsAt(buf, pos, mergeCount);
+        pos += mergeCount * 4;
+        this.mergeRight = CompiledVocab.intsAt(buf, pos, mergeCount);
+        pos += mergeCount * 4;
+        this.mergeResult = CompiledVocab.intsAt(buf, pos, mergeCount);
+    }
+
+    /** 优先 mmap 已编译的词表；没有或安装包更新过就从 gz 文本编译一次再落盘。 */
+    private static ByteBuffer loadCompiled(Context context) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        File file = new File(context.getFilesDir(), COMPILED_FILE);
+        // 和模型副本、查询缓存同一个版本号：versionCode 或安装时间变了都重编
+        long stamp = CompiledVocab.stampOf(ModelFiles.installStamp(context));
+        ByteBuffer body = CompiledVocab.map(file, COMPILED_MAGIC, stamp);
+        boolean mapped = body != null;
+        if (!mapped) {
+            body = compile(openVocab(context));
+            CompiledVocab.write(file, COMPILED_MAGIC, stamp, body);
         }
-        List<String[]> merges = loadMerges(context);
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("vocab", "clip_bpe");
+        extra.put("mapped", mapped);
+        PerfLogger.log("vocab_load", SystemClock.elapsedRealtime() - start, null, extra);
+        return body;
+    }
+
+    private static ByteBuffer compile(InputStream vocabStream) throws IOException {
+        Map<Integer, String> byteEncoder = bytesToUnicode();
+        List<String[]> merges = loadMerges(vocabStream);
         List<String> vocab = new ArrayList<>(byteEncoder.values());
         List<String> suffixes = new ArrayList<>(vocab.size());
         for (String v : vocab) {
@@ -53,140 +133,168 @@ final class ClipTextTokenizer {
         for (String[] merge : merges) {
             vocab.add(merge[0] + merge[1]);
         }
-        List<String> specialTokens = Arrays.asList("<start_of_text>", "<end_of_text>");
-        vocab.addAll(specialTokens);
-        this.encoder = new HashMap<>();
+        vocab.add(START_OF_TEXT);
+        vocab.add(END_OF_TEXT);
+        Map<String, Integer> encoder = new HashMap<>();
         for (int i = 0; i < vocab.size(); i++) {
             encoder.put(vocab.get(i), i);
         }
-        this.bpeRanks = new HashMap<>();
-        for (int i = 0; i < merges.size(); i++) {
+        int mergeCount = merges.size();
+        int[] left = new int[mergeCount];
+        int[] right = new int[mergeCount];
+        int[] result = new int[mergeCount];
+        int cap = PairRanks.capacityFor(mergeCount);
+        long[] pairKeys = new long[cap];
+        int[] pairRanks = new int[cap];
+        Arrays.fill(pairRanks, -1);
+        for (int i = 0; i < mergeCount; i++) {
             String[] merge = merges.get(i);
-            bpeRanks.put(merge[0] + "\u0000" + merge[1], i);
+            Integer l = encoder.get(merge[0]);
+            Integer r = encoder.get(merge[1]);
+            if (l == null || r == null) continue; // 两侧不在词表里的 merge 永远用不到
+            left[i] = l;
+            right[i] = r;
+            result[i] = encoder.get(merge[0] + merge[1]);
+            PairRanks.put(pairKeys, pairRanks, l, r, i); // 重复 pair 以后出现的 rank 为准，和原先 HashMap 覆盖一致
         }
-        this.sotTokenId = encoder.get("<start_of_text>");
-        this.eotTokenId = encoder.get("<end_of_text>");
-        StringBuilder specialPattern = new StringBuilder();
-        for (int i = 0; i < specialTokens.size(); i++) {
-            if (i > 0) specialPattern.append("|");
-            specialPattern.append(Pattern.quote(specialTokens.get(i)));
-        }
-        String pat = specialPattern + "|'s|'t|'re|'ve|'m|'ll|'d|[\\p{L}]+|[\\p{N}]|[^\\s\\p{L}\\p{N}]+";
-        this.tokenPattern = Pattern.compile(pat, Pattern.CASE_INSENSITIVE);
+        int bytes = 16 + cap * 12 + 512 * 4 + mergeCount * 12;
+        ByteBuffer out = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(encoder.get(START_OF_TEXT)).putInt(encoder.get(END_OF_TEXT)).putInt(mergeCount).putInt(cap);
+        for (long k : pairKeys) out.putLong(k);
+        for (int v : pairRanks) out.putInt(v);
+        for (int b = 0; b < 256; b++) out.putInt(encoder.get(byteEncoder.get(b)));
+        for (int b = 0; b < 256; b++) out.putInt(encoder.get(byteEncoder.get(b) + "</w>"));
+        for (int v : left) out.putInt(v);
+        for (int v : right) out.putInt(v);
+        for (int v : result) out.putInt(v);
+        out.flip();
+        return out;
     }
 
     int[] tokenize(String text) {
-        String cleaned = clean(text);
-        List<Integer> tokens = new ArrayList<>();
-        tokens.add(sotTokenId);
-        Matcher matcher = tokenPattern.matcher(cleaned);
-        while (matcher.find()) {
-            String token = matcher.group();
-            String[] bpeTokens = encodeToken(token);
-            for (String bpeToken : bpeTokens) {
-                Integer id = encoder.get(bpeToken);
-                if (id != null) {
-                    tokens.add(id);
-                }
-            }
-        }
-        tokens.add(eotTokenId);
+        return tokenizeCleaned(clean(text));
+    }
+
+    /** 已清洗（unescape、合并空白、小写）的文本 -> 定长 token id；超长截断，和原先行为一致。 */
+    int[] tokenizeCleaned(String cleaned) {
         int[] out = new int[CONTEXT_LENGTH];
-        Arrays.fill(out, 0);
-        for (int i = 0; i < Math.min(out.length, tokens.size()); i++) {
-            out[i] = tokens.get(i);
+        int n = 0;
+        out[n++] = sotTokenId;
+        Matcher matcher = TOKEN_PATTERN.matcher(cleaned);
+        while (matcher.find() && n < CONTEXT_LENGTH) {
+            int[] ids = encodeToken(matcher.group());
+            int copy = Math.min(ids.length, CONTEXT_LENGTH - n);
+            System.arraycopy(ids, 0, out, n, copy);
+            n += copy;
+        }
+        if (n < CONTEXT_LENGTH) {
+            out[n] = eotTokenId;
         }
         return out;
     }
 
-    private String[] encodeToken(String token) {
-        if (cache.containsKey(token)) {
-            return cache.get(token).split(" ");
+    private int[] encodeToken(String token) {
+        synchronized (cache) {
+            int[] hit = cache.get(token);
+            if (hit != null) return hit;
         }
         byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
-        StringBuilder transformed = new StringBuilder();
-        for (byte b : tokenBytes) {
-            String mapped = byteEncoder.get((int) (b & 0xFF));
-            transformed.append(mapped);
-        }
-        String bpeTokens = bpe(transformed.toString());
-        cache.put(token, bpeTokens);
-        return bpeTokens.split(" ");
-    }
-
-    private String bpe(String token) {
-        List<String> word = new ArrayList<>();
-        for (int i = 0; i < token.length(); i++) {
-            word.add(String.valueOf(token.charAt(i)));
-        }
-        if (!word.isEmpty()) {
-            String last = word.remove(word.size() - 1) + "</w>";
-            word.add(last);
+        int[] word = new int[tokenBytes.length];
+        int last = tokenBytes.length - 1;
+        for (int i = 0; i < last; i++) {
+            word[i] = byteSymbol[tokenBytes[i] & 0xFF];
         }
-        Set<String> pairs = getPairs(word);
-        if (pairs.isEmpty()) {
-            return token + "</w>";
+        word[last] = byteSymbolEnd[tokenBytes[last] & 0xFF];
+        int[] ids = bpe(word);
+        synchronized (cache) {
+            cache.put(token, ids);
         }
-        while (true) {
-            String bigram = null;
+        return ids;
+    }
+
+    /** 在 int 符号数组上原地合并：每轮取 rank 最小的相邻 pair，从左到右合并所有不重叠的出现。 */
+    private int[] bpe(int[] word) {
+        int n = word.length;
+        while (n > 1) {
             int bestRank = Integer.MAX_VALUE;
-            for (String pairKey : pairs) {
-                Integer rank = bpeRanks.get(pairKey);
-                if (rank != null && rank < bestRank) {
+            for (int i = 0; i + 1 < n; i++) {
+                int rank = bpeRanks.get(word[i], word[i + 1]);
+                if (rank >= 0 && rank < bestRank) {
                     bestRank = rank;
-                    bigram = pairKey;
                 }
             }
-            if (bigram == null) {
+            if (bestRank == Integer.MAX_VALUE) {
                 break;
             }
-            String[] parts = bigram.split("\u0000");
-            String first = parts[0];
-            String second = parts[1];
-            List<String> newWord = new ArrayList<>();
+            int first = mergeLeft.get(bestRank);
+            int second = mergeRight.get(bestRank);
+            int merged = mergeResult.get(bestRank);
+            int w = 0;
             int i = 0;
-            while (i < word.size()) {
-                int j = word.subList(i, word.size()).indexOf(first);
-                if (j == -1) {
-                    newWord.addAll(word.subList(i, word.size()));
-                    break;
-                }
-                j += i;
-                newWord.addAll(word.subList(i, j));
-                if (j < word.size() - 1 && word.get(j + 1).equals(second)) {
-                    newWord.add(first + second);
-                    i = j + 2;
+            while (i < n) {
+                if (i + 1 < n && word[i] == first && word[i + 1] == second) {
+                    word[w++] = merged;
+                    i += 2;
                 } else {
-                    newWord.add(word.get(j));
-                    i = j + 1;
+                    word[w++] = word[i++];
                 }
             }
-            word = newWord;
-            pairs = getPairs(word);
+            n = w;
         }
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < word.size(); i++) {
-            if (i > 0) result.append(" ");
-            result.append(word.get(i));
-        }
-        return result.toString();
+        return n == word.length ? word : Arrays.copyOf(word, n);
     }
 
-    private Set<String> getPairs(List<String> word) {
-        Set<String> pairs = new HashSet<>();
-        String prev = word.get(0);
-        for (int i = 1; i < word.size(); i++) {
-            String current = word.get(i);
-            pairs.add(prev + "\u0000" + current);
-            prev = current;
+    /** (left, right) 打包成 long 的开放寻址表，值为 merge rank，查不到返回 -1。编译时建表，运行时只读。 */
+    private static final class PairRanks {
+        private final LongBuffer keys;
+        private final IntBuffer values;
+        private final int mask;
+
+        PairRanks(LongBuffer keys, IntBuffer values) {
+            this.keys = keys;
+            this.values = values;
+            this.mask = values.limit() - 1;
+        }
+
+        static int capacityFor(int expected) {
+            return Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+        }
+
+        static void put(long[] keys, int[] values, int left, int right, int value) {
+            int mask = values.length - 1;
+            long key = pack(left, right);
+            int slot = slot(key, mask);
+            while (values[slot] >= 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(int left, int right) {
+            long key = pack(left, right);
+            int slot = slot(key, mask);
+            int value;
+            while ((value = values.get(slot)) >= 0) {
+                if (keys.get(slot) == key) return value;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static long pack(int left, int right) {
+            return ((long) left << 32) | (right & 0xFFFFFFFFL);
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
         }
-        return pairs;
     }
 
-    private List<String[]> loadMerges(Context context) throws IOException {
+    private static List<String[]> loadMerges(InputStream raw) throws IOException {
         List<String[]> merges = new ArrayList<>();
-        try (InputStream raw = openVocab(context);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8))) {
             String line;
             boolean firstLine = true;
             // Stop early so tokenizer vocab aligns with model embedding rows (49408).
@@ -207,7 +315,7 @@ final class ClipTextTokenizer {
         return merges;
     }
 
-    private InputStream openVocab(Context context) throws IOException {
+    private static InputStream openVocab(Context context) throws IOException {
         // Some build pipelines unpack the .gz into a plain .txt. Try gz first, then fallback.
         try {
             return new GZIPInputStream(context.getAssets().open(VOCAB_ASSET_GZ));
@@ -216,7 +324,7 @@ final class ClipTextTokenizer {
         }
     }
 
-    private Map<Integer, String> bytesToUnicode() {
+    private static Map<Integer, String> bytesToUnicode() {
         Map<Integer, String> map = new HashMap<>();
         List<Integer> bs = new ArrayList<>();
         for (int i = (int) '!'; i <= '~'; i++) bs.add(i);
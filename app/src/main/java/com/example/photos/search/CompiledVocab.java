@@ -0,0 +1,220 @@
+package com.example.photos.search;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * 分词器词表的预编译二进制缓存：首次使用时从文本/JSON 词表编译一次落盘，之后直接 mmap，
+ * 不再解析文本、也不再为几万个词条各建一个 String key。
+ *
+ * 文件布局：magic(4) | version(4) | stamp(8) | body。stamp 由调用方给（源文件大小/时间，或 assets 来源时
+ * {@link #stampOf} 折算的 ModelFiles.installStamp），对不上就当不存在，重新编译。
+ */
+final class CompiledVocab {
+    private static final String TAG = "CompiledVocab";
+    private static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    private CompiledVocab() {}
+
+    /** 字符串 stamp（如 ModelFiles.installStamp）折成 header 里的 8 字节：64 位 FNV-1a。 */
+    static long stampOf(String stamp) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < stamp.length(); i++) {
+            h ^= stamp.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** 映射已编译的文件，返回 body（little-endian，position 0）；缺失、损坏或 stamp 不符时返回 null。 */
+    static ByteBuffer map(File file, int magic, long stamp) {
+        if (!file.exists() || file.length() <= HEADER_BYTES) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != magic || buf.getInt(4) != VERSION || buf.getLong(8) != stamp) {
+                return null;
+            }
+            buf.position(HEADER_BYTES);
+            return buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        } catch (Exception e) {
+            Log.w(TAG, "map failed: " + file, e);
+            return null;
+        }
+    }
+
+    /** 写 header + body，先写临时文件再 rename。失败只打日志，下次启动再编译。 */
+    static void write(File file, int magic, long stamp, ByteBuffer body) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer hdr = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            hdr.putInt(magic).putInt(VERSION).putLong(stamp);
+            hdr.flip();
+            ByteBuffer data = body.duplicate();
+            data.rewind();
+            while (hdr.hasRemaining()) ch.write(hdr);
+            while (data.hasRemaining()) ch.write(data);
+        } catch (Exception e) {
+            Log.w(TAG, "write failed: " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "rename failed: " + tmp);
+            tmp.delete();
+        }
+    }
+
+    /** ByteBuffer 从 byte offset 开始的 int 视图（不改动原 buffer 的 position）。 */
+    static IntBuffer intsAt(ByteBuffer buf, int byteOffset, int count) {
+        ByteBuffer dup = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        dup.position(byteOffset);
+        dup.limit(byteOffset + count * 4);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * 有序字符串表：UTF-8 字节序排好的 token blob + 对应 id，token -> id 走二分，id -> token 走反查表。
+     * body 布局：count | maxId | blobLen | ids[count] | offsets[count + 1] | byId[maxId + 1] | blob。
+     */
+    static final class StringTable {
+        static final StringTable EMPTY = new StringTable(encode(Collections.<String, Integer>emptyMap()));
+
+        private final ByteBuffer buf;
+        private final int count;
+        private final IntBuffer ids;
+        private final IntBuffer offsets;
+        private final IntBuffer byId;
+        private final int blobStart;
+
+        StringTable(ByteBuffer body) {
+            this.buf = body.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.count = buf.getInt(0);
+            int maxId = buf.getInt(4);
+            int pos = 12;
+            this.ids = intsAt(buf, pos, count);
+            pos += count * 4;
+            this.offsets = intsAt(buf, pos, count + 1);
+            pos += (count + 1) * 4;
+            this.byId = intsAt(buf, pos, maxId + 1);
+            pos += (maxId + 1) * 4;
+            this.blobStart = pos;
+        }
+
+        static ByteBuffer encode(Map<String, Integer> tokenToId) {
+            int n = tokenToId.size();
+            byte[][] keys = new byte[n][];
+            int[] values = new int[n];
+            Integer[] order = new Integer[n];
+            int i = 0;
+            int maxId = -1;
+            int blobLen = 0;
+            for (Map.Entry<String, Integer> e : tokenToId.entrySet()) {
+                keys[i] = e.getKey().getBytes(StandardCharsets.UTF_8);
+                values[i] = e.getValue();
+                order[i] = i;
+                maxId = Math.max(maxId, values[i]);
+                blobLen += keys[i].length;
+                i++;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compareBytes(keys[a], keys[b]);
+                }
+            });
+            int bytes = 12 + n * 4 + (n + 1) * 4 + (maxId + 1) * 4 + blobLen;
+            ByteBuffer out = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(n).putInt(maxId).putInt(blobLen);
+            for (int k = 0; k < n; k++) out.putInt(values[order[k]]);
+            int off = 0;
+            for (int k = 0; k < n; k++) {
+                out.putInt(off);
+                off += keys[order[k]].length;
+            }
+            out.putInt(off);
+            int[] byId = new int[maxId + 1];
+            Arrays.fill(byId, -1);
+            for (int k = 0; k < n; k++) {
+                int id = values[order[k]];
+                if (id >= 0) byId[id] = k;
+            }
+            for (int v : byId) out.putInt(v);
+            for (int k = 0; k < n; k++) out.put(keys[order[k]]);
+            out.flip();
+            return out;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /** token 的 id，不存在返回 -1。 */
+        int idOf(String token) {
+            byte[] key = token.getBytes(StandardCharsets.UTF_8);
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compareAt(mid, key);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return ids.get(mid);
+                }
+            }
+            return -1;
+        }
+
+        /** id 对应的 token，不存在返回 null。 */
+        String tokenOf(int id) {
+            if (id < 0 || id >= byId.limit()) return null;
+            int entry = byId.get(id);
+            if (entry < 0) return null;
+            int start = offsets.get(entry);
+            byte[] bytes = new byte[offsets.get(entry + 1) - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(blobStart + start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int compareAt(int entry, byte[] key) {
+            int start = blobStart + offsets.get(entry);
+            int len = offsets.get(entry + 1) - offsets.get(entry);
+            int n = Math.min(len, key.length);
+            for (int i = 0; i < n; i++) {
+                int c = (buf.get(start + i) & 0xFF) - (key[i] & 0xFF);
+                if (c != 0) return c;
+            }
+            return len - key.length;
+        }
+
+        private static int compareBytes(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (c != 0) return c;
+            }
+            return a.length - b.length;
+        }
+    }
+}
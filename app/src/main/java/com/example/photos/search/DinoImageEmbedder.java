@@ -3,24 +3,32 @@ package com.example.photos.search;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
 import com.example.photos.db.PhotoAsset;
+import com.example.photos.model.BatchSizer;
 import com.example.photos.model.NnapiController;
+import com.example.photos.model.OrtSessions;
+import com.example.photos.sync.BatchedInference;
+import com.example.photos.util.BitmapDecoder;
+import com.example.photos.util.ModelFiles;
+import com.example.photos.util.PerfLogger;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Collections;
 
@@ -45,6 +53,7 @@ public final class DinoImageEmbedder {
     private static OrtEnvironment env;
     private static OrtSession session;
     private static boolean usingNnapi = false;
+    private static boolean dynamicBatch = false;
     private static String cachedModelPath;
     private static String inputName = "pixel_values";
     private static String outputName = "pooler_output";
@@ -83,20 +92,7 @@ public final class DinoImageEmbedder {
             bmp = decodeAndCenterCrop(context, uri, inputSize, inputSize);
             if (bmp == null) return null;
             float[] chw = toCHWNormalized(bmp);
-            float[] embedding = null;
-            try {
-                embedding = runOnnx(chw);
-                NnapiController.recordSuccess(context, "dino_image");
-            } catch (Throwable t) {
-                Log.w(TAG, "runOnnx failed (dino_image) nnapi=" + usingNnapi + " err=" + t);
-                if (usingNnapi && fallbackToCpu(context)) {
-                    try {
-                        embedding = runOnnx(chw);
-                    } catch (Throwable t2) {
-                        Log.w(TAG, "runOnnx retry on CPU failed", t2);
-                    }
-                }
-            }
+            float[] embedding = runSingle(context, chw);
             if (embedding == null) return null;
             l2Normalize(embedding);
             return embedding;
@@ -108,35 +104,101 @@ public final class DinoImageEmbedder {
         }
     }
 
+    public static int inputSize(Context context) {
+        ensureInitialized(context.getApplicationContext());
+        return inputSize;
+    }
+
+    /** Crop + normalize from an already decoded bitmap; {@code src} is not recycled. */
+    @Nullable
+    public static float[] preprocess(Context context, @Nullable Bitmap src) {
+        ensureInitialized(context.getApplicationContext());
+        if (src == null) return null;
+        Bitmap crop = BitmapDecoder.centerCrop(src, inputSize, inputSize);
+        try {
+            return toCHWNormalized(crop);
+        } finally {
+            if (crop != src) crop.recycle();
+        }
+    }
+
+    /**
+     * Runs inputs produced by {@link #preprocess}; result lines up with {@code chws}, null inputs
+     * or failures give null entries. Single runs go through the NNAPI → CPU fallback.
+     */
+    public static List<float[]> encodePreprocessed(Context context, List<float[]> chws) {
+        ensureInitialized(context.getApplicationContext());
+        if (!initialized || session == null) {
+            return new ArrayList<>(Collections.nCopies(chws == null ? 0 : chws.size(), (float[]) null));
+        }
+        Context app = context.getApplicationContext();
+        return BatchedInference.run(chws, preferredBatchSize(context), new BatchedInference.Runner() {
+            @Override
+            public float[][] runBatch(List<float[]> inputs) throws Exception {
+                return runOnnxBatch(inputs);
+            }
+
+            @Override
+            public float[] runOne(float[] chw) {
+                return runSingle(app, chw);
+            }
+        }, TAG);
+    }
+
+    /** NNAPI 不支持动态 shape，走 NNAPI 时固定 1。 */
+    public static int preferredBatchSize(Context context) {
+        ensureInitialized(context.getApplicationContext());
+        if (!initialized || !dynamicBatch || usingNnapi) return 1;
+        return BatchSizer.forInput(context, 3, inputSize, inputSize);
+    }
+
+    @Nullable
+    private static float[] runSingle(Context context, float[] chw) {
+        try {
+            float[] embedding = runOnnx(chw);
+            NnapiController.recordSuccess(context, "dino_image");
+            return embedding;
+        } catch (Throwable t) {
+            Log.w(TAG, "runOnnx failed (dino_image) nnapi=" + usingNnapi + " err=" + t);
+            if (usingNnapi && fallbackToCpu(context)) {
+                try {
+                    return runOnnx(chw);
+                } catch (Throwable t2) {
+                    Log.w(TAG, "runOnnx retry on CPU failed", t2);
+                }
+            }
+            return null;
+        }
+    }
+
     private static void ensureInitialized(Context context) {
         if (initialized) return;
         synchronized (LOCK) {
             if (initialized) return;
+            long initStart = SystemClock.elapsedRealtime();
             try {
                 initFailed = false;
                 AssetManager am = context.getAssets();
                 loadConfig(am);
-                File model = copyAssetToCache(context, modelAsset, fileName(modelAsset, "dinov3.onnx"));
-                File modelData = copyAssetToCache(context, modelDataAsset, fileName(modelDataAsset, "dinov3.onnx.data"));
+                File model = ModelFiles.ensureInCache(context, modelAsset, fileName(modelAsset, "dinov3.onnx"));
+                File modelData = ModelFiles.ensureInCache(context, modelDataAsset, fileName(modelDataAsset, "dinov3.onnx.data"));
                 if (model == null || !model.exists()) {
                     throw new IllegalStateException("Model asset missing: " + modelAsset);
                 }
                 cachedModelPath = model.getAbsolutePath();
-                OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
                 env = OrtEnvironment.getEnvironment();
                 boolean useNnapi = NnapiController.shouldUseNnapi(context, "dino_image");
-                if (useNnapi) {
-                    opts.addNnapi();
-                }
                 try {
-                    session = env.createSession(cachedModelPath, opts);
+                    // 主要负载是后台批量 embedding；查询图只编码一张，不值得单独再开一个 session
+                    session = useNnapi
+                            ? OrtSessions.createNnapi(env, "dino_image", model, OrtSessions.Profile.BACKGROUND)
+                            : OrtSessions.create(env, context, "dino_image", model, OrtSessions.Profile.BACKGROUND);
                     usingNnapi = useNnapi;
                     NnapiController.recordSuccess(context, "dino_image");
                 } catch (Throwable nnapiErr) {
                     Log.w(TAG, "NNAPI session failed for DINO, fallback to CPU", nnapiErr);
                     NnapiController.recordFailure(context, "dino_image");
-                    OrtSession.SessionOptions cpuOpts = new OrtSession.SessionOptions();
-                    session = env.createSession(cachedModelPath, cpuOpts);
+                    session = OrtSessions.create(env, context, "dino_image", model, OrtSessions.Profile.BACKGROUND);
                     usingNnapi = false;
                 }
                 if (modelData != null && modelData.exists()) {
@@ -151,8 +213,14 @@ public final class DinoImageEmbedder {
                         outputName = session.getOutputNames().iterator().next();
                     }
                 }
+                dynamicBatch = session != null && BatchedInference.hasDynamicBatch(session, inputName);
                 initialized = true;
-                Log.i(TAG, "DINOv3 encoder ready. input=" + inputName + " output=" + outputName);
+                HashMap<String, Object> initExtra = new HashMap<>();
+                initExtra.put("model", "dino_image");
+                initExtra.put("nnapi", usingNnapi);
+                PerfLogger.log("model_init", SystemClock.elapsedRealtime() - initStart, null, initExtra);
+                Log.i(TAG, "DINOv3 encoder ready. input=" + inputName + " output=" + outputName
+                        + " dynamicBatch=" + dynamicBatch);
             } catch (Throwable t) {
                 initFailed = true;
                 Log.w(TAG, "Failed to init DINOv3 encoder: " + t);
@@ -162,12 +230,29 @@ public final class DinoImageEmbedder {
 
     @Nullable
     private static float[] runOnnx(float[] chw) throws Exception {
+        float[][] value = runOnnx(FloatBuffer.wrap(chw), 1);
+        return value != null ? value[0] : null;
+    }
+
+    @Nullable
+    private static float[][] runOnnxBatch(List<float[]> chws) throws Exception {
+        int n = chws.size();
+        int per = 3 * inputSize * inputSize;
+        FloatBuffer fb = ByteBuffer.allocateDirect(n * per * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (float[] chw : chws) {
+            fb.put(chw, 0, per);
+        }
+        fb.rewind();
+        return runOnnx(fb, n);
+    }
+
+    @Nullable
+    private static float[][] runOnnx(FloatBuffer fb, int n) throws Exception {
         if (session == null || env == null) return null;
-        FloatBuffer fb = FloatBuffer.wrap(chw);
         OnnxTensor tensor = null;
         OrtSession.Result out = null;
         try {
-            tensor = OnnxTensor.createTensor(env, fb, new long[]{1, 3, inputSize, inputSize});
+            tensor = OnnxTensor.createTensor(env, fb, new long[]{n, 3, inputSize, inputSize});
             out = session.run(Collections.singletonMap(inputName, tensor));
             String target = outputName;
             float[][] value = null;
@@ -185,7 +270,7 @@ public final class DinoImageEmbedder {
             if (ov != null) {
                 value = (float[][]) ov.getValue();
             }
-            return value != null && value.length > 0 ? value[0] : null;
+            return value != null && value.length == n ? value : null;
         } finally {
             if (out != null) try { out.close(); } catch (Throwable ignore) {}
             if (tensor != null) try { tensor.close(); } catch (Throwable ignore) {}
@@ -231,28 +316,11 @@ public final class DinoImageEmbedder {
 
     @Nullable
     private static Bitmap decodeAndCenterCrop(Context context, Uri uri, int tw, int th) {
-        try (InputStream is = context.getContentResolver().openInputStream(uri)) {
-            if (is == null) return null;
-            Bitmap src = BitmapFactory.decodeStream(is);
-            if (src == null) return null;
-            int w = Math.max(1, src.getWidth());
-            int h = Math.max(1, src.getHeight());
-            float scale = Math.max(tw / (float) w, th / (float) h);
-            int sw = Math.max(1, Math.round(w * scale));
-            int sh = Math.max(1, Math.round(h * scale));
-            Bitmap scaled = Bitmap.createScaledBitmap(src, sw, sh, true);
-            if (scaled != src) src.recycle();
-            int x = Math.max(0, (sw - tw) / 2);
-            int y = Math.max(0, (sh - th) / 2);
-            Bitmap out = Bitmap.createBitmap(scaled, x, y,
-                    Math.min(tw, scaled.getWidth() - x),
-                    Math.min(th, scaled.getHeight() - y));
-            if (out != scaled) scaled.recycle();
-            return out;
-        } catch (Throwable t) {
-            Log.w(TAG, "decode failed: " + t);
-            return null;
-        }
+        Bitmap src = BitmapDecoder.decodeSampled(context, uri, Math.max(tw, th), 0);
+        if (src == null) return null;
+        Bitmap out = BitmapDecoder.centerCrop(src, tw, th);
+        if (out != src) src.recycle();
+        return out;
     }
 
     private static float[] toCHWNormalized(Bitmap bmp) {
@@ -285,26 +353,6 @@ public final class DinoImageEmbedder {
         }
     }
 
-    @Nullable
-    private static File copyAssetToCache(Context ctx, String assetPath, String outName) {
-        if (assetPath == null) return null;
-        try {
-            AssetManager am = ctx.getAssets();
-            File out = new File(ctx.getCacheDir(), outName);
-            try (InputStream is = am.open(assetPath); FileOutputStream fos = new FileOutputStream(out)) {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = is.read(buf)) > 0) {
-                    fos.write(buf, 0, n);
-                }
-            }
-            return out;
-        } catch (Throwable t) {
-            Log.w(TAG, "copyAssetToCache failed: " + assetPath + " -> " + t);
-            return null;
-        }
-    }
-
     private static String fileName(String assetPath, String fallback) {
         if (assetPath == null || assetPath.trim().isEmpty()) {
             return fallback;
@@ -322,8 +370,8 @@ public final class DinoImageEmbedder {
                 return false;
             }
             try {
-                OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
-                session = env.createSession(cachedModelPath, opts);
+                session = OrtSessions.create(env, context, "dino_image", new File(cachedModelPath),
+                        OrtSessions.Profile.BACKGROUND);
                 usingNnapi = false;
                 NnapiController.recordFailure(context, "dino_image");
                 Log.w(TAG, "Fallback to CPU session for dino_image");
@@ -0,0 +1,856 @@
+package com.example.photos.search;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.photos.db.FeatureDao;
+import com.example.photos.db.FeatureRecord;
+import com.example.photos.db.PhotosDb;
+import com.example.photos.db.VectorRowDao;
+import com.example.photos.db.VectorRowRecord;
+import com.example.photos.features.FeatureEncoding;
+import com.example.photos.features.FeatureType;
+import com.example.photos.settings.SearchPreferences;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Contiguous vector file per FeatureType, memory-mapped for linear scans.
+ * <p>
+ * Layout: 32-byte header (magic, version, dim, count, deleted, encoding, epoch) followed by count
+ * fixed-size little-endian rows: dim floats (FP32), dim halves (FP16) or a float scale plus dim
+ * signed bytes (INT8). Row -> (mediaKey, faceId) lives in the vector_rows table; deleted rows
+ * are tombstoned by writing NaN into their first component (the scale for INT8). The epoch
+ * changes on every full rebuild, i.e. whenever ordinals are reassigned, so indexes that refer to
+ * rows by ordinal can tell they are stale.
+ */
+public final class FlatVectorStore {
+
+    private static final String TAG = "FlatVectorStore";
+    private static final int MAGIC = 0x50564543; // "PVEC"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 32;
+    private static final int OFF_DIM = 8;
+    private static final int OFF_COUNT = 12;
+    private static final int OFF_DELETED = 16;
+    private static final int OFF_ENCODING = 20;
+    private static final int OFF_EPOCH = 24;
+    private static final short HALF_NAN = (short) 0x7E00;
+    private static final int SYNC_PAGE = 256;
+    private static final Map<FeatureType, FlatVectorStore> INSTANCES = new EnumMap<>(FeatureType.class);
+
+    private final Object lock = new Object();
+    /** Serializes rebuilds (they share the tmp file); always taken before {@code lock}. */
+    private final Object rebuildLock = new Object();
+    private final Context app;
+    private final FeatureType type;
+    private final File file;
+    private final PhotosDb db;
+    private final VectorRowDao rowDao;
+    private MappedByteBuffer mapped;
+    private ByteBuffer body;
+    private FloatBuffer floats;
+    private ShortBuffer halves;
+    private long mappedLength = -1L;
+    private FeatureEncoding.Encoding encoding = FeatureEncoding.Encoding.FP32;
+    private int rowBytes;
+    private int dim;
+    private int count;
+    private int deleted;
+    private long epoch;
+    /** Bumped under {@code lock} by every write; lets {@link #rebuild} spot writes it raced with. */
+    private long generation;
+
+    private FlatVectorStore(Context app, FeatureType type) {
+        this.app = app;
+        this.type = type;
+        this.file = new File(app.getFilesDir(), fileNameFor(type));
+        this.db = PhotosDb.get(app);
+        this.rowDao = db.vectorRowDao();
+    }
+
+    public static FlatVectorStore forType(Context context, FeatureType type) {
+        synchronized (INSTANCES) {
+            FlatVectorStore store = INSTANCES.get(type);
+            if (store == null) {
+                store = new FlatVectorStore(context.getApplicationContext(), type);
+                INSTANCES.put(type, store);
+            }
+            return store;
+        }
+    }
+
+    /** Drop a media item from the CLIP, DINO and face stores. */
+    public static void removeFromAll(Context context, String mediaKey) {
+        if (mediaKey == null) return;
+        forType(context, FeatureType.CLIP_IMAGE_EMB).remove(mediaKey);
+        forType(context, FeatureType.DINO_IMAGE_EMB).remove(mediaKey);
+        forType(context, FeatureType.FACE_SFACE_EMB).remove(mediaKey);
+    }
+
+    public static void clearAll(Context context) {
+        forType(context, FeatureType.CLIP_IMAGE_EMB).clear();
+        forType(context, FeatureType.DINO_IMAGE_EMB).clear();
+        forType(context, FeatureType.FACE_SFACE_EMB).clear();
+    }
+
+    public int dimension() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return dim;
+        }
+    }
+
+    /** Number of live (non-tombstoned) rows. */
+    public int size() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return count - deleted;
+        }
+    }
+
+    /** Rows in the file including tombstones; ordinals are {@code [0, rowCount)}. */
+    public int rowCount() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return count;
+        }
+    }
+
+    /** Changes whenever {@link #rebuild} renumbers the rows; 0 when there is no file. */
+    public long epoch() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return epoch;
+        }
+    }
+
+    /** Tombstoned rows still occupying ordinals; they go away on {@link #rebuild}. */
+    public int deletedCount() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return deleted;
+        }
+    }
+
+    /**
+     * Lock-free snapshot of the current mapping for hot loops such as graph traversal. Rows
+     * appended afterwards are not visible; tombstones written later are. Null when empty.
+     */
+    @Nullable
+    public View view() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            if (body == null || dim == 0) return null;
+            return new View(body, floats, halves, encoding, rowBytes, dim, count, epoch);
+        }
+    }
+
+    /** Row encoding of the mapped file (FP32 when there is no file yet). */
+    public FeatureEncoding.Encoding encoding() {
+        synchronized (lock) {
+            ensureMappedLocked();
+            return encoding;
+        }
+    }
+
+    /**
+     * Rebuild from features_sparse when the live row count no longer matches Room, e.g. after
+     * upgrading from a build without the vector file or after rows were deleted elsewhere, or
+     * when the preferred vector encoding changed.
+     */
+    public boolean syncIfStale(FeatureDao featureDao) {
+        int expected = featureDao.countNonEmptyByType(type.getCode());
+        int live = size();
+        FeatureEncoding.Encoding want = SearchPreferences.getVectorEncoding(app);
+        if (expected == live && (live == 0 || encoding() == want)) {
+            return false;
+        }
+        Log.i(TAG, type + " stale live=" + live + " expected=" + expected + " encoding=" + want + ", rebuilding");
+        rebuild(featureDao);
+        return true;
+    }
+
+    /**
+     * Rewrites the file from features_sparse without tombstones. The file is written outside
+     * {@code lock} so searches keep running; an append or remove landing meanwhile would be lost
+     * at the swap, so if the generation moved the rebuild is redone under the lock. Callers write
+     * features_sparse before calling append/remove, so the redo picks those changes up.
+     */
+    public void rebuild(FeatureDao featureDao) {
+        synchronized (rebuildLock) {
+            long startGeneration;
+            synchronized (lock) {
+                startGeneration = generation;
+            }
+            Rebuilt built = writeRebuild(featureDao);
+            if (built == null) return;
+            synchronized (lock) {
+                if (generation != startGeneration) {
+                    Log.i(TAG, type + " changed during rebuild, redoing under lock");
+                    deleteIfExists(built.tmp);
+                    built = writeRebuild(featureDao);
+                    if (built == null) return;
+                }
+                swapLocked(built);
+            }
+            Log.i(TAG, type + " rebuilt rows=" + built.rows.size() + " dim=" + built.dim
+                    + " encoding=" + built.encoding);
+        }
+    }
+
+    /** Result of {@link #writeRebuild}: the finished tmp file and the row mapping it needs. */
+    private static final class Rebuilt {
+        final File tmp;
+        final List<VectorRowRecord> rows;
+        final int dim;
+        final FeatureEncoding.Encoding encoding;
+
+        Rebuilt(File tmp, List<VectorRowRecord> rows, int dim, FeatureEncoding.Encoding encoding) {
+            this.tmp = tmp;
+            this.rows = rows;
+            this.dim = dim;
+            this.encoding = encoding;
+        }
+    }
+
+    @Nullable
+    private Rebuilt writeRebuild(FeatureDao featureDao) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        List<VectorRowRecord> rows = new ArrayList<>();
+        FeatureEncoding.Encoding enc = SearchPreferences.getVectorEncoding(app);
+        long newEpoch = Math.max(System.currentTimeMillis(), epoch() + 1);
+        int newDim = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            raf.setLength(0);
+            ch.position(HEADER_BYTES);
+            String afterKey = "";
+            int afterFace = -1;
+            while (true) {
+                List<FeatureRecord> page = featureDao.getPageAfter(type.getCode(), afterKey, afterFace, SYNC_PAGE);
+                if (page == null || page.isEmpty()) break;
+                for (FeatureRecord r : page) {
+                    if (r.vector == null || r.vector.length == 0) continue;
+                    float[] v = FeatureEncoding.bytesToFloats(r.vector);
+                    int d = v.length;
+                    if (newDim == 0) newDim = d;
+                    if (d != newDim) continue;
+                    writeFully(ch, encodeRow(v, enc));
+                    rows.add(newRow(rows.size(), r.mediaKey, r.faceId));
+                }
+                FeatureRecord last = page.get(page.size() - 1);
+                afterKey = last.mediaKey;
+                afterFace = last.faceId;
+            }
+            writeHeader(ch, newDim, rows.size(), 0, enc, newEpoch);
+        } catch (Exception e) {
+            Log.w(TAG, "rebuild " + type + " failed", e);
+            deleteIfExists(tmp);
+            return null;
+        }
+        return new Rebuilt(tmp, rows, newDim, enc);
+    }
+
+    /**
+     * File first, then vector_rows: a failed rename leaves both the old file and the old mapping.
+     * If the mapping cannot be written after the rename, the new file is dropped so no ordinal
+     * points into the wrong file; the next {@link #syncIfStale} rebuilds it.
+     */
+    private void swapLocked(Rebuilt built) {
+        unmapLocked();
+        if (!built.tmp.renameTo(file)) {
+            Log.w(TAG, "rename " + built.tmp + " failed");
+            deleteIfExists(built.tmp);
+            return;
+        }
+        generation++;
+        try {
+            db.runInTransaction(() -> {
+                rowDao.deleteByType(type.getCode());
+                for (int i = 0; i < built.rows.size(); i += SYNC_PAGE) {
+                    rowDao.upsert(built.rows.subList(i, Math.min(built.rows.size(), i + SYNC_PAGE)));
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.w(TAG, "vector_rows swap for " + type + " failed, dropping the new file", e);
+            deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Append freshly encoded records. Existing rows for the same mediaKeys are tombstoned first,
+     * so re-encoding (force mode) never leaves two live rows for one item.
+     */
+    public void append(List<FeatureRecord> records) {
+        if (records == null || records.isEmpty()) return;
+        synchronized (lock) {
+            generation++;
+            ensureMappedLocked();
+            Set<String> keys = new LinkedHashSet<>();
+            for (FeatureRecord r : records) {
+                if (r != null && r.mediaKey != null) keys.add(r.mediaKey);
+            }
+            for (String key : keys) {
+                removeLocked(key);
+            }
+            int curDim = dim;
+            int curCount = count;
+            // 已有文件沿用它的编码；新文件按当前偏好
+            FeatureEncoding.Encoding enc = curDim == 0 ? SearchPreferences.getVectorEncoding(app) : encoding;
+            long curEpoch = curDim == 0 ? System.currentTimeMillis() : epoch;
+            List<VectorRowRecord> rows = new ArrayList<>(records.size());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel ch = raf.getChannel()) {
+                ch.position(HEADER_BYTES + (long) curCount * rowBytes);
+                for (FeatureRecord r : records) {
+                    if (r == null || r.mediaKey == null || r.vector == null || r.vector.length == 0) continue;
+                    float[] v = FeatureEncoding.bytesToFloats(r.vector);
+                    int d = v.length;
+                    if (curDim == 0) {
+                        curDim = d;
+                        ch.position(HEADER_BYTES);
+                    }
+                    if (d != curDim) continue;
+                    writeFully(ch, encodeRow(v, enc));
+                    rows.add(newRow(curCount++, r.mediaKey, r.faceId));
+                }
+                writeHeader(ch, curDim, curCount, deleted, enc, curEpoch);
+            } catch (Exception e) {
+                Log.w(TAG, "append " + type + " failed", e);
+                return;
+            } finally {
+                unmapLocked();
+            }
+            if (!rows.isEmpty()) {
+                rowDao.upsert(rows);
+            }
+        }
+    }
+
+    public void remove(String mediaKey) {
+        if (mediaKey == null) return;
+        synchronized (lock) {
+            generation++;
+            ensureMappedLocked();
+            removeLocked(mediaKey);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            generation++;
+            unmapLocked();
+            deleteIfExists(file);
+            rowDao.deleteByType(type.getCode());
+        }
+    }
+
+    /** Top-K rows by dot product against a single query. */
+    public List<Hit> search(float[] query, int topK) {
+        return search(new float[][]{query}, topK);
+    }
+
+    /**
+     * Top-K rows where each row's score is its best dot product over all queries
+     * (used for multi-face queries). Vectors are read straight from the mapping.
+     */
+    public List<Hit> search(float[][] queries, int topK) {
+        if (queries == null || queries.length == 0 || topK <= 0) return Collections.emptyList();
+        synchronized (lock) {
+            ensureMappedLocked();
+            if (body == null || count == 0 || dim == 0) return Collections.emptyList();
+            for (float[] q : queries) {
+                if (q == null || q.length != dim) {
+                    Log.w(TAG, type + " query dim mismatch, store dim=" + dim);
+                    return Collections.emptyList();
+                }
+            }
+            int k = Math.min(topK, count);
+            int[] heapRows = new int[k];
+            float[] heapScores = new float[k];
+            int size = 0;
+            FloatBuffer fb = floats;
+            // 量化行先整行拷进数组，再走 FeatureEncoding 的量化点积
+            ShortBuffer hb = halves == null ? null : halves.duplicate();
+            ByteBuffer bb = encoding == FeatureEncoding.Encoding.INT8 ? body.duplicate() : null;
+            short[] halfRow = hb == null ? null : new short[dim];
+            byte[] codeRow = bb == null ? null : new byte[dim];
+            for (int row = 0; row < count; row++) {
+                if (isDeletedLocked(row)) continue;
+                float scale = 0f;
+                if (hb != null) {
+                    hb.position(row * dim);
+                    hb.get(halfRow, 0, dim);
+                } else if (bb != null) {
+                    int off = row * rowBytes;
+                    scale = body.getFloat(off);
+                    bb.position(off + 4);
+                    bb.get(codeRow, 0, dim);
+                }
+                float best = -Float.MAX_VALUE;
+                for (float[] q : queries) {
+                    float s;
+                    if (hb != null) {
+                        s = FeatureEncoding.dotFp16(q, halfRow, 0);
+                    } else if (bb != null) {
+                        s = FeatureEncoding.dotInt8(q, codeRow, 0, scale);
+                    } else {
+                        int base = row * dim;
+                        s = 0f;
+                        for (int i = 0; i < dim; i++) {
+                            s += q[i] * fb.get(base + i);
+                        }
+                    }
+                    if (s > best) best = s;
+                }
+                if (size < k) {
+                    heapRows[size] = row;
+                    heapScores[size] = best;
+                    siftUp(heapRows, heapScores, size++);
+                } else if (best > heapScores[0]) {
+                    heapRows[0] = row;
+                    heapScores[0] = best;
+                    siftDown(heapRows, heapScores, size);
+                }
+            }
+            return resolveLocked(heapRows, heapScores, size);
+        }
+    }
+
+    /** Copies a single row out of the mapping; null when missing or tombstoned. */
+    @Nullable
+    public float[] vectorAt(int ordinal) {
+        synchronized (lock) {
+            ensureMappedLocked();
+            if (body == null || ordinal < 0 || ordinal >= count) return null;
+            if (isDeletedLocked(ordinal)) return null;
+            float[] out = new float[dim];
+            readRowLocked(ordinal, out);
+            return out;
+        }
+    }
+
+    /**
+     * Exact scores for a candidate shortlist (e.g. from an approximate index): each row's score is
+     * its best dot product over {@code queries}. Out-of-range and tombstoned ordinals are skipped.
+     */
+    public ScoredOrdinals rescore(float[][] queries, int[] ordinals, int n, int topK) {
+        if (queries == null || queries.length == 0 || n <= 0 || topK <= 0) return ScoredOrdinals.EMPTY;
+        synchronized (lock) {
+            ensureMappedLocked();
+            if (body == null || dim == 0) return ScoredOrdinals.EMPTY;
+            int k = Math.min(topK, n);
+            int[] heapRows = new int[k];
+            float[] heapScores = new float[k];
+            int size = 0;
+            float[] v = new float[dim];
+            for (int i = 0; i < n; i++) {
+                int row = ordinals[i];
+                if (row < 0 || row >= count || isDeletedLocked(row)) continue;
+                readRowLocked(row, v);
+                float best = -Float.MAX_VALUE;
+                for (float[] q : queries) {
+                    if (q == null || q.length != dim) continue;
+                    float s = 0f;
+                    for (int d = 0; d < dim; d++) {
+                        s += q[d] * v[d];
+                    }
+                    if (s > best) best = s;
+                }
+                if (size < k) {
+                    heapRows[size] = row;
+                    heapScores[size] = best;
+                    siftUp(heapRows, heapScores, size++);
+                } else if (best > heapScores[0]) {
+                    heapRows[0] = row;
+                    heapScores[0] = best;
+                    siftDown(heapRows, heapScores, size);
+                }
+            }
+            return ScoredOrdinals.fromMinHeap(heapRows, heapScores, size);
+        }
+    }
+
+    /** mediaKey/faceId for each ordinal in one lookup, keeping the given order; unknown rows are dropped. */
+    public List<Hit> resolve(ScoredOrdinals hits) {
+        if (hits == null || hits.size == 0) return Collections.emptyList();
+        List<Integer> ordinals = new ArrayList<>(hits.size);
+        for (int i = 0; i < hits.size; i++) ordinals.add(hits.ordinals[i]);
+        Map<Integer, VectorRowRecord> byOrdinal = new HashMap<>();
+        for (VectorRowRecord r : rowDao.findByOrdinals(type.getCode(), ordinals)) {
+            byOrdinal.put(r.ordinal, r);
+        }
+        List<Hit> out = new ArrayList<>(hits.size);
+        for (int i = 0; i < hits.size; i++) {
+            VectorRowRecord r = byOrdinal.get(hits.ordinals[i]);
+            if (r == null) continue;
+            out.add(new Hit(hits.ordinals[i], r.mediaKey, r.faceId, hits.scores[i]));
+        }
+        return out;
+    }
+
+    private void readRowLocked(int row, float[] out) {
+        int base = row * dim;
+        switch (encoding) {
+            case FP16:
+                for (int i = 0; i < dim; i++) {
+                    out[i] = FeatureEncoding.halfToFloat(halves.get(base + i));
+                }
+                break;
+            case INT8: {
+                int off = row * rowBytes;
+                float scale = body.getFloat(off);
+                for (int i = 0; i < dim; i++) {
+                    out[i] = body.get(off + 4 + i) * scale;
+                }
+                break;
+            }
+            default:
+                for (int i = 0; i < dim; i++) {
+                    out[i] = floats.get(base + i);
+                }
+        }
+    }
+
+    private List<Hit> resolveLocked(int[] rows, float[] scores, int size) {
+        return resolve(ScoredOrdinals.fromMinHeap(rows, scores, size));
+    }
+
+    private void removeLocked(String mediaKey) {
+        if (mapped == null || count == 0 || dim == 0) return;
+        List<Integer> ordinals = rowDao.ordinalsForKey(type.getCode(), mediaKey);
+        if (ordinals == null || ordinals.isEmpty()) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel ch = raf.getChannel()) {
+            ByteBuffer nan = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            for (Integer ord : ordinals) {
+                if (ord == null || ord < 0 || ord >= count) continue;
+                if (isDeletedLocked(ord)) continue;
+                nan.clear();
+                if (encoding == FeatureEncoding.Encoding.FP16) {
+                    nan.putShort(HALF_NAN).flip();
+                } else {
+                    nan.putFloat(Float.NaN).flip();
+                }
+                ch.position(HEADER_BYTES + (long) ord * rowBytes);
+                writeFully(ch, nan);
+                deleted++;
+            }
+            ByteBuffer hdr = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            hdr.putInt(deleted).flip();
+            ch.position(OFF_DELETED);
+            writeFully(ch, hdr);
+        } catch (Exception e) {
+            Log.w(TAG, "remove " + mediaKey + " from " + type + " failed", e);
+        }
+        rowDao.deleteByKey(type.getCode(), mediaKey);
+    }
+
+    private void ensureMappedLocked() {
+        if (!file.exists()) {
+            unmapLocked();
+            return;
+        }
+        long len = file.length();
+        if (mapped != null && len == mappedLength) return;
+        unmapLocked();
+        if (len < HEADER_BYTES) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                // Older headers (v1 float-only, v2 without epoch) are rebuilt by syncIfStale.
+                Log.w(TAG, "bad header in " + file + ", ignoring");
+                return;
+            }
+            int d = buf.getInt(OFF_DIM);
+            int c = buf.getInt(OFF_COUNT);
+            int e = buf.getInt(OFF_ENCODING);
+            FeatureEncoding.Encoding[] encs = FeatureEncoding.Encoding.values();
+            if (e < 0 || e >= encs.length) {
+                Log.w(TAG, "unknown encoding " + e + " in " + file);
+                return;
+            }
+            FeatureEncoding.Encoding enc = encs[e];
+            int stride = rowBytesFor(enc, d);
+            if (d <= 0 || HEADER_BYTES + (long) c * stride > len) {
+                Log.w(TAG, "truncated " + file + " dim=" + d + " count=" + c);
+                return;
+            }
+            buf.position(HEADER_BYTES);
+            ByteBuffer slice = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            mapped = buf;
+            body = slice;
+            floats = enc == FeatureEncoding.Encoding.FP32 ? slice.asFloatBuffer() : null;
+            halves = enc == FeatureEncoding.Encoding.FP16 ? slice.asShortBuffer() : null;
+            encoding = enc;
+            rowBytes = stride;
+            mappedLength = len;
+            dim = d;
+            count = c;
+            deleted = buf.getInt(OFF_DELETED);
+            epoch = buf.getLong(OFF_EPOCH);
+        } catch (Exception e) {
+            Log.w(TAG, "map " + file + " failed", e);
+        }
+    }
+
+    private void unmapLocked() {
+        mapped = null;
+        body = null;
+        floats = null;
+        halves = null;
+        encoding = FeatureEncoding.Encoding.FP32;
+        rowBytes = 0;
+        mappedLength = -1L;
+        dim = 0;
+        count = 0;
+        deleted = 0;
+        epoch = 0L;
+    }
+
+    private VectorRowRecord newRow(int ordinal, String mediaKey, int faceId) {
+        VectorRowRecord row = new VectorRowRecord();
+        row.featType = type.getCode();
+        row.ordinal = ordinal;
+        row.mediaKey = mediaKey;
+        row.faceId = faceId;
+        return row;
+    }
+
+    private boolean isDeletedLocked(int row) {
+        switch (encoding) {
+            case FP16:
+                return halves.get(row * dim) == HALF_NAN;
+            case INT8:
+                return Float.isNaN(body.getFloat(row * rowBytes));
+            default:
+                return Float.isNaN(floats.get(row * dim));
+        }
+    }
+
+    private static int rowBytesFor(FeatureEncoding.Encoding enc, int dim) {
+        return enc == FeatureEncoding.Encoding.INT8 ? 4 + dim : dim * enc.bytesPerDim;
+    }
+
+    private static ByteBuffer encodeRow(float[] v, FeatureEncoding.Encoding enc) {
+        ByteBuffer buf = ByteBuffer.allocate(rowBytesFor(enc, v.length)).order(ByteOrder.LITTLE_ENDIAN);
+        switch (enc) {
+            case FP16:
+                for (float x : v) buf.putShort(FeatureEncoding.floatToHalf(x));
+                break;
+            case INT8: {
+                float scale = FeatureEncoding.int8Scale(v);
+                buf.putFloat(scale);
+                for (float x : v) buf.put(FeatureEncoding.quantize(x, scale));
+                break;
+            }
+            default:
+                for (float x : v) buf.putFloat(x);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeHeader(FileChannel ch, int dim, int count, int deleted,
+                                    FeatureEncoding.Encoding enc, long epoch) throws Exception {
+        ByteBuffer hdr = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        hdr.putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(count).putInt(deleted).putInt(enc.ordinal())
+                .putLong(epoch).flip();
+        ch.position(0);
+        writeFully(ch, hdr);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws Exception {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    static void siftUp(int[] rows, float[] scores, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) break;
+            swap(rows, scores, parent, i);
+            i = parent;
+        }
+    }
+
+    static void siftDown(int[] rows, float[] scores, int size) {
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) break;
+            int r = l + 1;
+            int min = (r < size && scores[r] < scores[l]) ? r : l;
+            if (scores[i] <= scores[min]) break;
+            swap(rows, scores, i, min);
+            i = min;
+        }
+    }
+
+    private static void swap(int[] rows, float[] scores, int a, int b) {
+        int tr = rows[a];
+        rows[a] = rows[b];
+        rows[b] = tr;
+        float ts = scores[a];
+        scores[a] = scores[b];
+        scores[b] = ts;
+    }
+
+    private static String fileNameFor(FeatureType type) {
+        switch (type) {
+            case CLIP_IMAGE_EMB:
+                return "clip_vectors.f32";
+            case DINO_IMAGE_EMB:
+                return "dino_vectors.f32";
+            case FACE_SFACE_EMB:
+                return "face_vectors.f32";
+            default:
+                return type.name().toLowerCase(java.util.Locale.US) + "_vectors.f32";
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file == null || !file.exists()) return;
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /** Read-only rows of one mapping; see {@link #view()}. */
+    public static final class View {
+        private final ByteBuffer body;
+        private final FloatBuffer floats;
+        private final ShortBuffer halves;
+        private final FeatureEncoding.Encoding encoding;
+        private final int rowBytes;
+        private final int dim;
+        private final int count;
+        private final long epoch;
+
+        View(ByteBuffer body, FloatBuffer floats, ShortBuffer halves, FeatureEncoding.Encoding encoding,
+             int rowBytes, int dim, int count, long epoch) {
+            this.body = body;
+            this.floats = floats;
+            this.halves = halves;
+            this.encoding = encoding;
+            this.rowBytes = rowBytes;
+            this.dim = dim;
+            this.count = count;
+            this.epoch = epoch;
+        }
+
+        public int dimension() {
+            return dim;
+        }
+
+        public int rowCount() {
+            return count;
+        }
+
+        public long epoch() {
+            return epoch;
+        }
+
+        public boolean isDeleted(int row) {
+            switch (encoding) {
+                case FP16:
+                    return halves.get(row * dim) == HALF_NAN;
+                case INT8:
+                    return Float.isNaN(body.getFloat(row * rowBytes));
+                default:
+                    return Float.isNaN(floats.get(row * dim));
+            }
+        }
+
+        /** Dot product with {@code q}; {@code -Float.MAX_VALUE} for missing or tombstoned rows. */
+        public float dot(int row, float[] q) {
+            if (row < 0 || row >= count || isDeleted(row)) return -Float.MAX_VALUE;
+            float s = 0f;
+            switch (encoding) {
+                case FP16: {
+                    int base = row * dim;
+                    for (int i = 0; i < dim; i++) {
+                        s += q[i] * FeatureEncoding.halfToFloat(halves.get(base + i));
+                    }
+                    return s;
+                }
+                case INT8: {
+                    int off = row * rowBytes;
+                    float scale = body.getFloat(off);
+                    for (int i = 0; i < dim; i++) {
+                        s += q[i] * body.get(off + 4 + i);
+                    }
+                    return s * scale;
+                }
+                default: {
+                    int base = row * dim;
+                    for (int i = 0; i < dim; i++) {
+                        s += q[i] * floats.get(base + i);
+                    }
+                    return s;
+                }
+            }
+        }
+
+        /** Copies a live row into {@code out}; false when missing or tombstoned. */
+        public boolean read(int row, float[] out) {
+            if (row < 0 || row >= count || isDeleted(row)) return false;
+            int base = row * dim;
+            switch (encoding) {
+                case FP16:
+                    for (int i = 0; i < dim; i++) {
+                        out[i] = FeatureEncoding.halfToFloat(halves.get(base + i));
+                    }
+                    break;
+                case INT8: {
+                    int off = row * rowBytes;
+                    float scale = body.getFloat(off);
+                    for (int i = 0; i < dim; i++) {
+                        out[i] = body.get(off + 4 + i) * scale;
+                    }
+                    break;
+                }
+                default:
+                    for (int i = 0; i < dim; i++) {
+                        out[i] = floats.get(base + i);
+                    }
+            }
+            return true;
+        }
+    }
+
+    /** A scored row resolved to its media item. */
+    public static final class Hit {
+        public final int ordinal;
+        public final String mediaKey;
+        public final int faceId;
+        public final float score;
+
+        Hit(int ordinal, String mediaKey, int faceId, float score) {
+            this.ordinal = ordinal;
+            this.mediaKey = mediaKey;
+            this.faceId = faceId;
+            this.score = score;
+        }
+    }
+}
@@ -1,162 +1,557 @@
 package com.example.photos.search;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.github.jelmerk.knn.DistanceFunctions;
-import com.github.jelmerk.knn.Item;
-import com.github.jelmerk.knn.SearchResult;
-import com.github.jelmerk.knn.hnsw.HnswIndex;
+import com.example.photos.db.FeatureDao;
+import com.example.photos.features.FeatureType;
+import com.example.photos.util.PerfLogger;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Random;
 
 /**
- * HNSW index built on DINO image embeddings.
+ * HNSW graph over the rows of a {@link FlatVectorStore} (CLIP, DINO or face embeddings).
+ * <p>
+ * Node ids are the store's row ordinals, so the graph holds no vectors and no strings: adjacency
+ * lives in int arrays and distances are read straight from the store's mapping. The file is
+ * memory-mapped as is, so opening it after a cold start costs a header read instead of
+ * deserializing the whole graph. Deleted media are the store's tombstones (traversed, never
+ * returned); rows appended to the store are inserted incrementally.
+ * <p>
+ * File layout (little-endian ints): header, levels[count], upperOffset[count],
+ * layer0[count * (1 + 2M)], upper[upperLen]. Each adjacency slot is a degree followed by
+ * its neighbour ordinals; a node of level L owns L slots of (1 + M) ints in {@code upper}.
  */
-public final class HnswImageIndex {
+public final class HnswImageIndex implements VectorIndex {
     private static final String TAG = "HnswImageIndex";
-    private final String indexFileName;
+    private static final int MAGIC = 0x484E5347; // "HNSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 48;
     private static final int M = 16;
+    private static final int M0 = 2 * M;
     private static final int EF_CONSTRUCTION = 200;
     private static final int EF_SEARCH = 64;
+    private static final int MAX_LEVEL = 16;
+    private static final double LEVEL_MULT = 1.0 / Math.log(M);
+    // 墓碑超过这个比例就先压缩向量文件再重建图
+    private static final float MAX_DELETED_FRACTION = 0.2f;
+    private static final int WRITE_CHUNK = 16 * 1024;
 
     private final Object lock = new Object();
-    private HnswIndex<String, float[], VectorItem, Float> index;
-    private long loadedFileModified = -1L;
-    private long loadedFileLength = -1L;
+    private final Context app;
+    private final FeatureType type;
     private final File indexFile;
+    // hnswlib-core 序列化的旧索引，新图保存成功后删除
+    private final File legacyFile;
     private final File legacyCacheFile;
+    private Graph graph;
+    private boolean dirty;
+    private long loadedFileModified = -1L;
+    private long loadedFileLength = -1L;
 
-    public HnswImageIndex(Context ctx, String indexFileName) {
-        this.indexFileName = indexFileName;
-        this.indexFile = new File(ctx.getFilesDir(), indexFileName);
-        this.legacyCacheFile = new File(ctx.getCacheDir(), indexFileName);
+    public HnswImageIndex(Context ctx, FeatureType type) {
+        this.app = ctx.getApplicationContext();
+        this.type = type;
+        String base = baseNameFor(type);
+        this.indexFile = new File(app.getFilesDir(), base + ".graph");
+        this.legacyFile = new File(app.getFilesDir(), base + ".index");
+        this.legacyCacheFile = new File(app.getCacheDir(), base + ".index");
     }
 
-    public boolean isReady() {
+    @Override
+    public boolean loadIfExists() {
+        if (!indexFile.exists()) {
+            synchronized (lock) {
+                clearLoadedStateLocked();
+            }
+            return false;
+        }
+        boolean loaded;
+        synchronized (lock) {
+            loaded = graph != null
+                    && (dirty || (loadedFileModified == indexFile.lastModified()
+                    && loadedFileLength == indexFile.length()));
+        }
+        if (!loaded && !loadFrom(indexFile)) {
+            return false;
+        }
+        // Node ids are ordinals of one store generation.
+        FlatVectorStore.View view = store().view();
         synchronized (lock) {
-            return index != null;
+            if (graph == null) return false;
+            if (view == null || view.epoch() != graph.storeEpoch
+                    || view.rowCount() < graph.count || view.dimension() != graph.dim) {
+                Log.w(TAG, type + " graph is stale, nodes=" + graph.count
+                        + " rows=" + (view == null ? 0 : view.rowCount()));
+                return false;
+            }
+            return true;
         }
     }
 
-    public void clear() {
+    @Override
+    public boolean existsOnDisk() {
+        return indexFile.exists();
+    }
+
+    @Override
+    public int size() {
         synchronized (lock) {
-            clearLoadedStateLocked();
+            return graph == null ? 0 : graph.count;
         }
-        deleteIfExists(indexFile);
-        deleteIfExists(legacyCacheFile);
     }
 
+    @Override
     public void save() {
         synchronized (lock) {
-            if (index == null) return;
-            try (FileOutputStream fos = new FileOutputStream(indexFile)) {
-                index.save(fos);
-                rememberFileStampLocked(indexFile);
+            if (graph == null || !dirty) return;
+            Graph g = graph;
+            // Write aside and rename so a concurrent loadIfExists never sees a half-written file.
+            File tmp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+                 FileChannel ch = raf.getChannel()) {
+                raf.setLength(0);
+                ByteBuffer hdr = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                hdr.putInt(MAGIC).putInt(VERSION).putInt(g.dim).putInt(M).putInt(g.count)
+                        .putInt(g.entryPoint).putInt(g.maxLevel).putInt(g.upperLen).putLong(g.storeEpoch);
+                hdr.position(HEADER_BYTES);
+                hdr.flip();
+                writeFully(ch, hdr);
+                writeInts(ch, g.levels, g.count);
+                writeInts(ch, g.upperOff, g.count);
+                writeInts(ch, g.layer0, g.count * (1 + M0));
+                writeInts(ch, g.upper, g.upperLen);
             } catch (Exception e) {
-                Log.w(TAG, "save hnsw failed", e);
+                Log.w(TAG, "save graph failed", e);
+                deleteIfExists(tmp);
+                return;
+            }
+            if (tmp.renameTo(indexFile)) {
+                dirty = false;
+                loadedFileModified = indexFile.lastModified();
+                loadedFileLength = indexFile.length();
+            } else {
+                Log.w(TAG, "rename graph failed: " + tmp);
+                deleteIfExists(tmp);
+                return;
             }
         }
+        deleteIfExists(legacyFile);
+        deleteIfExists(legacyCacheFile);
     }
 
-    public boolean loadIfExists() {
-        File source = null;
-        boolean fromLegacy = false;
-        if (indexFile.exists()) {
-            source = indexFile;
-        } else if (legacyCacheFile.exists()) {
-            source = legacyCacheFile;
-            fromLegacy = true;
-        } else {
-            synchronized (lock) {
-                clearLoadedStateLocked();
-            }
-            return false;
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            clearLoadedStateLocked();
         }
+        deleteIfExists(indexFile);
+        deleteIfExists(legacyFile);
+        deleteIfExists(legacyCacheFile);
+    }
 
+    @Override
+    public ScoredOrdinals search(float[] query, int topK) {
+        if (query == null || topK <= 0) return ScoredOrdinals.EMPTY;
+        Graph g;
         synchronized (lock) {
-            if (index != null && isSameFileStampLocked(source)) {
-                return true;
+            g = graph;
+        }
+        if (g == null || g.entryPoint < 0) return ScoredOrdinals.EMPTY;
+        if (query.length != g.dim) {
+            Log.w(TAG, type + " query dim mismatch, graph dim=" + g.dim);
+            return ScoredOrdinals.EMPTY;
+        }
+        FlatVectorStore store = store();
+        FlatVectorStore.View view = store.view();
+        if (view == null || view.epoch() != g.storeEpoch) return ScoredOrdinals.EMPTY;
+        try {
+            int ep = g.entryPoint;
+            float epScore = view.dot(ep, query);
+            for (int lvl = g.maxLevel; lvl > 0; lvl--) {
+                long best = greedy(g, view, query, ep, epScore, lvl);
+                ep = (int) (best >>> 32);
+                epScore = Float.intBitsToFloat((int) best);
             }
+            Heap res = searchLayer(g, view, query, ep, epScore, Math.max(EF_SEARCH, topK), 0);
+            return store.rescore(new float[][]{query}, res.nodes, res.size, topK);
+        } catch (Exception e) {
+            Log.w(TAG, "graph search failed", e);
+            return ScoredOrdinals.EMPTY;
         }
+    }
 
-        boolean loaded = loadFrom(source);
-        if (loaded && fromLegacy) {
-            save();
-            deleteIfExists(legacyCacheFile);
+    /**
+     * Inserts the store rows appended since the graph was built or last updated, reading them back
+     * by ordinal. Returns false when there is no usable graph (caller rebuilds).
+     */
+    @Override
+    public boolean addAppendedRows() {
+        Graph cur;
+        synchronized (lock) {
+            cur = graph;
+        }
+        if (cur == null) return false;
+        FlatVectorStore.View view = store().view();
+        if (view == null || view.epoch() != cur.storeEpoch || view.dimension() != cur.dim
+                || view.rowCount() < cur.count) {
+            return false;
+        }
+        int rows = view.rowCount();
+        if (rows == cur.count) return true;
+        // 在副本上插入，搜索线程继续读旧图
+        Graph g = cur.mutableCopy(rows);
+        Random rnd = new Random(42L + cur.count);
+        float[] v = new float[g.dim];
+        for (int node = cur.count; node < rows; node++) {
+            insert(g, view, node, v, rnd);
+        }
+        synchronized (lock) {
+            if (graph != cur) return false;
+            graph = g;
+            dirty = true;
         }
-        return loaded;
+        return true;
     }
 
-    public void build(List<VectorItem> items, int dim) {
-        HnswIndex.Builder<float[], Float> builder = HnswIndex.newBuilder(
-                dim, DistanceFunctions.FLOAT_COSINE_DISTANCE, items.size() + 10)
-                .withM(M)
-                .withEf(EF_SEARCH)
-                .withEfConstruction(EF_CONSTRUCTION);
-        HnswIndex<String, float[], VectorItem, Float> idx = builder.build();
-        for (VectorItem item : items) {
-            idx.add(item);
+    @Override
+    public int rebuild(FeatureDao featureDao) {
+        FlatVectorStore store = store();
+        store.syncIfStale(featureDao);
+        if (store.deletedCount() > store.rowCount() * MAX_DELETED_FRACTION) {
+            // 重建向量文件回收墓碑；序号会重排，所以图必须跟着全量重建
+            store.rebuild(featureDao);
+        }
+        FlatVectorStore.View view = store.view();
+        if (view == null || view.rowCount() == 0) return 0;
+        int rows = view.rowCount();
+        Graph g = Graph.empty(view.dimension(), view.epoch(), rows);
+        Random rnd = new Random(42L);
+        float[] v = new float[g.dim];
+        int live = 0;
+        for (int node = 0; node < rows; node++) {
+            if (insert(g, view, node, v, rnd)) live++;
         }
-        idx.setEf(EF_SEARCH);
         synchronized (lock) {
-            index = idx;
+            graph = g;
+            dirty = true;
             loadedFileModified = -1L;
             loadedFileLength = -1L;
         }
-        Log.i(TAG, "hnsw built, size=" + items.size() + " dim=" + dim);
+        Log.i(TAG, type + " graph built nodes=" + live + " rows=" + rows + " dim=" + g.dim
+                + " maxLevel=" + g.maxLevel);
+        return live;
     }
 
-    public List<SearchResult<VectorItem, Float>> search(float[] query, int topK) {
-        HnswIndex<String, float[], VectorItem, Float> idx;
+    @Override
+    public boolean inSyncWith(FlatVectorStore store) {
+        int deleted = store.deletedCount();
+        FlatVectorStore.View view = store.view();
         synchronized (lock) {
-            idx = index;
+            if (graph == null || view == null) return false;
+            return view.epoch() == graph.storeEpoch
+                    && view.rowCount() == graph.count
+                    && deleted <= view.rowCount() * MAX_DELETED_FRACTION;
         }
-        if (idx == null) return Collections.emptyList();
-        try {
-            return idx.findNearest(query, topK);
-        } catch (Exception e) {
-            Log.w(TAG, "hnsw search failed", e);
-            return Collections.emptyList();
+    }
+
+    private FlatVectorStore store() {
+        return FlatVectorStore.forType(app, type);
+    }
+
+    /** Adds {@code node} (the next store ordinal) to {@code g}; tombstoned rows become unlinked nodes. */
+    private static boolean insert(Graph g, FlatVectorStore.View view, int node, float[] v, Random rnd) {
+        if (!view.read(node, v)) {
+            g.addNode(node, -1);
+            return false;
+        }
+        int level = Math.min(MAX_LEVEL, (int) (-Math.log(1.0 - rnd.nextDouble()) * LEVEL_MULT));
+        g.addNode(node, level);
+        if (g.entryPoint < 0) {
+            g.entryPoint = node;
+            g.maxLevel = level;
+            return true;
+        }
+        int ep = g.entryPoint;
+        float epScore = view.dot(ep, v);
+        for (int lvl = g.maxLevel; lvl > level; lvl--) {
+            long best = greedy(g, view, v, ep, epScore, lvl);
+            ep = (int) (best >>> 32);
+            epScore = Float.intBitsToFloat((int) best);
+        }
+        for (int lvl = Math.min(level, g.maxLevel); lvl >= 0; lvl--) {
+            Heap w = searchLayer(g, view, v, ep, epScore, EF_CONSTRUCTION, lvl);
+            int n = w.size;
+            int[] cands = new int[n];
+            float[] scores = new float[n];
+            // 小顶堆依次弹出 = 升序，倒着放得到降序
+            for (int i = n - 1; i >= 0; i--) {
+                cands[i] = w.peekNode();
+                scores[i] = w.peekKey();
+                w.pop();
+            }
+            int[] selected = selectNeighbors(view, cands, scores, n, M, node);
+            g.setNeighbors(node, lvl, selected, selected.length);
+            for (int nb : selected) {
+                link(g, view, nb, node, lvl);
+            }
+            if (n > 0 && scores[0] > -Float.MAX_VALUE) {
+                ep = cands[0];
+                epScore = scores[0];
+            }
+        }
+        if (level > g.maxLevel) {
+            g.entryPoint = node;
+            g.maxLevel = level;
+        }
+        return true;
+    }
+
+    /**
+     * Neighbour heuristic from the HNSW paper: walk candidates best-first and keep one only if it is
+     * closer to the base than to every neighbour kept so far, then top up with the best skipped ones.
+     * {@code cands} must be sorted by descending score against the base.
+     */
+    private static int[] selectNeighbors(FlatVectorStore.View view, int[] cands, float[] scores, int n,
+                                         int max, int self) {
+        int[] kept = new int[Math.min(max, n)];
+        int keptCount = 0;
+        boolean[] used = new boolean[n];
+        float[] cv = new float[view.dimension()];
+        for (int i = 0; i < n && keptCount < kept.length; i++) {
+            int c = cands[i];
+            if (c == self || scores[i] == -Float.MAX_VALUE || !view.read(c, cv)) continue;
+            boolean good = true;
+            for (int k = 0; k < keptCount; k++) {
+                if (view.dot(kept[k], cv) > scores[i]) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                kept[keptCount++] = c;
+                used[i] = true;
+            }
+        }
+        for (int i = 0; i < n && keptCount < kept.length; i++) {
+            if (used[i] || cands[i] == self || scores[i] == -Float.MAX_VALUE) continue;
+            kept[keptCount++] = cands[i];
+        }
+        if (keptCount == kept.length) return kept;
+        int[] out = new int[keptCount];
+        System.arraycopy(kept, 0, out, 0, keptCount);
+        return out;
+    }
+
+    /**
+     * Adds the back link {@code from -> to}. A full list keeps its {@code max} closest entries; the
+     * heuristic is only used for new nodes, re-running it on every overflow dominates build time.
+     */
+    private static void link(Graph g, FlatVectorStore.View view, int from, int to, int lvl) {
+        int max = lvl == 0 ? M0 : M;
+        IntBuffer b = g.buffer(lvl);
+        int base = g.slot(from, lvl);
+        int deg = b.get(base);
+        for (int i = 0; i < deg; i++) {
+            if (b.get(base + 1 + i) == to) return;
+        }
+        if (deg < max) {
+            b.put(base + 1 + deg, to);
+            b.put(base, deg + 1);
+            return;
+        }
+        float[] fv = new float[view.dimension()];
+        if (!view.read(from, fv)) return;
+        int n = deg + 1;
+        int[] cands = new int[n];
+        float[] scores = new float[n];
+        for (int i = 0; i < deg; i++) {
+            cands[i] = b.get(base + 1 + i);
+        }
+        cands[deg] = to;
+        for (int i = 0; i < n; i++) {
+            scores[i] = view.dot(cands[i], fv);
+        }
+        sortDescending(cands, scores, n);
+        int keep = 0;
+        while (keep < max && scores[keep] > -Float.MAX_VALUE) keep++;
+        g.setNeighbors(from, lvl, cands, keep);
+    }
+
+    /** Greedy walk on an upper layer; returns (node << 32 | floatBits(score)). */
+    private static long greedy(Graph g, FlatVectorStore.View view, float[] q, int ep, float epScore, int lvl) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            IntBuffer b = g.buffer(lvl);
+            int base = g.slot(ep, lvl);
+            int deg = b.get(base);
+            for (int i = 0; i < deg; i++) {
+                int nb = b.get(base + 1 + i);
+                float s = view.dot(nb, q);
+                if (s > epScore) {
+                    ep = nb;
+                    epScore = s;
+                    changed = true;
+                }
+            }
+        }
+        return ((long) ep << 32) | (Float.floatToRawIntBits(epScore) & 0xFFFFFFFFL);
+    }
+
+    /** Best-first search on one layer; returns up to {@code ef} nodes as a min-heap (worst on top). */
+    private static Heap searchLayer(Graph g, FlatVectorStore.View view, float[] q, int ep, float epScore,
+                                    int ef, int lvl) {
+        BitSet visited = new BitSet(g.count);
+        Heap candidates = new Heap(); // keys negated -> max-heap
+        Heap results = new Heap();
+        visited.set(ep);
+        candidates.push(ep, -epScore);
+        results.push(ep, epScore);
+        IntBuffer b = g.buffer(lvl);
+        while (candidates.size > 0) {
+            int c = candidates.peekNode();
+            float cs = -candidates.peekKey();
+            if (results.size >= ef && cs < results.peekKey()) break;
+            candidates.pop();
+            int base = g.slot(c, lvl);
+            int deg = b.get(base);
+            for (int i = 0; i < deg; i++) {
+                int nb = b.get(base + 1 + i);
+                if (visited.get(nb)) continue;
+                visited.set(nb);
+                float s = view.dot(nb, q);
+                if (results.size < ef || s > results.peekKey()) {
+                    candidates.push(nb, -s);
+                    results.push(nb, s);
+                    if (results.size > ef) results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void sortDescending(int[] nodes, float[] scores, int n) {
+        for (int i = 1; i < n; i++) {
+            int node = nodes[i];
+            float s = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < s) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = s;
         }
     }
 
     private boolean loadFrom(File file) {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            HnswIndex<String, float[], VectorItem, Float> loaded =
-                    HnswIndex.load(fis);
-            loaded.setEf(EF_SEARCH);
+        long t0 = SystemClock.elapsedRealtime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            long len = ch.size();
+            if (len < HEADER_BYTES) return false;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(12) != M) {
+                Log.w(TAG, "bad header in " + file);
+                return false;
+            }
+            Graph g = new Graph();
+            g.dim = buf.getInt(8);
+            g.count = buf.getInt(16);
+            g.entryPoint = buf.getInt(20);
+            g.maxLevel = buf.getInt(24);
+            g.upperLen = buf.getInt(28);
+            g.storeEpoch = buf.getLong(32);
+            long ints = 2L * g.count + (long) g.count * (1 + M0) + g.upperLen;
+            if (g.dim <= 0 || g.count < 0 || g.upperLen < 0 || HEADER_BYTES + ints * 4 > len) {
+                Log.w(TAG, "truncated " + file + " nodes=" + g.count);
+                return false;
+            }
+            buf.position(HEADER_BYTES);
+            IntBuffer all = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int off = 0;
+            g.levels = slice(all, off, g.count);
+            off += g.count;
+            g.upperOff = slice(all, off, g.count);
+            off += g.count;
+            g.layer0 = slice(all, off, g.count * (1 + M0));
+            off += g.count * (1 + M0);
+            g.upper = slice(all, off, g.upperLen);
             synchronized (lock) {
-                index = loaded;
-                rememberFileStampLocked(file);
+                graph = g;
+                dirty = false;
+                loadedFileModified = file.lastModified();
+                loadedFileLength = file.length();
             }
-            Log.i(TAG, "loaded hnsw, size=" + loaded.size());
+            double dur = SystemClock.elapsedRealtime() - t0;
+            HashMap<String, Object> extra = new HashMap<>();
+            extra.put("type", type.name());
+            extra.put("nodes", g.count);
+            extra.put("bytes", len);
+            PerfLogger.log("index_load", dur, null, extra);
+            Log.i(TAG, "mapped graph " + type + " nodes=" + g.count + " bytes=" + len);
             return true;
         } catch (Exception e) {
-            Log.w(TAG, "load hnsw failed", e);
+            Log.w(TAG, "load graph failed", e);
             return false;
         }
     }
 
     private void clearLoadedStateLocked() {
-        index = null;
+        graph = null;
+        dirty = false;
         loadedFileModified = -1L;
         loadedFileLength = -1L;
     }
 
-    private void rememberFileStampLocked(File file) {
-        loadedFileModified = file.lastModified();
-        loadedFileLength = file.length();
+    private static IntBuffer slice(IntBuffer all, int off, int len) {
+        IntBuffer d = all.duplicate();
+        d.position(off);
+        d.limit(off + len);
+        return d.slice();
+    }
+
+    private static void writeInts(FileChannel ch, IntBuffer src, int len) throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(WRITE_CHUNK * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int off = 0; off < len; off += WRITE_CHUNK) {
+            int n = Math.min(WRITE_CHUNK, len - off);
+            bb.clear();
+            for (int i = 0; i < n; i++) {
+                bb.putInt(src.get(off + i));
+            }
+            bb.flip();
+            writeFully(ch, bb);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws Exception {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
     }
 
-    private boolean isSameFileStampLocked(File file) {
-        return loadedFileModified == file.lastModified()
-                && loadedFileLength == file.length();
+    private static String baseNameFor(FeatureType type) {
+        switch (type) {
+            case CLIP_IMAGE_EMB:
+                return "clip_hnsw";
+            case FACE_SFACE_EMB:
+                return "face_hnsw";
+            default:
+                return "dino_hnsw";
+        }
     }
 
     private static void deleteIfExists(File file) {
@@ -165,33 +560,124 @@ public final class HnswImageIndex {
         file.delete();
     }
 
-    public static final class VectorItem implements Item<String, float[]>, java.io.Serializable {
-        private final String id;
-        private final float[] vec;
-        public VectorItem(String id, float[] vec) {
-            this.id = id;
-            this.vec = vec;
-        }
-        @Override public String id() { return id; }
-        @Override public float[] vector() { return vec; }
-        @Override public int dimensions() { return vec.length; }
-    }
-
-    public static List<VectorItem> fromRecords(List<com.example.photos.db.FeatureRecord> records, int dim, boolean includeFaceId) {
-        if (records == null || records.isEmpty()) return Collections.emptyList();
-        List<VectorItem> items = new ArrayList<>(records.size());
-        for (com.example.photos.db.FeatureRecord r : records) {
-            if (r.vector == null || r.vector.length == 0) continue;
-            float[] v = com.example.photos.features.FeatureEncoding.bytesToFloats(r.vector);
-            if (v.length != dim) continue;
-            String id;
-            if (includeFaceId) {
-                id = r.mediaKey + "#f" + r.faceId;
-            } else {
-                id = r.mediaKey;
+    /**
+     * Adjacency in int buffers: mapped read-only after load, heap-backed while building. Node i is
+     * store ordinal i; level -1 marks a row that was tombstoned when it was inserted.
+     */
+    private static final class Graph {
+        int dim;
+        int count;
+        int entryPoint = -1;
+        int maxLevel = -1;
+        int upperLen;
+        long storeEpoch;
+        IntBuffer levels;
+        IntBuffer upperOff;
+        IntBuffer layer0;
+        IntBuffer upper;
+
+        static Graph empty(int dim, long storeEpoch, int capacity) {
+            Graph g = new Graph();
+            g.dim = dim;
+            g.storeEpoch = storeEpoch;
+            g.levels = IntBuffer.allocate(Math.max(1, capacity));
+            g.upperOff = IntBuffer.allocate(Math.max(1, capacity));
+            g.layer0 = IntBuffer.allocate(Math.max(1, capacity) * (1 + M0));
+            g.upper = IntBuffer.allocate(Math.max(16, capacity / 8 * (1 + M)));
+            return g;
+        }
+
+        /** Heap copy with room for {@code capacity} nodes. */
+        Graph mutableCopy(int capacity) {
+            Graph g = new Graph();
+            g.dim = dim;
+            g.count = count;
+            g.entryPoint = entryPoint;
+            g.maxLevel = maxLevel;
+            g.upperLen = upperLen;
+            g.storeEpoch = storeEpoch;
+            int cap = Math.max(capacity, count);
+            g.levels = copyOf(levels, count, cap);
+            g.upperOff = copyOf(upperOff, count, cap);
+            g.layer0 = copyOf(layer0, count * (1 + M0), cap * (1 + M0));
+            g.upper = copyOf(upper, upperLen, Math.max(upperLen + (cap - count) / 4 * (1 + M), 16));
+            return g;
+        }
+
+        IntBuffer buffer(int lvl) {
+            return lvl == 0 ? layer0 : upper;
+        }
+
+        int slot(int node, int lvl) {
+            return lvl == 0 ? node * (1 + M0) : upperOff.get(node) + (lvl - 1) * (1 + M);
+        }
+
+        void addNode(int node, int level) {
+            if (node >= levels.capacity()) {
+                int cap = Math.max(node + 1, levels.capacity() * 2);
+                levels = copyOf(levels, count, cap);
+                upperOff = copyOf(upperOff, count, cap);
+                layer0 = copyOf(layer0, count * (1 + M0), cap * (1 + M0));
             }
-            items.add(new VectorItem(id, v));
+            levels.put(node, level);
+            upperOff.put(node, upperLen);
+            if (level > 0) {
+                int need = upperLen + level * (1 + M);
+                if (need > upper.capacity()) {
+                    upper = copyOf(upper, upperLen, Math.max(need, upper.capacity() * 2));
+                }
+                upperLen = need;
+            }
+            count = node + 1;
+        }
+
+        void setNeighbors(int node, int lvl, int[] nbs, int n) {
+            IntBuffer b = buffer(lvl);
+            int base = slot(node, lvl);
+            b.put(base, n);
+            for (int i = 0; i < n; i++) {
+                b.put(base + 1 + i, nbs[i]);
+            }
+        }
+
+        private static IntBuffer copyOf(IntBuffer src, int used, int capacity) {
+            int[] a = new int[capacity];
+            IntBuffer d = src.duplicate();
+            d.position(0);
+            d.get(a, 0, used);
+            return IntBuffer.wrap(a);
+        }
+    }
+
+    /** Min-heap of (node, key) on primitive arrays. */
+    private static final class Heap {
+        int[] nodes = new int[32];
+        float[] keys = new float[32];
+        int size;
+
+        void push(int node, float key) {
+            if (size == nodes.length) {
+                nodes = java.util.Arrays.copyOf(nodes, size * 2);
+                keys = java.util.Arrays.copyOf(keys, size * 2);
+            }
+            nodes[size] = node;
+            keys[size] = key;
+            FlatVectorStore.siftUp(nodes, keys, size++);
+        }
+
+        void pop() {
+            size--;
+            nodes[0] = nodes[size];
+            keys[0] = keys[size];
+            FlatVectorStore.siftDown(nodes, keys, size);
+        }
+
+        int peekNode() {
+            return nodes[0];
+        }
+
+        float peekKey() {
+            return keys[0];
         }
-        return items;
     }
 }
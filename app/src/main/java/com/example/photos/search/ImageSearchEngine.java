@@ -16,19 +16,20 @@ import com.example.photos.db.PhotosDb;
 import com.example.photos.features.FeatureEncoding;
 import com.example.photos.features.FeatureType;
 import com.example.photos.model.Photo;
+import com.example.photos.settings.SearchPreferences;
 import com.example.photos.search.face.SFaceOpenCv;
+import com.example.photos.search.face.SFacePool;
+import com.example.photos.util.BitmapDecoder;
 import com.example.photos.util.PerfLogger;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
@@ -40,8 +41,6 @@ public final class ImageSearchEngine {
     private static final float FACE_BLEND = 0.85f;
     private static final float FACE_SIM_STRONG = 0.6f;
     private static final float FACE_SIM_SOFT = 0.4f;
-    private static volatile HnswImageIndex dinoHnsw;
-    private static volatile HnswImageIndex faceHnsw;
 
     private ImageSearchEngine() {}
 
@@ -99,17 +98,18 @@ public final class ImageSearchEngine {
         annExtra.put("query_cache_hit", queryResult.cacheHit);
         annExtra.put("limit", topK);
         annExtra.put("results", ordered == null ? 0 : ordered.size());
+        annExtra.put("index_backend", SearchPreferences.getIndexBackend(app, FeatureType.DINO_IMAGE_EMB).name());
         PerfLogger.log("image_search_ann", annMs, perfSession, annExtra);
         ordered = rerankByFace(app, featureDao, ordered, queryAsset, topK, perfSession);
 
         List<SearchResult> out = new ArrayList<>();
-        PhotoDao photoDao = db.photoDao();
+        Map<String, PhotoAsset> assets = loadAssets(db.photoDao(), ordered);
         Set<String> seenCanonicalKeys = new HashSet<>();
         String queryCanonicalKey = canonicalIdentityKey(queryAsset.contentUri);
         boolean queryAdded = false;
         for (int i = 0; i < ordered.size(); i++) {
             SearchResultInternal internal = ordered.get(i);
-            Photo photo = mapToPhoto(photoDao, internal.mediaKey);
+            Photo photo = mapToPhoto(assets.get(internal.mediaKey), internal.mediaKey);
             if (photo != null) {
                 String internalCanonicalKey = canonicalIdentityKey(internal.mediaKey);
                 // Deduplicate same photo even if URI forms differ (media URI vs document URI).
@@ -143,57 +143,37 @@ public final class ImageSearchEngine {
     }
 
     private static SearchWithIndexResult searchWithIndex(Context app, FeatureDao featureDao, float[] query, int topK) {
-        HnswImageIndex hnsw = getDinoHnsw(app);
+        VectorIndex index = VectorIndexes.forType(app, FeatureType.DINO_IMAGE_EMB);
         boolean usedHnsw = false;
-        if (hnsw.loadIfExists()) {
+        if (index.loadIfExists()) {
             usedHnsw = true;
-            Map<String, Float> best = new LinkedHashMap<>();
-            var res = hnsw.search(query, topK);
-            for (var r : res) {
-                String key = parseMediaKey(r.item().id());
-                float score = (float) (-r.distance()); // cosine distance -> similarity
-                Float cur = best.get(key);
-                if (cur == null || score > cur) {
-                    best.put(key, score);
-                }
-            }
-            List<SearchResultInternal> ordered = new ArrayList<>();
-            for (var e : best.entrySet()) {
-                ordered.add(new SearchResultInternal(e.getKey(), e.getValue()));
-            }
-            ordered.sort((a, b) -> Float.compare(b.score, a.score));
-            android.util.Log.i(TAG, "HNSW search used, got=" + ordered.size());
-            if (ordered.size() > topK) {
-                return new SearchWithIndexResult(ordered.subList(0, topK), usedHnsw);
+            // DINO 每个媒体只有一行，按 ordinal 取回的 topK 已经去重且有序
+            ScoredOrdinals hits = index.search(query, topK);
+            List<FlatVectorStore.Hit> resolved = FlatVectorStore.forType(app, FeatureType.DINO_IMAGE_EMB).resolve(hits);
+            List<SearchResultInternal> ordered = new ArrayList<>(resolved.size());
+            for (FlatVectorStore.Hit hit : resolved) {
+                ordered.add(new SearchResultInternal(hit.mediaKey, hit.score));
             }
+            android.util.Log.i(TAG, VectorIndexes.backendOf(index) + " search used, got=" + ordered.size());
             return new SearchWithIndexResult(ordered, usedHnsw);
         }
-        List<FeatureRecord> records = featureDao.getAllByType(FeatureType.DINO_IMAGE_EMB.getCode());
-        List<SearchResultInternal> ordered = linearSearch(records, query, topK);
+        FlatVectorStore store = FlatVectorStore.forType(app, FeatureType.DINO_IMAGE_EMB);
+        store.syncIfStale(featureDao);
+        List<SearchResultInternal> ordered = linearSearch(store, query, topK);
         android.util.Log.i(TAG, "HNSW missing -> linear search, results=" + ordered.size());
         return new SearchWithIndexResult(ordered, usedHnsw);
     }
 
-    private static List<SearchResultInternal> linearSearch(List<FeatureRecord> records, float[] query, int topK) {
-        if (records == null || records.isEmpty()) {
+    private static List<SearchResultInternal> linearSearch(FlatVectorStore store, float[] query, int topK) {
+        if (store.size() == 0) {
             android.util.Log.w(TAG, "No DINO embeddings cached");
             return Collections.emptyList();
         }
-        PriorityQueue<SearchResultInternal> heap = new PriorityQueue<>(topK, Comparator.comparingDouble(r -> r.score));
-        for (FeatureRecord record : records) {
-            if (record.vector == null || record.vector.length == 0) continue;
-            float[] emb = FeatureEncoding.bytesToFloats(record.vector);
-            if (emb.length != query.length) continue;
-            float score = dot(query, emb);
-            if (heap.size() < topK) {
-                heap.offer(new SearchResultInternal(record.mediaKey, score));
-            } else if (score > heap.peek().score) {
-                heap.poll();
-                heap.offer(new SearchResultInternal(record.mediaKey, score));
-            }
+        List<FlatVectorStore.Hit> hits = store.search(query, topK);
+        List<SearchResultInternal> ordered = new ArrayList<>(hits.size());
+        for (FlatVectorStore.Hit hit : hits) {
+            ordered.add(new SearchResultInternal(hit.mediaKey, hit.score));
         }
-        List<SearchResultInternal> ordered = new ArrayList<>(heap);
-        ordered.sort((a, b) -> Float.compare(b.score, a.score));
         return ordered;
     }
 
@@ -208,29 +188,37 @@ public final class ImageSearchEngine {
             record.mediaKey = asset.contentUri;
             record.featType = FeatureType.DINO_IMAGE_EMB.getCode();
             record.faceId = 0;
-            record.vector = FeatureEncoding.floatsToBytes(embedding);
+            // 和 ClipEmbeddingWorker 一样按用户选的编码落库，否则 INT8/FP16 库里会混进一行 FP32
+            record.vector = FeatureEncoding.encode(embedding, SearchPreferences.getVectorEncoding(context));
             record.updatedAt = System.currentTimeMillis() / 1000L;
             featureDao.upsert(record);
+            FlatVectorStore.forType(context, FeatureType.DINO_IMAGE_EMB)
+                    .append(Collections.singletonList(record));
         }
         return new QueryEmbeddingResult(embedding, false);
     }
 
-    private static Photo mapToPhoto(PhotoDao photoDao, String mediaKey) {
-        String key = parseMediaKey(mediaKey);
-        PhotoAsset asset = photoDao.findByContentUri(key);
-        if (asset != null) {
-            return MediaStoreRepository.toPhoto(asset);
+    /** One IN query for all result keys instead of a lookup per row. */
+    private static Map<String, PhotoAsset> loadAssets(PhotoDao photoDao, List<SearchResultInternal> ordered) {
+        if (ordered == null || ordered.isEmpty()) return Collections.emptyMap();
+        List<String> keys = new ArrayList<>(ordered.size());
+        for (SearchResultInternal r : ordered) {
+            keys.add(r.mediaKey);
         }
-        List<String> tags = Collections.emptyList();
-        return new Photo(key, "", "", "", null, tags, key, false, com.example.photos.model.PhotoCategory.ALL);
+        Map<String, PhotoAsset> byUri = new HashMap<>();
+        for (PhotoAsset asset : photoDao.findByContentUris(keys)) {
+            byUri.put(asset.contentUri, asset);
+        }
+        return byUri;
     }
 
-    private static float dot(float[] a, float[] b) {
-        float sum = 0f;
-        for (int i = 0; i < a.length; i++) {
-            sum += a[i] * b[i];
+    private static Photo mapToPhoto(PhotoAsset asset, String mediaKey) {
+        String key = mediaKey;
+        if (asset != null) {
+            return MediaStoreRepository.toPhoto(asset);
         }
-        return sum;
+        List<String> tags = Collections.emptyList();
+        return new Photo(key, "", "", 0L, null, tags, key, false, com.example.photos.model.PhotoCategory.ALL);
     }
 
     private static List<SearchResultInternal> rerankByFace(Context ctx,
@@ -246,20 +234,29 @@ public final class ImageSearchEngine {
         Boolean faceIndexUsedHnsw = null;
         SFaceOpenCv recognizer;
         try {
-            recognizer = new SFaceOpenCv(ctx);
+            recognizer = SFacePool.acquire(ctx, perfSession);
         } catch (Exception e) {
             android.util.Log.w(TAG, "face pipeline init failed", e);
             logFaceRerank(perfSession, start, faceCount, candidateCount, ran, faceIndexUsedHnsw);
             return base;
         }
-        Bitmap qbmp = decodeKeepAspect(ctx, Uri.parse(queryAsset.contentUri), 960);
-        if (qbmp == null) {
-            android.util.Log.i(TAG, "face rerank: query bitmap null");
-            logFaceRerank(perfSession, start, faceCount, candidateCount, ran, faceIndexUsedHnsw);
-            return base;
+        float[][] qfaces;
+        try {
+            Bitmap qbmp = decodeKeepAspect(ctx, Uri.parse(queryAsset.contentUri), 960);
+            if (qbmp == null) {
+                android.util.Log.i(TAG, "face rerank: query bitmap null");
+                logFaceRerank(perfSession, start, faceCount, candidateCount, ran, faceIndexUsedHnsw);
+                return base;
+            }
+            long tEmbed = SystemClock.elapsedRealtime();
+            qfaces = recognizer.embedAll(qbmp);
+            qbmp.recycle();
+            HashMap<String, Object> extra = new HashMap<>();
+            extra.put("faces", qfaces == null ? 0 : qfaces.length);
+            PerfLogger.log("face_query_encode", SystemClock.elapsedRealtime() - tEmbed, perfSession, extra);
+        } finally {
+            SFacePool.release(recognizer);
         }
-        float[][] qfaces = recognizer.embedAll(qbmp);
-        qbmp.recycle();
         if (qfaces == null || qfaces.length == 0) {
             android.util.Log.i(TAG, "face rerank: query face embedding null");
             logFaceRerank(perfSession, start, faceCount, candidateCount, ran, faceIndexUsedHnsw);
@@ -274,7 +271,7 @@ public final class ImageSearchEngine {
         Map<String, Float> baseMap = new LinkedHashMap<>();
         if (base != null) {
             for (SearchResultInternal s : base) {
-                baseMap.put(parseMediaKey(s.mediaKey), s.score);
+                baseMap.put(s.mediaKey, s.score);
             }
         }
         Set<String> allKeys = new LinkedHashSet<>();
@@ -310,20 +307,10 @@ public final class ImageSearchEngine {
     }
 
     public static Bitmap decodeKeepAspect(Context ctx, Uri uri, int maxSide) {
-        try (java.io.InputStream is = ctx.getContentResolver().openInputStream(uri)) {
-            if (is == null) return null;
-            Bitmap src = android.graphics.BitmapFactory.decodeStream(is);
+        try {
+            Bitmap src = BitmapDecoder.decodeSampled(ctx, uri, 0, maxSide);
             if (src == null) return null;
-            int w = src.getWidth();
-            int h = src.getHeight();
-            int longer = Math.max(w, h);
-            if (longer <= maxSide) {
-                return src;
-            }
-            float scale = maxSide / (float) longer;
-            int nw = Math.max(1, Math.round(w * scale));
-            int nh = Math.max(1, Math.round(h * scale));
-            Bitmap scaled = android.graphics.Bitmap.createScaledBitmap(src, nw, nh, true);
+            Bitmap scaled = BitmapDecoder.fitLongSide(src, maxSide);
             if (scaled != src) src.recycle();
             return scaled;
         } catch (Exception e) {
@@ -337,73 +324,33 @@ public final class ImageSearchEngine {
                                                            float[][] qfaces,
                                                            int topK) {
         Map<String, Float> best = new HashMap<>();
-        HnswImageIndex idx = getFaceHnsw(ctx);
+        VectorIndex idx = VectorIndexes.forType(ctx, FeatureType.FACE_SFACE_EMB);
         boolean usedHnsw = false;
         if (idx.loadIfExists()) {
             usedHnsw = true;
-            for (float[] q : qfaces) {
-                var res = idx.search(q, topK);
-                for (var r : res) {
-                    String mediaKey = parseMediaKey(r.item().id());
-                    float sim = (float) (1.0 - r.distance());
-                    Float cur = best.get(mediaKey);
-                    if (cur == null || sim > cur) {
-                        best.put(mediaKey, sim);
-                    }
-                }
+            // 多张查询人脸在 ordinal 上合并取最高分，只解析最终 topK 的 mediaKey
+            ScoredOrdinals merged = idx.search(qfaces, topK);
+            FlatVectorStore store = FlatVectorStore.forType(ctx, FeatureType.FACE_SFACE_EMB);
+            for (FlatVectorStore.Hit hit : store.resolve(merged)) {
+                // 按分数降序，同一张照片的多张脸只留第一张
+                best.putIfAbsent(hit.mediaKey, hit.score);
             }
         }
         if (!usedHnsw) {
-            List<FeatureRecord> records = featureDao.getAllByType(FeatureType.FACE_SFACE_EMB.getCode());
-            if (records != null && !records.isEmpty()) {
-                for (FeatureRecord r : records) {
-                    if (r.vector == null || r.vector.length == 0) continue;
-                    float[] emb = FeatureEncoding.bytesToFloats(r.vector);
-                    for (float[] q : qfaces) {
-                        float sim = dot(q, emb);
-                        Float cur = best.get(r.mediaKey);
-                        if (cur == null || sim > cur) {
-                            best.put(r.mediaKey, sim);
-                        }
-                    }
+            FlatVectorStore store = FlatVectorStore.forType(ctx, FeatureType.FACE_SFACE_EMB);
+            store.syncIfStale(featureDao);
+            for (FlatVectorStore.Hit hit : store.search(qfaces, topK)) {
+                Float cur = best.get(hit.mediaKey);
+                if (cur == null || hit.score > cur) {
+                    best.put(hit.mediaKey, hit.score);
                 }
             }
         }
         return new FaceCandidatesResult(best, usedHnsw);
     }
 
-    private static HnswImageIndex getDinoHnsw(Context context) {
-        if (dinoHnsw == null) {
-            synchronized (ImageSearchEngine.class) {
-                if (dinoHnsw == null) {
-                    dinoHnsw = new HnswImageIndex(context.getApplicationContext(), "dino_hnsw.index");
-                }
-            }
-        }
-        return dinoHnsw;
-    }
-
-    private static HnswImageIndex getFaceHnsw(Context context) {
-        if (faceHnsw == null) {
-            synchronized (ImageSearchEngine.class) {
-                if (faceHnsw == null) {
-                    faceHnsw = new HnswImageIndex(context.getApplicationContext(), "face_hnsw.index");
-                }
-            }
-        }
-        return faceHnsw;
-    }
-
-    private static String parseMediaKey(String id) {
-        int pos = id.indexOf("#f");
-        if (pos > 0) {
-            return id.substring(0, pos);
-        }
-        return id;
-    }
-
     private static String canonicalIdentityKey(String rawKey) {
-        String key = parseMediaKey(rawKey == null ? "" : rawKey);
+        String key = rawKey == null ? "" : rawKey;
         if (key.isEmpty()) {
             return key;
         }
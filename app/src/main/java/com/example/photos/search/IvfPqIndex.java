@@ -0,0 +1,633 @@
+package com.example.photos.search;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.photos.db.FeatureDao;
+import com.example.photos.features.FeatureType;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inverted-file index with product quantization over the rows of a {@link FlatVectorStore}.
+ * <p>
+ * Coarse k-means centroids split the rows into lists; each row is kept as its store ordinal plus
+ * one byte per sub-space encoding its residual to the list centroid, so a 768-d DINO vector costs
+ * 96 bytes instead of a float[] and graph links on the heap. A query probes the closest lists,
+ * scores codes through per-query lookup tables (asymmetric distance) and re-ranks the shortlist
+ * exactly against the store. Deleted media are the store's tombstones; rows appended after a
+ * build are encoded with the existing codebooks until the store outgrows the training sample.
+ * <p>
+ * File layout (little-endian): magic, version, dim, nlist, m, indexedRows, trainedRows,
+ * storeEpoch (long), centroids [nlist*dim] f32, codebooks [m*256*dsub] f32, listSizes [nlist],
+ * ordinals grouped by list, then codes (m bytes per row) in the same order.
+ */
+public final class IvfPqIndex implements VectorIndex {
+    private static final String TAG = "IvfPqIndex";
+    private static final int MAGIC = 0x49565051; // "IVPQ"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 36;
+    private static final int KSUB = 256;
+    private static final int MAX_LISTS = 1024;
+    private static final int TRAIN_PER_LIST = 16;
+    private static final int MIN_TRAIN = 1024;
+    private static final int MAX_TRAIN = 4096;
+    private static final int KMEANS_ITERS = 8;
+    private static final int MIN_PROBE = 8;
+    private static final int RERANK_FACTOR = 4;
+    private static final int MIN_RERANK = 64;
+    // 增量追加超过训练规模这么多倍后让调用方重建（重训码本）
+    private static final int RETRAIN_GROWTH = 4;
+    // 墓碑超过这个比例就先压缩向量文件再重建（和 HnswImageIndex 一致）
+    private static final float MAX_DELETED_FRACTION = 0.2f;
+
+    private final Object lock = new Object();
+    private final Context app;
+    private final FeatureType type;
+    private final File indexFile;
+
+    private int dim;
+    private int nlist;
+    private int m;
+    private int dsub;
+    private int indexedRows;
+    private int trainedRows;
+    private long storeEpoch;
+    private float[] centroids;
+    private float[] codebooks;
+    private int[] listSizes;
+    private int[][] listOrdinals;
+    private byte[][] listCodes;
+    private long loadedFileModified = -1L;
+    private long loadedFileLength = -1L;
+
+    public IvfPqIndex(Context ctx, FeatureType type) {
+        this.app = ctx.getApplicationContext();
+        this.type = type;
+        this.indexFile = new File(app.getFilesDir(), fileNameFor(type));
+    }
+
+    @Override
+    public boolean loadIfExists() {
+        if (!indexFile.exists()) {
+            synchronized (lock) {
+                clearLoadedStateLocked();
+            }
+            return false;
+        }
+        boolean loaded;
+        synchronized (lock) {
+            loaded = centroids != null
+                    && loadedFileModified == indexFile.lastModified()
+                    && loadedFileLength == indexFile.length();
+        }
+        if (!loaded && !loadFrom(indexFile)) {
+            return false;
+        }
+        // Ordinals only mean something for the store generation they were built against.
+        FlatVectorStore store = store();
+        long epoch = store.epoch();
+        int rows = store.rowCount();
+        int storeDim = store.dimension();
+        synchronized (lock) {
+            if (centroids == null) return false;
+            if (epoch != storeEpoch || rows < indexedRows || storeDim != dim) {
+                Log.w(TAG, type + " index is stale, epoch=" + storeEpoch + "/" + epoch
+                        + " rows=" + indexedRows + "/" + rows);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean existsOnDisk() {
+        return indexFile.exists();
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) {
+            return indexedRows;
+        }
+    }
+
+    @Override
+    public void save() {
+        synchronized (lock) {
+            if (centroids == null) return;
+            File tmp = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+                 FileChannel ch = raf.getChannel()) {
+                raf.setLength(0);
+                ByteBuffer hdr = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                hdr.putInt(MAGIC).putInt(VERSION).putInt(dim).putInt(nlist).putInt(m)
+                        .putInt(indexedRows).putInt(trainedRows).putLong(storeEpoch).flip();
+                writeFully(ch, hdr);
+                writeFloats(ch, centroids);
+                writeFloats(ch, codebooks);
+                ByteBuffer sizes = ByteBuffer.allocate(nlist * 4).order(ByteOrder.LITTLE_ENDIAN);
+                for (int l = 0; l < nlist; l++) sizes.putInt(listSizes[l]);
+                sizes.flip();
+                writeFully(ch, sizes);
+                for (int l = 0; l < nlist; l++) {
+                    int n = listSizes[l];
+                    if (n == 0) continue;
+                    ByteBuffer ords = ByteBuffer.allocate(n * 4).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = 0; i < n; i++) ords.putInt(listOrdinals[l][i]);
+                    ords.flip();
+                    writeFully(ch, ords);
+                }
+                for (int l = 0; l < nlist; l++) {
+                    int n = listSizes[l];
+                    if (n == 0) continue;
+                    writeFully(ch, ByteBuffer.wrap(listCodes[l], 0, n * m));
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "save ivfpq failed", e);
+                deleteIfExists(tmp);
+                return;
+            }
+            if (tmp.renameTo(indexFile)) {
+                loadedFileModified = indexFile.lastModified();
+                loadedFileLength = indexFile.length();
+            } else {
+                Log.w(TAG, "rename ivfpq failed: " + tmp);
+                deleteIfExists(tmp);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            clearLoadedStateLocked();
+        }
+        deleteIfExists(indexFile);
+    }
+
+    @Override
+    public ScoredOrdinals search(float[] query, int topK) {
+        if (query == null || topK <= 0) return ScoredOrdinals.EMPTY;
+        int[] shortlist;
+        int found = 0;
+        synchronized (lock) {
+            if (centroids == null || indexedRows == 0) return ScoredOrdinals.EMPTY;
+            if (query.length != dim) {
+                Log.w(TAG, type + " query dim mismatch, index dim=" + dim);
+                return ScoredOrdinals.EMPTY;
+            }
+            float[] coarse = new float[nlist];
+            for (int l = 0; l < nlist; l++) {
+                coarse[l] = dot(query, 0, centroids, l * dim, dim);
+            }
+            int nprobe = Math.min(nlist, Math.max(MIN_PROBE, nlist / 16));
+            int[] probes = topIndices(coarse, nprobe);
+            // 每个子空间 256 个码字的查询点积表，扫描时只剩查表相加
+            float[] table = new float[m * KSUB];
+            for (int j = 0; j < m; j++) {
+                for (int c = 0; c < KSUB; c++) {
+                    table[j * KSUB + c] = dot(query, j * dsub, codebooks, (j * KSUB + c) * dsub, dsub);
+                }
+            }
+            int r = Math.max(topK * RERANK_FACTOR, MIN_RERANK);
+            shortlist = new int[r];
+            float[] scores = new float[r];
+            for (int l : probes) {
+                int n = listSizes[l];
+                int[] ords = listOrdinals[l];
+                byte[] codes = listCodes[l];
+                float base = coarse[l];
+                for (int i = 0; i < n; i++) {
+                    float s = base;
+                    int off = i * m;
+                    for (int j = 0; j < m; j++) {
+                        s += table[j * KSUB + (codes[off + j] & 0xFF)];
+                    }
+                    if (found < r) {
+                        shortlist[found] = ords[i];
+                        scores[found] = s;
+                        FlatVectorStore.siftUp(shortlist, scores, found++);
+                    } else if (s > scores[0]) {
+                        shortlist[0] = ords[i];
+                        scores[0] = s;
+                        FlatVectorStore.siftDown(shortlist, scores, found);
+                    }
+                }
+            }
+        }
+        return store().rescore(new float[][]{query}, shortlist, found, topK);
+    }
+
+    /** Encodes the store rows appended since the last build or update, read back by ordinal. */
+    @Override
+    public boolean addAppendedRows() {
+        FlatVectorStore store = store();
+        long epoch = store.epoch();
+        int rows = store.rowCount();
+        int storeDim = store.dimension();
+        int from;
+        float[] cents;
+        float[] books;
+        int lists;
+        int subspaces;
+        synchronized (lock) {
+            if (centroids == null) return false;
+            if (epoch != storeEpoch || storeDim != dim || rows < indexedRows) return false;
+            if (rows > (long) trainedRows * RETRAIN_GROWTH + MIN_TRAIN) {
+                Log.i(TAG, type + " grew from " + trainedRows + " to " + rows + " rows, retraining");
+                return false;
+            }
+            from = indexedRows;
+            cents = centroids;
+            books = codebooks;
+            lists = nlist;
+            subspaces = m;
+        }
+        if (rows == from) return true;
+        int n = rows - from;
+        int[] assign = new int[n];
+        byte[] codes = new byte[n * subspaces];
+        float[] residual = new float[storeDim];
+        for (int i = 0; i < n; i++) {
+            float[] v = store.vectorAt(from + i);
+            if (v == null) {
+                assign[i] = -1;
+                continue;
+            }
+            assign[i] = encode(v, cents, lists, books, subspaces, residual, codes, i * subspaces);
+        }
+        synchronized (lock) {
+            if (centroids != cents || indexedRows != from) return false;
+            for (int i = 0; i < n; i++) {
+                if (assign[i] >= 0) {
+                    appendLocked(assign[i], from + i, codes, i * subspaces);
+                }
+            }
+            indexedRows = rows;
+            loadedFileModified = -1L;
+            loadedFileLength = -1L;
+        }
+        return true;
+    }
+
+    @Override
+    public int rebuild(FeatureDao featureDao) {
+        FlatVectorStore store = store();
+        store.syncIfStale(featureDao);
+        if (store.deletedCount() > store.rowCount() * MAX_DELETED_FRACTION) {
+            // 重建向量文件回收墓碑；序号会重排，倒排表必须跟着全量重建
+            store.rebuild(featureDao);
+        }
+        long epoch = store.epoch();
+        int rows = store.rowCount();
+        int d = store.dimension();
+        int live = store.size();
+        if (rows == 0 || d == 0 || live == 0) return 0;
+
+        int lists = clamp((int) Math.round(Math.sqrt(live)), 1, MAX_LISTS);
+        int want = Math.min(live, clamp(lists * TRAIN_PER_LIST, MIN_TRAIN, MAX_TRAIN));
+        float[][] sample = sampleRows(store, rows, want);
+        if (sample.length == 0) return 0;
+        lists = Math.min(lists, sample.length);
+        int subspaces = subspacesFor(d);
+        int ds = d / subspaces;
+        Random rnd = new Random(42);
+
+        float[] cents = kmeans(sample, 0, d, lists, rnd);
+        // 码本训练在残差上：样本原地减去所属粗中心
+        for (float[] x : sample) {
+            int c = nearest(cents, lists, d, x, 0);
+            for (int i = 0; i < d; i++) x[i] -= cents[c * d + i];
+        }
+        float[] books = new float[subspaces * KSUB * ds];
+        for (int j = 0; j < subspaces; j++) {
+            int k = Math.min(KSUB, sample.length);
+            float[] sub = kmeans(sample, j * ds, ds, k, rnd);
+            for (int c = 0; c < KSUB; c++) {
+                // 样本不足 256 时循环复用码字，编码只会选中前 k 个
+                System.arraycopy(sub, (c % k) * ds, books, (j * KSUB + c) * ds, ds);
+            }
+        }
+
+        int[] sizes = new int[lists];
+        int[][] ords = new int[lists][];
+        byte[][] codes = new byte[lists][];
+        byte[] rowCodes = new byte[subspaces];
+        float[] residual = new float[d];
+        int indexed = 0;
+        for (int row = 0; row < rows; row++) {
+            float[] v = store.vectorAt(row);
+            if (v == null) continue;
+            int l = encode(v, cents, lists, books, subspaces, residual, rowCodes, 0);
+            int n = sizes[l];
+            if (ords[l] == null) {
+                ords[l] = new int[16];
+                codes[l] = new byte[16 * subspaces];
+            } else if (n == ords[l].length) {
+                ords[l] = Arrays.copyOf(ords[l], n * 2);
+                codes[l] = Arrays.copyOf(codes[l], n * 2 * subspaces);
+            }
+            ords[l][n] = row;
+            System.arraycopy(rowCodes, 0, codes[l], n * subspaces, subspaces);
+            sizes[l] = n + 1;
+            indexed++;
+        }
+        for (int l = 0; l < lists; l++) {
+            if (ords[l] == null) {
+                ords[l] = new int[0];
+                codes[l] = new byte[0];
+            }
+        }
+        synchronized (lock) {
+            dim = d;
+            nlist = lists;
+            m = subspaces;
+            dsub = ds;
+            indexedRows = rows;
+            trainedRows = rows;
+            storeEpoch = epoch;
+            centroids = cents;
+            codebooks = books;
+            listSizes = sizes;
+            listOrdinals = ords;
+            listCodes = codes;
+            loadedFileModified = -1L;
+            loadedFileLength = -1L;
+        }
+        Log.i(TAG, type + " ivfpq built rows=" + indexed + " lists=" + lists + " m=" + subspaces
+                + " sample=" + sample.length);
+        return indexed;
+    }
+
+    @Override
+    public boolean inSyncWith(FlatVectorStore store) {
+        long epoch = store.epoch();
+        int rows = store.rowCount();
+        int deleted = store.deletedCount();
+        synchronized (lock) {
+            return centroids != null && epoch == storeEpoch && rows == indexedRows
+                    && deleted <= rows * MAX_DELETED_FRACTION;
+        }
+    }
+
+    private FlatVectorStore store() {
+        return FlatVectorStore.forType(app, type);
+    }
+
+    /** Coarse list of {@code v}, with its residual PQ codes written to {@code out} at {@code off}. */
+    private static int encode(float[] v, float[] cents, int lists, float[] books, int subspaces,
+                              float[] residual, byte[] out, int off) {
+        int d = v.length;
+        int ds = d / subspaces;
+        int l = nearest(cents, lists, d, v, 0);
+        for (int i = 0; i < d; i++) residual[i] = v[i] - cents[l * d + i];
+        for (int j = 0; j < subspaces; j++) {
+            int best = 0;
+            float bestDist = Float.MAX_VALUE;
+            for (int c = 0; c < KSUB; c++) {
+                int base = (j * KSUB + c) * ds;
+                float dist = 0f;
+                for (int i = 0; i < ds; i++) {
+                    float diff = residual[j * ds + i] - books[base + i];
+                    dist += diff * diff;
+                }
+                if (dist < bestDist) {
+                    bestDist = dist;
+                    best = c;
+                }
+            }
+            out[off + j] = (byte) best;
+        }
+        return l;
+    }
+
+    private void appendLocked(int list, int ordinal, byte[] codes, int off) {
+        int n = listSizes[list];
+        if (n == listOrdinals[list].length) {
+            int cap = Math.max(16, n * 2);
+            listOrdinals[list] = Arrays.copyOf(listOrdinals[list], cap);
+            listCodes[list] = Arrays.copyOf(listCodes[list], cap * m);
+        }
+        listOrdinals[list][n] = ordinal;
+        System.arraycopy(codes, off, listCodes[list], n * m, m);
+        listSizes[list] = n + 1;
+    }
+
+    /** Evenly spaced live rows, at most {@code want} of them. */
+    private static float[][] sampleRows(FlatVectorStore store, int rows, int want) {
+        List<float[]> out = new ArrayList<>(want);
+        double step = Math.max(1.0, rows / (double) want);
+        for (double pos = 0; pos < rows && out.size() < want; pos += step) {
+            float[] v = store.vectorAt((int) pos);
+            if (v != null) out.add(v);
+        }
+        return out.toArray(new float[0][]);
+    }
+
+    /** Lloyd's k-means on the {@code [off, off + len)} slice of each vector; returns k*len centroids. */
+    private static float[] kmeans(float[][] data, int off, int len, int k, Random rnd) {
+        int n = data.length;
+        float[] cents = new float[k * len];
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) perm[i] = i;
+        for (int i = 0; i < k; i++) {
+            int j = i + rnd.nextInt(n - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+            System.arraycopy(data[perm[i]], off, cents, i * len, len);
+        }
+        int[] assign = new int[n];
+        float[] sums = new float[k * len];
+        int[] counts = new int[k];
+        for (int iter = 0; iter < KMEANS_ITERS; iter++) {
+            for (int i = 0; i < n; i++) {
+                assign[i] = nearest(cents, k, len, data[i], off);
+            }
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                int c = assign[i];
+                counts[c]++;
+                for (int d = 0; d < len; d++) sums[c * len + d] += data[i][off + d];
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // 空簇重新随机取一个样本
+                    System.arraycopy(data[rnd.nextInt(n)], off, cents, c * len, len);
+                    continue;
+                }
+                float inv = 1f / counts[c];
+                for (int d = 0; d < len; d++) cents[c * len + d] = sums[c * len + d] * inv;
+            }
+        }
+        return cents;
+    }
+
+    private static int nearest(float[] cents, int k, int len, float[] x, int off) {
+        int best = 0;
+        float bestDist = Float.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            int base = c * len;
+            float dist = 0f;
+            for (int d = 0; d < len; d++) {
+                float diff = x[off + d] - cents[base + d];
+                dist += diff * diff;
+            }
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        float s = 0f;
+        for (int i = 0; i < len; i++) s += a[aOff + i] * b[bOff + i];
+        return s;
+    }
+
+    private static int[] topIndices(float[] scores, int k) {
+        Integer[] idx = new Integer[scores.length];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> Float.compare(scores[b], scores[a]));
+        int[] out = new int[k];
+        for (int i = 0; i < k; i++) out[i] = idx[i];
+        return out;
+    }
+
+    /** 8-dim sub-vectors when the dimension allows it (768 -> 96 bytes, 512 -> 64, 128 -> 16). */
+    private static int subspacesFor(int dim) {
+        for (int ds : new int[]{8, 4, 2}) {
+            if (dim % ds == 0) return dim / ds;
+        }
+        return dim;
+    }
+
+    private static int clamp(int v, int lo, int hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+
+    private boolean loadFrom(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            long len = ch.size();
+            if (len < HEADER_BYTES) return false;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                Log.w(TAG, "bad header in " + file);
+                return false;
+            }
+            int d = buf.getInt();
+            int lists = buf.getInt();
+            int subspaces = buf.getInt();
+            int indexed = buf.getInt();
+            int trained = buf.getInt();
+            long epoch = buf.getLong();
+            if (d <= 0 || lists <= 0 || subspaces <= 0 || d % subspaces != 0) {
+                Log.w(TAG, "bad shape in " + file + " dim=" + d + " lists=" + lists + " m=" + subspaces);
+                return false;
+            }
+            int ds = d / subspaces;
+            float[] cents = new float[lists * d];
+            buf.asFloatBuffer().get(cents);
+            buf.position(buf.position() + cents.length * 4);
+            float[] books = new float[subspaces * KSUB * ds];
+            buf.asFloatBuffer().get(books);
+            buf.position(buf.position() + books.length * 4);
+            int[] sizes = new int[lists];
+            buf.asIntBuffer().get(sizes);
+            buf.position(buf.position() + lists * 4);
+            int[][] ords = new int[lists][];
+            for (int l = 0; l < lists; l++) {
+                ords[l] = new int[sizes[l]];
+                buf.asIntBuffer().get(ords[l]);
+                buf.position(buf.position() + sizes[l] * 4);
+            }
+            byte[][] codes = new byte[lists][];
+            for (int l = 0; l < lists; l++) {
+                codes[l] = new byte[sizes[l] * subspaces];
+                buf.get(codes[l]);
+            }
+            synchronized (lock) {
+                dim = d;
+                nlist = lists;
+                m = subspaces;
+                dsub = ds;
+                indexedRows = indexed;
+                trainedRows = trained;
+                storeEpoch = epoch;
+                centroids = cents;
+                codebooks = books;
+                listSizes = sizes;
+                listOrdinals = ords;
+                listCodes = codes;
+                loadedFileModified = file.lastModified();
+                loadedFileLength = file.length();
+            }
+            Log.i(TAG, "loaded ivfpq " + type + " rows=" + indexed + " lists=" + lists);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "load ivfpq failed", e);
+            return false;
+        }
+    }
+
+    private void clearLoadedStateLocked() {
+        centroids = null;
+        codebooks = null;
+        listSizes = null;
+        listOrdinals = null;
+        listCodes = null;
+        dim = 0;
+        nlist = 0;
+        m = 0;
+        dsub = 0;
+        indexedRows = 0;
+        trainedRows = 0;
+        storeEpoch = 0L;
+        loadedFileModified = -1L;
+        loadedFileLength = -1L;
+    }
+
+    private static void writeFloats(FileChannel ch, float[] values) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(values);
+        writeFully(ch, buf);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws Exception {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private static String fileNameFor(FeatureType type) {
+        switch (type) {
+            case CLIP_IMAGE_EMB:
+                return "clip_ivfpq.index";
+            case FACE_SFACE_EMB:
+                return "face_ivfpq.index";
+            default:
+                return "dino_ivfpq.index";
+        }
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file == null || !file.exists()) return;
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
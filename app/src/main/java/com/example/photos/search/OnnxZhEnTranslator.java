@@ -1,7 +1,7 @@
 package com.example.photos.search;
 
 import android.content.Context;
-import android.content.res.AssetManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import ai.onnxruntime.OnnxTensor;
@@ -14,11 +14,15 @@ import com.sentencepiece.Model;
 import com.sentencepiece.SentencePieceAlgorithm;
 import com.sentencepiece.Scoring;
 
+import com.example.photos.model.OrtSessions;
+import com.example.photos.util.ModelFiles;
+import com.example.photos.util.PerfLogger;
+
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,7 +39,9 @@ import java.util.regex.Pattern;
  * 资产路径约定：
  * app/src/main/assets/opus_mt_zh_en/
  *   encoder.onnx
- *   decoder.onnx
+ *   decoder.onnx             （Optimum 的 decoder_model 导出，带 present.* 输出）
+ *   decoder_with_past.onnx   （Optimum 的 decoder_with_past 导出；和上面的 present.* 都在才走 KV cache 增量解码）
+ * 三个模型都由 tools/download_opus_mt_zh_en.py 下载到这里。
  *   source.spm
  *   vocab.json
  *   config.json
@@ -72,9 +78,14 @@ public final class OnnxZhEnTranslator implements Closeable {
     private static final String ASSET_DIR = "opus_mt_zh_en";
     private static final String ENCODER_NAME = "encoder.onnx";
     private static final String DECODER_NAME = "decoder.onnx";
+    private static final String DECODER_WITH_PAST_NAME = "decoder_with_past.onnx";
+    private static final String PRESENT_PREFIX = "present.";
+    private static final String PAST_PREFIX = "past_key_values.";
     private static final String SRC_SPM_NAME = "source.spm";
     private static final String VOCAB_NAME = "vocab.json";
     private static final String CONFIG_NAME = "config.json";
+    private static final String VOCAB_COMPILED_NAME = "vocab.bin";
+    private static final int VOCAB_MAGIC = 0x4F564F43; // "OVOC"
 
     private static final int MAX_SRC_TOKENS = 128;
     private static final int MAX_NEW_TOKENS = 64;
@@ -88,11 +99,14 @@ public final class OnnxZhEnTranslator implements Closeable {
     private final OrtEnvironment env;
     private final OrtSession encoderSession;
     private final OrtSession decoderSession;
+    /** 只喂最后一个 token + past KV 的解码器；null 时退回每步跑完整前缀。 */
+    private final OrtSession decoderWithPastSession;
+    private final boolean withPastTakesEncoderHidden;
     private final Model srcSpModel;
     private final SentencePieceAlgorithm spAlgorithm;
 
-    private final Map<String, Integer> tokenToId = new HashMap<>();
-    private String[] idToToken = new String[0];
+    /** vocab.json 编译成的有序字符串表（mmap），token <-> id 都在上面查。 */
+    private CompiledVocab.StringTable vocab = CompiledVocab.StringTable.EMPTY;
 
     private int padId = DEFAULT_PAD_ID;
     private int eosId = DEFAULT_EOS_ID;
@@ -100,6 +114,7 @@ public final class OnnxZhEnTranslator implements Closeable {
     private int unkId = DEFAULT_UNK_ID;
 
     private OnnxZhEnTranslator(Context context) throws IOException, OrtException {
+        long initStart = SystemClock.elapsedRealtime();
         File modelDir = new File(context.getFilesDir(), ASSET_DIR);
         if (!modelDir.exists() && !modelDir.mkdirs()) {
             throw new IOException("Failed to create model dir: " + modelDir);
@@ -111,34 +126,64 @@ public final class OnnxZhEnTranslator implements Closeable {
         File vocabFile = new File(modelDir, VOCAB_NAME);
         File configFile = new File(modelDir, CONFIG_NAME);
 
-        AssetManager am = context.getAssets();
-        copyAssetIfNeeded(am, ASSET_DIR + "/" + ENCODER_NAME, encoderFile);
-        copyAssetIfNeeded(am, ASSET_DIR + "/" + DECODER_NAME, decoderFile);
-        copyAssetIfNeeded(am, ASSET_DIR + "/" + SRC_SPM_NAME, srcSpmFile);
-        copyAssetIfNeeded(am, ASSET_DIR + "/" + VOCAB_NAME, vocabFile);
-        copyAssetIfNeeded(am, ASSET_DIR + "/" + CONFIG_NAME, configFile);
+        // 按安装包版本校验，升级后换了的模型/词表会重新解出来（之前只判断文件是否存在）
+        ModelFiles.ensure(context, ASSET_DIR + "/" + ENCODER_NAME, encoderFile);
+        ModelFiles.ensure(context, ASSET_DIR + "/" + DECODER_NAME, decoderFile);
+        ModelFiles.ensure(context, ASSET_DIR + "/" + SRC_SPM_NAME, srcSpmFile);
+        ModelFiles.ensure(context, ASSET_DIR + "/" + VOCAB_NAME, vocabFile);
+        ModelFiles.ensure(context, ASSET_DIR + "/" + CONFIG_NAME, configFile);
+
+        File decoderWithPastFile = new File(modelDir, DECODER_WITH_PAST_NAME);
+        boolean hasWithPast = ensureOptional(context, ASSET_DIR + "/" + DECODER_WITH_PAST_NAME, decoderWithPastFile);
 
         readIdsFromConfig(configFile.toPath());
-        readVocab(vocabFile.toPath());
+        loadVocab(vocabFile, new File(modelDir, VOCAB_COMPILED_NAME));
 
         env = OrtEnvironment.getEnvironment();
-        encoderSession = env.createSession(encoderFile.getAbsolutePath(), new OrtSession.SessionOptions());
-        decoderSession = env.createSession(decoderFile.getAbsolutePath(), new OrtSession.SessionOptions());
+        encoderSession = OrtSessions.create(env, context, "opus_encoder", encoderFile, OrtSessions.Profile.INTERACTIVE);
+        decoderSession = OrtSessions.create(env, context, "opus_decoder", decoderFile, OrtSessions.Profile.INTERACTIVE);
+        OrtSession withPast = null;
+        boolean takesHidden = false;
+        // 首步由 decoder.onnx 产出 present.*（含 cross-attn 的 encoder KV），所以它也得是带 present 输出的导出
+        if (hasWithPast && hasPresentOutputs(decoderSession)) {
+            try {
+                withPast = OrtSessions.create(env, context, "opus_decoder_with_past", decoderWithPastFile,
+                        OrtSessions.Profile.INTERACTIVE);
+                takesHidden = withPast.getInputNames().contains("encoder_hidden_states");
+            } catch (OrtException e) {
+                Log.w(TAG, "decoder_with_past unusable, fallback to full-prefix decoding", e);
+                withPast = null;
+            }
+        }
+        decoderWithPastSession = withPast;
+        withPastTakesEncoderHidden = takesHidden;
+        Log.i(TAG, "decoder mode=" + (withPast != null ? "kv_cache" : "full_prefix"));
 
         srcSpModel = Model.parseFrom(srcSpmFile.toPath());
         spAlgorithm = new SentencePieceAlgorithm(false, Scoring.HIGHEST_SCORE);
+
+        HashMap<String, Object> initExtra = new HashMap<>();
+        initExtra.put("model", "opus_mt_zh_en");
+        initExtra.put("kv_cache", decoderWithPastSession != null);
+        PerfLogger.log("model_init", SystemClock.elapsedRealtime() - initStart, null, initExtra);
     }
 
-    private static void copyAssetIfNeeded(AssetManager am, String assetName, File outFile) throws IOException {
-        if (outFile.exists()) return;
-        try (InputStream is = am.open(assetName);
-             FileOutputStream fos = new FileOutputStream(outFile)) {
-            byte[] buf = new byte[8192];
-            int len;
-            while ((len = is.read(buf)) >= 0) {
-                fos.write(buf, 0, len);
-            }
+    /** 可选资产：不存在返回 false，不抛异常。 */
+    private static boolean ensureOptional(Context context, String assetName, File outFile) {
+        try {
+            ModelFiles.ensure(context, assetName, outFile);
+            return true;
+        } catch (IOException e) {
+            outFile.delete();
+            return false;
+        }
+    }
+
+    private static boolean hasPresentOutputs(OrtSession session) throws OrtException {
+        for (String name : session.getOutputNames()) {
+            if (name.startsWith(PRESENT_PREFIX)) return true;
         }
+        return false;
     }
 
     // ---- 对外翻译 API ----
@@ -162,7 +207,7 @@ public final class OnnxZhEnTranslator implements Closeable {
                 encoderAttentionMask[0][i] = 1L;
             }
 
-            float[][][] encoderHiddenStates;
+            // encoder 输出直接作为 decoder 输入，整个翻译只建一次 hidden states / mask 张量
             try (OnnxTensor inputIdsTensor = OnnxTensor.createTensor(env, encoderInputIds);
                  OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(env, encoderAttentionMask)) {
 
@@ -171,14 +216,14 @@ public final class OnnxZhEnTranslator implements Closeable {
                 encoderInputs.put("attention_mask", attentionMaskTensor);
 
                 try (OrtSession.Result encoderOutputs = encoderSession.run(encoderInputs)) {
-                    OnnxValue first = encoderOutputs.get(0);
-                    encoderHiddenStates = (float[][][]) first.getValue();
+                    OnnxTensor encoderHidden = (OnnxTensor) encoderOutputs.get(0);
+                    List<Integer> decodedIds = decoderWithPastSession != null
+                            ? greedyDecodeWithPast(encoderHidden, attentionMaskTensor)
+                            : greedyDecode(encoderHidden, attentionMaskTensor);
+                    String out = decodeTgt(decodedIds);
+                    return (out == null || out.trim().isEmpty()) ? trimmed : out;
                 }
             }
-
-            List<Integer> decodedIds = greedyDecode(encoderHiddenStates, encoderAttentionMask);
-            String out = decodeTgt(decodedIds);
-            return (out == null || out.trim().isEmpty()) ? trimmed : out;
         } catch (Exception e) {
             Log.e(TAG, "translate failed", e);
             return trimmed;
@@ -205,8 +250,8 @@ public final class OnnxZhEnTranslator implements Closeable {
         int[] out = new int[n + 1];
         for (int i = 0; i < n; i++) {
             String piece = pieces.get(i);
-            Integer vid = tokenToId.get(piece);
-            out[i] = (vid != null) ? vid : unkId;
+            int vid = vocab.idOf(piece);
+            out[i] = (vid >= 0) ? vid : unkId;
         }
         out[n] = eosId;
         return out;
@@ -266,8 +311,9 @@ public final class OnnxZhEnTranslator implements Closeable {
     }
 
     // ---- 贪心解码 ----
-    private List<Integer> greedyDecode(float[][][] encoderHiddenStates,
-                                       long[][] encoderAttentionMask) throws OrtException {
+    /** 无 past 导出时的兜底：每步把完整前缀重新喂给 decoder。 */
+    private List<Integer> greedyDecode(OnnxTensor encoderHidden,
+                                       OnnxTensor encoderMask) throws OrtException {
         List<Integer> generated = new ArrayList<>();
         generated.add(decoderStartId);
 
@@ -277,25 +323,17 @@ public final class OnnxZhEnTranslator implements Closeable {
                 decoderInputIds[0][i] = generated.get(i);
             }
 
-            float[][][] logits;
-            try (OnnxTensor decoderInputTensor = OnnxTensor.createTensor(env, decoderInputIds);
-                 OnnxTensor encoderHiddenTensor = OnnxTensor.createTensor(env, encoderHiddenStates);
-                 OnnxTensor encoderMaskTensor = OnnxTensor.createTensor(env, encoderAttentionMask)) {
-
+            int nextId;
+            try (OnnxTensor decoderInputTensor = OnnxTensor.createTensor(env, decoderInputIds)) {
                 Map<String, OnnxTensor> inputs = new HashMap<>();
                 inputs.put("input_ids", decoderInputTensor);
-                inputs.put("encoder_hidden_states", encoderHiddenTensor);
-                inputs.put("encoder_attention_mask", encoderMaskTensor);
+                inputs.put("encoder_hidden_states", encoderHidden);
+                inputs.put("encoder_attention_mask", encoderMask);
 
                 try (OrtSession.Result decoderOutputs = decoderSession.run(inputs)) {
-                    OnnxValue value = decoderOutputs.get(0);
-                    logits = (float[][][]) value.getValue();
+                    nextId = argmaxLastStep(logitsOf(decoderOutputs));
                 }
             }
-
-            int tgtLen = logits[0].length;
-            float[] lastLogits = logits[0][tgtLen - 1];
-            int nextId = argmax(lastLogits);
             if (nextId == eosId || nextId == padId) {
                 break;
             }
@@ -304,11 +342,77 @@ public final class OnnxZhEnTranslator implements Closeable {
         return generated;
     }
 
-    private static int argmax(float[] logits) {
+    /**
+     * KV cache 增量解码：首步用 decoder.onnx 跑 start token 拿到 present.*，之后每步只喂上一个 token
+     * 和 past_key_values.*。encoder 侧 KV 只在首步产出，首步结果要一直留到解码结束。
+     */
+    private List<Integer> greedyDecodeWithPast(OnnxTensor encoderHidden,
+                                               OnnxTensor encoderMask) throws OrtException {
+        List<Integer> generated = new ArrayList<>();
+        generated.add(decoderStartId);
+        Map<String, OnnxTensor> past = new HashMap<>();
+        OrtSession.Result first = null;
+        OrtSession.Result prev = null;
+        try {
+            for (int step = 0; step < MAX_NEW_TOKENS; step++) {
+                long[][] lastToken = {{generated.get(generated.size() - 1)}};
+                OrtSession.Result outputs;
+                try (OnnxTensor idsTensor = OnnxTensor.createTensor(env, lastToken)) {
+                    Map<String, OnnxTensor> inputs = new HashMap<>();
+                    inputs.put("input_ids", idsTensor);
+                    inputs.put("encoder_attention_mask", encoderMask);
+                    if (step == 0) {
+                        inputs.put("encoder_hidden_states", encoderHidden);
+                        outputs = decoderSession.run(inputs);
+                    } else {
+                        inputs.putAll(past);
+                        if (withPastTakesEncoderHidden) {
+                            inputs.put("encoder_hidden_states", encoderHidden);
+                        }
+                        outputs = decoderWithPastSession.run(inputs);
+                    }
+                }
+                // 新的 decoder 侧 KV 覆盖旧的；旧结果不再被引用后再关闭
+                for (Map.Entry<String, OnnxValue> e : outputs) {
+                    String name = e.getKey();
+                    if (name.startsWith(PRESENT_PREFIX)) {
+                        past.put(PAST_PREFIX + name.substring(PRESENT_PREFIX.length()), (OnnxTensor) e.getValue());
+                    }
+                }
+                if (step == 0) {
+                    first = outputs;
+                } else {
+                    if (prev != null) prev.close();
+                    prev = outputs;
+                }
+
+                int nextId = argmaxLastStep(logitsOf(outputs));
+                if (nextId == eosId || nextId == padId) {
+                    break;
+                }
+                generated.add(nextId);
+            }
+        } finally {
+            if (prev != null) prev.close();
+            if (first != null) first.close();
+        }
+        return generated;
+    }
+
+    private static OnnxTensor logitsOf(OrtSession.Result outputs) {
+        return (OnnxTensor) outputs.get("logits").orElse(outputs.get(0));
+    }
+
+    /** logits 形状 [1, tgtLen, vocab]：直接在 FloatBuffer 上取最后一步的 argmax，不拷成三维数组。 */
+    private static int argmaxLastStep(OnnxTensor logits) {
+        long[] shape = logits.getInfo().getShape();
+        int vocab = (int) shape[shape.length - 1];
+        FloatBuffer buf = logits.getFloatBuffer();
+        int base = buf.limit() - vocab;
         int bestIdx = 0;
         float bestVal = Float.NEGATIVE_INFINITY;
-        for (int i = 0; i < logits.length; i++) {
-            float v = logits[i];
+        for (int i = 0; i < vocab; i++) {
+            float v = buf.get(base + i);
             if (v > bestVal) {
                 bestVal = v;
                 bestIdx = i;
@@ -345,34 +449,48 @@ public final class OnnxZhEnTranslator implements Closeable {
         return fallback;
     }
 
+    /** 优先 mmap 编译好的 vocab.bin；没有或 vocab.json 变了就解析 JSON 编译一次。 */
+    private void loadVocab(File vocabJson, File compiled) {
+        long start = SystemClock.elapsedRealtime();
+        long stamp = vocabJson.length() * 31 + vocabJson.lastModified();
+        ByteBuffer body = CompiledVocab.map(compiled, VOCAB_MAGIC, stamp);
+        boolean mapped = body != null;
+        if (!mapped) {
+            Map<String, Integer> parsed = parseVocabJson(vocabJson.toPath());
+            if (parsed.isEmpty()) {
+                vocab = CompiledVocab.StringTable.EMPTY;
+                return;
+            }
+            body = CompiledVocab.StringTable.encode(parsed);
+            CompiledVocab.write(compiled, VOCAB_MAGIC, stamp, body);
+        }
+        vocab = new CompiledVocab.StringTable(body);
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("vocab", "opus_mt_zh_en");
+        extra.put("mapped", mapped);
+        extra.put("tokens", vocab.size());
+        PerfLogger.log("vocab_load", SystemClock.elapsedRealtime() - start, null, extra);
+    }
+
     /**
      * 关键：对 JSON 中的 \\uXXXX 做反转义，还原出真实字符（如 ▁）。
      */
-    private void readVocab(Path vocabPath) {
+    private static Map<String, Integer> parseVocabJson(Path vocabPath) {
+        Map<String, Integer> tokenToId = new HashMap<>();
         try {
             String json = new String(Files.readAllBytes(vocabPath), StandardCharsets.UTF_8);
             Matcher matcher = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(\\d+)").matcher(json);
-            int maxId = -1;
             while (matcher.find()) {
                 String rawToken = matcher.group(1);
                 String token = unescapeJsonString(rawToken);
                 int id = Integer.parseInt(matcher.group(2));
                 tokenToId.put(token, id);
-                if (id > maxId) maxId = id;
-            }
-            if (maxId >= 0) {
-                idToToken = new String[maxId + 1];
-                for (Map.Entry<String, Integer> e : tokenToId.entrySet()) {
-                    int id = e.getValue();
-                    if (id >= 0 && id < idToToken.length) {
-                        idToToken[id] = e.getKey();
-                    }
-                }
             }
         } catch (Exception e) {
+            Log.w(TAG, "parse vocab failed", e);
             tokenToId.clear();
-            idToToken = new String[0];
         }
+        return tokenToId;
     }
 
     private static String unescapeJsonString(String s) {
@@ -425,8 +543,7 @@ public final class OnnxZhEnTranslator implements Closeable {
     }
 
     private String safeIdToToken(int vocabId) {
-        if (vocabId < 0 || vocabId >= idToToken.length) return null;
-        return idToToken[vocabId];
+        return vocab.tokenOf(vocabId);
     }
 
     private static boolean containsCjk(String s) {
@@ -453,6 +570,12 @@ public final class OnnxZhEnTranslator implements Closeable {
             decoderSession.close();
         } catch (Exception ignore) {
         }
+        if (decoderWithPastSession != null) {
+            try {
+                decoderWithPastSession.close();
+            } catch (Exception ignore) {
+            }
+        }
         try {
             env.close();
         } catch (Exception ignore) {
@@ -0,0 +1,86 @@
+package com.example.photos.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vector-store row ordinals with their scores, best first. Index searches, merging and dedup stay
+ * on these primitive arrays; mediaKeys are looked up once for the final list via
+ * {@link FlatVectorStore#resolve}.
+ */
+public final class ScoredOrdinals {
+    public static final ScoredOrdinals EMPTY = new ScoredOrdinals(new int[0], new float[0], 0);
+
+    public final int[] ordinals;
+    public final float[] scores;
+    public final int size;
+
+    private ScoredOrdinals(int[] ordinals, float[] scores, int size) {
+        this.ordinals = ordinals;
+        this.scores = scores;
+        this.size = size;
+    }
+
+    /** Drains a min-heap built with {@link FlatVectorStore#siftUp}; the arrays are consumed. */
+    static ScoredOrdinals fromMinHeap(int[] rows, float[] scores, int size) {
+        if (size == 0) return EMPTY;
+        int[] outRows = new int[size];
+        float[] outScores = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            outRows[i] = rows[0];
+            outScores[i] = scores[0];
+            int last = i;
+            rows[0] = rows[last];
+            scores[0] = scores[last];
+            FlatVectorStore.siftDown(rows, scores, last);
+        }
+        return new ScoredOrdinals(outRows, outScores, size);
+    }
+
+    /** Best score per ordinal across {@code parts} (e.g. one search per query face), top {@code topK}. */
+    public static ScoredOrdinals mergeMax(List<ScoredOrdinals> parts, int topK) {
+        int total = 0;
+        for (ScoredOrdinals p : parts) total += p.size;
+        if (total == 0 || topK <= 0) return EMPTY;
+        // ordinal 在高 32 位、可排序的分数在低 32 位：排序后同一 ordinal 的最高分排在最后
+        long[] packed = new long[total];
+        int n = 0;
+        for (ScoredOrdinals p : parts) {
+            for (int i = 0; i < p.size; i++) {
+                packed[n++] = ((long) p.ordinals[i] << 32) | sortableBits(p.scores[i]);
+            }
+        }
+        Arrays.sort(packed);
+        int k = Math.min(topK, total);
+        int[] heapRows = new int[k];
+        float[] heapScores = new float[k];
+        int size = 0;
+        for (int i = 0; i < total; i++) {
+            int ordinal = (int) (packed[i] >>> 32);
+            if (i + 1 < total && (int) (packed[i + 1] >>> 32) == ordinal) continue;
+            float score = fromSortableBits(packed[i]);
+            if (size < k) {
+                heapRows[size] = ordinal;
+                heapScores[size] = score;
+                FlatVectorStore.siftUp(heapRows, heapScores, size++);
+            } else if (score > heapScores[0]) {
+                heapRows[0] = ordinal;
+                heapScores[0] = score;
+                FlatVectorStore.siftDown(heapRows, heapScores, size);
+            }
+        }
+        return fromMinHeap(heapRows, heapScores, size);
+    }
+
+    private static long sortableBits(float f) {
+        int bits = Float.floatToIntBits(f);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return (bits ^ 0x80000000) & 0xFFFFFFFFL;
+    }
+
+    private static float fromSortableBits(long packed) {
+        int bits = (int) packed ^ 0x80000000;
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return Float.intBitsToFloat(bits);
+    }
+}
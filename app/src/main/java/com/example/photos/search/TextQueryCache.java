@@ -0,0 +1,194 @@
+package com.example.photos.search;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.photos.util.ModelFiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 文本查询缓存：规范化查询 -> 译文 + CLIP 文本向量。重复/热门查询直接命中，跳过翻译和编码两个模型。
+ * 内存里是按访问顺序的 LRU，写入后整表快照交给后台线程落到 cacheDir（连续写入只落最后一份），进程重启后仍可命中。
+ * 文件头带模型标签 + 安装包 stamp，换了打包的翻译/CLIP 模型（即换了安装包）旧缓存整体作废。
+ */
+final class TextQueryCache {
+    private static final String TAG = "TextQueryCache";
+    private static final String FILE_NAME = "clip_text_query.cache";
+    private static final int MAGIC = 0x54514331; // "TQC1"
+    private static final String MODEL_TAG = "opus_mt_zh_en|MobileCLIP2-S2";
+    private static final int MAX_ENTRIES = 128;
+
+    private static final Object LOCK = new Object();
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private static boolean diskLoaded = false;
+    /** MODEL_TAG + 安装包 stamp，首次加载时算好 */
+    private static String cacheTag;
+    /** 待落盘的最新快照；非 null 表示后台已排了一次写入 */
+    private static List<Map.Entry<String, Entry>> pendingSnapshot;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    static final class Entry {
+        final String translated;
+        final float[] embedding;
+
+        Entry(String translated, float[] embedding) {
+            this.translated = translated;
+            this.embedding = embedding;
+        }
+    }
+
+    private TextQueryCache() {}
+
+    /** NFKC + 小写 + 合并空白；同一个意思的输入落到同一个 key。 */
+    static String normalize(String query) {
+        if (query == null) return "";
+        String s = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim();
+        return s.replaceAll("\\s+", " ");
+    }
+
+    /** 命中返回缓存项（调用方不要改 embedding），否则 null。同时累计命中率。 */
+    static Entry get(Context context, String key) {
+        synchronized (LOCK) {
+            ensureLoadedLocked(context);
+            Entry e = ENTRIES.get(key);
+            if (e != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return e;
+        }
+    }
+
+    static void put(Context context, String key, String translated, float[] embedding) {
+        if (key.isEmpty() || translated == null || embedding == null) return;
+        boolean schedule;
+        final File file = fileFor(context);
+        synchronized (LOCK) {
+            ensureLoadedLocked(context);
+            ENTRIES.put(key, new Entry(translated, embedding.clone()));
+            List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(ENTRIES.size());
+            for (Map.Entry<String, Entry> e : ENTRIES.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+            }
+            schedule = pendingSnapshot == null;
+            pendingSnapshot = snapshot;
+        }
+        // 搜索线程只拍引用快照，序列化和写文件在后台做
+        if (schedule) {
+            SAVE_EXECUTOR.execute(() -> flush(file));
+        }
+    }
+
+    static long hits() {
+        synchronized (LOCK) {
+            return hits;
+        }
+    }
+
+    static long misses() {
+        synchronized (LOCK) {
+            return misses;
+        }
+    }
+
+    private static File fileFor(Context context) {
+        return new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+    }
+
+    private static void ensureLoadedLocked(Context context) {
+        if (diskLoaded) return;
+        diskLoaded = true;
+        cacheTag = MODEL_TAG + "|" + ModelFiles.installStamp(context);
+        File file = fileFor(context);
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !cacheTag.equals(in.readUTF())) {
+                Log.i(TAG, "Stale query cache, discarding");
+                file.delete();
+                return;
+            }
+            int count = in.readInt();
+            // 文件按 LRU 从旧到新写入，依次 put 即可恢复访问顺序
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String translated = in.readUTF();
+                int dim = in.readInt();
+                float[] emb = new float[dim];
+                for (int d = 0; d < dim; d++) {
+                    emb[d] = in.readFloat();
+                }
+                ENTRIES.put(key, new Entry(translated, emb));
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to load query cache", e);
+            ENTRIES.clear();
+            file.delete();
+        }
+    }
+
+    /** 后台线程：写出最新的待落盘快照；排队期间的多次 put 只写一次。 */
+    private static void flush(File file) {
+        List<Map.Entry<String, Entry>> snapshot;
+        String tag;
+        synchronized (LOCK) {
+            snapshot = pendingSnapshot;
+            pendingSnapshot = null;
+            tag = cacheTag;
+        }
+        if (snapshot != null) {
+            writeFile(file, tag, snapshot);
+        }
+    }
+
+    private static void writeFile(File file, String tag, List<Map.Entry<String, Entry>> snapshot) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(tag);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue().translated);
+                float[] emb = e.getValue().embedding;
+                out.writeInt(emb.length);
+                for (float v : emb) {
+                    out.writeFloat(v);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save query cache", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Failed to replace query cache file");
+            tmp.delete();
+        }
+    }
+}
@@ -4,27 +4,23 @@ import android.content.Context;
 import android.os.SystemClock;
 
 import com.example.photos.data.MediaStoreRepository;
-import com.example.photos.db.FeatureDao;
-import com.example.photos.db.FeatureRecord;
 import com.example.photos.db.PhotoAsset;
 import com.example.photos.db.PhotoDao;
 import com.example.photos.db.PhotosDb;
-import com.example.photos.features.FeatureEncoding;
 import com.example.photos.features.FeatureType;
 import com.example.photos.model.Photo;
+import com.example.photos.settings.SearchPreferences;
 import com.example.photos.util.PerfLogger;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
 
 public final class TextSearchEngine {
 
     private static final String TAG = "TextSearchEngine";
-    private static volatile HnswImageIndex clipHnsw;
 
     private TextSearchEngine() {}
 
@@ -42,53 +38,77 @@ public final class TextSearchEngine {
         long totalStart = SystemClock.elapsedRealtime();
         String perfSession = "text-" + System.currentTimeMillis();
         String prepared = query == null ? "" : query.trim();
-        String translated = prepared;
-        long translateStart = SystemClock.elapsedRealtime();
-        try {
-            OnnxZhEnTranslator translator = OnnxZhEnTranslator.getInstance(context);
-            if (translator != null) {
-                translated = translator.translate(prepared);
+        String cacheKey = TextQueryCache.normalize(prepared);
+        long cacheStart = SystemClock.elapsedRealtime();
+        TextQueryCache.Entry cached = TextQueryCache.get(context, cacheKey);
+        HashMap<String, Object> cacheExtra = new HashMap<>();
+        cacheExtra.put("hit", cached != null);
+        cacheExtra.put("hits", TextQueryCache.hits());
+        cacheExtra.put("misses", TextQueryCache.misses());
+        PerfLogger.log("text_query_cache", SystemClock.elapsedRealtime() - cacheStart, perfSession, cacheExtra);
+
+        String translated;
+        float[] textEmbedding;
+        if (cached != null) {
+            translated = cached.translated;
+            textEmbedding = cached.embedding;
+        } else {
+            translated = cacheKey;
+            boolean translateOk = false;
+            long translateStart = SystemClock.elapsedRealtime();
+            try {
+                OnnxZhEnTranslator translator = OnnxZhEnTranslator.getInstance(context);
+                if (translator != null) {
+                    translated = translator.translate(cacheKey);
+                    translateOk = true;
+                }
+            } catch (Throwable t) {
+                android.util.Log.w(TAG, "Translator unavailable, fallback to raw text", t);
+                translated = cacheKey;
+            }
+            double translateMs = SystemClock.elapsedRealtime() - translateStart;
+            HashMap<String, Object> translateExtra = new HashMap<>();
+            translateExtra.put("raw_len", prepared.length());
+            translateExtra.put("translated_len", translated.length());
+            PerfLogger.log("text_translate", translateMs, perfSession, translateExtra);
+
+            long encodeStart = SystemClock.elapsedRealtime();
+            textEmbedding = ClipTextEncoder.encode(context, translated);
+            double encodeMs = SystemClock.elapsedRealtime() - encodeStart;
+            PerfLogger.log("text_encode", encodeMs, perfSession, null);
+            // 翻译失败时的原文兜底不缓存，免得模型恢复后还一直命中旧结果
+            if (translateOk && textEmbedding != null) {
+                TextQueryCache.put(context, cacheKey, translated, textEmbedding);
             }
-        } catch (Throwable t) {
-            android.util.Log.w(TAG, "Translator unavailable, fallback to raw text", t);
-            translated = prepared;
         }
-        double translateMs = SystemClock.elapsedRealtime() - translateStart;
-        HashMap<String, Object> translateExtra = new HashMap<>();
-        translateExtra.put("raw_len", prepared.length());
-        translateExtra.put("translated_len", translated.length());
-        PerfLogger.log("text_translate", translateMs, perfSession, translateExtra);
-
-        long encodeStart = SystemClock.elapsedRealtime();
-        float[] textEmbedding = ClipTextEncoder.encode(context, translated);
-        double encodeMs = SystemClock.elapsedRealtime() - encodeStart;
-        PerfLogger.log("text_encode", encodeMs, perfSession, null);
         if (textEmbedding == null) {
             android.util.Log.w(TAG, "textEmbedding is null");
             return Collections.emptyList();
         }
         PhotosDb db = PhotosDb.get(context.getApplicationContext());
-        FeatureDao featureDao = db.featureDao();
-        List<FeatureRecord> records = featureDao.getAllByType(FeatureType.CLIP_IMAGE_EMB.getCode());
-        if (records == null || records.isEmpty()) {
-            android.util.Log.w(TAG, "No image embeddings cached");
-            return Collections.emptyList();
-        }
-        android.util.Log.i(TAG, "search query=\"" + query + "\" translated=\"" + translated + "\" textDim=" + textEmbedding.length + " vectors=" + records.size());
         long annStart = SystemClock.elapsedRealtime();
         boolean usedHnsw = false;
-        List<SearchResultInternal> ordered = searchWithHnsw(context, textEmbedding, limit);
+        FlatVectorStore store = FlatVectorStore.forType(context, FeatureType.CLIP_IMAGE_EMB);
+        List<SearchResultInternal> ordered = searchWithIndex(context, textEmbedding, limit);
         if (ordered == null) {
-            ordered = linearSearch(records, textEmbedding, limit);
+            store.syncIfStale(db.featureDao());
+            if (store.size() == 0) {
+                android.util.Log.w(TAG, "No image embeddings cached");
+                return Collections.emptyList();
+            }
+            ordered = linearSearch(store, textEmbedding, limit);
         } else {
             usedHnsw = true;
         }
+        int vectorCount = store.size();
+        android.util.Log.i(TAG, "search query=\"" + query + "\" translated=\"" + translated + "\" textDim=" + textEmbedding.length + " vectors=" + vectorCount);
         double annMs = SystemClock.elapsedRealtime() - annStart;
         HashMap<String, Object> annExtra = new HashMap<>();
         annExtra.put("used_hnsw", usedHnsw);
         annExtra.put("index_available", usedHnsw);
         annExtra.put("limit", limit);
-        annExtra.put("vectors", records.size());
+        annExtra.put("vectors", vectorCount);
+        annExtra.put("index_backend", SearchPreferences.getIndexBackend(context, FeatureType.CLIP_IMAGE_EMB).name());
         PerfLogger.log("text_search_ann", annMs, perfSession, annExtra);
         // Log top scores for debugging/search visibility in logcat.
         if (!ordered.isEmpty()) {
@@ -102,9 +122,9 @@ public final class TextSearchEngine {
             android.util.Log.i(TAG, sb.toString());
         }
         List<SearchResult> out = new ArrayList<>();
-        PhotoDao photoDao = db.photoDao();
+        Map<String, PhotoAsset> assets = loadAssets(db.photoDao(), ordered);
         for (SearchResultInternal internal : ordered) {
-            Photo photo = mapToPhoto(photoDao, internal.mediaKey);
+            Photo photo = mapToPhoto(assets.get(internal.mediaKey), internal.mediaKey);
             if (photo != null) {
                 out.add(new SearchResult(photo, internal.score));
             }
@@ -114,82 +134,62 @@ public final class TextSearchEngine {
         totalExtra.put("used_hnsw", usedHnsw);
         totalExtra.put("index_available", usedHnsw);
         totalExtra.put("limit", limit);
+        totalExtra.put("query_cache_hit", cached != null);
         totalExtra.put("results", out.size());
         PerfLogger.log("text_search_total", totalMs, perfSession, totalExtra);
         return out;
     }
 
-    private static List<SearchResultInternal> searchWithHnsw(Context context, float[] query, int limit) {
-        HnswImageIndex hnsw = getClipHnsw(context);
-        if (!hnsw.loadIfExists()) {
+    private static List<SearchResultInternal> searchWithIndex(Context context, float[] query, int limit) {
+        VectorIndex index = VectorIndexes.forType(context, FeatureType.CLIP_IMAGE_EMB);
+        if (!index.loadIfExists()) {
             return null;
         }
-        var res = hnsw.search(query, limit);
-        List<SearchResultInternal> ordered = new ArrayList<>();
-        for (var r : res) {
-            // cosine distance -> similarity
-            float score = (float) (1.0 - r.distance());
-            ordered.add(new SearchResultInternal(r.item().id(), score));
+        ScoredOrdinals hits = index.search(query, limit);
+        List<FlatVectorStore.Hit> resolved = FlatVectorStore.forType(context, FeatureType.CLIP_IMAGE_EMB).resolve(hits);
+        List<SearchResultInternal> ordered = new ArrayList<>(resolved.size());
+        for (FlatVectorStore.Hit hit : resolved) {
+            ordered.add(new SearchResultInternal(hit.mediaKey, hit.score));
         }
-        ordered.sort((a, b) -> Float.compare(b.score, a.score));
-        android.util.Log.i(TAG, "HNSW search used, got=" + ordered.size());
+        android.util.Log.i(TAG, VectorIndexes.backendOf(index) + " search used, got=" + ordered.size());
         return ordered;
     }
 
-    private static HnswImageIndex getClipHnsw(Context context) {
-        if (clipHnsw == null) {
-            synchronized (TextSearchEngine.class) {
-                if (clipHnsw == null) {
-                    clipHnsw = new HnswImageIndex(context.getApplicationContext(), "clip_hnsw.index");
-                }
-            }
+    private static List<SearchResultInternal> linearSearch(FlatVectorStore store, float[] textEmbedding, int limit) {
+        if (store.dimension() != textEmbedding.length) {
+            android.util.Log.w(TAG, "dim mismatch text=" + textEmbedding.length + " store=" + store.dimension());
+            return Collections.emptyList();
         }
-        return clipHnsw;
+        List<FlatVectorStore.Hit> hits = store.search(textEmbedding, limit);
+        List<SearchResultInternal> ordered = new ArrayList<>(hits.size());
+        for (FlatVectorStore.Hit hit : hits) {
+            ordered.add(new SearchResultInternal(hit.mediaKey, hit.score));
+        }
+        android.util.Log.i(TAG, "HNSW missing -> linear search, processed=" + store.size() + " results=" + ordered.size());
+        return ordered;
     }
 
-    private static List<SearchResultInternal> linearSearch(List<FeatureRecord> records, float[] textEmbedding, int limit) {
-        PriorityQueue<SearchResultInternal> heap = new PriorityQueue<>(limit, Comparator.comparingDouble(r -> r.score));
-        int used = 0;
-        int skippedDim = 0;
-        for (FeatureRecord record : records) {
-            if (record.vector == null || record.vector.length == 0) continue;
-            float[] imageEmb = FeatureEncoding.bytesToFloats(record.vector);
-            if (imageEmb.length != textEmbedding.length) {
-                skippedDim++;
-                continue;
-            }
-            float score = dot(textEmbedding, imageEmb);
-            if (heap.size() < limit) {
-                heap.offer(new SearchResultInternal(record.mediaKey, score));
-            } else if (score > heap.peek().score) {
-                heap.poll();
-                heap.offer(new SearchResultInternal(record.mediaKey, score));
-            }
-            used++;
+    /** One IN query for all result keys instead of a lookup per row. */
+    private static Map<String, PhotoAsset> loadAssets(PhotoDao photoDao, List<SearchResultInternal> ordered) {
+        if (ordered.isEmpty()) return Collections.emptyMap();
+        List<String> keys = new ArrayList<>(ordered.size());
+        for (SearchResultInternal r : ordered) {
+            keys.add(r.mediaKey);
         }
-        android.util.Log.i(TAG, "processed=" + used + " skippedDim=" + skippedDim + " heap=" + heap.size());
-        List<SearchResultInternal> ordered = new ArrayList<>(heap);
-        ordered.sort((a, b) -> Float.compare(b.score, a.score));
-        android.util.Log.i(TAG, "HNSW missing -> linear search, results=" + ordered.size());
-        return ordered;
+        Map<String, PhotoAsset> byUri = new HashMap<>();
+        for (PhotoAsset asset : photoDao.findByContentUris(keys)) {
+            byUri.put(asset.contentUri, asset);
+        }
+        return byUri;
     }
 
-    private static Photo mapToPhoto(PhotoDao photoDao, String mediaKey) {
-        PhotoAsset asset = photoDao.findByContentUri(mediaKey);
+    private static Photo mapToPhoto(PhotoAsset asset, String mediaKey) {
         if (asset != null) {
             return MediaStoreRepository.toPhoto(asset);
         }
         // fallback minimal photo
         List<String> tags = Collections.emptyList();
-        return new Photo(mediaKey, "", "", "", null, tags, mediaKey, false, com.example.photos.model.PhotoCategory.ALL);
-    }
-
-    private static float dot(float[] a, float[] b) {
-        float sum = 0f;
-        for (int i = 0; i < a.length; i++) {
-            sum += a[i] * b[i];
-        }
-        return sum;
+        return new Photo(mediaKey, "", "", 0L, null, tags, mediaKey, false, com.example.photos.model.PhotoCategory.ALL);
     }
 
     private static final class SearchResultInternal {
@@ -0,0 +1,54 @@
+package com.example.photos.search;
+
+import com.example.photos.db.FeatureDao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Approximate nearest-neighbour index over one FeatureType's embeddings. Implementations are
+ * picked per type by {@link VectorIndexes}; whatever the backend, results are
+ * {@link FlatVectorStore} row ordinals with cosine similarities, resolved to mediaKeys by the
+ * caller once it has its final list.
+ */
+public interface VectorIndex {
+
+    /** Load (or keep) the on-disk index; false when there is none or it is unusable. */
+    boolean loadIfExists();
+
+    boolean existsOnDisk();
+
+    /** Items held by the index, for logging. */
+    int size();
+
+    void save();
+
+    /** Drop the in-memory state and the file. */
+    void clear();
+
+    /** Best matches first; empty when nothing is loaded. */
+    ScoredOrdinals search(float[] query, int topK);
+
+    /** Best score per row over several queries (e.g. every face in the query photo). */
+    default ScoredOrdinals search(float[][] queries, int topK) {
+        List<ScoredOrdinals> parts = new ArrayList<>(queries.length);
+        for (float[] q : queries) {
+            parts.add(search(q, topK));
+        }
+        return ScoredOrdinals.mergeMax(parts, topK);
+    }
+
+    /**
+     * Catch up with the rows appended to the {@link FlatVectorStore} since the index was built or
+     * last updated, reading the vectors back from the store. Deletes need no call: they are
+     * tombstoned in the store and filtered at re-rank time. Returns false when the caller should
+     * fall back to {@link #rebuild}.
+     */
+    boolean addAppendedRows();
+
+    /** Rebuild from scratch; returns the indexed item count. Call {@link #save} afterwards. */
+    int rebuild(FeatureDao featureDao);
+
+    /** Whether the index covers exactly the live rows of {@code store}. */
+    boolean inSyncWith(FlatVectorStore store);
+}
@@ -0,0 +1,72 @@
+package com.example.photos.search;
+
+import android.content.Context;
+
+import com.example.photos.features.FeatureType;
+import com.example.photos.settings.SearchPreferences;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Picks the {@link VectorIndex} backend per FeatureType (see
+ * {@link SearchPreferences#getIndexBackend}) and keeps one shared instance per type for searches.
+ */
+public final class VectorIndexes {
+    private static final FeatureType[] INDEXED_TYPES = {
+            FeatureType.CLIP_IMAGE_EMB, FeatureType.DINO_IMAGE_EMB, FeatureType.FACE_SFACE_EMB
+    };
+    private static final Map<FeatureType, VectorIndex> SHARED = new EnumMap<>(FeatureType.class);
+
+    public enum Backend {
+        HNSW, IVF_PQ
+    }
+
+    private VectorIndexes() {}
+
+    /** Shared instance for searches; replaced when the backend preference changes. */
+    public static VectorIndex forType(Context context, FeatureType type) {
+        Context app = context.getApplicationContext();
+        Backend backend = SearchPreferences.getIndexBackend(app, type);
+        synchronized (SHARED) {
+            VectorIndex idx = SHARED.get(type);
+            if (idx == null || backendOf(idx) != backend) {
+                idx = create(app, type, backend);
+                SHARED.put(type, idx);
+            }
+            return idx;
+        }
+    }
+
+    /** Fresh instance with its own in-memory state, e.g. for the embedding worker. */
+    public static VectorIndex open(Context context, FeatureType type) {
+        Context app = context.getApplicationContext();
+        return create(app, type, SearchPreferences.getIndexBackend(app, type));
+    }
+
+    public static Backend backendOf(VectorIndex idx) {
+        return idx instanceof IvfPqIndex ? Backend.IVF_PQ : Backend.HNSW;
+    }
+
+    /** Delete the files of both backends for every type. */
+    public static void clearAll(Context context) {
+        Context app = context.getApplicationContext();
+        for (FeatureType type : INDEXED_TYPES) {
+            for (Backend backend : Backend.values()) {
+                create(app, type, backend).clear();
+            }
+        }
+        synchronized (SHARED) {
+            for (VectorIndex idx : SHARED.values()) {
+                idx.clear();
+            }
+        }
+    }
+
+    private static VectorIndex create(Context app, FeatureType type, Backend backend) {
+        if (backend == Backend.IVF_PQ) {
+            return new IvfPqIndex(app, type);
+        }
+        return new HnswImageIndex(app, type);
+    }
+}
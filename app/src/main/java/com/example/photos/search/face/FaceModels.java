@@ -1,13 +1,13 @@
 package com.example.photos.search.face;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.util.Log;
 
+import com.example.photos.util.ModelFiles;
+
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 
 /**
@@ -65,23 +65,9 @@ public final class FaceModels {
         return config;
     }
 
+    /** 交给 {@link ModelFiles}：同一次安装只拷一次，并校验长度。 */
     public static File ensureAssetToCache(Context ctx, String assetPath, String outName) {
-        try {
-            File out = new File(ctx.getCacheDir(), outName);
-            if (out.exists() && out.length() > 0) return out;
-            AssetManager am = ctx.getAssets();
-            try (InputStream is = am.open(assetPath); FileOutputStream fos = new FileOutputStream(out)) {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = is.read(buf)) > 0) {
-                    fos.write(buf, 0, n);
-                }
-            }
-            return out;
-        } catch (Exception e) {
-            Log.w(TAG, "copy asset failed: " + assetPath, e);
-            return null;
-        }
+        return ModelFiles.ensureInCache(ctx, assetPath, outName);
     }
 
     private static byte[] readAll(InputStream is) throws Exception {
@@ -0,0 +1,123 @@
+package com.example.photos.search.face;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.photos.util.PerfLogger;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Small pool of {@link SFaceOpenCv} engines so YuNet/SFace are not reloaded per photo or per query.
+ * OpenCV DNN objects aren't thread-safe: an engine belongs to exactly one thread between
+ * {@link #acquire} and {@link #release}. Idle engines are dropped on memory pressure.
+ */
+public final class SFacePool {
+    private static final String TAG = "SFacePool";
+    private static final int MAX_IDLE = 2;
+
+    private static final Object LOCK = new Object();
+    private static final ArrayDeque<SFaceOpenCv> idle = new ArrayDeque<>();
+    private static boolean callbacksRegistered = false;
+    // Bumped by releaseIdle(); engines created before a trim are not pooled again.
+    private static int generation = 0;
+    private static final Map<SFaceOpenCv, Integer> borrowed = new IdentityHashMap<>();
+
+    private SFacePool() {}
+
+    /**
+     * Borrow an engine, creating one if none is idle. Creation is logged as {@code face_init},
+     * separate from per-image inference events.
+     */
+    public static SFaceOpenCv acquire(Context context, @Nullable String perfSession) throws Exception {
+        Context app = context.getApplicationContext();
+        synchronized (LOCK) {
+            registerCallbacks(app);
+            SFaceOpenCv engine = idle.pollFirst();
+            if (engine != null) {
+                borrowed.put(engine, generation);
+                return engine;
+            }
+        }
+        long t0 = SystemClock.elapsedRealtime();
+        SFaceOpenCv engine = new SFaceOpenCv(app);
+        double dur = SystemClock.elapsedRealtime() - t0;
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("thread", Thread.currentThread().getName());
+        PerfLogger.log("face_init", dur, perfSession, extra);
+        synchronized (LOCK) {
+            borrowed.put(engine, generation);
+        }
+        return engine;
+    }
+
+    /** Give an engine back; the caller must not touch it afterwards. */
+    public static void release(@Nullable SFaceOpenCv engine) {
+        if (engine == null) return;
+        synchronized (LOCK) {
+            Integer gen = borrowed.remove(engine);
+            if (gen == null || gen != generation || idle.size() >= MAX_IDLE) {
+                return;
+            }
+            idle.addFirst(engine);
+        }
+    }
+
+    /** Load one engine ahead of time off the caller's thread, if none is idle yet. */
+    public static void warmup(Context context) {
+        synchronized (LOCK) {
+            if (!idle.isEmpty() || !borrowed.isEmpty()) return;
+        }
+        Context app = context.getApplicationContext();
+        new Thread(() -> {
+            try {
+                release(acquire(app, null));
+            } catch (Throwable t) {
+                Log.w(TAG, "warmup failed", t);
+            }
+        }, "sface-warmup").start();
+    }
+
+    /** Drop idle engines so their native nets can be collected; borrowed ones are dropped on release. */
+    public static void releaseIdle() {
+        synchronized (LOCK) {
+            generation++;
+            if (!idle.isEmpty()) {
+                Log.i(TAG, "release idle engines=" + idle.size());
+            }
+            idle.clear();
+        }
+    }
+
+    private static void registerCallbacks(Context app) {
+        if (callbacksRegistered) return;
+        callbacksRegistered = true;
+        app.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                    releaseIdle();
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                releaseIdle();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.photos.settings;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.example.photos.features.FeatureEncoding;
+import com.example.photos.features.FeatureType;
+import com.example.photos.search.VectorIndexes;
+
 /**
  * Stores simple search preferences like result limit.
  */
@@ -12,6 +17,8 @@ public final class SearchPreferences {
     private static final String KEY_LIMIT = "search_limit";
     private static final int DEFAULT_LIMIT = 4;
     private static final int[] ALLOWED_LIMITS = new int[]{1, 4, 8, 16, 32, 64};
+    private static final String KEY_VECTOR_ENCODING = "vector_encoding";
+    private static final String KEY_INDEX_BACKEND_PREFIX = "index_backend_";
 
     private SearchPreferences() {}
 
@@ -26,6 +33,47 @@ public final class SearchPreferences {
         sp.edit().putInt(KEY_LIMIT, sanitizeLimit(limit)).apply();
     }
 
+    /** 新写入的 CLIP/DINO/人脸向量用什么编码存；默认 FP32，旧数据不受影响。 */
+    public static FeatureEncoding.Encoding getVectorEncoding(Context context) {
+        SharedPreferences sp = context.getApplicationContext().getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        String value = sp.getString(KEY_VECTOR_ENCODING, null);
+        if (value != null) {
+            for (FeatureEncoding.Encoding e : FeatureEncoding.Encoding.values()) {
+                if (e.name().equals(value)) return e;
+            }
+        }
+        return FeatureEncoding.Encoding.FP32;
+    }
+
+    public static void setVectorEncoding(Context context, FeatureEncoding.Encoding encoding) {
+        SharedPreferences sp = context.getApplicationContext().getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        sp.edit().putString(KEY_VECTOR_ENCODING, encoding.name()).apply();
+    }
+
+    /**
+     * 每种特征用哪种近邻索引。默认 HNSW；低内存设备上 DINO（768 维）默认走 IVF-PQ，避免整图常驻堆。
+     */
+    public static VectorIndexes.Backend getIndexBackend(Context context, FeatureType type) {
+        Context app = context.getApplicationContext();
+        SharedPreferences sp = app.getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        String value = sp.getString(KEY_INDEX_BACKEND_PREFIX + type.getCode(), null);
+        if (value != null) {
+            for (VectorIndexes.Backend b : VectorIndexes.Backend.values()) {
+                if (b.name().equals(value)) return b;
+            }
+        }
+        if (type == FeatureType.DINO_IMAGE_EMB) {
+            ActivityManager am = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+            if (am != null && am.isLowRamDevice()) return VectorIndexes.Backend.IVF_PQ;
+        }
+        return VectorIndexes.Backend.HNSW;
+    }
+
+    public static void setIndexBackend(Context context, FeatureType type, VectorIndexes.Backend backend) {
+        SharedPreferences sp = context.getApplicationContext().getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        sp.edit().putString(KEY_INDEX_BACKEND_PREFIX + type.getCode(), backend.name()).apply();
+    }
+
     public static int[] getAllowedLimits() {
         return ALLOWED_LIMITS.clone();
     }
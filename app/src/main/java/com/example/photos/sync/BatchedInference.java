@@ -0,0 +1,104 @@
+package com.example.photos.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Batching shared by the image encoders that feed {@link EmbeddingPipeline}: packs preprocessed
+ * CHW inputs into runs of up to {@code batch}, falls back to one run per image when a batched run
+ * fails, and L2-normalizes what comes out.
+ */
+public final class BatchedInference {
+
+    /** Model-specific runs; both may return null or throw on failure. */
+    public interface Runner {
+        float[][] runBatch(List<float[]> chws) throws Exception;
+
+        float[] runOne(float[] chw) throws Exception;
+    }
+
+    private BatchedInference() {}
+
+    /** True when the [N,3,H,W] input {@code name} has a dynamic batch dimension. */
+    public static boolean hasDynamicBatch(OrtSession s, String name) {
+        try {
+            NodeInfo info = s.getInputInfo().get(name);
+            if (info != null && info.getInfo() instanceof TensorInfo) {
+                long[] shape = ((TensorInfo) info.getInfo()).getShape();
+                return shape != null && shape.length == 4 && shape[0] < 0;
+            }
+        } catch (Throwable ignore) {
+        }
+        return false;
+    }
+
+    /** Result lines up with {@code chws}; null inputs or failures give null entries. */
+    public static List<float[]> run(List<float[]> chws, int batch, Runner runner, String tag) {
+        int n = chws == null ? 0 : chws.size();
+        List<float[]> out = new ArrayList<>(Collections.nCopies(n, (float[]) null));
+        if (n == 0) return out;
+        int size = Math.max(1, batch);
+        List<Integer> slots = new ArrayList<>(size);
+        List<float[]> inputs = new ArrayList<>(size);
+        for (int i = 0; i < n; i++) {
+            float[] chw = chws.get(i);
+            if (chw == null) continue;
+            slots.add(i);
+            inputs.add(chw);
+            if (inputs.size() >= size) {
+                runInto(slots, inputs, out, runner, tag);
+            }
+        }
+        runInto(slots, inputs, out, runner, tag);
+        return out;
+    }
+
+    private static void runInto(List<Integer> slots, List<float[]> inputs, List<float[]> out,
+                                Runner runner, String tag) {
+        if (inputs.isEmpty()) return;
+        float[][] embs = null;
+        if (inputs.size() > 1) {
+            try {
+                embs = runner.runBatch(inputs);
+            } catch (Throwable t) {
+                Log.w(tag, "batched run failed (n=" + inputs.size() + "), retrying per image: " + t);
+            }
+            if (embs != null && embs.length != inputs.size()) embs = null;
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            float[] emb = null;
+            if (embs != null) {
+                emb = embs[i];
+            } else {
+                try {
+                    emb = runner.runOne(inputs.get(i));
+                } catch (Throwable t) {
+                    Log.w(tag, "runOnnx failed: " + t);
+                }
+            }
+            if (emb == null) continue;
+            l2Normalize(emb);
+            out.set(slots.get(i), emb);
+        }
+        slots.clear();
+        inputs.clear();
+    }
+
+    private static void l2Normalize(float[] vector) {
+        double ss = 0d;
+        for (float v : vector) {
+            ss += v * v;
+        }
+        double norm = Math.sqrt(Math.max(ss, 1e-12));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (vector[i] / norm);
+        }
+    }
+}
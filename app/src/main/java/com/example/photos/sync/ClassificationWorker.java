@@ -45,6 +45,7 @@ public class ClassificationWorker extends Worker {
     public static final String UNIQUE_SAMPLE = "clip_classify_sample";
     public static final String TAG_CLASSIFY = "clip_classify";
     private static final int NOTIFICATION_ID = 10002;
+    private static final String CURSOR_NAME = "classify";
     private int progressTotal = 0;
     private int progressProcessed = 0;
 
@@ -107,15 +108,29 @@ public class ClassificationWorker extends Worker {
                                        CategoryDao categoryDao,
                                        FeatureDao featureDao) {
         final int PAGE = 200;
-        int offset = 0;
-        int total = photoDao.countAll();
-        Log.i(TAG, "runFullClassification total=" + total + " page=" + PAGE);
+        FullScanCursorStore cursor = new FullScanCursorStore(getApplicationContext(), CURSOR_NAME);
+        long beforeDate = cursor.getDate();
+        long beforeId = cursor.getId();
+        int total = photoDao.countImages();
+        Log.i(TAG, "runFullClassification total=" + total + " page=" + PAGE + " resume=" + cursor.hasCursor());
         resetProgress(total);
+        progressProcessed = Math.max(0, total - photoDao.countBefore(beforeDate, beforeId));
+        boolean finished = false;
         while (!isStopped()) {
-            List<PhotoAsset> page = photoDao.queryPaged(PAGE, offset);
-            if (page == null || page.isEmpty()) break;
+            List<PhotoAsset> page = photoDao.queryPageBefore(beforeDate, beforeId, PAGE);
+            if (page == null || page.isEmpty()) {
+                finished = true;
+                break;
+            }
             classifyBatch(page, categoryDao, featureDao, true);
-            offset += PAGE;
+            if (isStopped()) break;
+            PhotoAsset last = page.get(page.size() - 1);
+            beforeDate = last.dateModified;
+            beforeId = last.id;
+            cursor.save(beforeDate, beforeId);
+        }
+        if (finished) {
+            cursor.clear();
         }
         updateProgress(progressProcessed, progressTotal);
         Log.i(TAG, "Classification full done processed=" + progressProcessed + "/" + progressTotal + " stopped=" + isStopped());
@@ -126,9 +141,6 @@ public class ClassificationWorker extends Worker {
                                FeatureDao featureDao,
                                boolean reprocessExisting) {
         if (assets == null || assets.isEmpty()) return 0;
-        try {
-            categoryDao.renameCategory("IDPHOTO", "CARD");
-        } catch (Throwable ignore) {}
         List<CategoryRecord> pending = new ArrayList<>();
         int visited = 0;
         for (PhotoAsset asset : assets) {
@@ -15,6 +15,7 @@ import androidx.work.WorkerParameters;
 import com.example.photos.R;
 import com.example.photos.classify.ClipClassifier;
 import com.example.photos.db.FeatureDao;
+import com.example.photos.db.FeaturePresence;
 import com.example.photos.db.FeatureRecord;
 import com.example.photos.db.PhotoAsset;
 import com.example.photos.db.PhotoDao;
@@ -22,12 +23,20 @@ import com.example.photos.db.PhotosDb;
 import com.example.photos.features.FeatureEncoding;
 import com.example.photos.features.FeatureType;
 import com.example.photos.search.DinoImageEmbedder;
-import com.example.photos.search.HnswImageIndex;
+import com.example.photos.search.FlatVectorStore;
+import com.example.photos.search.VectorIndex;
+import com.example.photos.search.VectorIndexes;
 import com.example.photos.search.face.SFaceOpenCv;
+import com.example.photos.settings.SearchPreferences;
 import com.example.photos.util.PerfLogger;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,12 +56,23 @@ public class ClipEmbeddingWorker extends Worker {
     public static final String UNIQUE_SAMPLE = "clip_embed_sample";
     public static final String TAG_EMBED = "clip_embed";
     private static final int NOTIFICATION_ID = 10001;
+    private static final int KEY_CHUNK = 500;
+    private static final String CURSOR_NAME = "embed";
 
     private int progressProcessed = 0;
     private int progressTotal = 0;
     private int clipCount = 0;
     private int dinoCount = 0;
     private int faceCount = 0;
+    private final Set<String> clipChanged = new LinkedHashSet<>();
+    private final Set<String> dinoChanged = new LinkedHashSet<>();
+    private final Set<String> faceChanged = new LinkedHashSet<>();
+    // 已写进检查点 dirty 文件的数量（changed 集合的前缀）
+    private int clipPersisted = 0;
+    private int dinoPersisted = 0;
+    private int facePersisted = 0;
+    private EmbedCheckpoint checkpoint;
+    private FeatureEncoding.Encoding vectorEncoding = FeatureEncoding.Encoding.FP32;
 
     public ClipEmbeddingWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
@@ -77,7 +97,10 @@ public class ClipEmbeddingWorker extends Worker {
         PhotosDb db = PhotosDb.get(app);
         PhotoDao photoDao = db.photoDao();
         FeatureDao featureDao = db.featureDao();
+        checkpoint = new EmbedCheckpoint(app);
+        vectorEncoding = SearchPreferences.getVectorEncoding(app);
         try {
+            syncVectorStores(featureDao);
             if (full) {
                 runFull(photoDao, featureDao, force, perfSession);
             } else {
@@ -98,12 +121,9 @@ public class ClipEmbeddingWorker extends Worker {
         resetProgress(latest == null ? 0 : latest.size());
         resetCounters();
         encodeBatch(latest, featureDao, force, perfSession);
+        commitDirty();
         if (isStopped()) return;
-        rebuildHnsw(featureDao, perfSession);
-        if (isStopped()) return;
-        rebuildFaceHnsw(featureDao, perfSession);
-        if (isStopped()) return;
-        rebuildClipHnsw(featureDao, perfSession);
+        updateIndexes(featureDao, perfSession);
         Log.i(TAG, "Embedding recent done processed=" + progressProcessed + "/" + progressTotal
                 + " clip=" + clipCount + " dino=" + dinoCount + " face=" + faceCount
                 + " stopped=" + isStopped());
@@ -111,207 +131,275 @@ public class ClipEmbeddingWorker extends Worker {
 
     private void runFull(PhotoDao photoDao, FeatureDao featureDao, boolean force, String perfSession) {
         final int PAGE = 200;
-        int offset = 0;
-        int total = photoDao.countAll();
-        Log.i(TAG, "runFull total=" + total + " page=" + PAGE);
+        FullScanCursorStore cursor = new FullScanCursorStore(getApplicationContext(), CURSOR_NAME);
+        long beforeDate = cursor.getDate();
+        long beforeId = cursor.getId();
+        int total = photoDao.countImages();
+        Log.i(TAG, "runFull total=" + total + " page=" + PAGE + " resume=" + cursor.hasCursor());
         resetProgress(total);
         resetCounters();
+        if (cursor.hasCursor()) {
+            // 续跑：已提交页的计数从检查点恢复，dirty key 在 resetCounters 里已读回
+            clipCount = checkpoint.clipCount();
+            dinoCount = checkpoint.dinoCount();
+            faceCount = checkpoint.faceCount();
+        } else {
+            checkpoint.clearCounts();
+        }
+        progressProcessed = Math.max(0, total - photoDao.countBefore(beforeDate, beforeId));
         while (!isStopped()) {
-            List<PhotoAsset> page = photoDao.queryPaged(PAGE, offset);
+            List<PhotoAsset> page = photoDao.queryPageBefore(beforeDate, beforeId, PAGE);
             if (page == null || page.isEmpty()) break;
             encodeBatch(page, featureDao, force, perfSession);
-            offset += PAGE;
+            commitDirty();
+            if (isStopped()) break;
+            PhotoAsset last = page.get(page.size() - 1);
+            beforeDate = last.dateModified;
+            beforeId = last.id;
+            checkpoint.saveCounts(clipCount, dinoCount, faceCount);
+            cursor.save(beforeDate, beforeId);
         }
         if (isStopped()) return;
-        rebuildHnsw(featureDao, perfSession);
-        if (isStopped()) return;
-        rebuildFaceHnsw(featureDao, perfSession);
-        if (isStopped()) return;
-        rebuildClipHnsw(featureDao, perfSession);
+        cursor.clear();
+        checkpoint.clearCounts();
+        updateIndexes(featureDao, perfSession);
         Log.i(TAG, "Embedding full done processed=" + progressProcessed + "/" + progressTotal
                 + " clip=" + clipCount + " dino=" + dinoCount + " face=" + faceCount
                 + " stopped=" + isStopped());
     }
 
+    private void syncVectorStores(FeatureDao featureDao) {
+        Context app = getApplicationContext();
+        FlatVectorStore.forType(app, FeatureType.CLIP_IMAGE_EMB).syncIfStale(featureDao);
+        FlatVectorStore.forType(app, FeatureType.DINO_IMAGE_EMB).syncIfStale(featureDao);
+        FlatVectorStore.forType(app, FeatureType.FACE_SFACE_EMB).syncIfStale(featureDao);
+    }
+
     private void encodeBatch(List<PhotoAsset> assets, FeatureDao featureDao, boolean force, String perfSession) {
         if (assets == null || assets.isEmpty()) return;
+        List<FeatureRecord> newClip = new ArrayList<>();
+        List<FeatureRecord> newDino = new ArrayList<>();
+        List<FeatureRecord> newFace = new ArrayList<>();
+        try {
+            encodeAssets(assets, featureDao, force, perfSession, newClip, newDino, newFace);
+        } finally {
+            // Keep the mmap vector files in step with whatever reached Room, even on stop.
+            Context app = getApplicationContext();
+            FlatVectorStore.forType(app, FeatureType.CLIP_IMAGE_EMB).append(newClip);
+            FlatVectorStore.forType(app, FeatureType.DINO_IMAGE_EMB).append(newDino);
+            FlatVectorStore.forType(app, FeatureType.FACE_SFACE_EMB).append(newFace);
+        }
+    }
+
+    private void encodeAssets(List<PhotoAsset> assets,
+                              FeatureDao featureDao,
+                              boolean force,
+                              String perfSession,
+                              List<FeatureRecord> newClip,
+                              List<FeatureRecord> newDino,
+                              List<FeatureRecord> newFace) {
+        Map<String, Integer> present = force ? Collections.emptyMap() : loadPresence(featureDao, assets);
+        List<EmbeddingPipeline.Job> jobs = new ArrayList<>();
         for (PhotoAsset asset : assets) {
             if (isStopped()) return;
-            incrementProgress();
-            if (asset == null || asset.contentUri == null) continue;
-            boolean needClip = force || featureDao.countByKeyAndType(asset.contentUri, FeatureType.CLIP_IMAGE_EMB.getCode()) == 0;
-            boolean needDino = force || featureDao.countByKeyAndType(asset.contentUri, FeatureType.DINO_IMAGE_EMB.getCode()) == 0;
-            boolean needFace = force || featureDao.countByKeyAndType(asset.contentUri, FeatureType.FACE_SFACE_EMB.getCode()) == 0;
+            if (asset == null || asset.contentUri == null) {
+                incrementProgress();
+                continue;
+            }
+            Integer mask = present.get(asset.contentUri);
+            int has = mask == null ? 0 : mask;
+            boolean needClip = force || (has & bit(FeatureType.CLIP_IMAGE_EMB)) == 0;
+            boolean needDino = force || (has & bit(FeatureType.DINO_IMAGE_EMB)) == 0;
+            boolean needFace = force || (has & bit(FeatureType.FACE_SFACE_EMB)) == 0;
             Log.d(TAG, "asset=" + asset.contentUri
                     + " needClip=" + needClip
                     + " needDino=" + needDino
                     + " needFace=" + needFace);
-            if (!needClip && !needDino && !needFace) continue;
+            if (!needClip && !needDino && !needFace) {
+                incrementProgress();
+                continue;
+            }
             if (force) {
                 if (needClip) {
                     featureDao.deleteByKeyAndType(asset.contentUri, FeatureType.CLIP_IMAGE_EMB.getCode());
+                    clipChanged.add(asset.contentUri);
                 }
                 if (needDino) {
                     featureDao.deleteByKeyAndType(asset.contentUri, FeatureType.DINO_IMAGE_EMB.getCode());
+                    dinoChanged.add(asset.contentUri);
                 }
                 if (needFace) {
                     featureDao.deleteByKeyAndType(asset.contentUri, FeatureType.FACE_SFACE_EMB.getCode());
+                    faceChanged.add(asset.contentUri);
                 }
             }
-            if (needClip) {
-                if (isStopped()) return;
-                float[] embedding = null;
-                long t0 = SystemClock.elapsedRealtime();
-                try {
-                    embedding = ClipClassifier.encodeImageEmbedding(getApplicationContext(), asset);
-                } catch (Throwable t) {
-                    Log.w(TAG, "clip encode failed: " + asset.contentUri, t);
-                }
-                double dur = SystemClock.elapsedRealtime() - t0;
-                if (embedding != null) {
-                    FeatureRecord record = new FeatureRecord();
-                    record.mediaKey = asset.contentUri;
-                    record.featType = FeatureType.CLIP_IMAGE_EMB.getCode();
-                    record.faceId = 0;
-                    record.vector = FeatureEncoding.floatsToBytes(embedding);
-                    record.updatedAt = System.currentTimeMillis() / 1000L;
-                    featureDao.upsert(record);
-                    clipCount++;
-                    HashMap<String, Object> extra = new HashMap<>();
-                    extra.put("media", asset.contentUri);
-                    PerfLogger.log("clip_encode", dur, perfSession, extra);
-                }
+            jobs.add(new EmbeddingPipeline.Job(asset, needClip, needDino, needFace));
+        }
+        if (jobs.isEmpty() || isStopped()) return;
+        new EmbeddingPipeline(getApplicationContext(), this::isStopped, perfSession)
+                .run(jobs, outputs -> persistOutputs(featureDao, outputs, newClip, newDino, newFace));
+    }
+
+    /** mediaKey -> bitmask of feature types already stored, one query per KEY_CHUNK keys. */
+    private static Map<String, Integer> loadPresence(FeatureDao featureDao, List<PhotoAsset> assets) {
+        List<String> keys = new ArrayList<>(assets.size());
+        for (PhotoAsset asset : assets) {
+            if (asset != null && asset.contentUri != null) keys.add(asset.contentUri);
+        }
+        Map<String, Integer> out = new HashMap<>();
+        for (int i = 0; i < keys.size(); i += KEY_CHUNK) {
+            List<FeaturePresence> rows = featureDao.presenceForKeys(keys.subList(i, Math.min(keys.size(), i + KEY_CHUNK)));
+            if (rows == null) continue;
+            for (FeaturePresence row : rows) {
+                Integer prev = out.get(row.mediaKey);
+                out.put(row.mediaKey, (prev == null ? 0 : prev) | (1 << row.featType));
             }
-            if (needDino) {
-                if (isStopped()) return;
-                float[] embedding = null;
-                long t0 = SystemClock.elapsedRealtime();
-                try {
-                    embedding = DinoImageEmbedder.encode(getApplicationContext(), asset);
-                } catch (Throwable t) {
-                    Log.w(TAG, "dino encode failed: " + asset.contentUri, t);
-                }
-                double dur = SystemClock.elapsedRealtime() - t0;
-                if (embedding != null) {
-                    FeatureRecord record = new FeatureRecord();
-                    record.mediaKey = asset.contentUri;
-                    record.featType = FeatureType.DINO_IMAGE_EMB.getCode();
-                    record.faceId = 0;
-                    record.vector = FeatureEncoding.floatsToBytes(embedding);
-                    record.updatedAt = System.currentTimeMillis() / 1000L;
-                    featureDao.upsert(record);
-                    dinoCount++;
-                    HashMap<String, Object> extra = new HashMap<>();
-                    extra.put("media", asset.contentUri);
-                    PerfLogger.log("dino_encode", dur, perfSession, extra);
-                }
+        }
+        return out;
+    }
+
+    private static int bit(FeatureType type) {
+        return 1 << type.getCode();
+    }
+
+    /** Persist stage: runs on the worker thread, one Room transaction per pipeline flush. */
+    private void persistOutputs(FeatureDao featureDao,
+                                List<EmbeddingPipeline.Output> outputs,
+                                List<FeatureRecord> newClip,
+                                List<FeatureRecord> newDino,
+                                List<FeatureRecord> newFace) {
+        long now = System.currentTimeMillis() / 1000L;
+        List<FeatureRecord> records = new ArrayList<>();
+        for (EmbeddingPipeline.Output out : outputs) {
+            int fid = 0;
+            for (float[] v : out.vectors) {
+                if (v == null || v.length == 0) continue;
+                FeatureRecord r = new FeatureRecord();
+                r.mediaKey = out.job.asset.contentUri;
+                r.featType = out.type.getCode();
+                r.faceId = out.type == FeatureType.FACE_SFACE_EMB ? fid++ : 0;
+                r.vector = FeatureEncoding.encode(v, vectorEncoding);
+                r.updatedAt = now;
+                records.add(r);
             }
-            if (needFace) {
-                if (isStopped()) return;
-                com.example.photos.search.face.SFaceOpenCv sface;
-                try {
-                    sface = new com.example.photos.search.face.SFaceOpenCv(getApplicationContext());
-                } catch (Exception e) {
-                    continue;
-                }
-                if (isStopped()) return;
-                android.graphics.Bitmap bmp = com.example.photos.search.ImageSearchEngine.decodeKeepAspect(getApplicationContext(), android.net.Uri.parse(asset.contentUri), 960);
-                if (bmp != null) {
-                    long tFace = SystemClock.elapsedRealtime();
-                    float[][] faces = sface.embedAll(bmp);
-                    double durFace = SystemClock.elapsedRealtime() - tFace;
-                    bmp.recycle();
-                    int faceCnt = faces == null ? 0 : faces.length;
-                    HashMap<String, Object> extraFace = new HashMap<>();
-                    extraFace.put("media", asset.contentUri);
-                    extraFace.put("faces", faceCnt);
-                    PerfLogger.log("face_encode", durFace, perfSession, extraFace);
-                    if (faces != null && faces.length > 0) {
-                        int fid = 0;
-                        for (float[] f : faces) {
-                            if (isStopped()) return;
-                            if (f == null || f.length == 0) continue;
-                            FeatureRecord r = new FeatureRecord();
-                            r.mediaKey = asset.contentUri;
-                            r.featType = FeatureType.FACE_SFACE_EMB.getCode();
-                            r.faceId = fid++;
-                            r.vector = FeatureEncoding.floatsToBytes(f);
-                            r.updatedAt = System.currentTimeMillis() / 1000L;
-                            featureDao.upsert(r);
-                            faceCount++;
-                        }
-                    }
-                }
+        }
+        if (!records.isEmpty()) {
+            featureDao.upsert(records);
+        }
+        for (FeatureRecord r : records) {
+            if (r.featType == FeatureType.CLIP_IMAGE_EMB.getCode()) {
+                newClip.add(r);
+                clipChanged.add(r.mediaKey);
+                clipCount++;
+            } else if (r.featType == FeatureType.DINO_IMAGE_EMB.getCode()) {
+                newDino.add(r);
+                dinoChanged.add(r.mediaKey);
+                dinoCount++;
+            } else {
+                newFace.add(r);
+                faceChanged.add(r.mediaKey);
+                faceCount++;
+            }
+        }
+        for (EmbeddingPipeline.Output out : outputs) {
+            if (--out.job.pending == 0) {
+                incrementProgress();
             }
         }
     }
 
-    private void rebuildHnsw(FeatureDao featureDao, String perfSession) {
-        try {
-            List<FeatureRecord> records = featureDao.getAllByType(FeatureType.DINO_IMAGE_EMB.getCode());
-            if (records == null || records.isEmpty()) return;
-            float[] first = FeatureEncoding.bytesToFloats(records.get(0).vector);
-            int dim = first == null ? 0 : first.length;
-            if (dim <= 0) return;
-            if (isStopped()) return;
-            HnswImageIndex idx = new HnswImageIndex(getApplicationContext(), "dino_hnsw.index");
-            long t0 = SystemClock.elapsedRealtime();
-            idx.build(HnswImageIndex.fromRecords(records, dim, false), dim);
-            idx.save();
-            double dur = SystemClock.elapsedRealtime() - t0;
-            HashMap<String, Object> extra = new HashMap<>();
-            extra.put("size", records.size());
-            extra.put("dim", dim);
-            PerfLogger.log("hnsw_build_dino", dur, perfSession, extra);
-            Log.i(TAG, "HNSW rebuilt size=" + records.size() + " dim=" + dim);
-        } catch (Throwable t) {
-            Log.w(TAG, "HNSW rebuild failed", t);
+    private void updateIndexes(FeatureDao featureDao, String perfSession) {
+        if (updateIndex(featureDao, FeatureType.DINO_IMAGE_EMB, dinoChanged, "dino", perfSession)) {
+            checkpoint.clearDirty(FeatureType.DINO_IMAGE_EMB);
+            dinoChanged.clear();
+            dinoPersisted = 0;
+        }
+        if (isStopped()) return;
+        if (updateIndex(featureDao, FeatureType.FACE_SFACE_EMB, faceChanged, "face", perfSession)) {
+            checkpoint.clearDirty(FeatureType.FACE_SFACE_EMB);
+            faceChanged.clear();
+            facePersisted = 0;
+        }
+        if (isStopped()) return;
+        if (updateIndex(featureDao, FeatureType.CLIP_IMAGE_EMB, clipChanged, "clip", perfSession)) {
+            checkpoint.clearDirty(FeatureType.CLIP_IMAGE_EMB);
+            clipChanged.clear();
+            clipPersisted = 0;
         }
     }
 
-    private void rebuildFaceHnsw(FeatureDao featureDao, String perfSession) {
+    /** Persist keys added to the changed sets since the last call, so a killed run keeps them. */
+    private void commitDirty() {
+        clipPersisted = checkpoint.appendDirty(FeatureType.CLIP_IMAGE_EMB, clipChanged, clipPersisted);
+        dinoPersisted = checkpoint.appendDirty(FeatureType.DINO_IMAGE_EMB, dinoChanged, dinoPersisted);
+        facePersisted = checkpoint.appendDirty(FeatureType.FACE_SFACE_EMB, faceChanged, facePersisted);
+    }
+
+    /**
+     * Catch the persisted index (HNSW or IVF-PQ, per type) up with the rows appended to the vector
+     * store. Falls back to a full rebuild when there is no usable index on disk, it drifted from
+     * the store, or too many store rows are tombstoned; the last check also runs when nothing was
+     * appended, so delete-only runs still compact. Returns true once the index reflects
+     * {@code changed}.
+     */
+    private boolean updateIndex(FeatureDao featureDao,
+                                FeatureType type,
+                                Set<String> changed,
+                                String label,
+                                String perfSession) {
         try {
-            List<FeatureRecord> records = featureDao.getAllByType(FeatureType.FACE_SFACE_EMB.getCode());
-            if (records == null || records.isEmpty()) return;
-            float[] first = FeatureEncoding.bytesToFloats(records.get(0).vector);
-            int dim = first == null ? 0 : first.length;
-            if (dim <= 0) return;
-            if (isStopped()) return;
-            HnswImageIndex idx = new HnswImageIndex(getApplicationContext(), "face_hnsw.index");
-            long t0 = SystemClock.elapsedRealtime();
-            idx.build(HnswImageIndex.fromRecords(records, dim, true), dim);
-            idx.save();
-            double dur = SystemClock.elapsedRealtime() - t0;
-            HashMap<String, Object> extra = new HashMap<>();
-            extra.put("size", records.size());
-            extra.put("dim", dim);
-            PerfLogger.log("hnsw_build_face", dur, perfSession, extra);
-            Log.i(TAG, "Face HNSW rebuilt size=" + records.size() + " dim=" + dim);
+            if (isStopped()) return false;
+            VectorIndex idx = VectorIndexes.open(getApplicationContext(), type);
+            if (!idx.loadIfExists()) {
+                return rebuildIndex(featureDao, type, idx, label, perfSession);
+            }
+            if (!changed.isEmpty()) {
+                long t0 = SystemClock.elapsedRealtime();
+                if (!idx.addAppendedRows()) {
+                    return rebuildIndex(featureDao, type, idx, label, perfSession);
+                }
+                idx.save();
+                double dur = SystemClock.elapsedRealtime() - t0;
+                HashMap<String, Object> extra = new HashMap<>();
+                extra.put("changed", changed.size());
+                extra.put("size", idx.size());
+                extra.put("backend", VectorIndexes.backendOf(idx).name());
+                PerfLogger.log("index_update_" + label, dur, perfSession, extra);
+                Log.i(TAG, label + " index updated changed=" + changed.size() + " size=" + idx.size());
+            }
+            FlatVectorStore store = FlatVectorStore.forType(getApplicationContext(), type);
+            if (!idx.inSyncWith(store)) {
+                Log.w(TAG, label + " index size=" + idx.size() + " store=" + store.size() + ", rebuilding");
+                return rebuildIndex(featureDao, type, idx, label, perfSession);
+            }
+            return true;
         } catch (Throwable t) {
-            Log.w(TAG, "Face HNSW rebuild failed", t);
+            Log.w(TAG, label + " index update failed", t);
+            return false;
         }
     }
 
-    private void rebuildClipHnsw(FeatureDao featureDao, String perfSession) {
+    private boolean rebuildIndex(FeatureDao featureDao,
+                                 FeatureType type,
+                                 VectorIndex idx,
+                                 String label,
+                                 String perfSession) {
         try {
-            List<FeatureRecord> records = featureDao.getAllByType(FeatureType.CLIP_IMAGE_EMB.getCode());
-            if (records == null || records.isEmpty()) return;
-            float[] first = FeatureEncoding.bytesToFloats(records.get(0).vector);
-            int dim = first == null ? 0 : first.length;
-            if (dim <= 0) return;
-            if (isStopped()) return;
-            HnswImageIndex idx = new HnswImageIndex(getApplicationContext(), "clip_hnsw.index");
+            if (isStopped()) return false;
             long t0 = SystemClock.elapsedRealtime();
-            idx.build(HnswImageIndex.fromRecords(records, dim, false), dim);
+            int size = idx.rebuild(featureDao);
+            if (size == 0) return true;
             idx.save();
             double dur = SystemClock.elapsedRealtime() - t0;
             HashMap<String, Object> extra = new HashMap<>();
-            extra.put("size", records.size());
-            extra.put("dim", dim);
-            PerfLogger.log("hnsw_build_clip", dur, perfSession, extra);
-            Log.i(TAG, "CLIP HNSW rebuilt size=" + records.size() + " dim=" + dim);
+            extra.put("size", size);
+            extra.put("backend", VectorIndexes.backendOf(idx).name());
+            PerfLogger.log("index_build_" + label, dur, perfSession, extra);
+            Log.i(TAG, label + " " + VectorIndexes.backendOf(idx) + " rebuilt size=" + size);
+            return true;
         } catch (Throwable t) {
-            Log.w(TAG, "CLIP HNSW rebuild failed", t);
+            Log.w(TAG, label + " index rebuild failed", t);
+            return false;
         }
     }
 
@@ -399,6 +487,16 @@ public class ClipEmbeddingWorker extends Worker {
         clipCount = 0;
         dinoCount = 0;
         faceCount = 0;
+        clipChanged.clear();
+        dinoChanged.clear();
+        faceChanged.clear();
+        // 上次被打断、还没应用到索引的变更
+        checkpoint.loadDirty(FeatureType.CLIP_IMAGE_EMB, clipChanged);
+        checkpoint.loadDirty(FeatureType.DINO_IMAGE_EMB, dinoChanged);
+        checkpoint.loadDirty(FeatureType.FACE_SFACE_EMB, faceChanged);
+        clipPersisted = clipChanged.size();
+        dinoPersisted = dinoChanged.size();
+        facePersisted = faceChanged.size();
     }
 
     private void incrementProgress() {
@@ -0,0 +1,118 @@
+package com.example.photos.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.photos.features.FeatureType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * 嵌入任务的持久检查点：全量任务的计数，以及每个 HNSW 索引还没应用的变更 key（dirty）。
+ * 每提交一页就落盘一次；索引更新成功后才清掉对应的 dirty 文件。
+ * 游标本身在 {@link FullScanCursorStore} 里，写入顺序是先 dirty 再游标，被杀时最多重做一页。
+ */
+final class EmbedCheckpoint {
+
+    private static final String TAG = "EmbedCheckpoint";
+    private static final String PREF = "embed_checkpoint";
+    private static final String KEY_CLIP = "clip_count";
+    private static final String KEY_DINO = "dino_count";
+    private static final String KEY_FACE = "face_count";
+    private static final String DIR = "embed_dirty";
+
+    private final SharedPreferences sp;
+    private final File dir;
+
+    EmbedCheckpoint(Context context) {
+        Context app = context.getApplicationContext();
+        this.sp = app.getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        this.dir = new File(app.getFilesDir(), DIR);
+    }
+
+    int clipCount() {
+        return sp.getInt(KEY_CLIP, 0);
+    }
+
+    int dinoCount() {
+        return sp.getInt(KEY_DINO, 0);
+    }
+
+    int faceCount() {
+        return sp.getInt(KEY_FACE, 0);
+    }
+
+    void saveCounts(int clip, int dino, int face) {
+        sp.edit().putInt(KEY_CLIP, clip).putInt(KEY_DINO, dino).putInt(KEY_FACE, face).commit();
+    }
+
+    void clearCounts() {
+        sp.edit().clear().apply();
+    }
+
+    /** 读回上次没应用到索引的 key，返回读到的条数。 */
+    int loadDirty(FeatureType type, Set<String> into) {
+        File f = dirtyFile(type);
+        if (!f.exists()) return 0;
+        int before = into.size();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isEmpty()) into.add(line);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "load dirty failed: " + f, e);
+        }
+        return into.size() - before;
+    }
+
+    /**
+     * 追加 {@code keys} 里第 {@code skip} 个之后的元素（LinkedHashSet 按插入顺序，前面的已经写过）。
+     * 返回写完后已持久化的数量。
+     */
+    int appendDirty(FeatureType type, Set<String> keys, int skip) {
+        if (keys.size() <= skip) return keys.size();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "mkdirs failed: " + dir);
+            return skip;
+        }
+        File f = dirtyFile(type);
+        try (FileOutputStream fos = new FileOutputStream(f, true);
+             Writer w = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            Iterator<String> it = keys.iterator();
+            for (int i = 0; i < skip && it.hasNext(); i++) it.next();
+            while (it.hasNext()) {
+                w.write(it.next());
+                w.write('\n');
+            }
+            w.flush();
+            fos.getFD().sync();
+            return keys.size();
+        } catch (Exception e) {
+            Log.w(TAG, "append dirty failed: " + f, e);
+            return skip;
+        }
+    }
+
+    void clearDirty(FeatureType type) {
+        File f = dirtyFile(type);
+        if (f.exists() && !f.delete()) {
+            Log.w(TAG, "delete dirty failed: " + f);
+        }
+    }
+
+    private File dirtyFile(FeatureType type) {
+        return new File(dir, "dirty_" + type.getCode() + ".txt");
+    }
+}
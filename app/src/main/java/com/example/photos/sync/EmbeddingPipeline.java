@@ -0,0 +1,384 @@
+package com.example.photos.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.photos.classify.ClipClassifier;
+import com.example.photos.db.PhotoAsset;
+import com.example.photos.features.FeatureType;
+import com.example.photos.search.DinoImageEmbedder;
+import com.example.photos.search.face.SFaceOpenCv;
+import com.example.photos.search.face.SFacePool;
+import com.example.photos.util.BitmapDecoder;
+import com.example.photos.util.PerfLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded decode → infer → persist pipeline for {@link ClipEmbeddingWorker}.
+ * Decoding runs on a small pool, each model gets its own inference thread, and encoded vectors
+ * come back to the calling thread in batches so Room writes stay on the worker thread.
+ */
+final class EmbeddingPipeline {
+
+    private static final String TAG = "EmbeddingPipeline";
+    private static final int DECODE_THREADS = 2;
+    private static final int INFER_THREADS = 3;
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int PERSIST_BATCH = 32;
+    private static final long POLL_MS = 200L;
+    private static final int FACE_MAX_SIDE = 960;
+    private static final float[][] NO_VECTORS = new float[0][];
+
+    /** One asset and the encoders that still have to run for it. */
+    static final class Job {
+        final PhotoAsset asset;
+        final boolean clip;
+        final boolean dino;
+        final boolean face;
+        // Only touched on the persisting thread.
+        int pending;
+
+        Job(PhotoAsset asset, boolean clip, boolean dino, boolean face) {
+            this.asset = asset;
+            this.clip = clip;
+            this.dino = dino;
+            this.face = face;
+            this.pending = (clip ? 1 : 0) + (dino ? 1 : 0) + (face ? 1 : 0);
+        }
+    }
+
+    /** Encoder result for one asset; {@code vectors} is empty when that stage failed. */
+    static final class Output {
+        final Job job;
+        final FeatureType type;
+        final float[][] vectors;
+
+        Output(Job job, FeatureType type, float[][] vectors) {
+            this.job = job;
+            this.type = type;
+            this.vectors = vectors;
+        }
+    }
+
+    interface Sink {
+        /** Called on the thread that invoked {@link #run}. */
+        void persist(List<Output> outputs);
+    }
+
+    private static final class Item {
+        final Job job;
+        final float[] input;
+        final Bitmap bitmap;
+
+        Item(Job job, float[] input, Bitmap bitmap) {
+            this.job = job;
+            this.input = input;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static final Output STAGE_DONE = new Output(null, null, NO_VECTORS);
+
+    private final Context app;
+    private final BooleanSupplier stopped;
+    private final String perfSession;
+    private final BlockingQueue<Item> clipQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> dinoQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> faceQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Output> results = new LinkedBlockingQueue<>();
+    private volatile boolean decodeDone = false;
+    private volatile boolean cancelled = false;
+
+    private final StageStats decodeStats = new StageStats("decode", DECODE_THREADS);
+    private final StageStats clipStats = new StageStats("clip", 1);
+    private final StageStats dinoStats = new StageStats("dino", 1);
+    private final StageStats faceStats = new StageStats("face", 1);
+    private final StageStats persistStats = new StageStats("persist", 1);
+
+    EmbeddingPipeline(Context context, BooleanSupplier stopped, String perfSession) {
+        this.app = context.getApplicationContext();
+        this.stopped = stopped;
+        this.perfSession = perfSession;
+    }
+
+    /** Blocks until every job went through all its stages, or {@code stopped} turns true. */
+    void run(List<Job> jobs, Sink sink) {
+        if (jobs == null || jobs.isEmpty()) return;
+        long start = SystemClock.elapsedRealtime();
+        ExecutorService pool = Executors.newFixedThreadPool(DECODE_THREADS + INFER_THREADS);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger decodersLeft = new AtomicInteger(DECODE_THREADS);
+        try {
+            for (int i = 0; i < DECODE_THREADS; i++) {
+                pool.execute(() -> decodeLoop(jobs, next, decodersLeft));
+            }
+            pool.execute(() -> inferLoop(clipQueue, FeatureType.CLIP_IMAGE_EMB, clipStats,
+                    ClipClassifier.preferredBatchSize(app)));
+            pool.execute(() -> inferLoop(dinoQueue, FeatureType.DINO_IMAGE_EMB, dinoStats,
+                    DinoImageEmbedder.preferredBatchSize(app)));
+            pool.execute(this::faceLoop);
+            persistLoop(sink);
+        } finally {
+            cancelled = true;
+            pool.shutdownNow();
+            double wall = SystemClock.elapsedRealtime() - start;
+            decodeStats.log(wall, perfSession);
+            clipStats.log(wall, perfSession);
+            dinoStats.log(wall, perfSession);
+            faceStats.log(wall, perfSession);
+            persistStats.log(wall, perfSession);
+        }
+    }
+
+    private void decodeLoop(List<Job> jobs, AtomicInteger next, AtomicInteger left) {
+        int clipSize = ClipClassifier.imageInputSize(app);
+        int dinoSize = DinoImageEmbedder.inputSize(app);
+        try {
+            while (!cancelled) {
+                int i = next.getAndIncrement();
+                if (i >= jobs.size()) break;
+                Job job = jobs.get(i);
+                long t0 = System.nanoTime();
+                float[] clipIn = null;
+                float[] dinoIn = null;
+                Bitmap faceIn = null;
+                Bitmap src = null;
+                long bytes = 0L;
+                try {
+                    // 每张图只解码一次：短边够两个裁剪用，长边够人脸检测用
+                    int minShort = Math.max(job.clip ? clipSize : 0, job.dino ? dinoSize : 0);
+                    int minLong = job.face ? FACE_MAX_SIDE : 0;
+                    src = BitmapDecoder.decodeSampled(app, Uri.parse(job.asset.contentUri), minShort, minLong);
+                    if (src != null) {
+                        bytes = src.getAllocationByteCount();
+                        if (job.clip) clipIn = ClipClassifier.preprocessImage(app, src);
+                        if (job.dino) dinoIn = DinoImageEmbedder.preprocess(app, src);
+                        if (job.face) faceIn = BitmapDecoder.fitLongSide(src, FACE_MAX_SIDE);
+                    }
+                } catch (Throwable t) {
+                    Log.w(TAG, "decode failed: " + job.asset.contentUri, t);
+                } finally {
+                    if (src != null && src != faceIn) src.recycle();
+                }
+                long dur = System.nanoTime() - t0;
+                decodeStats.record(dur, 1, 0);
+                HashMap<String, Object> extra = new HashMap<>();
+                extra.put("bytes", bytes);
+                PerfLogger.log("image_decode", dur / 1_000_000d, perfSession, extra);
+                if (job.clip) hand(clipQueue, job, FeatureType.CLIP_IMAGE_EMB, clipIn, null);
+                if (job.dino) hand(dinoQueue, job, FeatureType.DINO_IMAGE_EMB, dinoIn, null);
+                if (job.face) hand(faceQueue, job, FeatureType.FACE_SFACE_EMB, null, faceIn);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (left.decrementAndGet() == 0) {
+                decodeDone = true;
+            }
+        }
+    }
+
+    private void hand(BlockingQueue<Item> queue, Job job, FeatureType type, float[] input, Bitmap bitmap)
+            throws InterruptedException {
+        if (input == null && bitmap == null) {
+            // 解码失败直接记结果，不占推理队列
+            results.put(new Output(job, type, NO_VECTORS));
+            return;
+        }
+        try {
+            queue.put(new Item(job, input, bitmap));
+        } catch (InterruptedException e) {
+            if (bitmap != null) bitmap.recycle();
+            throw e;
+        }
+    }
+
+    private void inferLoop(BlockingQueue<Item> queue, FeatureType type, StageStats stats, int maxBatch) {
+        List<Item> batch = new ArrayList<>(Math.max(1, maxBatch));
+        List<float[]> inputs = new ArrayList<>(Math.max(1, maxBatch));
+        try {
+            while (!cancelled) {
+                Item first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (decodeDone && queue.isEmpty()) break;
+                    continue;
+                }
+                int depth = queue.size() + 1;
+                batch.add(first);
+                queue.drainTo(batch, Math.max(0, maxBatch - 1));
+                for (Item item : batch) inputs.add(item.input);
+                long t0 = System.nanoTime();
+                List<float[]> embs = null;
+                try {
+                    embs = type == FeatureType.CLIP_IMAGE_EMB
+                            ? ClipClassifier.encodePreprocessed(app, inputs)
+                            : DinoImageEmbedder.encodePreprocessed(app, inputs);
+                } catch (Throwable t) {
+                    Log.w(TAG, type + " batch failed n=" + batch.size(), t);
+                }
+                long dur = System.nanoTime() - t0;
+                stats.record(dur, batch.size(), depth);
+                HashMap<String, Object> extra = new HashMap<>();
+                extra.put("batch", batch.size());
+                extra.put("per_image_ms", dur / 1_000_000d / batch.size());
+                PerfLogger.log(type == FeatureType.CLIP_IMAGE_EMB ? "clip_encode_batch" : "dino_encode_batch",
+                        dur / 1_000_000d, perfSession, extra);
+                for (int i = 0; i < batch.size(); i++) {
+                    float[] emb = embs != null && i < embs.size() ? embs.get(i) : null;
+                    results.put(new Output(batch.get(i).job, type, emb == null ? NO_VECTORS : new float[][]{emb}));
+                }
+                batch.clear();
+                inputs.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            results.offer(STAGE_DONE);
+        }
+    }
+
+    private void faceLoop() {
+        SFaceOpenCv sface = null;
+        boolean sfaceFailed = false;
+        try {
+            while (!cancelled) {
+                Item item = faceQueue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (decodeDone && faceQueue.isEmpty()) break;
+                    continue;
+                }
+                int depth = faceQueue.size() + 1;
+                float[][] faces = null;
+                long dur = 0L;
+                try {
+                    // 第一次用到才借引擎；init 耗时单独记 face_init，不算进推理
+                    if (sface == null && !sfaceFailed) {
+                        try {
+                            sface = SFacePool.acquire(app, perfSession);
+                        } catch (Throwable t) {
+                            sfaceFailed = true;
+                            Log.w(TAG, "SFace init failed", t);
+                        }
+                    }
+                    if (sface != null) {
+                        long t0 = System.nanoTime();
+                        faces = sface.embedAll(item.bitmap);
+                        dur = System.nanoTime() - t0;
+                    }
+                } finally {
+                    item.bitmap.recycle();
+                }
+                faceStats.record(dur, 1, depth);
+                HashMap<String, Object> extra = new HashMap<>();
+                extra.put("media", item.job.asset.contentUri);
+                extra.put("faces", faces == null ? 0 : faces.length);
+                PerfLogger.log("face_encode", dur / 1_000_000d, perfSession, extra);
+                results.put(new Output(item.job, FeatureType.FACE_SFACE_EMB, faces == null ? NO_VECTORS : faces));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            SFacePool.release(sface);
+            results.offer(STAGE_DONE);
+        }
+    }
+
+    private void persistLoop(Sink sink) {
+        List<Output> buffer = new ArrayList<>(PERSIST_BATCH);
+        int done = 0;
+        try {
+            while (done < INFER_THREADS) {
+                if (stopped.getAsBoolean()) {
+                    cancelled = true;
+                    break;
+                }
+                Output out = results.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (out == null) {
+                    // Idle tick: don't sit on finished rows while the models are busy.
+                    flush(sink, buffer);
+                    continue;
+                }
+                if (out == STAGE_DONE) {
+                    done++;
+                    continue;
+                }
+                buffer.add(out);
+                if (buffer.size() >= PERSIST_BATCH) {
+                    flush(sink, buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Whatever was already encoded is still worth keeping, even on stop.
+            flush(sink, buffer);
+        }
+    }
+
+    private void flush(Sink sink, List<Output> buffer) {
+        if (buffer.isEmpty()) return;
+        long t0 = System.nanoTime();
+        int n = buffer.size();
+        try {
+            sink.persist(new ArrayList<>(buffer));
+        } finally {
+            buffer.clear();
+            persistStats.record(System.nanoTime() - t0, n, results.size() + n);
+        }
+    }
+
+    /** Busy time, item count and sampled input-queue depth for one stage. */
+    private static final class StageStats {
+        private final String stage;
+        private final int threads;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong depthSum = new AtomicLong();
+
+        StageStats(String stage, int threads) {
+            this.stage = stage;
+            this.threads = threads;
+        }
+
+        void record(long nanos, int n, int queueDepth) {
+            busyNanos.addAndGet(nanos);
+            items.addAndGet(n);
+            batches.incrementAndGet();
+            depthSum.addAndGet(queueDepth);
+        }
+
+        void log(double wallMs, String session) {
+            long count = items.get();
+            if (count == 0) return;
+            double busyMs = busyNanos.get() / 1_000_000d;
+            long b = Math.max(1L, batches.get());
+            HashMap<String, Object> extra = new HashMap<>();
+            extra.put("stage", stage);
+            extra.put("threads", threads);
+            extra.put("items", count);
+            extra.put("busy_ms", busyMs);
+            // occupancy: 线程忙碌时间占总时长的比例
+            extra.put("occupancy", wallMs > 0 ? busyMs / (wallMs * threads) : 0d);
+            extra.put("items_per_s", wallMs > 0 ? count * 1000d / wallMs : 0d);
+            extra.put("avg_batch", count / (double) b);
+            extra.put("avg_queue", depthSum.get() / (double) b);
+            PerfLogger.log("embed_stage", wallMs, session, extra);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.photos.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 全量扫描的 keyset 游标 (dateModified, id)，按 worker 分开保存；
+ * 被停掉或进程被杀后，下一次全量从这里继续，而不是从头开始。
+ */
+public class FullScanCursorStore {
+
+    private static final String PREF = "full_scan_cursor";
+    private static final String KEY_DATE = "_date";
+    private static final String KEY_ID = "_id";
+
+    private final SharedPreferences sp;
+    private final String name;
+
+    public FullScanCursorStore(Context context, String name) {
+        this.sp = context.getApplicationContext().getSharedPreferences(PREF, Context.MODE_PRIVATE);
+        this.name = name;
+    }
+
+    public boolean hasCursor() {
+        return sp.contains(name + KEY_DATE);
+    }
+
+    /** 上一页最后一条的 dateModified；没有游标时为 Long.MAX_VALUE（从最新开始）。 */
+    public long getDate() {
+        return sp.getLong(name + KEY_DATE, Long.MAX_VALUE);
+    }
+
+    public long getId() {
+        return sp.getLong(name + KEY_ID, Long.MAX_VALUE);
+    }
+
+    /** commit() 而不是 apply()：这里写完才算这一页提交了。 */
+    public void save(long dateModified, long id) {
+        sp.edit().putLong(name + KEY_DATE, dateModified).putLong(name + KEY_ID, id).commit();
+    }
+
+    public void clear() {
+        sp.edit().remove(name + KEY_DATE).remove(name + KEY_ID).apply();
+    }
+}
@@ -28,7 +28,7 @@ public class MediaIncrementalSyncWorker extends Worker {
                             java.util.List<com.example.photos.db.PhotoAsset> assets) {
         if (assets == null || assets.isEmpty()) return;
         com.example.photos.db.PhotosDb db = com.example.photos.db.PhotosDb.get(appContext);
-        db.photoDao().upsert(assets);
+        com.example.photos.media.MediaChanges.upsertAndPublish(db, assets);
     }
 
     public MediaIncrementalSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
@@ -45,7 +45,7 @@ public class MediaIncrementalSyncWorker extends Worker {
         long maxTs = last;
         boolean hasDelta = false;
         try {
-            java.util.List<com.example.photos.db.PhotoAsset> list = com.example.photos.media.MediaScanner.scanModifiedAfter(app, last);
+            java.util.List<com.example.photos.db.PhotoAsset> list = com.example.photos.media.MediaScanner.scanMediaModifiedAfter(app, last);
             // 把增量写入本地表，后续向量/分类才能覆盖到新媒体。
             upsertDelta(app, list);
             for (com.example.photos.db.PhotoAsset a : list) {
@@ -49,6 +49,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.RequestOptions;
 import com.example.photos.R;
+import com.example.photos.model.Photo;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -68,7 +69,8 @@ public class AlbumViewerActivity extends AppCompatActivity {
     public static final String EXTRA_IDS = "extra_ids";
     public static final String EXTRA_START_INDEX = "extra_start_index";
     public static final String EXTRA_DELETED_IDS = "extra_deleted_ids";
-    public static final String EXTRA_DATES = "extra_dates";
+    /** long[]，与 EXTRA_URLS 一一对应的拍摄时间（epoch 毫秒，0 未知）；文字在展示时才格式化 */
+    public static final String EXTRA_CAPTURE_TIMES = "extra_capture_times";
     // Filmstrip reveal finishes when you hit the filmstrip target scale.
     private static final float FILMSTRIP_PREVIEW_END = ZoomableImageView.FILMSTRIP_COMMIT;
 
@@ -200,14 +202,14 @@ public class AlbumViewerActivity extends AppCompatActivity {
 
         ArrayList<String> urls = getIntent().getStringArrayListExtra(EXTRA_URLS);
         ArrayList<String> ids = getIntent().getStringArrayListExtra(EXTRA_IDS);
-        ArrayList<String> dates = getIntent().getStringArrayListExtra(EXTRA_DATES);
+        long[] times = getIntent().getLongArrayExtra(EXTRA_CAPTURE_TIMES);
         int start = getIntent().getIntExtra(EXTRA_START_INDEX, 0);
         if (urls != null) {
             for (int i = 0; i < urls.size(); i++) {
                 String url = urls.get(i);
                 String id = (ids != null && i < ids.size()) ? ids.get(i) : null;
-                String date = (dates != null && i < dates.size()) ? dates.get(i) : null;
-                entries.add(new PhotoEntry(id, url, date));
+                long time = (times != null && i < times.length) ? times[i] : 0L;
+                entries.add(new PhotoEntry(id, url, time));
             }
         }
         adapter = new AlbumPagerAdapter(entries, pager, this::toggleChrome, this::hideChrome, this::onScaleChanged,
@@ -311,9 +313,8 @@ public class AlbumViewerActivity extends AppCompatActivity {
         if (counterTextView == null) return;
         int pos = pager == null ? 0 : pager.getCurrentItem();
         PhotoEntry entry = (pos >= 0 && pos < entries.size()) ? entries.get(pos) : null;
-        String date = entry == null ? "" : entry.date;
         if (titleTextView != null) {
-            titleTextView.setText(formatDate(date));
+            titleTextView.setText(entry == null ? "" : Photo.formatDay(entry.time));
         }
         if (counterTextView != null) {
             counterTextView.setVisibility(View.GONE);
@@ -619,7 +620,7 @@ public class AlbumViewerActivity extends AppCompatActivity {
         Uri uri = Uri.parse(entry.url);
         info.path = uri.getPath();
         info.displayName = lastSegment(uri);
-        info.dateText = entry.date;
+        info.dateText = Photo.formatDateTime(entry.time);
         try (Cursor c = getContentResolver().query(uri,
                 new String[]{MediaStore.MediaColumns.DISPLAY_NAME,
                         MediaStore.MediaColumns.SIZE,
@@ -1020,14 +1021,6 @@ public class AlbumViewerActivity extends AppCompatActivity {
         updateCounter();
     }
 
-    private String formatDate(String raw) {
-        if (raw == null || raw.isEmpty()) return "";
-        if (raw.length() >= 10) {
-            return raw.substring(0, 10);
-        }
-        return raw;
-    }
-
     private void applyWindowInsets(View root) {
         if (root == null) return;
         ViewCompat.setOnApplyWindowInsetsListener(root, (v, insets) -> {
@@ -1164,12 +1157,16 @@ public class AlbumViewerActivity extends AppCompatActivity {
                 if (id != null) {
                     try {
                         long lid = Long.parseLong(id);
-                        db.photoDao().deleteById(lid);
+                        com.example.photos.db.PhotoAsset old = db.photoDao().findById(lid);
+                        if (old != null) {
+                            com.example.photos.media.MediaChanges.deleteAndPublish(db.photoDao(), old);
+                        }
                     } catch (NumberFormatException ignored) {}
                 }
                 if (uri != null) {
                     db.categoryDao().deleteByMediaKey(uri);
                     db.featureDao().deleteByMediaKey(uri);
+                    com.example.photos.search.FlatVectorStore.removeFromAll(getApplicationContext(), uri);
                 }
             } catch (Throwable ignored) {
             }
@@ -1352,12 +1349,12 @@ public class AlbumViewerActivity extends AppCompatActivity {
     private static class PhotoEntry {
         final String id;
         final String url;
-        final String date;
+        final long time;
 
-        PhotoEntry(String id, String url, String date) {
+        PhotoEntry(String id, String url, long time) {
             this.id = id;
             this.url = url;
-            this.date = date;
+            this.time = time;
         }
     }
 
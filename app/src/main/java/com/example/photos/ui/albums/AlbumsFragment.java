@@ -34,6 +34,9 @@ public class AlbumsFragment extends Fragment {
     private AlbumsAdapter albumsAdapter;
     private TextView emptyTextView;
     private SwipeRefreshLayout swipeRefreshLayout;
+    /** 相册页的读写共用一个后台线程，不再每次刷新新建线程池 */
+    private static final java.util.concurrent.ExecutorService DB_EXECUTOR =
+            java.util.concurrent.Executors.newSingleThreadExecutor();
     private static final List<String> PRIORITY_ORDER = Arrays.asList(
             "SELFIE",
             "GROUP",
@@ -113,24 +116,21 @@ public class AlbumsFragment extends Fragment {
         if (swipeRefreshLayout != null && !swipeRefreshLayout.isRefreshing()) {
             swipeRefreshLayout.setRefreshing(true);
         }
-        java.util.concurrent.Executors.newSingleThreadExecutor().execute(() -> {
+        DB_EXECUTOR.execute(() -> {
             List<SmartAlbum> albums = new ArrayList<>();
             boolean success = true;
             try {
-                // Normalize legacy WORK -> TEXT once before querying
-                try { com.example.photos.db.PhotosDb.get(appContext).categoryDao().renameCategory("WORK", "TEXT"); } catch (Throwable ignore) {}
-                try { com.example.photos.db.PhotosDb.get(appContext).categoryDao().renameCategory("IDPHOTO", "CARD"); } catch (Throwable ignore) {}
+                // 旧类别名（WORK/IDPHOTO）已在 PhotosDb 10 -> 11 迁移里一次性改名；计数和封面一条查询取回
                 com.example.photos.db.CategoryDao dao = com.example.photos.db.PhotosDb.get(appContext).categoryDao();
-                List<com.example.photos.db.CategoryDao.CategoryCount> counts = dao.countsByCategory();
+                List<com.example.photos.db.CategoryDao.AlbumSummary> summaries = dao.albumSummaries();
                 java.util.Set<String> existing = new java.util.HashSet<>();
                 List<SmartAlbum> categoryAlbums = new ArrayList<>();
-                for (com.example.photos.db.CategoryDao.CategoryCount c : counts) {
+                for (com.example.photos.db.CategoryDao.AlbumSummary c : summaries) {
                     if (c == null || c.category == null) continue;
                     String cat = c.category.trim();
                     if (cat.isEmpty()) continue;
                     existing.add(cat.toUpperCase());
-                    String cover = dao.latestKeyForCategory(cat);
-                    if (cover == null) cover = "";
+                    String cover = c.coverKey == null ? "" : c.coverKey;
                     categoryAlbums.add(new SmartAlbum(
                             PhotoCategory.ALL,
                             cat,
@@ -228,7 +228,7 @@ public class AlbumsFragment extends Fragment {
     }
 
     private void deleteAlbum(@NonNull String title, @NonNull String displayName) {
-        java.util.concurrent.Executors.newSingleThreadExecutor().execute(() -> {
+        DB_EXECUTOR.execute(() -> {
             try {
                 com.example.photos.db.PhotosDb.get(requireContext()).categoryDao().deleteByCategory(title);
                 CustomAlbumsStore.remove(requireContext().getApplicationContext(), title);
@@ -192,7 +192,7 @@ public class CategoryPhotosFragment extends Fragment {
         android.content.Intent intent = new android.content.Intent(requireContext(), com.example.photos.ui.albums.AlbumViewerActivity.class);
         intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_URLS, payload.urls);
         intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_IDS, payload.ids);
-        intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_DATES, payload.dates);
+        intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_CAPTURE_TIMES, payload.captureTimes);
         intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_START_INDEX, Math.max(0, payload.startIndex));
         viewerLauncher.launch(intent);
     }
@@ -215,19 +215,19 @@ public class CategoryPhotosFragment extends Fragment {
         }
         ArrayList<String> urls = new ArrayList<>();
         ArrayList<String> ids = new ArrayList<>();
-        ArrayList<String> dates = new ArrayList<>();
+        long[] times = new long[end - start];
         for (int i = start; i < end; i++) {
             Photo p = currentPhotos.get(i);
             if (p == null || p.getImageUrl() == null) continue;
             urls.add(p.getImageUrl());
             ids.add(p.getId());
-            dates.add(p.getCaptureDate());
+            times[urls.size() - 1] = p.getCaptureTime();
         }
         if (urls.isEmpty()) return null;
         ViewerPayload payload = new ViewerPayload();
         payload.urls = urls;
         payload.ids = ids;
-        payload.dates = dates;
+        payload.captureTimes = urls.size() == times.length ? times : java.util.Arrays.copyOf(times, urls.size());
         payload.startIndex = Math.min(clickedIndex - start, urls.size() - 1);
         return payload;
     }
@@ -235,7 +235,7 @@ public class CategoryPhotosFragment extends Fragment {
     private static class ViewerPayload {
         ArrayList<String> urls;
         ArrayList<String> ids;
-        ArrayList<String> dates;
+        long[] captureTimes;
         int startIndex;
     }
 }
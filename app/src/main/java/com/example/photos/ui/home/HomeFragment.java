@@ -25,22 +25,24 @@ import com.example.photos.ui.common.GridSpacingItemDecoration;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
 /**
  * 首页时间线：仅保留瀑布流浏览，搜索迁移到独立页面。
  */
 public class HomeFragment extends Fragment {
 
+    private static final int VIEWER_WINDOW = 200; // cap extras to avoid TransactionTooLargeException
+
     private PhotoListViewModel viewModel;
+    private TimelinePager timeline;
     private PhotoAdapter timelineAdapter;
     private RecyclerView timelineRecyclerView;
     private TimelineFastScroller fastScroller;
     private ActivityResultLauncher<Intent> viewerLauncher;
-    private final List<Photo> currentTimelinePhotos = new ArrayList<>();
     private boolean pendingMediaRefresh = false;
     private int lastPhotoCount = 0;
     private boolean pendingScrollToTop = true;
+    private boolean observingDb = false;
     private final TimelineFastScroller.DateLabelProvider fastScrollLabelProvider =
             new TimelineFastScroller.DateLabelProvider() {
                 @Override
@@ -52,6 +54,16 @@ public class HomeFragment extends Fragment {
                 public String getLabelForPosition(int position) {
                     return timelineAdapter == null ? null : timelineAdapter.getLabelForPosition(position);
                 }
+
+                @Override
+                public int getSectionForPosition(int position) {
+                    return timelineAdapter == null ? -1 : timelineAdapter.getSectionForPosition(position);
+                }
+
+                @Override
+                public int getPositionForDay(long epochDay) {
+                    return timelineAdapter == null ? -1 : timelineAdapter.getPositionForDay(epochDay);
+                }
             };
 
     @Nullable
@@ -67,26 +79,29 @@ public class HomeFragment extends Fragment {
         observeIncrementalWorker();
         viewModel = new ViewModelProvider(this).get(PhotoListViewModel.class);
         android.content.Context app = requireContext().getApplicationContext();
+        timeline = viewModel.getTimeline(app);
+
+        setupRecyclerView(view);
         if (com.example.photos.permissions.PermissionsHelper.hasMediaPermission(requireActivity())) {
-            observeDbAssets(app);
             pendingScrollToTop = true;
-            viewModel.loadFromMediaStore(app);
+            observeDbAssets(app);
         }
-
-        setupRecyclerView(view);
-        observeViewModel();
         viewerLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
             if (result == null || result.getData() == null) return;
             ArrayList<String> deletedIds = result.getData().getStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_DELETED_IDS);
             if (deletedIds != null && !deletedIds.isEmpty()) {
+                // 查看器已删掉对应的库行，Room 失效通知会刷新时间线
                 pendingMediaRefresh = true;
-                removeDeletedFromMemory(deletedIds);
             }
         });
     }
 
     @Override
     public void onDestroyView() {
+        if (timelineAdapter != null) {
+            timelineAdapter.attachTimeline(null, null);
+        }
+        observingDb = false;
         if (fastScroller != null) {
             fastScroller.detachRecyclerView();
             fastScroller = null;
@@ -102,7 +117,8 @@ public class HomeFragment extends Fragment {
                 pendingMediaRefresh = false;
                 pendingScrollToTop = true;
             }
-            viewModel.reloadFromMediaStore(requireContext().getApplicationContext());
+            // 进入页面后才授权的情况
+            observeDbAssets(requireContext().getApplicationContext());
         }
     }
 
@@ -126,27 +142,22 @@ public class HomeFragment extends Fragment {
         timelineRecyclerView.setItemViewCacheSize(60);
         timelineRecyclerView.setItemAnimator(null);
         timelineRecyclerView.setVerticalScrollBarEnabled(false);
+        timelineAdapter.attachTimeline(timeline, this::onTimelineChanged);
         if (fastScroller != null) {
             fastScroller.attachRecyclerView(timelineRecyclerView, fastScrollLabelProvider);
             fastScroller.updateVisibility();
         }
     }
 
-    private void observeViewModel() {
-        viewModel.getPhotosLiveData().observe(getViewLifecycleOwner(), photos -> {
-            boolean scrollToTop = pendingScrollToTop || (lastPhotoCount == 0 && photos != null && !photos.isEmpty());
-            pendingScrollToTop = false;
-            lastPhotoCount = photos == null ? 0 : photos.size();
-            currentTimelinePhotos.clear();
-            if (photos != null) currentTimelinePhotos.addAll(photos);
-            if (timelineAdapter != null) {
-                timelineAdapter.submitList(photos);
-            }
-            refreshFastScroller();
-            if (scrollToTop) {
-                scrollTimelineToTop();
-            }
-        });
+    private void onTimelineChanged() {
+        int count = timeline == null ? 0 : timeline.getPhotoCount();
+        boolean scrollToTop = pendingScrollToTop || (lastPhotoCount == 0 && count > 0);
+        pendingScrollToTop = false;
+        lastPhotoCount = count;
+        refreshFastScroller();
+        if (scrollToTop) {
+            scrollTimelineToTop();
+        }
     }
 
     private void handlePhotoClick(Photo photo) {
@@ -168,11 +179,18 @@ public class HomeFragment extends Fragment {
                 .observe(getViewLifecycleOwner(), infos -> handleIncrementalResult(infos));
     }
 
+    /**
+     * 行级变更由 MediaChanges 增量推给时间线；这里观察总数只做兜底，和时间线布局对不上时才整体重新聚合。
+     */
     private void observeDbAssets(@NonNull android.content.Context appContext) {
+        if (observingDb) return;
+        observingDb = true;
         PhotosDb.get(appContext)
                 .photoDao()
-                .observeAll()
-                .observe(getViewLifecycleOwner(), assets -> viewModel.updateFromDbAssets(assets));
+                .observeCount()
+                .observe(getViewLifecycleOwner(), count -> {
+                    if (count != null) viewModel.onCountChanged(appContext, count);
+                });
     }
 
     private void handleIncrementalResult(@Nullable List<WorkInfo> infos) {
@@ -181,8 +199,8 @@ public class HomeFragment extends Fragment {
             if (info != null && info.getState() == WorkInfo.State.SUCCEEDED) {
                 boolean hasDelta = info.getOutputData().getBoolean("hasDelta", false);
                 if (hasDelta) {
+                    // 增量已写进 photo_assets 并推给了时间线，这里只记下回到顶部
                     pendingScrollToTop = true;
-                    viewModel.reloadFromMediaStore(requireContext());
                     break;
                 }
             }
@@ -214,60 +232,51 @@ public class HomeFragment extends Fragment {
     }
 
     private void openInViewer(@NonNull Photo clicked) {
-        List<Photo> source = currentTimelinePhotos;
-        ViewerPayload payload = buildPayload(source, clicked);
-        if (payload == null) return;
-        Intent intent = new Intent(requireContext(), com.example.photos.ui.albums.AlbumViewerActivity.class);
-        intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_URLS, payload.urls);
-        intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_IDS, payload.ids);
-        intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_DATES, payload.dates);
-        intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_START_INDEX, payload.startIndex);
-        if (viewerLauncher != null) {
-            viewerLauncher.launch(intent);
-        } else {
-            startActivity(intent);
-        }
+        if (timeline == null) return;
+        timeline.loadWindow(clicked, VIEWER_WINDOW, window -> {
+            if (!isAdded()) return;
+            ViewerPayload payload = buildPayload(window);
+            if (payload == null) return;
+            Intent intent = new Intent(requireContext(), com.example.photos.ui.albums.AlbumViewerActivity.class);
+            intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_URLS, payload.urls);
+            intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_IDS, payload.ids);
+            intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_CAPTURE_TIMES, payload.captureTimes);
+            intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_START_INDEX, payload.startIndex);
+            if (viewerLauncher != null) {
+                viewerLauncher.launch(intent);
+            } else {
+                startActivity(intent);
+            }
+        });
     }
 
-    private ViewerPayload buildPayload(List<Photo> source, @NonNull Photo clicked) {
-        if (source == null || source.isEmpty()) return null;
-        int clickedIndex = 0;
-        for (int i = 0; i < source.size(); i++) {
-            Photo p = source.get(i);
-            if (p != null && clicked.getId() != null && clicked.getId().equals(p.getId())) {
-                clickedIndex = i;
-                break;
-            }
-        }
-        final int MAX_ITEMS = 200; // cap extras to avoid TransactionTooLargeException
-        int start = Math.max(0, clickedIndex - MAX_ITEMS / 2);
-        int end = Math.min(source.size(), start + MAX_ITEMS);
-        if (end - start < MAX_ITEMS && end == source.size()) {
-            start = Math.max(0, end - MAX_ITEMS);
-        }
+    @Nullable
+    private ViewerPayload buildPayload(@NonNull TimelinePager.Window window) {
         ArrayList<String> urls = new ArrayList<>();
         ArrayList<String> ids = new ArrayList<>();
-        ArrayList<String> dates = new ArrayList<>();
-        for (int i = start; i < end; i++) {
-            Photo p = source.get(i);
+        long[] times = new long[window.photos.size()];
+        int startIndex = 0;
+        for (int i = 0; i < window.photos.size(); i++) {
+            Photo p = window.photos.get(i);
             if (p == null || p.getImageUrl() == null) continue;
+            if (i == window.startIndex) startIndex = urls.size();
             urls.add(p.getImageUrl());
             ids.add(p.getId());
-            dates.add(p.getCaptureDate());
+            times[urls.size() - 1] = p.getCaptureTime();
         }
         if (urls.isEmpty()) return null;
         ViewerPayload payload = new ViewerPayload();
         payload.urls = urls;
         payload.ids = ids;
-        payload.dates = dates;
-        payload.startIndex = Math.min(clickedIndex - start, urls.size() - 1);
+        payload.captureTimes = urls.size() == times.length ? times : java.util.Arrays.copyOf(times, urls.size());
+        payload.startIndex = startIndex;
         return payload;
     }
 
     private static class ViewerPayload {
         ArrayList<String> urls;
         ArrayList<String> ids;
-        ArrayList<String> dates;
+        long[] captureTimes;
         int startIndex;
     }
 
@@ -298,20 +307,6 @@ public class HomeFragment extends Fragment {
 
     public void reload() {
         if (!isAdded() || viewModel == null) return;
-        viewModel.reloadFromMediaStore(requireContext().getApplicationContext());
-    }
-
-    private void removeDeletedFromMemory(List<String> deletedIds) {
-        boolean changedTimeline = false;
-        for (int i = currentTimelinePhotos.size() - 1; i >= 0; i--) {
-            Photo p = currentTimelinePhotos.get(i);
-            if (p != null && deletedIds.contains(p.getId())) {
-                currentTimelinePhotos.remove(i);
-                changedTimeline = true;
-            }
-        }
-        if (changedTimeline) {
-            timelineAdapter.submitList(new ArrayList<>(currentTimelinePhotos));
-        }
+        viewModel.refresh(requireContext().getApplicationContext());
     }
 }
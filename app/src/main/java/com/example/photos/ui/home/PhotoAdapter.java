@@ -2,7 +2,6 @@ package com.example.photos.ui.home;
 
 import android.os.Handler;
 import android.os.Looper;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,6 +11,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
@@ -24,10 +24,10 @@ import com.google.android.material.imageview.ShapeableImageView;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,13 +52,14 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     private final List<Photo> items = new ArrayList<>();
-    private final List<TimelineEntry> timelineItems = new ArrayList<>();
     private final OnPhotoClickListener clickListener;
     private final OnPhotoLongClickListener longClickListener;
     private final boolean timelineMode;
-    private List<Photo> currentTimelinePhotos = Collections.emptyList();
+    /** 时间线模式的数据源：分页 + 占位，不持有整库列表 */
+    private TimelinePager pager;
     private boolean selectionMode = false;
-    private final Set<String> selectedKeys = new HashSet<>();
+    /** 选中项按 key 保存 Photo 本身：时间线分页会淘汰旧页，选中的照片不能依赖已加载页 */
+    private final Map<String, Photo> selected = new LinkedHashMap<>();
     private final Executor diffExecutor = Executors.newSingleThreadExecutor();
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final AtomicInteger diffGeneration = new AtomicInteger(0);
@@ -88,11 +89,52 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         setHasStableIds(true);
     }
 
+    /**
+     * 时间线模式挂上分页数据源；传 null 解除（Fragment 销毁视图时）。
+     * 布局整体变化后先刷新自身，再回调 {@code onLayoutChanged}。
+     */
+    void attachTimeline(@Nullable TimelinePager pager, @Nullable Runnable onLayoutChanged) {
+        if (this.pager != null) {
+            this.pager.setCallback(null);
+        }
+        this.pager = pager;
+        if (pager != null) {
+            pager.setCallback(new TimelinePager.Callback() {
+                @Override
+                public void onLayoutChanged() {
+                    notifyDataSetChanged();
+                    if (onLayoutChanged != null) onLayoutChanged.run();
+                }
+
+                @Override
+                public void onRangeChanged(int start, int count) {
+                    notifyItemRangeChanged(start, count);
+                }
+
+                @Override
+                public void onRangeInserted(int start, int count) {
+                    notifyItemRangeInserted(start, count);
+                }
+
+                @Override
+                public void onRangeRemoved(int start, int count) {
+                    notifyItemRangeRemoved(start, count);
+                }
+
+                @Override
+                public void onChangesApplied() {
+                    if (onLayoutChanged != null) onLayoutChanged.run();
+                }
+            });
+        }
+        notifyDataSetChanged();
+    }
+
     public void setSelectionMode(boolean enabled) {
         if (this.selectionMode == enabled) return;
         this.selectionMode = enabled;
         if (!enabled) {
-            selectedKeys.clear();
+            selected.clear();
         }
         notifyDataSetChanged();
     }
@@ -102,16 +144,12 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     public int getSelectedCount() {
-        return selectedKeys.size();
+        return selected.size();
     }
 
     public int getSelectableCount() {
         if (timelineMode) {
-            int count = 0;
-            for (TimelineEntry e : timelineItems) {
-                if (e != null && e.type == TYPE_PHOTO && e.photo != null) count++;
-            }
-            return count;
+            return pager == null ? 0 : pager.getPhotoCount();
         }
         return items.size();
     }
@@ -119,19 +157,14 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @NonNull
     public List<Photo> getSelectedPhotos() {
         List<Photo> out = new ArrayList<>();
-        if (selectedKeys.isEmpty()) return out;
+        if (selected.isEmpty()) return out;
         if (timelineMode) {
-            for (TimelineEntry e : timelineItems) {
-                if (e == null || e.type != TYPE_PHOTO || e.photo == null) continue;
-                if (selectedKeys.contains(keyOf(e.photo))) {
-                    out.add(e.photo);
-                }
-            }
+            out.addAll(selected.values());
             return out;
         }
         for (Photo p : items) {
             if (p == null) continue;
-            if (selectedKeys.contains(keyOf(p))) {
+            if (selected.containsKey(keyOf(p))) {
                 out.add(p);
             }
         }
@@ -142,7 +175,7 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         if (!selectionMode) return;
         String key = keyOf(photo);
         if (key.isEmpty()) return;
-        if (selectedKeys.add(key)) {
+        if (selected.put(key, photo) == null) {
             int pos = findPositionByKey(key);
             if (pos != RecyclerView.NO_POSITION) {
                 notifyItemChanged(pos);
@@ -157,30 +190,37 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         int total = getSelectableCount();
         if (total <= 0) return;
         if (getSelectedCount() >= total) {
-            selectedKeys.clear();
+            selected.clear();
             notifyDataSetChanged();
             return;
         }
-        selectedKeys.clear();
         if (timelineMode) {
-            for (TimelineEntry e : timelineItems) {
-                if (e == null || e.type != TYPE_PHOTO || e.photo == null) continue;
-                String key = keyOf(e.photo);
-                if (!key.isEmpty()) selectedKeys.add(key);
-            }
-        } else {
-            for (Photo p : items) {
-                if (p == null) continue;
-                String key = keyOf(p);
-                if (!key.isEmpty()) selectedKeys.add(key);
-            }
+            // 整条时间线不在内存里，全选时才从库里取一次
+            if (pager == null) return;
+            pager.loadAll(all -> {
+                if (!selectionMode) return;
+                selected.clear();
+                selectAll(all);
+                notifyDataSetChanged();
+            });
+            return;
         }
+        selected.clear();
+        selectAll(items);
         notifyDataSetChanged();
     }
 
+    private void selectAll(List<Photo> photos) {
+        for (Photo p : photos) {
+            if (p == null) continue;
+            String key = keyOf(p);
+            if (!key.isEmpty()) selected.put(key, p);
+        }
+    }
+
     public void clearSelection() {
-        if (selectedKeys.isEmpty()) return;
-        selectedKeys.clear();
+        if (selected.isEmpty()) return;
+        selected.clear();
         notifyDataSetChanged();
     }
 
@@ -194,22 +234,17 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     private boolean toggleSelected(@NonNull Photo photo) {
         String key = keyOf(photo);
         if (key.isEmpty()) return false;
-        if (selectedKeys.contains(key)) {
-            selectedKeys.remove(key);
+        if (selected.remove(key) != null) {
             return false;
         }
-        selectedKeys.add(key);
+        selected.put(key, photo);
         return true;
     }
 
     private int findPositionByKey(@NonNull String key) {
         if (timelineMode) {
-            for (int i = 0; i < timelineItems.size(); i++) {
-                TimelineEntry e = timelineItems.get(i);
-                if (e == null || e.type != TYPE_PHOTO || e.photo == null) continue;
-                if (key.equals(keyOf(e.photo))) return i;
-            }
-            return RecyclerView.NO_POSITION;
+            int pos = pager == null ? -1 : pager.findLoadedPosition(key);
+            return pos < 0 ? RecyclerView.NO_POSITION : pos;
         }
         for (int i = 0; i < items.size(); i++) {
             Photo p = items.get(i);
@@ -220,125 +255,86 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     public boolean isFullWidthPosition(int position) {
-        if (!timelineMode || position < 0 || position >= getItemCount()) {
+        if (!timelineMode || pager == null || position < 0 || position >= getItemCount()) {
             return false;
         }
-        int type = timelineItems.get(position).type;
-        return type == TYPE_HEADER;
+        return pager.isHeader(position);
     }
 
     public int getItemCountSafe() {
-        return timelineMode ? timelineItems.size() : items.size();
+        return getItemCount();
     }
 
     @Nullable
     public String getLabelForPosition(int position) {
-        if (!timelineMode || position < 0 || position >= timelineItems.size()) {
+        if (!timelineMode || pager == null) {
             return null;
         }
-        TimelineEntry entry = timelineItems.get(position);
-        switch (entry.type) {
-            case TYPE_HEADER:
-                return entry.label;
-            case TYPE_PHOTO:
-                return extractDayLabel(entry.photo == null ? null : entry.photo.getCaptureDate());
-            default:
-                return findNearestLabel(position);
-        }
+        return pager.labelAt(position);
+    }
+
+    public int getSectionForPosition(int position) {
+        return timelineMode && pager != null ? pager.sectionAt(position) : -1;
+    }
+
+    public int getPositionForDay(long epochDay) {
+        return timelineMode && pager != null ? pager.positionForDay(epochDay) : -1;
     }
 
     /**
-     * 用新的筛选结果刷新展示列表。
+     * 用新的筛选结果刷新展示列表（列表模式；时间线模式的数据来自 {@link #attachTimeline}）。
      */
     public void submitList(List<Photo> photos) {
-        if (!timelineMode) {
-            List<Photo> newList = photos == null ? Collections.emptyList() : new ArrayList<>(photos);
-            final int runGen = diffGeneration.incrementAndGet();
-            final List<Photo> oldList = new ArrayList<>(items);
-            diffExecutor.execute(() -> {
-                DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new PhotoDiffCallback(oldList, newList));
-                mainHandler.post(() -> {
-                    if (diffGeneration.get() != runGen) return;
-                    items.clear();
-                    items.addAll(newList);
-                    diff.dispatchUpdatesTo(this);
-                });
-            });
-        } else {
-            currentTimelinePhotos = photos == null ? Collections.emptyList() : new ArrayList<>(photos);
-            rebuildTimelineAsync();
-        }
-    }
-
-    private void rebuildTimelineAsync() {
-        final List<TimelineEntry> oldEntries = new ArrayList<>(timelineItems);
-        final List<TimelineEntry> newEntries = buildTimelineEntries(currentTimelinePhotos);
+        if (timelineMode) return;
+        List<Photo> newList = photos == null ? Collections.emptyList() : new ArrayList<>(photos);
         final int runGen = diffGeneration.incrementAndGet();
+        final List<Photo> oldList = new ArrayList<>(items);
         diffExecutor.execute(() -> {
-            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new TimelineDiffCallback(oldEntries, newEntries));
+            // 筛选/追加通常只动中间或尾部一段：先剥掉首尾相同的部分，DiffUtil 只跑剩下的窗口
+            int oldSize = oldList.size();
+            int newSize = newList.size();
+            int prefix = 0;
+            int max = Math.min(oldSize, newSize);
+            while (prefix < max && sameItem(oldList.get(prefix), newList.get(prefix))
+                    && sameContent(oldList.get(prefix), newList.get(prefix))) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && sameItem(oldList.get(oldSize - 1 - suffix), newList.get(newSize - 1 - suffix))
+                    && sameContent(oldList.get(oldSize - 1 - suffix), newList.get(newSize - 1 - suffix))) {
+                suffix++;
+            }
+            final int start = prefix;
+            final int oldMid = oldSize - prefix - suffix;
+            final int newMid = newSize - prefix - suffix;
+            final DiffUtil.DiffResult diff = oldMid > 0 && newMid > 0
+                    ? DiffUtil.calculateDiff(new PhotoDiffCallback(
+                            oldList.subList(start, start + oldMid), newList.subList(start, start + newMid)), false)
+                    : null;
             mainHandler.post(() -> {
                 if (diffGeneration.get() != runGen) return;
-                timelineItems.clear();
-                timelineItems.addAll(newEntries);
-                diff.dispatchUpdatesTo(this);
+                items.clear();
+                items.addAll(newList);
+                if (diff != null) {
+                    diff.dispatchUpdatesTo(new OffsetUpdateCallback(start));
+                } else if (oldMid > 0) {
+                    notifyItemRangeRemoved(start, oldMid);
+                } else if (newMid > 0) {
+                    notifyItemRangeInserted(start, newMid);
+                }
             });
         });
     }
 
-    private List<TimelineEntry> buildTimelineEntries(List<Photo> photos) {
-        List<TimelineEntry> entries = new ArrayList<>();
-        if (photos == null || photos.isEmpty()) {
-            return entries;
-        }
-        String lastDay = null;
-        for (Photo photo : photos) {
-            String currentDay = extractDayLabel(photo.getCaptureDate());
-            if (!TextUtils.equals(lastDay, currentDay)) {
-                entries.add(TimelineEntry.header(currentDay));
-                lastDay = currentDay;
-            }
-            entries.add(TimelineEntry.photo(photo));
-        }
-        return entries;
-    }
-
-    private String extractDayLabel(String dateTime) {
-        if (TextUtils.isEmpty(dateTime)) {
-            return "\u672a\u6807\u8bb0\u65e5\u671f";
-        }
-        if (dateTime.length() >= 10) {
-            return dateTime.substring(0, 10);
-        }
-        return dateTime;
-    }
-
-    @Nullable
-    private String findNearestLabel(int position) {
-        for (int i = position - 1; i >= 0; i--) {
-            TimelineEntry entry = timelineItems.get(i);
-            if (entry.type == TYPE_HEADER) return entry.label;
-            if (entry.type == TYPE_PHOTO) {
-                return extractDayLabel(entry.photo == null ? null : entry.photo.getCaptureDate());
-            }
-        }
-        for (int i = position + 1; i < timelineItems.size(); i++) {
-            TimelineEntry entry = timelineItems.get(i);
-            if (entry.type == TYPE_HEADER) return entry.label;
-            if (entry.type == TYPE_PHOTO) {
-                return extractDayLabel(entry.photo == null ? null : entry.photo.getCaptureDate());
-            }
-        }
-        return null;
-    }
-
     @Nullable
     private Photo findNextPhoto(int startPosition) {
         if (timelineMode) {
-            for (int i = startPosition; i < timelineItems.size(); i++) {
-                TimelineEntry entry = timelineItems.get(i);
-                if (entry.type == TYPE_PHOTO && entry.photo != null) {
-                    return entry.photo;
-                }
+            if (pager == null) return null;
+            // 跳过标题；只看已加载页，预加载不去触发分页
+            for (int i = startPosition; i < startPosition + 2 && i < pager.getItemCount(); i++) {
+                Photo photo = pager.peekAt(i);
+                if (photo != null) return photo;
             }
         } else {
             if (startPosition >= 0 && startPosition < items.size()) {
@@ -350,8 +346,8 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     @Override
     public int getItemViewType(int position) {
-        if (!timelineMode) return TYPE_PHOTO;
-        return timelineItems.get(position).type;
+        if (!timelineMode || pager == null) return TYPE_PHOTO;
+        return pager.isHeader(position) ? TYPE_HEADER : TYPE_PHOTO;
     }
 
     @Override
@@ -361,7 +357,7 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             if (photo == null) return RecyclerView.NO_ID;
             return stableIdOf(photo, position);
         }
-        return timelineItems.get(position).stableId;
+        return pager == null ? RecyclerView.NO_ID : pager.stableIdAt(position);
     }
 
     private long stableIdOf(@NonNull Photo photo, int positionFallback) {
@@ -392,18 +388,23 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         if (holder instanceof HeaderViewHolder) {
-            ((HeaderViewHolder) holder).bind(timelineItems.get(position).label);
+            ((HeaderViewHolder) holder).bind(pager == null ? null : pager.labelAt(position));
         } else if (holder instanceof PhotoViewHolder) {
-            Photo photo = timelineMode ? timelineItems.get(position).photo : items.get(position);
+            Photo photo = timelineMode ? (pager == null ? null : pager.photoAt(position)) : items.get(position);
             if (photo != null) {
                 ((PhotoViewHolder) holder).bind(photo);
+            } else {
+                ((PhotoViewHolder) holder).bindPlaceholder();
             }
         }
     }
 
     @Override
     public int getItemCount() {
-        return timelineMode ? timelineItems.size() : items.size();
+        if (timelineMode) {
+            return pager == null ? 0 : pager.getItemCount();
+        }
+        return items.size();
     }
 
     /**
@@ -422,8 +423,21 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             selectionBox = itemView.findViewById(R.id.photoSelectionBox);
         }
 
+        /** 所在页还没加载：先占位，页到达后 notifyItemRangeChanged 会重新绑定。 */
+        void bindPlaceholder() {
+            if (selectedScrim != null) selectedScrim.setVisibility(View.GONE);
+            if (selectionBox != null) {
+                selectionBox.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
+                selectionBox.setSelected(false);
+            }
+            Glide.with(photoImageView.getContext()).clear(photoImageView);
+            photoImageView.setImageResource(R.drawable.ic_photo_placeholder);
+            itemView.setOnClickListener(null);
+            itemView.setOnLongClickListener(null);
+        }
+
         void bind(Photo photo) {
-            boolean selected = selectionMode && selectedKeys.contains(keyOf(photo));
+            boolean selected = selectionMode && PhotoAdapter.this.selected.containsKey(keyOf(photo));
             if (selectedScrim != null) selectedScrim.setVisibility(selected ? View.VISIBLE : View.GONE);
             if (selectionBox != null) {
                 selectionBox.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
@@ -510,37 +524,6 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
-    private static class TimelineEntry {
-        final int type;
-        final String label;
-        final Photo photo;
-        final long stableId;
-
-        private TimelineEntry(int type, String label, Photo photo, long stableId) {
-            this.type = type;
-            this.label = label;
-            this.photo = photo;
-            this.stableId = stableId;
-        }
-
-        static TimelineEntry header(String label) {
-            long id = ("header_" + label).hashCode();
-            return new TimelineEntry(TYPE_HEADER, label, null, id);
-        }
-
-        static TimelineEntry photo(Photo photo) {
-            long id = RecyclerView.NO_ID;
-            if (photo != null && photo.getId() != null) {
-                try {
-                    id = Long.parseLong(photo.getId());
-                } catch (NumberFormatException ignored) {
-                    id = photo.getId().hashCode();
-                }
-            }
-            return new TimelineEntry(TYPE_PHOTO, null, photo, id);
-        }
-    }
-
     private static final class PhotoDiffCallback extends DiffUtil.Callback {
         private final List<Photo> oldList;
         private final List<Photo> newList;
@@ -562,69 +545,59 @@ public class PhotoAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
         @Override
         public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            Photo old = oldList.get(oldItemPosition);
-            Photo newer = newList.get(newItemPosition);
-            String oldId = old == null ? null : old.getId();
-            String newId = newer == null ? null : newer.getId();
-            if (oldId != null || newId != null) {
-                return Objects.equals(oldId, newId);
-            }
-            return Objects.equals(old == null ? null : old.getImageUrl(),
-                    newer == null ? null : newer.getImageUrl());
+            return sameItem(oldList.get(oldItemPosition), newList.get(newItemPosition));
         }
 
         @Override
         public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            Photo old = oldList.get(oldItemPosition);
-            Photo newer = newList.get(newItemPosition);
-            return Objects.equals(old.getTitle(), newer.getTitle())
-                    && Objects.equals(old.getImageUrl(), newer.getImageUrl())
-                    && Objects.equals(old.getCategory(), newer.getCategory())
-                    && old.isFavorite() == newer.isFavorite();
+            return sameContent(oldList.get(oldItemPosition), newList.get(newItemPosition));
         }
     }
 
-    private static final class TimelineDiffCallback extends DiffUtil.Callback {
-        private final List<TimelineEntry> oldList;
-        private final List<TimelineEntry> newList;
+    /** 把窗口内的 diff 结果平移回整表位置。 */
+    private final class OffsetUpdateCallback implements ListUpdateCallback {
+        private final int offset;
 
-        TimelineDiffCallback(List<TimelineEntry> oldList, List<TimelineEntry> newList) {
-            this.oldList = oldList;
-            this.newList = newList;
+        OffsetUpdateCallback(int offset) {
+            this.offset = offset;
         }
 
         @Override
-        public int getOldListSize() {
-            return oldList == null ? 0 : oldList.size();
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(offset + position, count);
         }
 
         @Override
-        public int getNewListSize() {
-            return newList == null ? 0 : newList.size();
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(offset + position, count);
         }
 
         @Override
-        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            TimelineEntry old = oldList.get(oldItemPosition);
-            TimelineEntry newer = newList.get(newItemPosition);
-            return old.type == newer.type && old.stableId == newer.stableId;
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(offset + fromPosition, offset + toPosition);
         }
 
         @Override
-        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            TimelineEntry old = oldList.get(oldItemPosition);
-            TimelineEntry newer = newList.get(newItemPosition);
-            if (old.type != newer.type) return false;
-            switch (old.type) {
-                case TYPE_HEADER:
-                    return Objects.equals(old.label, newer.label);
-                case TYPE_PHOTO:
-                    String oldId = old.photo == null ? null : old.photo.getId();
-                    String newId = newer.photo == null ? null : newer.photo.getId();
-                    return Objects.equals(oldId, newId);
-                default:
-                    return false;
-            }
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            notifyItemRangeChanged(offset + position, count, payload);
+        }
+    }
+
+    private static boolean sameItem(Photo old, Photo newer) {
+        String oldId = old == null ? null : old.getId();
+        String newId = newer == null ? null : newer.getId();
+        if (oldId != null || newId != null) {
+            return Objects.equals(oldId, newId);
         }
+        return Objects.equals(old == null ? null : old.getImageUrl(),
+                newer == null ? null : newer.getImageUrl());
+    }
+
+    private static boolean sameContent(Photo old, Photo newer) {
+        if (old == null || newer == null) return old == newer;
+        return Objects.equals(old.getTitle(), newer.getTitle())
+                && Objects.equals(old.getImageUrl(), newer.getImageUrl())
+                && Objects.equals(old.getCategory(), newer.getCategory())
+                && old.isFavorite() == newer.isFavorite();
     }
 }
@@ -26,6 +26,16 @@ public class TimelineFastScroller extends FrameLayout {
 
         @Nullable
         String getLabelForPosition(int position);
+
+        /** position 所在分节（同一天）的下标；没有分节索引时返回 -1，每次都取标签。 */
+        default int getSectionForPosition(int position) {
+            return -1;
+        }
+
+        /** 某天（epoch day）标题所在的 position；不支持按日期跳转时返回 -1。 */
+        default int getPositionForDay(long epochDay) {
+            return -1;
+        }
     }
 
     private View trackView;
@@ -35,6 +45,8 @@ public class TimelineFastScroller extends FrameLayout {
     private RecyclerView recyclerView;
     private DateLabelProvider labelProvider;
     private boolean dragging = false;
+    /** 气泡当前显示的分节；拖动在同一天内时不再取标签、不重设文字 */
+    private int bubbleSection = -1;
     private static final long HIDE_DELAY_MS = 800L;
 
     private final Runnable hideBubbleRunnable = this::hideBubble;
@@ -82,6 +94,7 @@ public class TimelineFastScroller extends FrameLayout {
         detachRecyclerView();
         this.recyclerView = recyclerView;
         this.labelProvider = provider;
+        bubbleSection = -1;
         recyclerView.addOnScrollListener(scrollListener);
         updateVisibility();
         post(this::syncThumbToRecycler);
@@ -98,10 +111,26 @@ public class TimelineFastScroller extends FrameLayout {
 
     public void updateLabelProvider(@Nullable DateLabelProvider provider) {
         this.labelProvider = provider;
+        bubbleSection = -1;
         updateVisibility();
         post(this::syncThumbToRecycler);
     }
 
+    /** 精确跳到某天（epoch day）的标题；没有这一天时落到更早的最近一天。返回是否跳转。 */
+    public boolean scrollToDay(long epochDay) {
+        if (recyclerView == null || labelProvider == null) return false;
+        int position = labelProvider.getPositionForDay(epochDay);
+        if (position < 0) return false;
+        RecyclerView.LayoutManager lm = recyclerView.getLayoutManager();
+        if (lm instanceof GridLayoutManager) {
+            ((GridLayoutManager) lm).scrollToPositionWithOffset(position, 0);
+        } else {
+            recyclerView.scrollToPosition(position);
+        }
+        post(this::syncThumbToRecycler);
+        return true;
+    }
+
     public void requestSync() {
         post(this::syncThumbToRecycler);
     }
@@ -219,6 +248,9 @@ public class TimelineFastScroller extends FrameLayout {
         if (count <= 0) return;
         int target = Math.round(proportion * (count - 1));
         target = Math.max(0, Math.min(target, count - 1));
+        int section = labelProvider.getSectionForPosition(target);
+        if (section >= 0 && section == bubbleSection) return;
+        bubbleSection = section;
         String label = labelProvider.getLabelForPosition(target);
         if (TextUtils.isEmpty(label)) {
             bubbleTextView.setText("");
@@ -0,0 +1,564 @@
+package com.example.photos.ui.home;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.photos.data.MediaStoreRepository;
+import com.example.photos.db.PhotoAsset;
+import com.example.photos.db.PhotoDao;
+import com.example.photos.db.TimelineDay;
+import com.example.photos.media.MediaChanges;
+import com.example.photos.model.Photo;
+import com.example.photos.util.PerfLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * 首页时间线的分页数据源：photo_assets（图片 + 视频）按 (sortTime, id) 倒序，每个本地日前插一个标题。
+ *
+ * 常驻内存的只有按天聚合的分节索引（{@link TimelineSections}）和最近访问的若干段 Photo；其余位置是占位，
+ * 绑定到时才异步拉取所在页。相邻页之间用 keyset 续接，跳页时从所在那天的最大 sortTime 起查，
+ * OFFSET 不超过一天的张数。
+ *
+ * 同步入口发布的 {@link MediaChanges} 在 io 线程上换算成逐条的删除/插入（新布局也在 io 上算好），
+ * 主线程只替换布局、平移已加载段并发位置级通知；批量写入或对不上账时才整体 refresh。
+ * 布局与已加载段只在主线程读写，查询都在单线程 io 上跑。
+ */
+final class TimelinePager implements MediaChanges.Listener {
+    private static final String TAG = "TimelinePager";
+    static final int PAGE_SIZE = 120;
+    private static final int MAX_SEGMENTS = 16;
+    /** 刷新时顺带重载的最近段数，避免可见区域闪成占位 */
+    private static final int KEEP_ON_REFRESH = 4;
+    
+    interface Callback {
+        /** 布局整体变化（首次加载 / 整体刷新）。 */
+        void onLayoutChanged();
+
+        /** 数据到达或原地更新，对应 adapter 位置 [start, start + count)。 */
+        void onRangeChanged(int start, int count);
+
+        void onRangeInserted(int start, int count);
+
+        void onRangeRemoved(int start, int count);
+
+        /** 一批增量变更分发完毕（总数、标题可能已变）。 */
+        void onChangesApplied();
+    }
+
+    /** 查看器用的窗口：点击项前后各一段，startIndex 指向点击项。 */
+    static final class Window {
+        final List<Photo> photos;
+        final int startIndex;
+
+        Window(List<Photo> photos, int startIndex) {
+            this.photos = photos;
+            this.startIndex = startIndex;
+        }
+    }
+
+    private final PhotoDao dao;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Segment> segments = new ArrayList<>();
+    private long accessTick;
+    private Set<Integer> loading = new HashSet<>();
+    private TimelineSections layout = TimelineSections.EMPTY;
+    private Callback callback;
+    /** io 线程上“所有已投递结果应用完之后”的布局；增量变更以它为基准。null 表示还没首次加载 */
+    private TimelineSections ioLayout;
+
+    TimelinePager(@NonNull PhotoDao dao) {
+        this.dao = dao;
+        MediaChanges.addListener(this);
+    }
+
+    void setCallback(@Nullable Callback callback) {
+        this.callback = callback;
+    }
+
+    int getItemCount() {
+        return layout.itemCount;
+    }
+
+    int getPhotoCount() {
+        return layout.photoCount;
+    }
+
+    boolean isHeader(int position) {
+        return layout.offsetOf(position) < 0;
+    }
+
+    @Nullable
+    String labelAt(int position) {
+        if (position < 0 || position >= layout.itemCount) return null;
+        return layout.label(layout.sectionOfPosition(position));
+    }
+
+    /** position 所在的节（本地日）下标；越界返回 -1。 */
+    int sectionAt(int position) {
+        if (position < 0 || position >= layout.itemCount) return -1;
+        return layout.sectionOfPosition(position);
+    }
+
+    /** 跳转到某天（epoch day）的标题位置；没有这一天时落到更早的最近一天，空时间线返回 -1。 */
+    int positionForDay(long epochDay) {
+        return layout.positionForDay(epochDay);
+    }
+
+    long stableIdAt(int position) {
+        if (position < 0 || position >= layout.itemCount) return -1L;
+        int offset = layout.offsetOf(position);
+        if (offset < 0) {
+            return layout.headerId(layout.sectionOfPosition(position));
+        }
+        Row row = rowAt(offset);
+        return row != null ? row.id : Long.MIN_VALUE + offset;
+    }
+
+    /** 取 position 处的照片；未加载返回 null（占位）并异步拉取所在页，靠近页边时顺带预取相邻页。 */
+    @Nullable
+    Photo photoAt(int position) {
+        int offset = layout.offsetOf(position);
+        if (offset < 0) return null;
+        int page = offset / PAGE_SIZE;
+        int inPage = offset % PAGE_SIZE;
+        if (inPage >= PAGE_SIZE * 3 / 4) {
+            requestPage(page + 1);
+        } else if (inPage < PAGE_SIZE / 4) {
+            requestPage(page - 1);
+        }
+        Row row = rowAt(offset);
+        if (row == null) {
+            requestPage(page);
+            return null;
+        }
+        return row.photo;
+    }
+
+    /** 只看缓存，不触发加载（Glide 预加载用）。 */
+    @Nullable
+    Photo peekAt(int position) {
+        int offset = layout.offsetOf(position);
+        Row row = offset < 0 ? null : rowAt(offset);
+        return row == null ? null : row.photo;
+    }
+
+    /** 已加载段里按 key（id 或 url）找 adapter 位置，找不到返回 -1。 */
+    int findLoadedPosition(@NonNull String key) {
+        for (Segment s : segments) {
+            for (int i = 0; i < s.rows.size(); i++) {
+                Photo p = s.rows.get(i).photo;
+                if (key.equals(p.getId()) || key.equals(p.getImageUrl())) {
+                    return layout.positionOfOffset(s.start + i);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** 库里总数变了（Room 失效通知）：和 io 侧布局对不上才整体刷新，已按增量应用过的变更不会重复刷新。 */
+    void onCountChanged(int count) {
+        execute(() -> {
+            if (ioLayout == null || ioLayout.photoCount != count) {
+                mainHandler.post(this::refresh);
+            }
+        });
+    }
+
+    /** 重新聚合布局并重载最近访问的几页，完成后一次性替换并回调 onLayoutChanged。 */
+    void refresh() {
+        List<Segment> recent = new ArrayList<>(segments);
+        recent.sort((a, b) -> Long.compare(b.lastUsed, a.lastUsed));
+        final List<Integer> reload = new ArrayList<>();
+        for (int i = 0; i < recent.size() && reload.size() < KEEP_ON_REFRESH; i++) {
+            Segment s = recent.get(i);
+            int page = (s.start + s.rows.size() / 2) / PAGE_SIZE;
+            if (!reload.contains(page)) reload.add(page);
+        }
+        if (reload.isEmpty()) reload.add(0);
+        Collections.sort(reload);
+        execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            TimelineSections next = TimelineSections.build(dao.timelineDays());
+            Map<Integer, Segment> fresh = new HashMap<>();
+            for (int page : reload) {
+                if (page * PAGE_SIZE >= next.photoCount) continue;
+                Segment prev = fresh.get(page - 1);
+                Row before = prev == null || prev.rows.isEmpty() ? null : prev.rows.get(prev.rows.size() - 1);
+                fresh.put(page, fetch(next, page, before, null));
+            }
+            ioLayout = next;
+            HashMap<String, Object> extra = new HashMap<>();
+            extra.put("photos", next.photoCount);
+            extra.put("days", next.days.length);
+            extra.put("pages", fresh.size());
+            PerfLogger.log("timeline_refresh", SystemClock.elapsedRealtime() - start, null, extra);
+            mainHandler.post(() -> {
+                layout = next;
+                segments.clear();
+                segments.addAll(fresh.values());
+                loading = new HashSet<>();
+                if (callback != null) callback.onLayoutChanged();
+            });
+        });
+    }
+
+    @Override
+    public void onMediaChanged(@NonNull MediaChanges.ChangeSet changes) {
+        execute(() -> applyChanges(changes));
+    }
+
+    /**
+     * io 线程：把变更集换算成按顺序执行的删除/插入/原地更新。
+     * 删除用旧状态下的偏移、从大到小执行；插入用最终状态下的偏移、从小到大执行，这样每一步的偏移都成立。
+     */
+    private void applyChanges(MediaChanges.ChangeSet changes) {
+        TimelineSections base = ioLayout;
+        if (base == null) return; // 还没首次加载，首次 refresh 会直接读到
+        if (changes.bulk) {
+            mainHandler.post(this::refresh);
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        // 同 id 且 sortTime 不变的是原地更新，其余拆成删旧行 + 插新行
+        Map<Long, PhotoAsset> oldById = new HashMap<>();
+        for (PhotoAsset r : changes.removed) {
+            if (r != null) oldById.put(r.id, r);
+        }
+        List<PhotoAsset> inserted = new ArrayList<>();
+        List<PhotoAsset> updated = new ArrayList<>();
+        for (PhotoAsset a : changes.added) {
+            if (a == null) continue;
+            PhotoAsset old = oldById.get(a.id);
+            if (old != null && old.sortTime == a.sortTime) {
+                oldById.remove(a.id);
+                updated.add(a);
+            } else {
+                inserted.add(a);
+            }
+        }
+        List<PhotoAsset> removed = new ArrayList<>(oldById.values());
+        if (base.photoCount - removed.size() + inserted.size() != dao.countTimeline()) {
+            // 期间有未发布的写入，或刷新已经读到了这批变更：整体刷新
+            mainHandler.post(this::refresh);
+            return;
+        }
+
+        List<Op> ops = new ArrayList<>(removed.size() + inserted.size() + updated.size());
+        TimelineSections l = base;
+        int[] removeOffsets = new int[removed.size()];
+        for (int i = 0; i < removed.size(); i++) {
+            PhotoAsset r = removed.get(i);
+            // 库里已是新状态：减去排在它前面的新行，加回排在它前面的其它旧行
+            removeOffsets[i] = dao.countTimelineNewer(r.sortTime, r.id)
+                    - countNewer(inserted, r) + countNewer(removed, r);
+        }
+        Integer[] order = sortedIndices(removeOffsets, false);
+        for (int i : order) {
+            TimelineSections next = l.withRemoved(TimelineSections.dayOf(removed.get(i).sortTime));
+            if (next == null) {
+                mainHandler.post(this::refresh);
+                return;
+            }
+            ops.add(new Op(Op.REMOVE, l, next, removeOffsets[i], null));
+            l = next;
+        }
+        int[] insertOffsets = new int[inserted.size()];
+        for (int i = 0; i < inserted.size(); i++) {
+            PhotoAsset a = inserted.get(i);
+            insertOffsets[i] = dao.countTimelineNewer(a.sortTime, a.id);
+        }
+        for (int i : sortedIndices(insertOffsets, true)) {
+            PhotoAsset a = inserted.get(i);
+            TimelineSections next = l.withInserted(TimelineSections.dayOf(a.sortTime), a.sortTime);
+            ops.add(new Op(Op.INSERT, l, next, insertOffsets[i], new Row(a)));
+            l = next;
+        }
+        for (PhotoAsset u : updated) {
+            ops.add(new Op(Op.CHANGE, l, l, dao.countTimelineNewer(u.sortTime, u.id), new Row(u)));
+        }
+        ioLayout = l;
+        HashMap<String, Object> extra = new HashMap<>();
+        extra.put("removed", removed.size());
+        extra.put("inserted", inserted.size());
+        extra.put("updated", updated.size());
+        PerfLogger.log("timeline_incremental", SystemClock.elapsedRealtime() - start, null, extra);
+        mainHandler.post(() -> applyOps(ops));
+    }
+
+    /** 主线程：逐条替换布局、平移已加载段并发对应的位置通知。 */
+    private void applyOps(List<Op> ops) {
+        if (ops.isEmpty()) return;
+        if (ops.get(0).before != layout) {
+            refresh();
+            return;
+        }
+        for (Op op : ops) {
+            switch (op.type) {
+                case Op.REMOVE: {
+                    int pos = op.before.positionOfOffset(op.offset);
+                    // 当天最后一张：连同标题一起移除
+                    boolean dayGone = op.after.itemCount == op.before.itemCount - 2;
+                    layout = op.after;
+                    for (Segment s : segments) s.remove(op.offset);
+                    if (callback != null) callback.onRangeRemoved(dayGone ? pos - 1 : pos, dayGone ? 2 : 1);
+                    break;
+                }
+                case Op.INSERT: {
+                    layout = op.after;
+                    for (Segment s : segments) s.insert(op.offset, op.row);
+                    int pos = op.after.positionOfOffset(op.offset);
+                    boolean newDay = op.after.itemCount == op.before.itemCount + 2;
+                    if (callback != null) callback.onRangeInserted(newDay ? pos - 1 : pos, newDay ? 2 : 1);
+                    break;
+                }
+                default: {
+                    for (Segment s : segments) s.replace(op.offset, op.row);
+                    if (callback != null) callback.onRangeChanged(layout.positionOfOffset(op.offset), 1);
+                    break;
+                }
+            }
+        }
+        if (callback != null) callback.onChangesApplied();
+    }
+
+    private void requestPage(int page) {
+        final TimelineSections l = layout;
+        int startOffset = page * PAGE_SIZE;
+        if (page < 0 || startOffset >= l.photoCount) return;
+        int endOffset = Math.min(startOffset + PAGE_SIZE, l.photoCount) - 1;
+        if (rowAt(startOffset) != null && rowAt(endOffset) != null) return;
+        if (!loading.add(page)) return;
+        final Row before = rowAt(startOffset - 1);
+        final Row after = before == null ? rowAt(startOffset + PAGE_SIZE) : null;
+        final Set<Integer> inFlight = loading;
+        execute(() -> {
+            Segment loaded = fetch(l, page, before, after);
+            mainHandler.post(() -> {
+                inFlight.remove(page);
+                if (l != layout) {
+                    // 期间布局变了（增量或整体刷新）：偏移已移动，按新布局重取
+                    if (inFlight == loading) requestPage(page);
+                    return;
+                }
+                addSegment(loaded);
+                if (callback == null || loaded.rows.isEmpty()) return;
+                int first = l.positionOfOffset(loaded.start);
+                int last = l.positionOfOffset(loaded.start + loaded.rows.size() - 1);
+                callback.onRangeChanged(first, last - first + 1);
+            });
+        });
+    }
+
+    /** io 线程：优先用相邻行做 keyset，否则从所在那天的起点按天内偏移查。 */
+    private Segment fetch(TimelineSections l, int page, @Nullable Row before, @Nullable Row after) {
+        List<PhotoAsset> rows;
+        if (before != null) {
+            rows = dao.queryTimelineBefore(before.time, before.id, PAGE_SIZE);
+        } else if (after != null) {
+            rows = dao.queryTimelineAfter(after.time, after.id, PAGE_SIZE);
+            Collections.reverse(rows);
+        } else {
+            int startOffset = page * PAGE_SIZE;
+            int section = l.sectionOfOffset(startOffset);
+            rows = dao.queryTimelineFrom(l.maxTimes[section], startOffset - l.photosBefore[section], PAGE_SIZE);
+        }
+        Segment segment = new Segment(page * PAGE_SIZE, rows.size());
+        for (PhotoAsset a : rows) {
+            segment.rows.add(new Row(a));
+        }
+        return segment;
+    }
+
+    private void addSegment(Segment segment) {
+        segment.lastUsed = ++accessTick;
+        segments.add(segment);
+        while (segments.size() > MAX_SEGMENTS) {
+            Segment eldest = segments.get(0);
+            for (Segment s : segments) {
+                if (s.lastUsed < eldest.lastUsed) eldest = s;
+            }
+            segments.remove(eldest);
+        }
+    }
+
+    @Nullable
+    private Row rowAt(int offset) {
+        if (offset < 0) return null;
+        for (Segment s : segments) {
+            Row row = s.at(offset);
+            if (row != null) {
+                s.lastUsed = ++accessTick;
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /** 查看器窗口：以点击项为锚点，向新、旧两侧各取一段，最多 {@code max} 张。 */
+    void loadWindow(@NonNull Photo clicked, int max, @NonNull Consumer<Window> done) {
+        Row anchor = null;
+        for (int k = 0; k < segments.size() && anchor == null; k++) {
+            for (Row row : segments.get(k).rows) {
+                if (Objects.equals(clicked.getId(), row.photo.getId())) {
+                    anchor = row;
+                    break;
+                }
+            }
+        }
+        if (anchor == null) {
+            done.accept(new Window(Collections.singletonList(clicked), 0));
+            return;
+        }
+        final Row a = anchor;
+        execute(() -> {
+            List<PhotoAsset> newer = dao.queryTimelineAfter(a.time, a.id, max / 2);
+            List<PhotoAsset> older = dao.queryTimelineBefore(a.time, a.id, Math.max(0, max - 1 - newer.size()));
+            List<Photo> photos = new ArrayList<>(newer.size() + 1 + older.size());
+            for (int i = newer.size() - 1; i >= 0; i--) {
+                photos.add(MediaStoreRepository.toPhoto(newer.get(i)));
+            }
+            photos.add(clicked);
+            for (PhotoAsset asset : older) {
+                photos.add(MediaStoreRepository.toPhoto(asset));
+            }
+            Window window = new Window(photos, newer.size());
+            mainHandler.post(() -> done.accept(window));
+        });
+    }
+
+    /** 全选：一次性取出整条时间线（只在用户真的全选时发生）。 */
+    void loadAll(@NonNull Consumer<List<Photo>> done) {
+        execute(() -> {
+            List<PhotoAsset> rows = dao.queryTimelineBefore(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+            List<Photo> photos = new ArrayList<>(rows.size());
+            for (PhotoAsset a : rows) {
+                photos.add(MediaStoreRepository.toPhoto(a));
+            }
+            mainHandler.post(() -> done.accept(photos));
+        });
+    }
+
+    void release() {
+        MediaChanges.removeListener(this);
+        callback = null;
+        io.shutdownNow();
+    }
+
+    private void execute(Runnable task) {
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "pager released, drop task");
+        }
+    }
+
+    /** list 中除 target 自身外，排在 target 之前（更新）的行数。 */
+    private static int countNewer(List<PhotoAsset> list, PhotoAsset target) {
+        int n = 0;
+        for (PhotoAsset a : list) {
+            if (a == target) continue;
+            if (a.sortTime > target.sortTime || (a.sortTime == target.sortTime && a.id > target.id)) n++;
+        }
+        return n;
+    }
+
+    private static Integer[] sortedIndices(int[] keys, boolean ascending) {
+        Integer[] idx = new Integer[keys.length];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> ascending
+                ? Integer.compare(keys[a], keys[b])
+                : Integer.compare(keys[b], keys[a]));
+        return idx;
+    }
+
+    /** 一行照片及其 keyset 游标。 */
+    private static final class Row {
+        final Photo photo;
+        final long time;
+        final long id;
+
+        Row(PhotoAsset a) {
+            this.photo = MediaStoreRepository.toPhoto(a);
+            this.time = a.sortTime;
+            this.id = a.id;
+        }
+    }
+
+    /** 一段连续的已加载行，覆盖偏移 [start, start + rows.size())；增量插入/删除时整体平移或就地修改。 */
+    private static final class Segment {
+        int start;
+        final ArrayList<Row> rows;
+        long lastUsed;
+
+        Segment(int start, int capacity) {
+            this.start = start;
+            this.rows = new ArrayList<>(capacity);
+        }
+
+        @Nullable
+        Row at(int offset) {
+            int i = offset - start;
+            return i >= 0 && i < rows.size() ? rows.get(i) : null;
+        }
+
+        void insert(int offset, Row row) {
+            if (offset < start) {
+                start++;
+            } else if (offset < start + rows.size()) {
+                rows.add(offset - start, row);
+            }
+        }
+
+        void remove(int offset) {
+            if (offset < start) {
+                start--;
+            } else if (offset < start + rows.size()) {
+                rows.remove(offset - start);
+            }
+        }
+
+        void replace(int offset, Row row) {
+            int i = offset - start;
+            if (i >= 0 && i < rows.size()) rows.set(i, row);
+        }
+    }
+
+    private static final class Op {
+        static final int REMOVE = 0;
+        static final int INSERT = 1;
+        static final int CHANGE = 2;
+
+        final int type;
+        final TimelineSections before;
+        final TimelineSections after;
+        final int offset;
+        final Row row;
+
+        Op(int type, TimelineSections before, TimelineSections after, int offset, @Nullable Row row) {
+            this.type = type;
+            this.before = before;
+            this.after = after;
+            this.offset = offset;
+            this.row = row;
+        }
+    }
+}
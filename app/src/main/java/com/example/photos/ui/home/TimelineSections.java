@@ -0,0 +1,218 @@
+package com.example.photos.ui.home;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.photos.db.TimelineDay;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 时间线的分节索引：每个本地日一节，节 i 的标题在 headerPos[i]，其后 counts[i] 张照片，
+ * photosBefore[i] 是它之前的照片总数。按 {@link TimelineDay} 的数值日期一次建好，之后
+ * position ↔ 照片偏移 ↔ 日期的换算都是对这几个数组二分，标题文字按节懒生成并缓存。
+ *
+ * 不可变：新照片到达时 {@link #withInserted}/{@link #withRemoved} 只改一天的计数并重算前缀和，
+ * 复杂度是天数级别，与照片总数无关。
+ */
+final class TimelineSections {
+    static final TimelineSections EMPTY = new TimelineSections(new long[0], new int[0], new long[0]);
+    static final String UNKNOWN_DAY_LABEL = "未标记日期";
+
+    /** 节对应的本地 epoch day，倒序；未知时间为 -1，排在最后 */
+    final long[] days;
+    final int[] counts;
+    /** 当天最大的 sortTime，跳页时作为该天的起点 */
+    final long[] maxTimes;
+    final int[] headerPos;
+    final int[] photosBefore;
+    private final String[] labels;
+    final int itemCount;
+    final int photoCount;
+
+    private TimelineSections(long[] days, int[] counts, long[] maxTimes) {
+        int n = days.length;
+        this.days = days;
+        this.counts = counts;
+        this.maxTimes = maxTimes;
+        this.headerPos = new int[n];
+        this.photosBefore = new int[n];
+        this.labels = new String[n];
+        int pos = 0;
+        int photos = 0;
+        for (int i = 0; i < n; i++) {
+            headerPos[i] = pos;
+            photosBefore[i] = photos;
+            pos += 1 + counts[i];
+            photos += counts[i];
+        }
+        this.itemCount = pos;
+        this.photoCount = photos;
+    }
+
+    static TimelineSections build(@NonNull List<TimelineDay> rows) {
+        List<TimelineDay> valid = new ArrayList<>(rows.size());
+        for (TimelineDay d : rows) {
+            if (d != null && d.photoCount > 0) valid.add(d);
+        }
+        int n = valid.size();
+        long[] days = new long[n];
+        int[] counts = new int[n];
+        long[] maxTimes = new long[n];
+        for (int i = 0; i < n; i++) {
+            TimelineDay d = valid.get(i);
+            days[i] = d.day;
+            counts[i] = d.photoCount;
+            maxTimes[i] = d.maxTime;
+        }
+        return new TimelineSections(days, counts, maxTimes);
+    }
+
+    /** 本地日（epoch day），和 PhotoDao.timelineDays() 的分组口径一致；未知时间归 -1。 */
+    static long dayOf(long sortTime) {
+        if (sortTime <= 0L) return -1L;
+        return Instant.ofEpochMilli(sortTime).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    int sectionCount() {
+        return days.length;
+    }
+
+    /** 某天多一张；当天不存在就按日期倒序插入新的一节。 */
+    TimelineSections withInserted(long day, long sortTime) {
+        int i = indexOfDay(day);
+        if (i >= 0) {
+            int[] c = counts.clone();
+            long[] m = maxTimes.clone();
+            c[i]++;
+            m[i] = Math.max(m[i], sortTime);
+            return new TimelineSections(days, c, m);
+        }
+        int at = -(i + 1);
+        int n = days.length;
+        long[] d = new long[n + 1];
+        int[] c = new int[n + 1];
+        long[] m = new long[n + 1];
+        System.arraycopy(days, 0, d, 0, at);
+        System.arraycopy(counts, 0, c, 0, at);
+        System.arraycopy(maxTimes, 0, m, 0, at);
+        d[at] = day;
+        c[at] = 1;
+        m[at] = sortTime;
+        System.arraycopy(days, at, d, at + 1, n - at);
+        System.arraycopy(counts, at, c, at + 1, n - at);
+        System.arraycopy(maxTimes, at, m, at + 1, n - at);
+        return new TimelineSections(d, c, m);
+    }
+
+    /**
+     * 某天少一张，减到 0 时去掉这一节；索引里没有这一天返回 null。
+     * maxTime 不回退：它只作为该天的上界给跳页用，偏大不影响结果。
+     */
+    @Nullable
+    TimelineSections withRemoved(long day) {
+        int i = indexOfDay(day);
+        if (i < 0) return null;
+        if (counts[i] > 1) {
+            int[] c = counts.clone();
+            c[i]--;
+            return new TimelineSections(days, c, maxTimes);
+        }
+        int n = days.length;
+        long[] d = new long[n - 1];
+        int[] c = new int[n - 1];
+        long[] m = new long[n - 1];
+        System.arraycopy(days, 0, d, 0, i);
+        System.arraycopy(counts, 0, c, 0, i);
+        System.arraycopy(maxTimes, 0, m, 0, i);
+        System.arraycopy(days, i + 1, d, i, n - i - 1);
+        System.arraycopy(counts, i + 1, c, i, n - i - 1);
+        System.arraycopy(maxTimes, i + 1, m, i, n - i - 1);
+        return new TimelineSections(d, c, m);
+    }
+
+    /** 节里找某天；找到返回下标，否则返回 -(插入点 + 1)。未知时间（-1）总在最后，和倒序一致。 */
+    int indexOfDay(long day) {
+        int lo = 0;
+        int hi = days.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[mid] > day) {
+                lo = mid + 1;
+            } else if (days[mid] < day) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * 跳到某天：有这一天就是它的标题位置，没有就落到它之前最近的一天（时间线往下更旧）；
+     * 比所有日期都早时落到最后一节。空索引返回 -1。
+     */
+    int positionForDay(long day) {
+        if (days.length == 0) return -1;
+        int i = indexOfDay(day);
+        if (i < 0) i = Math.min(-(i + 1), days.length - 1);
+        return headerPos[i];
+    }
+
+    int sectionOfPosition(int position) {
+        return floorIndex(headerPos, position);
+    }
+
+    int sectionOfOffset(int offset) {
+        return floorIndex(photosBefore, offset);
+    }
+
+    /** 照片的全局偏移；标题返回 -1。 */
+    int offsetOf(int position) {
+        if (position < 0 || position >= itemCount) return -1;
+        int s = sectionOfPosition(position);
+        int inSection = position - headerPos[s] - 1;
+        return inSection < 0 ? -1 : photosBefore[s] + inSection;
+    }
+
+    int positionOfOffset(int offset) {
+        int s = sectionOfOffset(offset);
+        return headerPos[s] + 1 + (offset - photosBefore[s]);
+    }
+
+    /**
+     * 标题的 stable id：落在 Long.MIN_VALUE / 2 附近的负数区间，和媒体 id（正数）、占位
+     * （Long.MIN_VALUE + offset）以及 RecyclerView.NO_ID（-1，未知时间那一天按 -2 - day 会撞上）都不冲突。
+     */
+    long headerId(int section) {
+        return Long.MIN_VALUE / 2 - days[section];
+    }
+
+    String label(int section) {
+        String label = labels[section];
+        if (label == null) {
+            label = days[section] < 0 ? UNKNOWN_DAY_LABEL : LocalDate.ofEpochDay(days[section]).toString();
+            labels[section] = label;
+        }
+        return label;
+    }
+
+    /** 升序数组里最后一个 <= key 的下标。 */
+    private static int floorIndex(int[] sorted, int key) {
+        int lo = 0;
+        int hi = sorted.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (sorted[mid] <= key) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
@@ -17,7 +17,8 @@ import androidx.work.WorkManager;
 import com.example.photos.R;
 import com.example.photos.classify.ClipClassifier;
 import com.example.photos.db.PhotosDb;
-import com.example.photos.search.HnswImageIndex;
+import com.example.photos.search.FlatVectorStore;
+import com.example.photos.search.VectorIndexes;
 import com.example.photos.settings.SearchPreferences;
 import com.example.photos.sync.ClassificationWorker;
 import com.example.photos.sync.ClipEmbeddingWorker;
@@ -274,9 +275,8 @@ public class ProfileFragment extends Fragment {
                 db.featureDao().deleteByType(com.example.photos.features.FeatureType.CLIP_IMAGE_EMB.getCode());
                 db.featureDao().deleteByType(com.example.photos.features.FeatureType.DINO_IMAGE_EMB.getCode());
                 db.featureDao().deleteByType(com.example.photos.features.FeatureType.FACE_SFACE_EMB.getCode());
-                new HnswImageIndex(app, "dino_hnsw.index").clear();
-                new HnswImageIndex(app, "clip_hnsw.index").clear();
-                new HnswImageIndex(app, "face_hnsw.index").clear();
+                VectorIndexes.clearAll(app);
+                FlatVectorStore.clearAll(app);
             } catch (Throwable t) {
                 success = false;
             }
@@ -18,19 +18,17 @@ import androidx.annotation.Nullable;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.photos.R;
-import com.example.photos.db.PhotosDb;
 import com.example.photos.model.Photo;
 import com.example.photos.search.TextSearchEngine;
 import com.example.photos.search.ImageSearchEngine;
+import com.example.photos.search.face.SFacePool;
 import com.example.photos.settings.SearchPreferences;
 import com.example.photos.ui.common.GridSpacingItemDecoration;
 import com.example.photos.ui.home.PhotoAdapter;
-import com.example.photos.ui.home.PhotoListViewModel;
 import com.example.photos.ui.home.TimelineFastScroller;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.button.MaterialButton;
@@ -45,7 +43,6 @@ import java.util.concurrent.Executors;
  */
 public class SearchFragment extends Fragment {
 
-    private PhotoListViewModel viewModel;
     private PhotoAdapter searchAdapter;
     private TextInputEditText searchEditText;
     private RecyclerView searchRecyclerView;
@@ -77,12 +74,6 @@ public class SearchFragment extends Fragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         ensureSearchExecutor();
-        viewModel = new ViewModelProvider(this).get(PhotoListViewModel.class);
-        android.content.Context app = requireContext().getApplicationContext();
-        if (com.example.photos.permissions.PermissionsHelper.hasMediaPermission(requireActivity())) {
-            observeDbAssets(app);
-            viewModel.loadFromMediaStore(app);
-        }
         setupRecyclerView(view);
         setupSearch(view);
         viewerLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
@@ -166,6 +157,8 @@ public class SearchFragment extends Fragment {
         if (imageSearchButton != null) {
             imageSearchButton.setOnClickListener(v -> {
                 if (imagePickerLauncher != null) {
+                    // 用户挑图的这几秒里先把人脸模型加载好
+                    SFacePool.warmup(requireContext());
                     imagePickerLauncher.launch("image/*");
                 }
             });
@@ -261,7 +254,7 @@ public class SearchFragment extends Fragment {
         Intent intent = new Intent(requireContext(), com.example.photos.ui.albums.AlbumViewerActivity.class);
         intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_URLS, payload.urls);
         intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_IDS, payload.ids);
-        intent.putStringArrayListExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_DATES, payload.dates);
+        intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_CAPTURE_TIMES, payload.captureTimes);
         intent.putExtra(com.example.photos.ui.albums.AlbumViewerActivity.EXTRA_START_INDEX, payload.startIndex);
         if (viewerLauncher != null) {
             viewerLauncher.launch(intent);
@@ -302,19 +295,19 @@ public class SearchFragment extends Fragment {
         }
         ArrayList<String> urls = new ArrayList<>();
         ArrayList<String> ids = new ArrayList<>();
-        ArrayList<String> dates = new ArrayList<>();
+        long[] times = new long[end - start];
         for (int i = start; i < end; i++) {
             Photo p = source.get(i);
             if (p == null || p.getImageUrl() == null) continue;
             urls.add(p.getImageUrl());
             ids.add(p.getId());
-            dates.add(p.getCaptureDate());
+            times[urls.size() - 1] = p.getCaptureTime();
         }
         if (urls.isEmpty()) return null;
         ViewerPayload payload = new ViewerPayload();
         payload.urls = urls;
         payload.ids = ids;
-        payload.dates = dates;
+        payload.captureTimes = urls.size() == times.length ? times : java.util.Arrays.copyOf(times, urls.size());
         payload.startIndex = Math.min(clickedIndex - start, urls.size() - 1);
         return payload;
     }
@@ -322,14 +315,7 @@ public class SearchFragment extends Fragment {
     private static class ViewerPayload {
         ArrayList<String> urls;
         ArrayList<String> ids;
-        ArrayList<String> dates;
+        long[] captureTimes;
         int startIndex;
     }
-
-    private void observeDbAssets(@NonNull android.content.Context appContext) {
-        PhotosDb.get(appContext)
-                .photoDao()
-                .observeAll()
-                .observe(getViewLifecycleOwner(), assets -> viewModel.updateFromDbAssets(assets));
-    }
 }
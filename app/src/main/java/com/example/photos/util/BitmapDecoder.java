@@ -0,0 +1,99 @@
+package com.example.photos.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.InputStream;
+
+/**
+ * Subsampled decoding shared by the CLIP/DINO/face encoders. Reads bounds first, then decodes
+ * with the largest power-of-two inSampleSize that still covers what the models need.
+ */
+public final class BitmapDecoder {
+    private static final String TAG = "BitmapDecoder";
+
+    private BitmapDecoder() {}
+
+    /**
+     * Decode so that the short side stays >= {@code minShortSide} and the long side
+     * >= {@code minLongSide} (or the source size, if smaller). Pass 0 to ignore a bound.
+     */
+    @Nullable
+    public static Bitmap decodeSampled(Context ctx, Uri uri, int minShortSide, int minLongSide) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream is = ctx.getContentResolver().openInputStream(uri)) {
+            if (is == null) return null;
+            BitmapFactory.decodeStream(is, null, bounds);
+        } catch (Throwable t) {
+            Log.w(TAG, "bounds failed: " + uri + " " + t);
+            return null;
+        }
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, minShortSide, minLongSide);
+        opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        try (InputStream is = ctx.getContentResolver().openInputStream(uri)) {
+            if (is == null) return null;
+            return BitmapFactory.decodeStream(is, null, opts);
+        } catch (Throwable t) {
+            Log.w(TAG, "decode failed: " + uri + " " + t);
+            return null;
+        }
+    }
+
+    /** Largest power of two that keeps both sides at or above the requested minimums. */
+    public static int sampleSize(int width, int height, int minShortSide, int minLongSide) {
+        if (width <= 0 || height <= 0) return 1;
+        int shortSide = Math.min(width, height);
+        int longSide = Math.max(width, height);
+        int sample = 1;
+        while (shortSide / (sample * 2) >= minShortSide && longSide / (sample * 2) >= minLongSide) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Scale-to-cover then center crop in one pass; {@code src} is left untouched (the result may
+     * be {@code src} itself when no work is needed, so compare before recycling).
+     */
+    public static Bitmap centerCrop(Bitmap src, int tw, int th) {
+        int w = Math.max(1, src.getWidth());
+        int h = Math.max(1, src.getHeight());
+        float scale = Math.max(tw / (float) w, th / (float) h);
+        int cw = Math.max(1, Math.min(w, Math.round(tw / scale)));
+        int ch = Math.max(1, Math.min(h, Math.round(th / scale)));
+        int x = (w - cw) / 2;
+        int y = (h - ch) / 2;
+        Matrix m = new Matrix();
+        m.setScale(tw / (float) cw, th / (float) ch);
+        Bitmap out = Bitmap.createBitmap(src, x, y, cw, ch, m, true);
+        if (out.getWidth() != tw || out.getHeight() != th) {
+            // 浮点取整偶尔差 1px，模型输入必须是精确尺寸
+            Bitmap exact = Bitmap.createScaledBitmap(out, tw, th, true);
+            if (out != src && exact != out) out.recycle();
+            out = exact;
+        }
+        return out;
+    }
+
+    /** Downscale so the long side is at most {@code maxSide}; returns {@code src} if already small. */
+    public static Bitmap fitLongSide(Bitmap src, int maxSide) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int longer = Math.max(w, h);
+        if (longer <= maxSide) {
+            return src;
+        }
+        float scale = maxSide / (float) longer;
+        int nw = Math.max(1, Math.round(w * scale));
+        int nh = Math.max(1, Math.round(h * scale));
+        return Bitmap.createScaledBitmap(src, nw, nh, true);
+    }
+}
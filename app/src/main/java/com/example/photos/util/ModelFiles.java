@@ -0,0 +1,187 @@
+package com.example.photos.util;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * 模型文件（ONNX 及其外部 data、词表等）从 assets 解到磁盘的统一入口。
+ * 每个目标文件旁边放一个 .stamp，记录安装包版本/更新时间和文件长度；同一次安装内只拷一次，
+ * 之后启动只比对 stamp 和长度。拷贝走 channel transfer，先写临时文件再 rename，半截文件不会被当成有效模型。
+ */
+public final class ModelFiles {
+    private static final String TAG = "ModelFiles";
+    private static final String STAMP_SUFFIX = ".stamp";
+    private static final long CHUNK = 8L * 1024 * 1024;
+    private static final Object LOCK = new Object();
+
+    private static volatile String installStamp;
+
+    private ModelFiles() {}
+
+    /** 解到 cacheDir/outName；失败返回 null（调用方按缺模型处理）。 */
+    @Nullable
+    public static File ensureInCache(Context context, @Nullable String assetPath, String outName) {
+        if (assetPath == null) return null;
+        try {
+            return ensure(context, assetPath, new File(context.getCacheDir(), outName));
+        } catch (IOException e) {
+            Log.w(TAG, "ensure failed: " + assetPath + " -> " + e);
+            return null;
+        }
+    }
+
+    /** 保证 {@code out} 是当前安装包里 {@code assetPath} 的完整副本，必要时重新拷贝。 */
+    public static File ensure(Context context, String assetPath, File out) throws IOException {
+        Context app = context.getApplicationContext();
+        String stamp = installStamp(app);
+        File stampFile = new File(out.getParentFile(), out.getName() + STAMP_SUFFIX);
+        synchronized (LOCK) {
+            if (isFresh(out, stampFile, stamp)) {
+                return out;
+            }
+            long start = SystemClock.elapsedRealtime();
+            File parent = out.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create dir: " + parent);
+            }
+            File tmp = new File(parent, out.getName() + ".tmp");
+            long bytes;
+            try {
+                bytes = copy(app.getAssets(), assetPath, tmp);
+            } catch (IOException e) {
+                tmp.delete();
+                throw e;
+            }
+            stampFile.delete();
+            if (out.exists() && !out.delete()) {
+                Log.w(TAG, "Failed to delete stale copy: " + out);
+            }
+            if (!tmp.renameTo(out)) {
+                tmp.delete();
+                throw new IOException("rename failed: " + tmp);
+            }
+            writeStamp(stampFile, stamp + "|" + bytes);
+            HashMap<String, Object> extra = new HashMap<>();
+            extra.put("asset", assetPath);
+            extra.put("bytes", bytes);
+            PerfLogger.log("model_file_copy", SystemClock.elapsedRealtime() - start, null, extra);
+            return out;
+        }
+    }
+
+    /** stamp 一致且文件长度和拷贝时记录的一致才算有效。 */
+    private static boolean isFresh(File out, File stampFile, String stamp) {
+        if (!out.exists() || !stampFile.exists()) return false;
+        String recorded = readStamp(stampFile);
+        if (recorded == null || !recorded.startsWith(stamp + "|")) return false;
+        try {
+            long len = Long.parseLong(recorded.substring(stamp.length() + 1));
+            return len == out.length();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 未压缩的 asset（见 build.gradle 的 noCompress）能拿到 APK 内的偏移，直接 FileChannel.transferTo；
+     * 压缩的只能走流，按块 transferFrom。返回写入字节数，并和 asset 声明的长度核对。
+     */
+    private static long copy(AssetManager am, String assetPath, File dst) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = am.openFd(assetPath);
+        } catch (IOException compressed) {
+            // 压缩存储的 asset 不支持 openFd，走下面的流拷贝
+        }
+        if (afd != null) {
+            try (AssetFileDescriptor fd = afd;
+                 FileInputStream in = fd.createInputStream();
+                 FileChannel src = in.getChannel();
+                 FileOutputStream fos = new FileOutputStream(dst);
+                 FileChannel dstCh = fos.getChannel()) {
+                long length = fd.getLength();
+                long pos = 0;
+                while (pos < length) {
+                    long n = src.transferTo(fd.getStartOffset() + pos, Math.min(CHUNK, length - pos), dstCh);
+                    if (n <= 0) break;
+                    pos += n;
+                }
+                if (length != AssetFileDescriptor.UNKNOWN_LENGTH && pos != length) {
+                    throw new IOException("short copy " + assetPath + ": " + pos + "/" + length);
+                }
+                return pos;
+            }
+        }
+        try (InputStream is = am.open(assetPath);
+             ReadableByteChannel src = Channels.newChannel(is);
+             FileOutputStream fos = new FileOutputStream(dst);
+             FileChannel dstCh = fos.getChannel()) {
+            long pos = 0;
+            while (true) {
+                long n = dstCh.transferFrom(src, pos, CHUNK);
+                if (n <= 0) break;
+                pos += n;
+            }
+            if (dst.length() != pos) {
+                throw new IOException("short write " + assetPath + ": " + dst.length() + "/" + pos);
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * versionCode + 安装/更新时间：assets 只会随安装包变化，同一次安装内无需再比内容。
+     * 也给依赖模型输出的磁盘缓存（如文本查询缓存）当版本号，换包即作废。
+     */
+    public static String installStamp(Context context) {
+        Context app = context.getApplicationContext();
+        String s = installStamp;
+        if (s != null) return s;
+        try {
+            PackageInfo info = app.getPackageManager().getPackageInfo(app.getPackageName(), 0);
+            s = info.getLongVersionCode() + ":" + info.lastUpdateTime;
+        } catch (Exception e) {
+            Log.w(TAG, "package info unavailable", e);
+            s = "0:0";
+        }
+        installStamp = s;
+        return s;
+    }
+
+    @Nullable
+    private static String readStamp(File stampFile) {
+        try (FileInputStream in = new FileInputStream(stampFile)) {
+            byte[] buf = new byte[(int) Math.min(stampFile.length(), 256)];
+            int n = in.read(buf);
+            return n <= 0 ? null : new String(buf, 0, n, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeStamp(File stampFile, String value) {
+        try (FileOutputStream out = new FileOutputStream(stampFile)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "write stamp failed: " + stampFile, e);
+            stampFile.delete();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.photos.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * 量化编码的往返误差和召回率（纯 JVM）。
+ * 运行：./gradlew test --tests com.example.photos.features.FeatureEncodingTest
+ */
+public class FeatureEncodingTest {
+
+    private static final int DIM = 512;
+    private static final int ROWS = 2000;
+    private static final int QUERIES = 50;
+    private static final int TOP_K = 10;
+
+    @Test
+    public void legacy_fp32_rows_still_decode() {
+        float[] v = randomUnit(new Random(1), DIM);
+        byte[] legacy = FeatureEncoding.floatsToBytes(v);
+        assertEquals(FeatureEncoding.Encoding.FP32, FeatureEncoding.encodingOf(legacy));
+        assertEquals(DIM, FeatureEncoding.dimension(legacy));
+        assertArrayEquals(v, FeatureEncoding.bytesToFloats(legacy), 0f);
+    }
+
+    @Test
+    public void quantized_rows_are_tagged_and_smaller() {
+        float[] v = randomUnit(new Random(2), DIM);
+        byte[] fp16 = FeatureEncoding.encode(v, FeatureEncoding.Encoding.FP16);
+        byte[] int8 = FeatureEncoding.encode(v, FeatureEncoding.Encoding.INT8);
+        assertEquals(FeatureEncoding.Encoding.FP16, FeatureEncoding.encodingOf(fp16));
+        assertEquals(FeatureEncoding.Encoding.INT8, FeatureEncoding.encodingOf(int8));
+        assertEquals(DIM, FeatureEncoding.dimension(fp16));
+        assertEquals(DIM, FeatureEncoding.dimension(int8));
+        assertTrue(fp16.length * 2 <= DIM * 4 + 8);
+        assertTrue(int8.length * 4 <= DIM * 4 + 32);
+        assertArrayEquals(v, FeatureEncoding.bytesToFloats(fp16), 1e-3f);
+        assertArrayEquals(v, FeatureEncoding.bytesToFloats(int8), FeatureEncoding.int8Scale(v));
+    }
+
+    @Test
+    public void half_conversion_handles_edge_values() {
+        float[] values = {0f, -0f, 1f, -2.5f, 65504f, 6.1035156e-5f, 5.9604645e-8f};
+        for (float f : values) {
+            assertEquals(f, FeatureEncoding.halfToFloat(FeatureEncoding.floatToHalf(f)), 0f);
+        }
+        assertTrue(Float.isNaN(FeatureEncoding.halfToFloat(FeatureEncoding.floatToHalf(Float.NaN))));
+        assertEquals(Float.POSITIVE_INFINITY, FeatureEncoding.halfToFloat(FeatureEncoding.floatToHalf(1e6f)), 0f);
+    }
+
+    @Test
+    public void quantized_dot_keeps_top_k_recall() {
+        Random rnd = new Random(42);
+        float[][] rows = new float[ROWS][];
+        for (int i = 0; i < ROWS; i++) rows[i] = randomUnit(rnd, DIM);
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            // 查询靠近某一行，更接近真实的相似图检索
+            float[] base = rows[rnd.nextInt(ROWS)];
+            float[] q = randomUnit(rnd, DIM);
+            for (int d = 0; d < DIM; d++) q[d] = base[d] + 0.5f * q[d];
+            queries[i] = normalize(q);
+        }
+        double recallFp16 = recall(rows, queries, FeatureEncoding.Encoding.FP16);
+        double recallInt8 = recall(rows, queries, FeatureEncoding.Encoding.INT8);
+        System.out.println("recall@" + TOP_K + " fp16=" + recallFp16 + " int8=" + recallInt8);
+        assertTrue("fp16 recall " + recallFp16, recallFp16 >= 0.99);
+        assertTrue("int8 recall " + recallInt8, recallInt8 >= 0.9);
+    }
+
+    private static double recall(float[][] rows, float[][] queries, FeatureEncoding.Encoding enc) {
+        byte[][] codes = new byte[rows.length][];
+        float[] scales = new float[rows.length];
+        short[][] halves = new short[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            if (enc == FeatureEncoding.Encoding.INT8) {
+                scales[i] = FeatureEncoding.int8Scale(rows[i]);
+                codes[i] = new byte[DIM];
+                for (int d = 0; d < DIM; d++) codes[i][d] = FeatureEncoding.quantize(rows[i][d], scales[i]);
+            } else {
+                halves[i] = new short[DIM];
+                for (int d = 0; d < DIM; d++) halves[i][d] = FeatureEncoding.floatToHalf(rows[i][d]);
+            }
+        }
+        int hit = 0;
+        for (float[] q : queries) {
+            float[] exact = new float[rows.length];
+            float[] approx = new float[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                exact[i] = dot(q, rows[i]);
+                approx[i] = enc == FeatureEncoding.Encoding.INT8
+                        ? FeatureEncoding.dotInt8(q, codes[i], 0, scales[i])
+                        : FeatureEncoding.dotFp16(q, halves[i], 0);
+            }
+            int[] truth = topK(exact);
+            int[] got = topK(approx);
+            for (int t : truth) {
+                for (int g : got) {
+                    if (t == g) {
+                        hit++;
+                        break;
+                    }
+                }
+            }
+        }
+        return hit / (double) (queries.length * TOP_K);
+    }
+
+    private static int[] topK(float[] scores) {
+        Integer[] idx = new Integer[scores.length];
+        for (int i = 0; i < idx.length; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> Float.compare(scores[b], scores[a]));
+        int[] out = new int[TOP_K];
+        for (int i = 0; i < TOP_K; i++) out[i] = idx[i];
+        return out;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float s = 0f;
+        for (int i = 0; i < a.length; i++) s += a[i] * b[i];
+        return s;
+    }
+
+    private static float[] randomUnit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) v[i] = (float) rnd.nextGaussian();
+        return normalize(v);
+    }
+
+    private static float[] normalize(float[] v) {
+        double ss = 0d;
+        for (float x : v) ss += x * x;
+        float inv = (float) (1.0 / Math.sqrt(Math.max(ss, 1e-12)));
+        for (int i = 0; i < v.length; i++) v[i] *= inv;
+        return v;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.photos.search;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * 数组版 BPE 与原先字符串版逐 token 对比：同一份 bpe_simple_vocab，大量查询的 token id 必须完全一致。
+ * 运行：./gradlew test --tests com.example.photos.search.ClipTextTokenizerJvmTest
+ */
+public class ClipTextTokenizerJvmTest {
+
+    private static Path findVocab() {
+        Path cwd = Paths.get("").toAbsolutePath().normalize();
+        Path p = cwd;
+        for (int depth = 0; depth < 4 && p != null; depth++, p = p.getParent()) {
+            Path candidate1 = p.resolve("app/src/main/assets/models/clip/bpe_simple_vocab_16e6.txt.gz");
+            Path candidate2 = p.resolve("src/main/assets/models/clip/bpe_simple_vocab_16e6.txt.gz");
+            if (Files.isRegularFile(candidate1)) return candidate1;
+            if (Files.isRegularFile(candidate2)) return candidate2;
+        }
+        return null;
+    }
+
+    private static InputStream open(Path vocab) throws IOException {
+        return new GZIPInputStream(Files.newInputStream(vocab));
+    }
+
+    @Test
+    public void array_bpe_matches_string_bpe() throws Exception {
+        Path vocab = findVocab();
+        Assume.assumeTrue("assets missing: bpe_simple_vocab_16e6.txt.gz", vocab != null);
+
+        ClipTextTokenizer tokenizer = new ClipTextTokenizer(open(vocab));
+        LegacyTokenizer legacy = new LegacyTokenizer(open(vocab));
+        List<String> corpus = buildCorpus(legacy.mergedWords());
+
+        // 跑两遍：第二遍全部走 int[] 缓存
+        for (int pass = 0; pass < 2; pass++) {
+            for (String query : corpus) {
+                assertArrayEquals("query=\"" + query + "\"", legacy.tokenize(query), tokenizer.tokenizeCleaned(query));
+            }
+        }
+    }
+
+    private static List<String> buildCorpus(List<String> words) {
+        List<String> corpus = new ArrayList<>(Arrays.asList(
+                "a photo of a dog", "cat sleeping on the sofa", "sunset over the sea", "birthday cake with candles",
+                "my friend's wedding", "it's raining, isn't it?", "snow mountain 2023", "beach!!! summer :)",
+                "red car parked near the old building", "café au lait", "naïve résumé", "東京タワー at night",
+                "<start_of_text> hello <end_of_text>", "1234567890", "...", "a", "e-mail & passwords",
+                "supercalifragilisticexpialidocious", "we'll go, they've gone, i'd say you're right"));
+        Random rnd = new Random(42);
+        String extra = "abcdefghijklmnopqrstuvwxyz0123456789 .,!?'-&é中文字猫狗😀";
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int wordCount = 1 + rnd.nextInt(12);
+            for (int w = 0; w < wordCount; w++) {
+                if (w > 0) sb.append(' ');
+                if (rnd.nextInt(4) == 0) {
+                    int len = 1 + rnd.nextInt(10);
+                    for (int c = 0; c < len; c++) {
+                        sb.appendCodePoint(extra.codePointAt(extra.offsetByCodePoints(0, rnd.nextInt(extra.codePointCount(0, extra.length())))));
+                    }
+                } else {
+                    sb.append(words.get(rnd.nextInt(words.size())));
+                }
+            }
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    // ---- 原先的字符串版实现，作为对照 ----
+
+    private static final class LegacyTokenizer {
+        private static final int CONTEXT_LENGTH = 77;
+
+        private final Map<Integer, String> byteEncoder = bytesToUnicode();
+        private final Map<String, Integer> encoder = new HashMap<>();
+        private final Map<String, Integer> bpeRanks = new HashMap<>();
+        private final List<String> mergedWords = new ArrayList<>();
+        private final Pattern tokenPattern;
+        private final int sotTokenId;
+        private final int eotTokenId;
+
+        LegacyTokenizer(InputStream raw) throws IOException {
+            List<String[]> merges = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8))) {
+                String line;
+                boolean firstLine = true;
+                int target = 48894;
+                while ((line = reader.readLine()) != null && merges.size() < target) {
+                    if (firstLine) {
+                        firstLine = false;
+                        continue;
+                    }
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    String[] parts = line.split(" ");
+                    if (parts.length == 2) {
+                        merges.add(parts);
+                    }
+                }
+            }
+            List<String> vocab = new ArrayList<>(byteEncoder.values());
+            List<String> suffixes = new ArrayList<>(vocab.size());
+            for (String v : vocab) {
+                suffixes.add(v + "</w>");
+            }
+            vocab.addAll(suffixes);
+            for (String[] merge : merges) {
+                vocab.add(merge[0] + merge[1]);
+                String merged = merge[0] + merge[1];
+                if (merged.endsWith("</w>") && merged.length() > 6 && merged.matches("[a-z]+</w>")) {
+                    mergedWords.add(merged.substring(0, merged.length() - 4));
+                }
+            }
+            vocab.add("<start_of_text>");
+            vocab.add("<end_of_text>");
+            for (int i = 0; i < vocab.size(); i++) {
+                encoder.put(vocab.get(i), i);
+            }
+            for (int i = 0; i < merges.size(); i++) {
+                String[] merge = merges.get(i);
+                bpeRanks.put(merge[0] + "\u0000" + merge[1], i);
+            }
+            sotTokenId = encoder.get("<start_of_text>");
+            eotTokenId = encoder.get("<end_of_text>");
+            String pat = Pattern.quote("<start_of_text>") + "|" + Pattern.quote("<end_of_text>")
+                    + "|'s|'t|'re|'ve|'m|'ll|'d|[\\p{L}]+|[\\p{N}]|[^\\s\\p{L}\\p{N}]+";
+            tokenPattern = Pattern.compile(pat, Pattern.CASE_INSENSITIVE);
+        }
+
+        List<String> mergedWords() {
+            return mergedWords;
+        }
+
+        int[] tokenize(String cleaned) {
+            List<Integer> tokens = new ArrayList<>();
+            tokens.add(sotTokenId);
+            Matcher matcher = tokenPattern.matcher(cleaned);
+            while (matcher.find()) {
+                byte[] tokenBytes = matcher.group().getBytes(StandardCharsets.UTF_8);
+                StringBuilder transformed = new StringBuilder();
+                for (byte b : tokenBytes) {
+                    transformed.append(byteEncoder.get(b & 0xFF));
+                }
+                for (String bpeToken : bpe(transformed.toString()).split(" ")) {
+                    Integer id = encoder.get(bpeToken);
+                    if (id != null) {
+                        tokens.add(id);
+                    }
+                }
+            }
+            tokens.add(eotTokenId);
+            int[] out = new int[CONTEXT_LENGTH];
+            for (int i = 0; i < Math.min(out.length, tokens.size()); i++) {
+                out[i] = tokens.get(i);
+            }
+            return out;
+        }
+
+        private String bpe(String token) {
+            List<String> word = new ArrayList<>();
+            for (int i = 0; i < token.length(); i++) {
+                word.add(String.valueOf(token.charAt(i)));
+            }
+            String last = word.remove(word.size() - 1) + "</w>";
+            word.add(last);
+            Set<String> pairs = getPairs(word);
+            if (pairs.isEmpty()) {
+                return token + "</w>";
+            }
+            while (true) {
+                String bigram = null;
+                int bestRank = Integer.MAX_VALUE;
+                for (String pairKey : pairs) {
+                    Integer rank = bpeRanks.get(pairKey);
+                    if (rank != null && rank < bestRank) {
+                        bestRank = rank;
+                        bigram = pairKey;
+                    }
+                }
+                if (bigram == null) {
+                    break;
+                }
+                String[] parts = bigram.split("\u0000");
+                String first = parts[0];
+                String second = parts[1];
+                List<String> newWord = new ArrayList<>();
+                int i = 0;
+                while (i < word.size()) {
+                    int j = word.subList(i, word.size()).indexOf(first);
+                    if (j == -1) {
+                        newWord.addAll(word.subList(i, word.size()));
+                        break;
+                    }
+                    j += i;
+                    newWord.addAll(word.subList(i, j));
+                    if (j < word.size() - 1 && word.get(j + 1).equals(second)) {
+                        newWord.add(first + second);
+                        i = j + 2;
+                    } else {
+                        newWord.add(word.get(j));
+                        i = j + 1;
+                    }
+                }
+                word = newWord;
+                pairs = getPairs(word);
+            }
+            return String.join(" ", word);
+        }
+
+        private static Set<String> getPairs(List<String> word) {
+            Set<String> pairs = new HashSet<>();
+            for (int i = 1; i < word.size(); i++) {
+                pairs.add(word.get(i - 1) + "\u0000" + word.get(i));
+            }
+            return pairs;
+        }
+
+        private static Map<Integer, String> bytesToUnicode() {
+            Map<Integer, String> map = new HashMap<>();
+            List<Integer> bs = new ArrayList<>();
+            for (int i = (int) '!'; i <= '~'; i++) bs.add(i);
+            for (int i = 161; i <= 172; i++) bs.add(i);
+            for (int i = 174; i <= 255; i++) bs.add(i);
+            List<Integer> cs = new ArrayList<>(bs);
+            int n = 0;
+            for (int b = 0; b < 256; b++) {
+                if (!bs.contains(b)) {
+                    bs.add(b);
+                    cs.add(256 + n);
+                    n++;
+                }
+            }
+            for (int i = 0; i < bs.size(); i++) {
+                map.put(bs.get(i), new String(new int[]{cs.get(i)}, 0, 1));
+            }
+            return map;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.photos.search;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
@@ -65,6 +66,32 @@ public class OnnxZhEnTranslatorJvmTest {
         assertFalse("output still contains CJK, translation likely failed", containsCjk(output));
     }
 
+    /**
+     * KV cache 增量解码（decoder.onnx 首步 + decoder_with_past.onnx）必须和完整前缀解码逐 token 一致；
+     * 没有 decoder_with_past.onnx 或 decoder.onnx 不带 present.* 输出时跳过。
+     */
+    @Test
+    public void kv_cache_decode_matches_full_prefix() throws Exception {
+        Path assetDir = findAssetDir();
+        Assume.assumeTrue("assets missing: src/main/assets/opus_mt_zh_en", assetDir != null);
+        Assume.assumeTrue("decoder_with_past.onnx missing, run tools/download_opus_mt_zh_en.py",
+                Files.exists(assetDir.resolve("decoder_with_past.onnx")));
+
+        DesktopTranslator translator = new DesktopTranslator(assetDir);
+        try {
+            Assume.assumeTrue("decoder.onnx has no present.* outputs", translator.supportsKvCache());
+            String[] inputs = {"今天天气不错，出去散步吧。", "海边的日落", "一只猫在沙发上睡觉"};
+            for (String input : inputs) {
+                List<Integer> full = translator.decodeIds(input, false);
+                List<Integer> cached = translator.decodeIds(input, true);
+                System.out.println(input + " full=" + full + " kv=" + cached);
+                assertEquals("kv cache ids differ for " + input, full, cached);
+            }
+        } finally {
+            translator.close();
+        }
+    }
+
     // ---- 纯 JVM 版翻译器，复刻 OnnxZhEnTranslator 关键逻辑 ----
 
     private static final class DesktopTranslator implements Closeable {
@@ -78,6 +105,8 @@ public class OnnxZhEnTranslatorJvmTest {
         private final OrtEnvironment env;
         private final OrtSession encoderSession;
         private final OrtSession decoderSession;
+        /** 可选：decoder_with_past.onnx 不存在时为 null */
+        private final OrtSession decoderWithPastSession;
         private final Model srcSpModel;
         private final SentencePieceAlgorithm spAlgorithm;
 
@@ -107,6 +136,10 @@ public class OnnxZhEnTranslatorJvmTest {
             env = OrtEnvironment.getEnvironment();
             encoderSession = env.createSession(encoderPath.toString(), new OrtSession.SessionOptions());
             decoderSession = env.createSession(decoderPath.toString(), new OrtSession.SessionOptions());
+            Path withPastPath = assetDir.resolve("decoder_with_past.onnx");
+            decoderWithPastSession = Files.exists(withPastPath)
+                    ? env.createSession(withPastPath.toString(), new OrtSession.SessionOptions())
+                    : null;
 
             srcSpModel = Model.parseFrom(srcSpmPath);
             // Unigram 解码，禁用 sampling
@@ -150,6 +183,90 @@ public class OnnxZhEnTranslatorJvmTest {
             return decodeTgt(decodedIds);
         }
 
+        boolean supportsKvCache() throws OrtException {
+            if (decoderWithPastSession == null) return false;
+            for (String name : decoderSession.getOutputNames()) {
+                if (name.startsWith("present.")) return true;
+            }
+            return false;
+        }
+
+        /** 只跑到 token id：withPast=true 走和 OnnxZhEnTranslator.greedyDecodeWithPast 相同的 KV cache 路径。 */
+        List<Integer> decodeIds(String text, boolean withPast) throws OrtException {
+            int[] srcIds = encodeSrc(text.trim());
+            long[][] ids = new long[1][srcIds.length];
+            long[][] mask = new long[1][srcIds.length];
+            for (int i = 0; i < srcIds.length; i++) {
+                ids[0][i] = srcIds[i];
+                mask[0][i] = 1L;
+            }
+            try (OnnxTensor idsTensor = OnnxTensor.createTensor(env, ids);
+                 OnnxTensor maskTensor = OnnxTensor.createTensor(env, mask)) {
+                Map<String, OnnxTensor> encoderInputs = new HashMap<>();
+                encoderInputs.put("input_ids", idsTensor);
+                encoderInputs.put("attention_mask", maskTensor);
+                try (OrtSession.Result encoderOutputs = encoderSession.run(encoderInputs)) {
+                    OnnxTensor hidden = (OnnxTensor) encoderOutputs.get(0);
+                    if (!withPast) {
+                        return greedyDecode((float[][][]) hidden.getValue(), mask);
+                    }
+                    return greedyDecodeWithPast(hidden, maskTensor);
+                }
+            }
+        }
+
+        private List<Integer> greedyDecodeWithPast(OnnxTensor encoderHidden,
+                                                   OnnxTensor encoderMask) throws OrtException {
+            boolean takesHidden = decoderWithPastSession.getInputNames().contains("encoder_hidden_states");
+            List<Integer> generated = new ArrayList<>();
+            generated.add(decoderStartId);
+            Map<String, OnnxTensor> past = new HashMap<>();
+            OrtSession.Result first = null;
+            OrtSession.Result prev = null;
+            try {
+                for (int step = 0; step < MAX_NEW_TOKENS; step++) {
+                    long[][] lastToken = {{generated.get(generated.size() - 1)}};
+                    OrtSession.Result outputs;
+                    try (OnnxTensor idsTensor = OnnxTensor.createTensor(env, lastToken)) {
+                        Map<String, OnnxTensor> inputs = new HashMap<>();
+                        inputs.put("input_ids", idsTensor);
+                        inputs.put("encoder_attention_mask", encoderMask);
+                        if (step == 0) {
+                            inputs.put("encoder_hidden_states", encoderHidden);
+                            outputs = decoderSession.run(inputs);
+                        } else {
+                            inputs.putAll(past);
+                            if (takesHidden) inputs.put("encoder_hidden_states", encoderHidden);
+                            outputs = decoderWithPastSession.run(inputs);
+                        }
+                    }
+                    for (Map.Entry<String, OnnxValue> e : outputs) {
+                        String name = e.getKey();
+                        if (name.startsWith("present.")) {
+                            past.put("past_key_values." + name.substring("present.".length()), (OnnxTensor) e.getValue());
+                        }
+                    }
+                    if (step == 0) {
+                        first = outputs;
+                    } else {
+                        if (prev != null) prev.close();
+                        prev = outputs;
+                    }
+                    OnnxTensor logitsTensor = (OnnxTensor) outputs.get("logits").orElse(outputs.get(0));
+                    float[][][] logits = (float[][][]) logitsTensor.getValue();
+                    int nextId = argmax(logits[0][logits[0].length - 1]);
+                    if (nextId == eosId || nextId == padId) {
+                        break;
+                    }
+                    generated.add(nextId);
+                }
+            } finally {
+                if (prev != null) prev.close();
+                if (first != null) first.close();
+            }
+            return generated;
+        }
+
         /**
          * 源侧：SentencePiece EncodeAsPieces → 用 vocab.json 做 piece → id 映射。
          */
@@ -415,6 +532,12 @@ public class OnnxZhEnTranslatorJvmTest {
                 decoderSession.close();
             } catch (Exception ignore) {
             }
+            if (decoderWithPastSession != null) {
+                try {
+                    decoderWithPastSession.close();
+                } catch (Exception ignore) {
+                }
+            }
             try {
                 env.close();
             } catch (Exception ignore) {
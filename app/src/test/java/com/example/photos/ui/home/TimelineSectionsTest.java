@@ -0,0 +1,105 @@
+package com.example.photos.ui.home;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.photos.db.TimelineDay;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * 时间线分节索引的位置换算与增量更新（纯 JVM）。
+ * 运行：./gradlew test --tests com.example.photos.ui.home.TimelineSectionsTest
+ */
+public class TimelineSectionsTest {
+
+    /** 三天：20000 两张、19990 三张、未知时间一张 → 标题在 0 / 3 / 7，共 9 项。 */
+    private static TimelineSections sample() {
+        List<TimelineDay> rows = new ArrayList<>();
+        rows.add(day(20000, 2));
+        rows.add(day(19990, 3));
+        rows.add(day(-1, 1));
+        return TimelineSections.build(rows);
+    }
+
+    private static TimelineDay day(long day, int count) {
+        TimelineDay d = new TimelineDay();
+        d.day = day;
+        d.photoCount = count;
+        d.maxTime = day * 86_400_000L;
+        return d;
+    }
+
+    @Test
+    public void positions_map_to_sections_and_offsets() {
+        TimelineSections s = sample();
+        assertEquals(9, s.itemCount);
+        assertEquals(6, s.photoCount);
+        assertEquals(-1, s.offsetOf(0));
+        assertEquals(0, s.offsetOf(1));
+        assertEquals(-1, s.offsetOf(3));
+        assertEquals(2, s.offsetOf(4));
+        assertEquals(5, s.offsetOf(8));
+        assertEquals(1, s.sectionOfPosition(6));
+        assertEquals(2, s.sectionOfPosition(8));
+        for (int offset = 0; offset < s.photoCount; offset++) {
+            assertEquals(offset, s.offsetOf(s.positionOfOffset(offset)));
+        }
+        assertEquals("2024-10-04", s.label(0));
+        assertEquals(TimelineSections.UNKNOWN_DAY_LABEL, s.label(2));
+    }
+
+    @Test
+    public void jump_to_day_lands_on_exact_or_next_older_header() {
+        TimelineSections s = sample();
+        assertEquals(0, s.positionForDay(20000));
+        assertEquals(3, s.positionForDay(19990));
+        // 不存在的日期落到更早的最近一天
+        assertEquals(3, s.positionForDay(19995));
+        assertEquals(0, s.positionForDay(30000));
+        assertEquals(7, s.positionForDay(100));
+        assertEquals(-1, TimelineSections.EMPTY.positionForDay(20000));
+    }
+
+    @Test
+    public void incremental_updates_shift_following_sections() {
+        TimelineSections s = sample();
+        TimelineSections added = s.withInserted(19990, 19990 * 86_400_000L + 1);
+        assertEquals(10, added.itemCount);
+        assertEquals(8, added.headerPos[2]);
+
+        TimelineSections newDay = s.withInserted(19995, 19995 * 86_400_000L);
+        assertEquals(4, newDay.sectionCount());
+        assertEquals(11, newDay.itemCount);
+        assertEquals(3, newDay.positionForDay(19995));
+        assertEquals(5, newDay.positionForDay(19990));
+
+        TimelineSections removed = s.withRemoved(-1);
+        assertEquals(2, removed.sectionCount());
+        assertEquals(7, removed.itemCount);
+        assertNull(s.withRemoved(12345));
+    }
+
+    @Test
+    public void header_ids_avoid_no_id_media_and_placeholders() {
+        TimelineSections s = sample();
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < s.sectionCount(); i++) {
+            long id = s.headerId(i);
+            // RecyclerView.NO_ID == -1；未知时间那一节（day = -1）以前正好落在这里
+            assertNotEquals(-1L, id);
+            assertTrue(id < 0);
+            // 占位 id 是 Long.MIN_VALUE + offset
+            assertTrue(id > Long.MIN_VALUE + s.photoCount);
+            ids.add(id);
+        }
+        assertEquals(s.sectionCount(), ids.size());
+        assertEquals(-1L, s.days[2]);
+    }
+}
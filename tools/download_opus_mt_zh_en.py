@@ -6,29 +6,37 @@ REPO_ID = "onnx-community/opus-mt-zh-en"
 
 # 按你工程路径改
 TARGET_DIR = r"E:\Project\Photos\models--opus-mt"
+# 打进 APK 的目录（OnnxZhEnTranslator 从这里解到 filesDir）
+ASSETS_DIR = os.path.join(os.path.dirname(os.path.abspath(__file__)),
+                          "..", "app", "src", "main", "assets", "opus_mt_zh_en")
 os.makedirs(TARGET_DIR, exist_ok=True)
+os.makedirs(ASSETS_DIR, exist_ok=True)
 
-def download_file(filename, subdir=""):
+
+def download_file(filename, subdir="", rename=None):
     if subdir:
         remote_path = f"{subdir}/{filename}"
     else:
         remote_path = filename
     local_path = hf_hub_download(repo_id=REPO_ID, filename=remote_path)
-    dst = os.path.join(TARGET_DIR, filename)
-    print(f"copy {local_path} -> {dst}")
-    shutil.copy(local_path, dst)
-    return dst
+    name = rename or filename
+    for d in (TARGET_DIR, ASSETS_DIR):
+        dst = os.path.join(d, name)
+        print(f"copy {local_path} -> {dst}")
+        shutil.copy(local_path, dst)
+
 
 # 1) SentencePiece 模型
 download_file("source.spm")
 download_file("target.spm")
 
-# 2) ONNX 模型（用 fp16 版，体积稍小）
-enc = download_file("encoder_model_fp16.onnx", subdir="onnx")
-dec = download_file("decoder_model_fp16.onnx", subdir="onnx")
-
-# 3) 重命名成我们在代码里用的名字
-os.rename(enc, os.path.join(TARGET_DIR, "encoder.onnx"))
-os.rename(dec, os.path.join(TARGET_DIR, "decoder.onnx"))
+# 2) ONNX 模型（用 fp16 版，体积稍小），重命名成代码里用的名字。
+#    decoder_model 是 Optimum 的 use_cache 导出，除 logits 外还输出 present.*（含 cross-attn 的 encoder KV），
+#    作为 KV cache 解码的首步；decoder_with_past_model 只喂上一个 token + past_key_values.*。
+#    两个都在才会走增量解码，否则每步重跑完整前缀。
+download_file("encoder_model_fp16.onnx", subdir="onnx", rename="encoder.onnx")
+download_file("decoder_model_fp16.onnx", subdir="onnx", rename="decoder.onnx")
+download_file("decoder_with_past_model_fp16.onnx", subdir="onnx", rename="decoder_with_past.onnx")
 
-print("Done. Files are in", TARGET_DIR)
\ No newline at end of file
+print("Done. Files are in", TARGET_DIR, "and", ASSETS_DIR)
+print("Check: ./gradlew test --tests com.example.photos.search.OnnxZhEnTranslatorJvmTest")
@@ -85,6 +85,8 @@ def main():
         str(img_path),
         input_names=["image"],
         output_names=["unnorm_image_features"],
+        # Dynamic batch so the app can pack several images per session.run.
+        dynamic_axes={"image": {0: "batch"}, "unnorm_image_features": {0: "batch"}},
         export_params=True,
         opset_version=args.opset,
     )